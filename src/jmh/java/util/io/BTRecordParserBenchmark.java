@@ -0,0 +1,97 @@
+package util.io;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import util.function.GreatCircleDistanceFunction;
+import util.object.BTStation;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the fixed-layout byte parsing of <tt>BTRecordParser.parse()</tt> with the <tt>String.split()</tt> and
+ * <tt>SimpleDateFormat</tt> based parsing of <tt>BTRecordParser.parseLine()</tt> on the same synthetic records. Run with
+ * <tt>mvn -P benchmark compile exec:exec</tt>.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BTRecordParserBenchmark {
+	
+	private static final int RECORD_COUNT = 100000;
+	private static final int STATION_COUNT = 200;
+	
+	private ByteBuffer recordBuffer;
+	private int[] lineStarts;
+	private String[] lines;
+	private BTRecordParser recordParser;
+	
+	@Setup(Level.Trial)
+	public void generateRecords() {
+		Random random = new Random(0);
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < RECORD_COUNT; i++) {
+			int stationIndex = random.nextInt(STATION_COUNT);
+			content.append(100000000 + random.nextInt(1000000)).append(',')
+					.append(String.format(Locale.ROOT, "2019-03-%02d %02d:%02d:%02d", 11 + random.nextInt(14), random.nextInt(24),
+							random.nextInt(60), random.nextInt(60))).append(',')
+					.append(random.nextInt(3600)).append(',')
+					.append(stationIndex).append(',')
+					.append(-27.4 - stationIndex * 0.001).append(',')
+					.append(153.0 + stationIndex * 0.001).append(',')
+					.append(random.nextInt(10) == 0 ? "QLD" : "BCC").append('\n');
+		}
+		lines = content.toString().split("\n");
+		byte[] bytes = content.toString().getBytes(Charset.defaultCharset());
+		recordBuffer = ByteBuffer.wrap(bytes);
+		lineStarts = new int[RECORD_COUNT + 1];
+		int lineCount = 0;
+		for (int i = 0; i < bytes.length; i++) {
+			if (bytes[i] == '\n')
+				lineStarts[++lineCount] = i + 1;
+		}
+	}
+	
+	@Setup(Level.Iteration)
+	public void createParser() {
+		recordParser = new BTRecordParser(new LinkedHashMap<String, BTStation>(), null, new double[20],
+				new GreatCircleDistanceFunction());
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(RECORD_COUNT)
+	public void parseBytes(Blackhole blackhole) {
+		for (int i = 0; i < RECORD_COUNT; i++) {
+			blackhole.consume(recordParser.parse(recordBuffer, lineStarts[i], lineStarts[i + 1] - 1));
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(RECORD_COUNT)
+	public void parseString(Blackhole blackhole) {
+		for (int i = 0; i < RECORD_COUNT; i++) {
+			blackhole.consume(recordParser.parseLine(lines[i]));
+		}
+	}
+}
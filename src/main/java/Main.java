@@ -1,16 +1,13 @@
-import crosby.binary.osmosis.OsmosisReader;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import util.function.DistanceFunction;
 import util.function.GreatCircleDistanceFunction;
-import util.io.MapReader;
+import util.io.MapBuildCache;
 import util.io.OSMMapLoader;
 import util.object.RoadNetworkGraph;
 import util.settings.MapServiceLogger;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.InputStream;
+import java.io.File;
 
 /**
  * Main entry of the Bluetooth project.
@@ -21,7 +18,7 @@ import java.io.InputStream;
 public class Main {
 	
 	
-	public static void main(String[] args) throws FileNotFoundException {
+	public static void main(String[] args) {
 		
 		// specify basic file paths
 		long initTaskTime = System.currentTimeMillis();
@@ -40,6 +37,7 @@ public class Main {
 		String rawOSMMapFolder = rootPath + "raw/map/";
 		String rawObSequenceFolder = rootPath + "raw/obSequence/";
 		String inputMapFolder = rootPath + "input/map/";
+		String mapCacheFolder = rootPath + "cache/map/";
 		String inputBTStationFolder = rootPath + "input/btStation/";
 		String inputObSequenceFolder = rootPath + "input/obSequence/";
 		String outputObSequenceFolder = rootPath + "output/obSequence/";
@@ -52,12 +50,13 @@ public class Main {
 //		ObservationPreprocess preprocess = new ObservationPreprocess();
 //		boundingBox = preprocess.rawObservationLoader(rawBTObFolder, inputBTStationFolder, rawObSequenceFolder, inputObSequenceFolder,
 //				boundaryExtension, distFunc);
-		// read OpenStreetMap file and convert to RoadNetworkGraph
-		InputStream inputStream = new FileInputStream(rawOSMMapFolder + "Brisbane.osm.pbf");
-		OsmosisReader reader = new OsmosisReader(inputStream);
-		reader.setSink(new OSMMapLoader(inputMapFolder));
-		reader.run();
-		RoadNetworkGraph rawMap = MapReader.readMap(inputMapFolder + "Brisbane.txt", distFunc);
+		// read OpenStreetMap file and convert to RoadNetworkGraph, the conversion only runs when the file or the loader settings change
+		MapBuildCache mapBuildCache = new MapBuildCache(mapCacheFolder, distFunc);
+		OSMMapLoader mapLoader = new OSMMapLoader(inputMapFolder, OSMMapLoader.getDefaultValidRoadTagSet(),
+				Runtime.getRuntime().availableProcessors());
+		mapLoader.setTwoPassNodeLoading(true);    // only keep the nodes on the roads
+//		mapLoader.setClipBoundary(boundingBox);    // only keep the roads around the stations, requires the bounding box above
+		RoadNetworkGraph rawMap = mapBuildCache.getRoadNetwork(new File(rawOSMMapFolder + "Brisbane.osm.pbf"), mapLoader);
 //		UnfoldingMapDisplay mapDisplay = new UnfoldingMapDisplay();
 //		mapDisplay.display();
 	}
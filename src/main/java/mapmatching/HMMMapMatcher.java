@@ -0,0 +1,294 @@
+package mapmatching;
+
+import util.function.DistanceFunction;
+import util.object.*;
+import util.routing.BoundedDijkstraSearch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hidden Markov model (HMM) map-matching of Bluetooth observation sequences. The hidden states of an observation are the candidate
+ * road ways of its station, which are the covering roads of the station (<tt>BTStation.getCoveringWayIDList()</tt>), or the nearest
+ * roads found by the spatial index of the map if the station covers none. The consecutive observations at the same station share one
+ * state.
+ * <p>
+ * The emission probability follows a Gaussian distribution of the distance between the station and the road, whose standard
+ * deviation is half of the station radius. The transition probability follows an exponential distribution of the difference between
+ * the network distance of two candidates and the straight-line distance of their stations, where the network distance is measured
+ * between the closest points of the roads to the stations. The most likely state sequence is found by the Viterbi algorithm. If no
+ * candidate of an observation is reachable from the previous ones, the matching restarts from that observation.
+ * <p>
+ * The road ways are treated as directed, as the routing graph of a directed map. The matcher is thread-safe, so the sequences can be
+ * matched in parallel.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class HMMMapMatcher {
+	
+	public static final double DEFAULT_BETA = 200;    // the scale of the transition distribution, in meter
+	private static final int MAX_CANDIDATE_COUNT = 8;
+	private static final double MIN_SIGMA = 10;    // the lower bound of the emission standard deviation, in meter
+	private static final double MAX_DETOUR_FACTOR = 3;    // the route search stops at this multiple of the station distance
+	private static final double MIN_SEARCH_DISTANCE = 1000;
+	private final RoadNetworkGraph roadMap;
+	private final CompiledRoadGraph routingGraph;
+	private final DistanceFunction distFunc;
+	private final double beta;
+	private final Map<String, Candidate[]> stationID2Candidates = new ConcurrentHashMap<>();
+	private final ThreadLocal<BoundedDijkstraSearch> routeSearch;
+	
+	/**
+	 * @param roadMap      The road network.
+	 * @param routingGraph The routing graph compiled from the road network.
+	 */
+	public HMMMapMatcher(RoadNetworkGraph roadMap, CompiledRoadGraph routingGraph) {
+		this(roadMap, routingGraph, DEFAULT_BETA);
+	}
+	
+	/**
+	 * @param roadMap      The road network.
+	 * @param routingGraph The routing graph compiled from the road network.
+	 * @param beta         The scale of the transition distribution in meter, a larger value tolerates longer detours.
+	 */
+	public HMMMapMatcher(RoadNetworkGraph roadMap, CompiledRoadGraph routingGraph, double beta) {
+		if (beta <= 0)
+			throw new IllegalArgumentException("The transition scale should be positive: " + beta);
+		this.roadMap = roadMap;
+		this.routingGraph = routingGraph;
+		this.distFunc = roadMap.getDistanceFunction();
+		this.beta = beta;
+		this.routeSearch = ThreadLocal.withInitial(() -> new BoundedDijkstraSearch(routingGraph));
+		roadMap.getSpatialIndex();    // build the index before the parallel matching
+	}
+	
+	/**
+	 * Find the most likely road path of the sequence.
+	 *
+	 * @param sequence The observation sequence.
+	 * @return The matching result.
+	 */
+	public MatchResult match(OBSequence sequence) {
+		List<BTObservation> observationList = sequence.getObservationList();
+		List<RoadWay> matchedWayList = new ArrayList<>(Collections.nCopies(observationList.size(), null));
+		double[] matchedOffsets = new double[observationList.size()];
+		Arrays.fill(matchedOffsets, Double.NaN);
+		List<RoadWay> path = new ArrayList<>();
+		// each step is a run of consecutive observations at the same station
+		List<Integer> stepStartList = new ArrayList<>();
+		for (int i = 0; i < observationList.size(); i++) {
+			if (i == 0 || !observationList.get(i).getStation().getID().equals(observationList.get(i - 1).getStation().getID()))
+				stepStartList.add(i);
+		}
+		stepStartList.add(observationList.size());
+		int stepCount = stepStartList.size() - 1;
+		Candidate[][] stepCandidates = new Candidate[stepCount][];
+		int[][] backPointers = new int[stepCount][];
+		double[] prevScores = null;
+		int partStart = 0;
+		int breakCount = 0;
+		double logProbability = 0;
+		for (int step = 0; step < stepCount; step++) {
+			BTStation station = observationList.get(stepStartList.get(step)).getStation();
+			Candidate[] candidates = getCandidates(station);
+			stepCandidates[step] = candidates;
+			if (candidates.length == 0) {    // no road around the station, the observation is skipped
+				if (prevScores != null)
+					logProbability += backtrack(stepCandidates, backPointers, prevScores, partStart, step - 1, stepStartList,
+							matchedWayList, matchedOffsets, path);
+				prevScores = null;
+				continue;
+			}
+			double[] scores = new double[candidates.length];
+			int[] back = new int[candidates.length];
+			boolean isReachable = false;
+			if (prevScores != null) {
+				BTStation prevStation = observationList.get(stepStartList.get(step - 1)).getStation();
+				fillTransitions(stepCandidates[step - 1], prevScores, prevStation, candidates, station, scores, back);
+				for (double score : scores) {
+					if (score != Double.NEGATIVE_INFINITY) {
+						isReachable = true;
+						break;
+					}
+				}
+				if (!isReachable) {    // the candidates are not reachable, restart the matching from current step
+					logProbability += backtrack(stepCandidates, backPointers, prevScores, partStart, step - 1, stepStartList,
+							matchedWayList, matchedOffsets, path);
+					breakCount++;
+				}
+			}
+			if (!isReachable) {
+				for (int i = 0; i < candidates.length; i++) {
+					scores[i] = 0;
+					back[i] = -1;
+				}
+				partStart = step;
+			}
+			double sigma = Math.max(station.getRadius() / 2, MIN_SIGMA);
+			for (int i = 0; i < candidates.length; i++)
+				scores[i] += -0.5 * (candidates[i].distance / sigma) * (candidates[i].distance / sigma);
+			backPointers[step] = back;
+			prevScores = scores;
+		}
+		if (prevScores != null)
+			logProbability += backtrack(stepCandidates, backPointers, prevScores, partStart, stepCount - 1, stepStartList, matchedWayList,
+					matchedOffsets, path);
+		return new MatchResult(sequence, matchedWayList, matchedOffsets, path, breakCount, logProbability);
+	}
+	
+	/**
+	 * Compute the best score of each candidate of the next step and the previous candidate it comes from.
+	 */
+	private void fillTransitions(Candidate[] prevCandidates, double[] prevScores, BTStation prevStation, Candidate[] candidates,
+								 BTStation station, double[] scores, int[] back) {
+		double stationDistance = distFunc.distance(prevStation.getCentre(), station.getCentre());
+		double maxDistance = searchDistance(prevStation, station);
+		BoundedDijkstraSearch search = routeSearch.get();
+		for (int j = 0; j < candidates.length; j++) {
+			scores[j] = Double.NEGATIVE_INFINITY;
+			back[j] = -1;
+		}
+		for (int i = 0; i < prevCandidates.length; i++) {
+			if (prevScores[i] == Double.NEGATIVE_INFINITY)
+				continue;
+			Candidate prev = prevCandidates[i];
+			boolean isSearched = false;
+			for (int j = 0; j < candidates.length; j++) {
+				Candidate curr = candidates[j];
+				double networkDistance;
+				if (prev.way == curr.way && prev.offset <= curr.offset) {
+					networkDistance = curr.offset - prev.offset;
+				} else {
+					if (!isSearched) {
+						search.search(prev.toNode, maxDistance);
+						isSearched = true;
+					}
+					networkDistance = prev.way.getLength() - prev.offset + search.getDistance(curr.fromNode) + curr.offset;
+				}
+				if (networkDistance == Double.POSITIVE_INFINITY)
+					continue;
+				double score = prevScores[i] - Math.abs(networkDistance - stationDistance) / beta;
+				if (score > scores[j]) {
+					scores[j] = score;
+					back[j] = i;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Choose the best final candidate of a connected part and follow the back pointers to fill the matched ways and the path.
+	 *
+	 * @return The log probability of the part.
+	 */
+	private double backtrack(Candidate[][] stepCandidates, int[][] backPointers, double[] lastScores, int partStart, int partEnd,
+							 List<Integer> stepStartList, List<RoadWay> matchedWayList, double[] matchedOffsets,
+							 List<RoadWay> path) {
+		int best = 0;
+		for (int i = 1; i < lastScores.length; i++) {
+			if (lastScores[i] > lastScores[best])
+				best = i;
+		}
+		Candidate[] chosen = new Candidate[partEnd - partStart + 1];
+		for (int step = partEnd, index = best; step >= partStart; step--) {
+			chosen[step - partStart] = stepCandidates[step][index];
+			index = backPointers[step][index];
+		}
+		BoundedDijkstraSearch search = routeSearch.get();
+		for (int k = 0; k < chosen.length; k++) {
+			int step = partStart + k;
+			for (int i = stepStartList.get(step); i < stepStartList.get(step + 1); i++) {
+				matchedWayList.set(i, chosen[k].way);
+				matchedOffsets[i] = chosen[k].offset;
+			}
+			if (k > 0 && !(chosen[k - 1].way == chosen[k].way && chosen[k - 1].offset <= chosen[k].offset)) {
+				search.search(chosen[k - 1].toNode, searchDistance(chosen[k - 1].station, chosen[k].station));
+				for (int edge : search.getRoute(chosen[k].fromNode).getEdges())
+					appendWay(path, routingGraph.getEdgeWay(edge));
+			}
+			appendWay(path, chosen[k].way);
+		}
+		return lastScores[best];
+	}
+	
+	private static void appendWay(List<RoadWay> path, RoadWay way) {
+		if (path.isEmpty() || path.get(path.size() - 1) != way)
+			path.add(way);
+	}
+	
+	private double searchDistance(BTStation from, BTStation to) {
+		double stationDistance = distFunc.distance(from.getCentre(), to.getCentre());
+		return MAX_DETOUR_FACTOR * (stationDistance + from.getRadius() + to.getRadius()) + MIN_SEARCH_DISTANCE;
+	}
+	
+	private Candidate[] getCandidates(BTStation station) {
+		return stationID2Candidates.computeIfAbsent(station.getID(), id -> findCandidates(station));
+	}
+	
+	private Candidate[] findCandidates(BTStation station) {
+		List<RoadWay> wayList = new ArrayList<>();
+		for (String wayID : station.getCoveringWayIDList()) {
+			if (roadMap.containsWay(wayID))
+				wayList.add(roadMap.getWayByID(wayID));
+		}
+		if (wayList.isEmpty()) {
+			for (Pair<RoadWay, Double> way : roadMap.getSpatialIndex().getNearestWays(station.getCentre(), MAX_CANDIDATE_COUNT))
+				wayList.add(way._1());
+		}
+		List<Candidate> candidateList = new ArrayList<>();
+		for (RoadWay way : wayList) {
+			if (candidateList.size() == MAX_CANDIDATE_COUNT)
+				break;
+			int fromNode = routingGraph.getNodeOrdinal(way.getFromNode().getId());
+			int toNode = routingGraph.getNodeOrdinal(way.getToNode().getId());
+			if (fromNode != -1 && toNode != -1 && way.size() > 1)
+				candidateList.add(new Candidate(station, way, fromNode, toNode));
+		}
+		return candidateList.toArray(new Candidate[0]);
+	}
+	
+	/**
+	 * A candidate road way of a station and the closest point of the road to the station.
+	 */
+	private final class Candidate {
+		
+		private final BTStation station;
+		private final RoadWay way;
+		private final int fromNode;
+		private final int toNode;
+		private final double distance;    // the distance from the station to the road
+		private final double offset;    // the distance from the start of the road to its closest point to the station
+		
+		Candidate(BTStation station, RoadWay way, int fromNode, int toNode) {
+			this.station = station;
+			this.way = way;
+			this.fromNode = fromNode;
+			this.toNode = toNode;
+			double x = station.getCentre().x();
+			double y = station.getCentre().y();
+			double minDistance = Double.POSITIVE_INFINITY;
+			double minOffset = 0;
+			double edgeStart = 0;
+			for (int i = 0; i < way.size() - 1; i++) {
+				RoadNode start = way.getNode(i);
+				RoadNode end = way.getNode(i + 1);
+				double edgeLength = distFunc.pointToPointDistance(start.lon(), start.lat(), end.lon(), end.lat());
+				Point closestPoint = edgeLength == 0 ? start.toPoint() : distFunc.getClosestPoint(x, y, start.lon(), start.lat(), end.lon(),
+						end.lat());
+				double currDistance = distFunc.pointToPointDistance(x, y, closestPoint.x(), closestPoint.y());
+				if (currDistance < minDistance) {
+					minDistance = currDistance;
+					minOffset = edgeStart + distFunc.pointToPointDistance(start.lon(), start.lat(), closestPoint.x(), closestPoint.y());
+				}
+				edgeStart += edgeLength;
+			}
+			this.distance = minDistance;
+			this.offset = Math.min(minOffset, way.getLength());
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package mapmatching;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.function.ParallelRunner;
+import util.io.IOService;
+import util.io.MappedLineReader;
+import util.io.ObSequenceBinaryReader;
+import util.io.ObjectReader;
+import util.object.BTStation;
+import util.object.OBSequence;
+import util.object.RoadWay;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Map-match the segmented observation sequences of a folder. The sequences are streamed from each sequence file (text or binary) in
+ * batches, each batch is matched in parallel and written to the output file of the same name before the next batch is read, so only
+ * one batch is kept in memory. The results are written in the input order, one line per sequence in the format of
+ * <tt>MatchResult.toString()</tt>.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class MapMatchingProcess {
+	
+	private static final Logger LOG = LogManager.getLogger(MapMatchingProcess.class);
+	private static final int BATCH_SIZE = 4096;    // the number of sequences matched together
+	private final HMMMapMatcher matcher;
+	private final int parallelism;
+	private long sequenceCount = 0;
+	private long breakCount = 0;
+	private long unmatchedObservationCount = 0;
+	private Consumer<List<MatchResult>> resultConsumer = null;
+	
+	/**
+	 * @param matcher     The map matcher.
+	 * @param parallelism The number of threads used for the matching.
+	 */
+	public MapMatchingProcess(HMMMapMatcher matcher, int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("The parallelism should be at least one: " + parallelism);
+		this.matcher = matcher;
+		this.parallelism = parallelism;
+	}
+	
+	/**
+	 * Set the receiver of the matching results, which is called with each batch after it is written, e.g. a
+	 * <tt>TravelTimeEstimator</tt>.
+	 *
+	 * @param resultConsumer The receiver of the result batches, or null if the results are only written to file.
+	 */
+	public void setResultConsumer(Consumer<List<MatchResult>> resultConsumer) {
+		this.resultConsumer = resultConsumer;
+	}
+	
+	/**
+	 * Match all sequence files in the input folder.
+	 *
+	 * @param inputObSequenceFolder   The folder of the segmented sequences.
+	 * @param inputBTStationFolder    The folder of the station file, whose stations carry the covering roads.
+	 * @param outputMatchResultFolder The output folder, whose content is replaced.
+	 */
+	public void matchSequenceFolder(String inputObSequenceFolder, String inputBTStationFolder, String outputMatchResultFolder) {
+		long startTime = System.currentTimeMillis();
+		sequenceCount = 0;
+		breakCount = 0;
+		unmatchedObservationCount = 0;
+		Map<String, BTStation> id2BTStation = new HashMap<>();
+		for (BTStation station : ObjectReader.readBTStationList(inputBTStationFolder + "station.txt"))
+			id2BTStation.put(station.getID(), station);
+		IOService.createFolder(outputMatchResultFolder);
+		IOService.cleanFolder(outputMatchResultFolder);
+		List<File> inputFileList = IOService.getFiles(inputObSequenceFolder).collect(Collectors.toList());
+		ForkJoinPool matchingPool = new ForkJoinPool(parallelism);
+		try {
+			for (int i = 0; i < inputFileList.size(); i++) {
+				matchSequenceFile(inputFileList.get(i), id2BTStation, outputMatchResultFolder, matchingPool);
+				LOG.info("Map-matching " + (i + 1) + "/" + inputFileList.size() + " file done.");
+			}
+		} finally {
+			matchingPool.shutdown();
+		}
+		LOG.info("Map-matching finished in " + (System.currentTimeMillis() - startTime) / 1000.0 + "s. Number of sequences: "
+				+ sequenceCount + ", number of breaks: " + breakCount + ", number of observations without road: "
+				+ unmatchedObservationCount + ".");
+	}
+	
+	private void matchSequenceFile(File inputFile, Map<String, BTStation> id2BTStation, String outputFolder, ForkJoinPool matchingPool) {
+		String fileName = inputFile.getName();
+		int extensionIndex = fileName.lastIndexOf('.');
+		File outputFile = new File(outputFolder, (extensionIndex > 0 ? fileName.substring(0, extensionIndex) : fileName) + ".txt");
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile), 1 << 16)) {
+			List<OBSequence> batch = new ArrayList<>(BATCH_SIZE);
+			Consumer<OBSequence> sequenceConsumer = sequence -> {
+				batch.add(sequence);
+				if (batch.size() == BATCH_SIZE) {
+					writeResults(matchBatch(batch, matchingPool), writer);
+					batch.clear();
+				}
+			};
+			if (fileName.endsWith(".bin"))
+				ObSequenceBinaryReader.readObSequences(inputFile, id2BTStation, sequenceConsumer);
+			else
+				MappedLineReader.forEachLine(inputFile, s -> sequenceConsumer.accept(OBSequence.parseObSequence(s, id2BTStation)));
+			if (!batch.isEmpty())
+				writeResults(matchBatch(batch, matchingPool), writer);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write map-matching result file " + outputFile.getAbsolutePath(), e);
+		}
+	}
+	
+	private List<MatchResult> matchBatch(List<OBSequence> batch, ForkJoinPool matchingPool) {
+		if (parallelism == 1)
+			return batch.stream().map(matcher::match).collect(Collectors.toList());
+		return ParallelRunner.run(matchingPool, () -> batch.parallelStream().map(matcher::match).collect(Collectors.toList()),
+				"Map-matching");
+	}
+	
+	private void writeResults(List<MatchResult> resultList, BufferedWriter writer) {
+		try {
+			for (MatchResult result : resultList) {
+				writer.write(result.toString());
+				writer.newLine();
+				sequenceCount++;
+				breakCount += result.getBreakCount();
+				for (RoadWay way : result.getMatchedWayList()) {
+					if (way == null)
+						unmatchedObservationCount++;
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write map-matching result.", e);
+		}
+		if (resultConsumer != null)
+			resultConsumer.accept(resultList);
+	}
+}
@@ -0,0 +1,99 @@
+package mapmatching;
+
+import util.object.OBSequence;
+import util.object.RoadWay;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The map-matching result of an observation sequence, including the road way matched to each observation and the complete road path
+ * that connects them.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class MatchResult {
+	
+	private final OBSequence sequence;
+	private final List<RoadWay> matchedWayList;    // one road way per observation, null if the observation has no candidate
+	private final double[] matchedOffsets;    // the position of each observation on its matched road way
+	private final List<RoadWay> path;
+	private final int breakCount;
+	private final double logProbability;
+	
+	MatchResult(OBSequence sequence, List<RoadWay> matchedWayList, double[] matchedOffsets, List<RoadWay> path, int breakCount,
+				double logProbability) {
+		this.sequence = sequence;
+		this.matchedWayList = matchedWayList;
+		this.matchedOffsets = matchedOffsets;
+		this.path = path;
+		this.breakCount = breakCount;
+		this.logProbability = logProbability;
+	}
+	
+	public OBSequence getSequence() {
+		return sequence;
+	}
+	
+	/**
+	 * @return The road way matched to each observation, in the order of the observations. The entry is null if the observation has
+	 * no candidate road.
+	 */
+	public List<RoadWay> getMatchedWayList() {
+		return new ArrayList<>(matchedWayList);
+	}
+	
+	/**
+	 * @param index The index of the observation.
+	 * @return The distance in meter from the start of the matched road way to the closest point of the road to the station, or
+	 * <tt>Double.NaN</tt> if the observation has no candidate road.
+	 */
+	public double getMatchedOffset(int index) {
+		return matchedOffsets[index];
+	}
+	
+	/**
+	 * @return The road ways passed by the sequence, without consecutive duplicates.
+	 */
+	public List<RoadWay> getPath() {
+		return new ArrayList<>(path);
+	}
+	
+	/**
+	 * @return The number of times the matching restarts because no candidate of an observation is reachable from the previous ones.
+	 * The path is disconnected at each break.
+	 */
+	public int getBreakCount() {
+		return breakCount;
+	}
+	
+	/**
+	 * @return The log probability of the most likely state sequence, summed over the connected parts.
+	 */
+	public double getLogProbability() {
+		return logProbability;
+	}
+	
+	/**
+	 * The format is: sequenceID deviceID startTime endTime breakCount|matched way IDs|path way IDs, where the matched way of an
+	 * observation without candidate is "null".
+	 */
+	@Override
+	public String toString() {
+		StringBuilder info = new StringBuilder(sequence.getSequenceID() + " " + sequence.getDeviceID() + " " + sequence.getStartTime()
+				+ " " + sequence.getEndTime() + " " + breakCount + "|");
+		for (int i = 0; i < matchedWayList.size(); i++) {
+			if (i > 0)
+				info.append(" ");
+			info.append(matchedWayList.get(i) == null ? "null" : matchedWayList.get(i).getId());
+		}
+		info.append("|");
+		for (int i = 0; i < path.size(); i++) {
+			if (i > 0)
+				info.append(" ");
+			info.append(path.get(i).getId());
+		}
+		return info.toString();
+	}
+}
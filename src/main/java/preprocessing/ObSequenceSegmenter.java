@@ -0,0 +1,164 @@
+package preprocessing;
+
+import util.function.ParallelRunner;
+import util.object.ObservationStore;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Segmentation engine of observation sequences. The current sequence is to be divided if its time gap exceeds the threshold and the
+ * average speed to the next location is less than 15km/h. The distances between stations are given by the station distance functions,
+ * which are looked up from the <tt>StationDistanceMatrix</tt> if the stations are registered in one.
+ * <p>
+ * The device sequences are divided into batches which are segmented independently, in parallel if more than one thread is given. Each
+ * batch records its segments as observation indices of the original store together with its own statistics. The batches are then
+ * merged in order and the sequence IDs are assigned sequentially, so the result is identical to the single-threaded segmentation.
+ *
+ * @author Hellisk
+ * @since 15/10/2019
+ */
+public class ObSequenceSegmenter {
+	
+	private static final int BATCH_SIZE = 1024;    // number of device sequences per batch
+	private final int maxTimeGap;
+	private final int parallelism;
+	
+	/**
+	 * @param maxTimeGap  The maximum time gap (sec) between two observations within one trip.
+	 * @param parallelism The number of threads used for segmentation.
+	 */
+	public ObSequenceSegmenter(int maxTimeGap, int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("The parallelism should be at least one: " + parallelism);
+		this.maxTimeGap = maxTimeGap;
+		this.parallelism = parallelism;
+	}
+	
+	/**
+	 * Segment all sequences in the store.
+	 *
+	 * @param oriObStore The original observation store.
+	 * @param startID    The id of the first generated sequence.
+	 * @param statistics The statistics which the segmentation statistics are merged into.
+	 * @return The store of segmented sequences, which shares the dictionaries of the original store.
+	 */
+	public ObservationStore segment(ObservationStore oriObStore, int startID, SegmentationStatistics statistics) {
+		int batchCount = (oriObStore.getSequenceCount() + BATCH_SIZE - 1) / BATCH_SIZE;
+		SegmentBatch[] batches = new SegmentBatch[batchCount];
+		if (parallelism > 1 && batchCount > 1) {
+			ParallelRunner.run(parallelism, () -> IntStream.range(0, batchCount).parallel()
+					.forEach(i -> batches[i] = segmentBatch(oriObStore, i * BATCH_SIZE,
+							Math.min((i + 1) * BATCH_SIZE, oriObStore.getSequenceCount()))), "Sequence segmentation");
+		} else {
+			for (int i = 0; i < batchCount; i++) {
+				batches[i] = segmentBatch(oriObStore, i * BATCH_SIZE, Math.min((i + 1) * BATCH_SIZE, oriObStore.getSequenceCount()));
+			}
+		}
+		
+		// merge the batches in order
+		ObservationStore.Builder builder = new ObservationStore.Builder(oriObStore);
+		int sequenceID = startID;
+		for (SegmentBatch batch : batches) {
+			int segmentStart = 0;
+			for (int i = 0; i < batch.segmentCount; i++) {
+				builder.addSequence(sequenceID++, batch.deviceIDs[i]);
+				for (int j = segmentStart; j < batch.segmentEnds[i]; j++) {
+					int obIndex = batch.obIndices[j];
+					builder.addObservation(oriObStore.getEnterTime(obIndex), oriObStore.getLeaveTime(obIndex),
+							oriObStore.getStationIndex(obIndex), oriObStore.getOwnerCode(obIndex));
+				}
+				segmentStart = batch.segmentEnds[i];
+			}
+			statistics.merge(batch.statistics);
+		}
+		return builder.build();
+	}
+	
+	/**
+	 * Segment the sequences <tt>[fromSequence, toSequence)</tt> of the store.
+	 */
+	private SegmentBatch segmentBatch(ObservationStore oriObStore, int fromSequence, int toSequence) {
+		SegmentBatch batch = new SegmentBatch();
+		int[] currObIndices = new int[16];    // the observations of the current segment
+		for (int seqIndex = fromSequence; seqIndex < toSequence; seqIndex++) {
+			int start = oriObStore.getSequenceStart(seqIndex);
+			int end = oriObStore.getSequenceEnd(seqIndex);
+			if (start == end)
+				continue;
+			long deviceID = oriObStore.getDeviceID(seqIndex);
+			int currSize = 0;
+			currObIndices[currSize++] = start;
+			for (int i = start; i < end - 1; i++) {
+				int currOb = i;
+				int nextOb = i + 1;
+				boolean isEndReached = false;
+				while (oriObStore.getLeaveTime(nextOb) < oriObStore.getLeaveTime(currOb)) {    // next ob is contained by the current one
+					i++;
+					if (i < end - 1) {
+						nextOb = i + 1;
+					} else {
+						isEndReached = true;
+						break;
+					}
+				}
+				if (isEndReached)
+					break;
+				long timeDiff = oriObStore.getEnterTime(nextOb) - oriObStore.getLeaveTime(currOb);
+				double avgSpeed = oriObStore.getStation(nextOb).distanceTo(oriObStore.getStation(currOb)) / timeDiff;
+				if (timeDiff > maxTimeGap && avgSpeed < 4.17) {    // average speed is less than 15km/h
+					// cut the current sequence
+					if (currSize > 1) {
+						batch.addSegment(oriObStore, deviceID, currObIndices, currSize);
+						currSize = 0;
+						currObIndices[currSize++] = nextOb;
+					} else    // only one observation exists in the list, ignore it
+						currSize = 0;
+				} else {
+					if (currSize == currObIndices.length)
+						currObIndices = Arrays.copyOf(currObIndices, currSize * 2);
+					currObIndices[currSize++] = nextOb;
+				}
+			}
+			if (currSize > 1)    // the end of the sequence
+				batch.addSegment(oriObStore, deviceID, currObIndices, currSize);
+		}
+		return batch;
+	}
+	
+	/**
+	 * The segments generated from one batch of device sequences, stored as observation indices of the original store.
+	 */
+	private static class SegmentBatch {
+		private final SegmentationStatistics statistics = new SegmentationStatistics();
+		private int[] obIndices = new int[1024];
+		private int obCount = 0;
+		private int[] segmentEnds = new int[64];
+		private long[] deviceIDs = new long[64];
+		private int segmentCount = 0;
+		
+		/**
+		 * Add the segment unless all its observations are at the same location.
+		 */
+		void addSegment(ObservationStore oriObStore, long deviceID, int[] segmentObIndices, int size) {
+			double length = 0;
+			for (int i = 0; i < size - 1; i++) {
+				length += oriObStore.getStation(segmentObIndices[i + 1]).distanceTo(oriObStore.getStation(segmentObIndices[i]));
+			}
+			if (length == 0)
+				return;
+			if (obCount + size > obIndices.length)
+				obIndices = Arrays.copyOf(obIndices, Math.max(obIndices.length * 2, obCount + size));
+			System.arraycopy(segmentObIndices, 0, obIndices, obCount, size);
+			statistics.addSegment(oriObStore, obIndices, obCount, obCount + size);
+			obCount += size;
+			if (segmentCount == segmentEnds.length) {
+				segmentEnds = Arrays.copyOf(segmentEnds, segmentCount * 2);
+				deviceIDs = Arrays.copyOf(deviceIDs, segmentCount * 2);
+			}
+			segmentEnds[segmentCount] = obCount;
+			deviceIDs[segmentCount] = deviceID;
+			segmentCount++;
+		}
+	}
+}
@@ -3,12 +3,14 @@ package preprocessing;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import util.function.DistanceFunction;
-import util.io.BTObservationLoader;
-import util.io.IOService;
-import util.io.ObjectWriter;
+import util.io.*;
 import util.object.*;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -21,14 +23,43 @@ import java.util.stream.Collectors;
 public class ObservationPreprocess {
 	
 	private static final Logger LOG = LogManager.getLogger(ObservationPreprocess.class);
-	private int gapCount = 0;    // total number of gaps
-	private int obCount = 0;    // total observation count
 	private int sequenceCount = 0;    // total number of sequences after segmentation
-	private double totalTimeDiff = 0;    // total time difference between pairwise observation
-	private double totalDuration = 0;    // total duration within each reader
-	private long maxDuration = 0;    // the maximum duration
-	private int longDurationObCount = 0;    // number of records whose duration is longer than 300s
-	private int lowSpeedSequences = 0;    // average speed is less than 5km/h
+	private final SegmentationStatistics segmentationStatistics = new SegmentationStatistics();
+	private int parallelism = 1;    // number of threads used for parsing and segmenting the observations
+	private boolean binarySequenceOutput = false;    // write the segmented sequences in binary format
+	private ObservationRepair observationRepair = null;    // repair the sequences before segmentation if set
+	
+	/**
+	 * Set the number of threads used for parsing the raw observation files in <tt>rawObservationLoader()</tt> and for segmenting the
+	 * sequences. Both run on a single thread by default.
+	 *
+	 * @param parallelism The number of threads.
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("The parallelism should be at least one: " + parallelism);
+		this.parallelism = parallelism;
+	}
+	
+	/**
+	 * Write the segmented sequences as binary files (<tt>.bin</tt>, see <tt>ObSequenceBinaryWriter</tt>) instead of text files. The
+	 * unsegmented sequences are always written as text. <tt>ObjectReader</tt> reads both formats.
+	 *
+	 * @param binarySequenceOutput True if the segmented sequences are written in binary format.
+	 */
+	public void setBinarySequenceOutput(boolean binarySequenceOutput) {
+		this.binarySequenceOutput = binarySequenceOutput;
+	}
+	
+	/**
+	 * Repair the overlapping, contained and duplicate observations of the device sequences before segmentation, see
+	 * <tt>ObservationRepair</tt>. The unsegmented sequences are written before the repair. No repair is done by default.
+	 *
+	 * @param observationRepair The repair stage with its policies, or null to disable the repair.
+	 */
+	public void setObservationRepair(ObservationRepair observationRepair) {
+		this.observationRepair = observationRepair;
+	}
 	
 	/**
 	 * Read the original observations from raw files and convert them into observation sequences, each sequence is regarded as a trip
@@ -49,60 +80,253 @@ public class ObservationPreprocess {
 		IOService.cleanFolder(rawObSequenceFolder);
 		IOService.cleanFolder(inputObSequenceFolder);
 		Map<String, BTStation> id2BTStation = new LinkedHashMap<>();
-		File[] filepathList = new File(rawBTObFolder).listFiles();
-		List<File> inputFileList = new ArrayList<>();
 		Set<Long> deviceIDSet = new HashSet<>();
+		BTObservationLoader btObservationLoader = new BTObservationLoader();
+		Map<String, List<File>> fileName2InputFiles = groupObservationFiles(rawBTObFolder);
+		int batchIndex = 0;
+		for (Map.Entry<String, List<File>> entry : fileName2InputFiles.entrySet()) {
+			LOG.info("Processing " + (++batchIndex) + "/" + fileName2InputFiles.size() + " folder.");
+			loadObservationBatch(btObservationLoader, entry.getValue(), entry.getKey(), rawObSequenceFolder, inputObSequenceFolder,
+					maxTimeGap, id2BTStation, deviceIDSet, distFunc);
+		}
+		
+		btObservationLoader.printStatistics();
+		return summarizeStations(id2BTStation, deviceIDSet, inputBTStationFolder, boundaryExtension, distFunc);
+	}
+	
+	/**
+	 * Group the raw observation files by the sequence file they are converted into. Each month folder forms a group named after the
+	 * folder, together with the loose files listed before it. The remaining loose files form the group <tt>Sequence_all.txt</tt>.
+	 *
+	 * @param rawBTObFolder Input Bluetooth observation folder.
+	 * @return The input files of each sequence file, in the listing order.
+	 */
+	private static Map<String, List<File>> groupObservationFiles(String rawBTObFolder) {
+		File[] filepathList = new File(rawBTObFolder).listFiles();
 		if (filepathList == null)
 			throw new NullPointerException("Input observation folder is not found: " + rawBTObFolder);
-		BTObservationLoader btObservationLoader = new BTObservationLoader();
-		for (int month = 0; month < filepathList.length; month++) {
-			File filePath = filepathList[month];
+		Map<String, List<File>> fileName2InputFiles = new LinkedHashMap<>();
+		List<File> inputFileList = new ArrayList<>();
+		for (File filePath : filepathList) {
 			if (filePath.isDirectory()) {    // the input folder is divided by multiple months, read each month separately
-				LOG.info("Processing " + (month + 1) + "/" + filepathList.length + " folder.");
 				inputFileList.addAll(IOService.getFiles(filePath.getAbsolutePath()).collect(Collectors.toList()));
-				Pair<List<OBSequence>, List<BTStation>> btObResults = btObservationLoader.loadRawObservations(inputFileList, distFunc);
-				for (BTStation btStation : btObResults._2()) {
-					if (id2BTStation.containsKey(btStation.getID())) {
-						if (!id2BTStation.get(btStation.getID()).getCentre().equals2D(btStation.getCentre()))
-							throw new IllegalArgumentException("The same Bluetooth reader has different location: " + btStation.getID() + "," +
-									id2BTStation.get(btStation.getID()).getCentre().toString() + "," + btStation.getCentre().toString());
-					} else
-						id2BTStation.put(btStation.getID(), btStation);
-				}
-				for (OBSequence currObSequence : btObResults._1()) {
-					deviceIDSet.add(currObSequence.getDeviceID());
-				}
-				String fileName = "Sequence_" + filePath.getName().substring(filePath.getName().lastIndexOf('/') + 1) +
-						".txt";
-				ObjectWriter.writeObSequenceListToFile(btObResults._1(), rawObSequenceFolder, fileName);
-				List<OBSequence> segmentedObSeqList = obSequenceSegmentation(btObResults._1(), maxTimeGap, 0, distFunc);
-				ObjectWriter.writeObSequenceListToFile(segmentedObSeqList, inputObSequenceFolder, fileName);
-				sequenceCount += segmentedObSeqList.size();
+				String fileName = "Sequence_" + filePath.getName().substring(filePath.getName().lastIndexOf('/') + 1) + ".txt";
+				fileName2InputFiles.put(fileName, inputFileList);
 				inputFileList = new ArrayList<>();    // empty the current list
 			} else {
 				inputFileList.add(filePath);
 			}
 		}
-		
-		if (!inputFileList.isEmpty()) {    // the folder does not contains more sub-folders
-			Pair<List<OBSequence>, List<BTStation>> btObResults = btObservationLoader.loadRawObservations(inputFileList, distFunc);
-			for (BTStation btStation : btObResults._2()) {
-				if (id2BTStation.containsKey(btStation.getID())) {
-					if (!id2BTStation.get(btStation.getID()).getCentre().equals2D(btStation.getCentre()))
-						throw new IllegalArgumentException("The same Bluetooth reader has different location: " + btStation.getID() + "," +
-								id2BTStation.get(btStation.getID()).getCentre().toString() + "," + btStation.getCentre().toString());
+		if (!inputFileList.isEmpty())    // the folder does not contains more sub-folders
+			fileName2InputFiles.put("Sequence_all.txt", inputFileList);
+		return fileName2InputFiles;
+	}
+	
+	/**
+	 * Incremental version of <tt>rawObservationLoader()</tt> which keeps the outputs of the previous runs and only processes the month
+	 * folders that are new or changed since then. The processed input files are recorded in a <tt>ProcessedFileManifest</tt>, a folder is
+	 * reprocessed if any of its files is added, removed or modified, and the outputs of the folders that no longer exist are removed.
+	 * The stations and devices of the unchanged folders are read from their unsegmented sequence files, with the station locations taken
+	 * from the existing station list, so the station and device summary covers exactly the current months. An unchanged folder is also
+	 * reprocessed if one of its stations is missing from the station list, and all folders are processed if the station list does not
+	 * exist.
+	 * <p>
+	 * The sequences of each month are segmented independently, the same as <tt>rawObservationLoader()</tt>, so no existing sequence
+	 * continues into a new month and the unchanged months are not re-segmented. The unsegmented sequence IDs continue across the months
+	 * as in a full run: the ID range of each month is recorded in the manifest, and an unchanged month is also reprocessed if the months
+	 * before it change their number of sequences. The result is the same as a full run, except that the stations found in the previous
+	 * runs are listed first and the segmentation statistics only cover the folders processed in this run. The output folders are cleaned
+	 * only if the manifest does not exist.
+	 *
+	 * @param rawBTObFolder         Input Bluetooth observation folder.
+	 * @param inputBTStationFolder  Input list of Bluetooth stations.
+	 * @param rawObSequenceFolder   Output unsegmented Bluetooth sequences.
+	 * @param inputObSequenceFolder Output segmented Bluetooth sequences.
+	 * @param manifestPath          The manifest file of the processed input files, which should be outside the output folders.
+	 * @param boundaryExtension     The buffer size of the map boundary.
+	 * @param distFunc              Distance function.
+	 * @return The boundary of the map region.
+	 */
+	public Rectangle rawObservationIncrementalLoader(String rawBTObFolder, String inputBTStationFolder, String rawObSequenceFolder,
+													 String inputObSequenceFolder, String manifestPath, double boundaryExtension,
+													 DistanceFunction distFunc) {
+		int maxTimeGap = 1200;    // the maximum time gap (sec) between two observations within one trip, used for sequence segmentation
+		ProcessedFileManifest manifest = ProcessedFileManifest.read(manifestPath);
+		File stationFile = new File(inputBTStationFolder, "station.txt");
+		if (!manifest.isEmpty() && !stationFile.exists()) {
+			LOG.warn("The station file is not found, process all folders: " + stationFile.getAbsolutePath());
+			manifest = new ProcessedFileManifest();
+		}
+		List<BTStation> storedStationList = new ArrayList<>();
+		if (manifest.isEmpty()) {
+			IOService.cleanFolder(rawObSequenceFolder);
+			IOService.cleanFolder(inputObSequenceFolder);
+		} else {
+			storedStationList = ObjectReader.readBTStationList(stationFile.getAbsolutePath());
+		}
+		Set<String> storedStationIDSet = storedStationList.stream().map(BTStation::getID).collect(Collectors.toSet());
+		Set<String> keptStationIDSet = new HashSet<>();    // the stations of the unchanged folders
+		Map<String, BTStation> id2BTStation = new LinkedHashMap<>();
+		Set<Long> deviceIDSet = new HashSet<>();
+		BTObservationLoader btObservationLoader = new BTObservationLoader();
+		Map<String, List<File>> fileName2InputFiles = groupObservationFiles(rawBTObFolder);
+		int processedCount = 0;
+		long nextSequenceID = 0;    // the raw sequence IDs continue across the months, the same as a full run
+		for (Map.Entry<String, List<File>> entry : fileName2InputFiles.entrySet()) {
+			String fileName = entry.getKey();
+			File rawSequenceFile = new File(rawObSequenceFolder, fileName);
+			if (manifest.isUnchanged(fileName, entry.getValue()) && rawSequenceFile.exists()) {
+				if (manifest.getFirstSequenceID(fileName) == nextSequenceID) {
+					Set<Long> currDeviceIDSet = new HashSet<>();
+					Set<String> currStationIDSet = new HashSet<>();
+					readSequenceFileIDs(rawSequenceFile, currDeviceIDSet, currStationIDSet);
+					if (storedStationIDSet.containsAll(currStationIDSet)) {
+						deviceIDSet.addAll(currDeviceIDSet);
+						keptStationIDSet.addAll(currStationIDSet);
+						nextSequenceID += manifest.getSequenceCount(fileName);
+						continue;
+					}
+					LOG.info("Processing folder " + fileName + " as its stations are missing from the station file.");
 				} else
-					id2BTStation.put(btStation.getID(), btStation);
-			}
-			for (OBSequence currObSequence : btObResults._1()) {
-				deviceIDSet.add(currObSequence.getDeviceID());
+					LOG.info("Processing folder " + fileName + " as its sequence IDs are shifted by the earlier folders.");
+			} else
+				LOG.info("Processing new or changed folder: " + fileName + ".");
+			deleteSequenceFiles(fileName, rawObSequenceFolder, inputObSequenceFolder);    // the previous output may be in the other format
+			btObservationLoader.setNextSequenceID(nextSequenceID);
+			loadObservationBatch(btObservationLoader, entry.getValue(), fileName, rawObSequenceFolder, inputObSequenceFolder, maxTimeGap,
+					id2BTStation, deviceIDSet, distFunc);
+			manifest.update(fileName, entry.getValue(), nextSequenceID, btObservationLoader.getNextSequenceID() - nextSequenceID);
+			nextSequenceID = btObservationLoader.getNextSequenceID();
+			processedCount++;
+		}
+		for (String fileName : manifest.getGroups()) {
+			if (!fileName2InputFiles.containsKey(fileName)) {
+				LOG.warn("The input folder of " + fileName + " no longer exists, remove its sequences.");
+				deleteSequenceFiles(fileName, rawObSequenceFolder, inputObSequenceFolder);
+				manifest.remove(fileName);
 			}
-			ObjectWriter.writeObSequenceListToFile(btObResults._1(), rawObSequenceFolder, "Sequence_all.txt");
-			List<OBSequence> segmentedObSeqList = obSequenceSegmentation(btObResults._1(), 1200, 0, distFunc);
-			ObjectWriter.writeObSequenceListToFile(segmentedObSeqList, inputObSequenceFolder, "Sequence_all.txt");
-			sequenceCount += segmentedObSeqList.size();
 		}
+		manifest.write(manifestPath);
+		LOG.info("Incremental processing finished, " + processedCount + " out of " + fileName2InputFiles.size() + " folders are processed.");
 		
+		if (processedCount > 0)
+			btObservationLoader.printStatistics();
+		storedStationList.removeIf(station -> !keptStationIDSet.contains(station.getID()));
+		return summarizeStations(mergeStoredStations(storedStationList, id2BTStation), deviceIDSet, inputBTStationFolder,
+				boundaryExtension, distFunc);
+	}
+	
+	/**
+	 * Merge the stations of the previous runs with the newly loaded ones. The stored stations keep their order and are replaced by the
+	 * loaded ones of the same ID, whose location should be the same up to the precision of the station file.
+	 */
+	private static Map<String, BTStation> mergeStoredStations(List<BTStation> storedStationList, Map<String, BTStation> id2LoadedStation) {
+		Map<String, BTStation> id2BTStation = new LinkedHashMap<>();
+		for (BTStation storedStation : storedStationList) {
+			BTStation loadedStation = id2LoadedStation.get(storedStation.getID());
+			if (loadedStation == null) {
+				id2BTStation.put(storedStation.getID(), storedStation);
+			} else if (!loadedStation.getCentre().toString().equals(storedStation.getCentre().toString())) {
+				throw new IllegalArgumentException("The same Bluetooth reader has different location: " + storedStation.getID() + "," +
+						storedStation.getCentre().toString() + "," + loadedStation.getCentre().toString());
+			} else
+				id2BTStation.put(loadedStation.getID(), loadedStation);
+		}
+		for (BTStation loadedStation : id2LoadedStation.values()) {
+			id2BTStation.putIfAbsent(loadedStation.getID(), loadedStation);
+		}
+		return id2BTStation;
+	}
+	
+	/**
+	 * Collect the device IDs and station IDs of an unsegmented sequence file. The device ID is the second field of each line, and the
+	 * station ID is the third field of each observation, which starts after a '|'.
+	 */
+	private static void readSequenceFileIDs(File rawSequenceFile, Set<Long> deviceIDSet, Set<String> stationIDSet) {
+		MappedLineReader.forEachRecord(rawSequenceFile, (buffer, start, end) -> {
+			int i = start;
+			while (i < end && buffer.get(i) != ' ')
+				i++;
+			i++;
+			if (i >= end)
+				return;
+			boolean isNegative = buffer.get(i) == '-';
+			if (isNegative)
+				i++;
+			long deviceID = 0;
+			for (; i < end && buffer.get(i) != ' '; i++) {
+				byte digit = buffer.get(i);
+				if (digit < '0' || digit > '9')
+					throw new IllegalArgumentException("Incorrect device ID in sequence file: " + rawSequenceFile.getName());
+				deviceID = deviceID * 10 + (digit - '0');
+			}
+			deviceIDSet.add(isNegative ? -deviceID : deviceID);
+			for (; i < end; i++) {
+				if (buffer.get(i) != '|')
+					continue;
+				int fieldStart = i + 2;    // skip "| " and the enter and leave times
+				for (int skipCount = 0; skipCount < 2 && fieldStart < end; fieldStart++) {
+					if (buffer.get(fieldStart) == ' ')
+						skipCount++;
+				}
+				int fieldEnd = fieldStart;
+				while (fieldEnd < end && buffer.get(fieldEnd) != ' ')
+					fieldEnd++;
+				if (fieldEnd >= end)
+					throw new IllegalArgumentException("Incorrect observation in sequence file: " + rawSequenceFile.getName());
+				byte[] stationID = new byte[fieldEnd - fieldStart];
+				for (int j = 0; j < stationID.length; j++) {
+					stationID[j] = buffer.get(fieldStart + j);
+				}
+				stationIDSet.add(new String(stationID, Charset.defaultCharset()));
+				i = fieldEnd;
+			}
+		});
+	}
+	
+	private static void deleteSequenceFiles(String fileName, String rawObSequenceFolder, String inputObSequenceFolder) {
+		for (File file : new File[]{new File(rawObSequenceFolder, fileName), new File(inputObSequenceFolder, fileName),
+				new File(inputObSequenceFolder, toBinaryFileName(fileName))}) {
+			if (file.exists() && !file.delete())
+				throw new UncheckedIOException(new IOException("Failed to delete the sequence file: " + file.getAbsolutePath()));
+		}
+	}
+	
+	/**
+	 * Load one batch of observation files into an observation store, write the unsegmented and segmented sequences to the given file
+	 * and register the stations and devices found.
+	 */
+	private void loadObservationBatch(BTObservationLoader btObservationLoader, List<File> inputFileList, String fileName,
+									  String rawObSequenceFolder, String inputObSequenceFolder, int maxTimeGap,
+									  Map<String, BTStation> id2BTStation, Set<Long> deviceIDSet, DistanceFunction distFunc) {
+		Pair<ObservationStore, List<BTStation>> btObResults = parallelism > 1 ?
+				btObservationLoader.loadRawObservationStoreParallel(inputFileList, parallelism, distFunc) :
+				btObservationLoader.loadRawObservationStore(inputFileList, distFunc);
+		ObservationStore rawObStore = btObResults._1();
+		List<BTStation> btStationList = btObResults._2();
+		registerStations(id2BTStation, btStationList);
+		for (int i = 0; i < rawObStore.getSequenceCount(); i++) {
+			deviceIDSet.add(rawObStore.getDeviceID(i));
+		}
+		ObjectWriter.writeObservationStoreToFile(rawObStore, rawObSequenceFolder, fileName);
+		ObservationStore repairedObStore = observationRepair == null ? rawObStore : observationRepair.repair(rawObStore);
+		ObservationStore segmentedObStore = obSequenceSegmentation(repairedObStore, maxTimeGap, 0);
+		writeSegmentedSequences(segmentedObStore, inputObSequenceFolder, fileName);
+		sequenceCount += segmentedObStore.getSequenceCount();
+	}
+	
+	/**
+	 * Write the station list, log the processing statistics and generate the extended map boundary.
+	 *
+	 * @param id2BTStation         All stations loaded.
+	 * @param deviceIDSet          All devices loaded.
+	 * @param inputBTStationFolder Output folder of the station list.
+	 * @param boundaryExtension    The buffer size of the map boundary.
+	 * @param distFunc             Distance function.
+	 * @return The boundary of the map region.
+	 */
+	private Rectangle summarizeStations(Map<String, BTStation> id2BTStation, Set<Long> deviceIDSet, String inputBTStationFolder,
+										double boundaryExtension, DistanceFunction distFunc) {
 		double minLon = Double.POSITIVE_INFINITY;
 		double minLat = Double.POSITIVE_INFINITY;
 		double maxLon = Double.NEGATIVE_INFINITY;
@@ -116,8 +340,8 @@ public class ObservationPreprocess {
 			btStationList.add(station);
 		}
 		
-		btObservationLoader.printStatistics();
 		ObjectWriter.writeBTStationFile(btStationList, inputBTStationFolder);
+		ObjectWriter.writeStationDistanceMatrix(StationDistanceMatrix.registered(btStationList), inputBTStationFolder);
 		LOG.info("Total number of Bluetooth readers: " + btStationList.size() + ".");
 		LOG.info("Total number of Bluetooth devices: " + deviceIDSet.size());
 		LOG.info("Current map region is " + minLon + "," + maxLon + "," + minLat + "," + maxLat + ".");
@@ -128,93 +352,155 @@ public class ObservationPreprocess {
 		maxLat = maxLat + distFunc.getCoordinateOffsetY(boundaryExtension, (maxLon + minLon) / 2);
 		LOG.info("The bounding box is set to " + minLon + "," + maxLon + "," + minLat + "," + maxLat + " for map extraction.");
 		
-		LOG.info("Segmentation finished. Total number of sequences: " + sequenceCount + ", total number of observations: "
-				+ obCount + ", average observation per sequence: " + (obCount / sequenceCount) + ", average time gap: " + (totalTimeDiff / gapCount) +
-				", average duration: " + (totalDuration / obCount) + ", number of long stay points: " + longDurationObCount + ", maximum duration: " + maxDuration
-				+ ", number of potential pedestrian sequence (<5km/h): " + lowSpeedSequences + ". ");
+		if (observationRepair != null)
+			observationRepair.printStatistics();
+		SegmentationStatistics stats = segmentationStatistics;
+		if (sequenceCount > 0)
+			LOG.info("Segmentation finished. Total number of sequences: " + sequenceCount + ", total number of observations: "
+					+ stats.getObCount() + ", average observation per sequence: " + (stats.getObCount() / sequenceCount) + ", average time gap: " +
+					(stats.getTotalTimeDiff() / stats.getGapCount()) + ", average duration: " + (stats.getTotalDuration() / stats.getObCount()) +
+					", number of long stay points: " + stats.getLongDurationObCount() + ", maximum duration: " + stats.getMaxDuration()
+					+ ", number of potential pedestrian sequence (<5km/h): " + stats.getLowSpeedSequences() + ". ");
 		
 		return new Rectangle(minLon, minLat, maxLon, maxLat, distFunc);
 	}
 	
+	/**
+	 * Streaming version of <tt>rawObservationLoader()</tt> for observation folders that do not fit in memory. Each month is loaded
+	 * through <tt>BTObservationLoader.loadRawObservationsStreaming()</tt>, and every device sequence is written and segmented as soon as
+	 * it is merged, so the memory consumption does not grow with the size of the month.
+	 *
+	 * @param rawBTObFolder         Input Bluetooth observation folder.
+	 * @param inputBTStationFolder  Input list of Bluetooth stations.
+	 * @param rawObSequenceFolder   Output unsegmented Bluetooth sequences.
+	 * @param inputObSequenceFolder Output segmented Bluetooth sequences.
+	 * @param tempFolder            Folder for the temporary observation runs.
+	 * @param maxObInMemory         The maximum number of observations buffered before spilling to the temporary folder.
+	 * @param boundaryExtension     The buffer size of the map boundary.
+	 * @param distFunc              Distance function.
+	 * @return The boundary of the map region.
+	 */
+	public Rectangle rawObservationStreamingLoader(String rawBTObFolder, String inputBTStationFolder, String rawObSequenceFolder,
+												   String inputObSequenceFolder, String tempFolder, int maxObInMemory,
+												   double boundaryExtension, DistanceFunction distFunc) {
+		int maxTimeGap = 1200;    // the maximum time gap (sec) between two observations within one trip, used for sequence segmentation
+		IOService.cleanFolder(rawObSequenceFolder);
+		IOService.cleanFolder(inputObSequenceFolder);
+		Map<String, BTStation> id2BTStation = new LinkedHashMap<>();
+		Set<Long> deviceIDSet = new HashSet<>();
+		BTObservationLoader btObservationLoader = new BTObservationLoader();
+		Map<String, List<File>> fileName2InputFiles = groupObservationFiles(rawBTObFolder);
+		int batchIndex = 0;
+		for (Map.Entry<String, List<File>> entry : fileName2InputFiles.entrySet()) {
+			LOG.info("Processing " + (++batchIndex) + "/" + fileName2InputFiles.size() + " folder.");
+			streamObservationBatch(btObservationLoader, entry.getValue(), entry.getKey(), rawObSequenceFolder, inputObSequenceFolder,
+					tempFolder, maxObInMemory, maxTimeGap, id2BTStation, deviceIDSet, distFunc);
+		}
+		btObservationLoader.printStatistics();
+		return summarizeStations(id2BTStation, deviceIDSet, inputBTStationFolder, boundaryExtension, distFunc);
+	}
+	
+	/**
+	 * Load one batch of observation files in streaming mode, write the unsegmented and segmented sequences to the given file and
+	 * register the stations and devices found.
+	 */
+	private void streamObservationBatch(BTObservationLoader btObservationLoader, List<File> inputFileList, String fileName,
+										String rawObSequenceFolder, String inputObSequenceFolder, String tempFolder, int maxObInMemory,
+										int maxTimeGap, Map<String, BTStation> id2BTStation, Set<Long> deviceIDSet,
+										DistanceFunction distFunc) {
+		int[] segmentedSequenceCount = new int[1];
+		List<BTStation> btStationList;
+		try (BufferedWriter rawWriter = ObjectWriter.openObSequenceWriter(rawObSequenceFolder, fileName);
+			 BufferedWriter segmentedWriter = binarySequenceOutput ? null :
+					 ObjectWriter.openObSequenceWriter(inputObSequenceFolder, fileName);
+			 ObSequenceBinaryWriter segmentedBinaryWriter = binarySequenceOutput ?
+					 ObjectWriter.openObSequenceBinaryWriter(inputObSequenceFolder, toBinaryFileName(fileName)) : null) {
+			btStationList = btObservationLoader.loadRawObservationsStreaming(inputFileList, tempFolder, maxObInMemory, distFunc,
+					currObSequence -> {
+						deviceIDSet.add(currObSequence.getDeviceID());
+						List<OBSequence> currObSeqList = Collections.singletonList(currObSequence);
+						if (observationRepair != null)
+							currObSeqList = observationRepair.repair(currObSeqList);
+						List<OBSequence> segmentedObSeqList = obSequenceSegmentation(currObSeqList, maxTimeGap, segmentedSequenceCount[0],
+								distFunc);
+						segmentedSequenceCount[0] += segmentedObSeqList.size();
+						try {
+							ObjectWriter.writeObSequence(rawWriter, currObSequence);
+							for (OBSequence segmentedObSeq : segmentedObSeqList) {
+								if (segmentedBinaryWriter != null)
+									segmentedBinaryWriter.write(segmentedObSeq);
+								else
+									ObjectWriter.writeObSequence(segmentedWriter, segmentedObSeq);
+							}
+						} catch (IOException e) {
+							throw new UncheckedIOException("Failed to write observation sequence " + currObSequence.getSequenceID(), e);
+						}
+					});
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write observation sequence file " + fileName, e);
+		}
+		registerStations(id2BTStation, btStationList);
+		sequenceCount += segmentedSequenceCount[0];
+	}
+	
+	/**
+	 * Write the segmented sequences in the format specified by <tt>setBinarySequenceOutput()</tt>.
+	 */
+	private void writeSegmentedSequences(ObservationStore segmentedObStore, String inputObSequenceFolder, String fileName) {
+		if (binarySequenceOutput)
+			ObjectWriter.writeObservationStoreToBinaryFile(segmentedObStore, inputObSequenceFolder, toBinaryFileName(fileName));
+		else
+			ObjectWriter.writeObservationStoreToFile(segmentedObStore, inputObSequenceFolder, fileName);
+	}
+	
+	private static String toBinaryFileName(String fileName) {
+		return fileName.substring(0, fileName.lastIndexOf('.')) + ".bin";
+	}
+	
+	/**
+	 * Merge the newly loaded stations into the station collection. The same station should not appear at different locations.
+	 *
+	 * @param id2BTStation  The stations registered so far.
+	 * @param btStationList The newly loaded stations.
+	 */
+	private void registerStations(Map<String, BTStation> id2BTStation, List<BTStation> btStationList) {
+		for (BTStation btStation : btStationList) {
+			if (id2BTStation.containsKey(btStation.getID())) {
+				if (!id2BTStation.get(btStation.getID()).getCentre().equals2D(btStation.getCentre()))
+					throw new IllegalArgumentException("The same Bluetooth reader has different location: " + btStation.getID() + "," +
+							id2BTStation.get(btStation.getID()).getCentre().toString() + "," + btStation.getCentre().toString());
+			} else
+				id2BTStation.put(btStation.getID(), btStation);
+		}
+	}
+	
 	/**
 	 * Segment the observation sequences based on time and average speed. The current sequence is to be divided if its time gap exceed
 	 * the threshold and the average speed to the next location is less than 15km/h.
 	 *
 	 * @param oriSequenceList Original observation sequences.
 	 * @param maxTimeGap      The maximum time gap between two consecutive sequences.
+	 * @param startID         The id of the first generated sequence.
+	 * @param distFunc        Not used any more, the distances are given by <tt>BTStation.distanceTo()</tt>, which uses the distance
+	 *                        function of each station. Kept for the existing callers.
 	 * @return The segmented observation sequences.
 	 */
 	public List<OBSequence> obSequenceSegmentation(List<OBSequence> oriSequenceList, int maxTimeGap, int startID,
 												   DistanceFunction distFunc) {
-		List<OBSequence> resultObSequenceList = new ArrayList<>();
-		for (OBSequence currObSeq : oriSequenceList) {
-			List<BTObservation> currObList = new ArrayList<>();
-			currObList.add(currObSeq.getObservationList().get(0));
-			for (int i = 0; i < currObSeq.getObservationList().size() - 1; i++) {
-				BTObservation currOb = currObSeq.getObservationList().get(i);
-				BTObservation nextOb = currObSeq.getObservationList().get(i + 1);
-				boolean isEndReached = false;
-				while (nextOb.getLeaveTime() < currOb.getLeaveTime()) {    // next ob is fully contained by the current one, waive it
-					i++;
-					if (i < currObSeq.getObservationList().size() - 1) {
-						nextOb = currObSeq.getObservationList().get(i + 1);
-					} else {
-						isEndReached = true;
-						break;
-					}
-				}
-				if (isEndReached)
-					break;
-				long timeDiff = nextOb.getEnterTime() - currOb.getLeaveTime();
-				double avgSpeed = distFunc.distance(nextOb.getStation().getCentre(), currOb.getStation().getCentre()) / timeDiff;
-				if (timeDiff > maxTimeGap && avgSpeed < 4.17) {    // average speed is less than 15km/h
-//					if (avgSpeed > 1.39)
-//						System.out.println("TEST");
-					// cut the current sequence
-					if (currObList.size() > 1) {
-						OBSequence currSeq = new OBSequence(startID, currObList);
-						if (currSeq.length() != 0) {
-							startID++;
-							resultObSequenceList.add(currSeq);
-						}
-						currObList = new ArrayList<>();
-						currObList.add(nextOb);
-					} else    // only one observation exists in the list, ignore it
-						currObList = new ArrayList<>();
-				} else {
-					currObList.add(nextOb);
-				}
-			}
-			if (currObList.size() > 1) {    // the end of the sequence
-				OBSequence currSeq = new OBSequence(startID, currObList);
-				if (currSeq.length() != 0) {
-					startID++;
-					resultObSequenceList.add(currSeq);
-				}
-			}
-		}
-		for (OBSequence currObSeq : resultObSequenceList) {
-			double distance = 0;
-			obCount += currObSeq.size();
-			long duration = currObSeq.getObservationList().get(0).getLeaveTime() - currObSeq.getObservationList().get(0).getEnterTime();
-			totalDuration += Math.min(duration, 300);
-			if (duration > 300)
-				longDurationObCount++;
-			maxDuration = Math.max(maxDuration, duration);
-			for (int i = 0; i < currObSeq.getObservationList().size() - 1; i++) {
-				BTObservation currOb = currObSeq.getObservationList().get(i);
-				BTObservation nextOb = currObSeq.getObservationList().get(i + 1);
-				distance += distFunc.distance(currOb.getStation().getCentre(), nextOb.getStation().getCentre());
-				totalTimeDiff += Math.max(nextOb.getEnterTime() - currOb.getLeaveTime(), 0);
-				duration = nextOb.getLeaveTime() - nextOb.getEnterTime();
-				maxDuration = Math.max(maxDuration, duration);
-				totalDuration += duration;
-				gapCount++;
-			}
-			double avgSpeed = distance / (currObSeq.getEndTime() - currObSeq.getStartTime());
-			if (avgSpeed < 1.39 && avgSpeed > 0)    // pedestrian
-				lowSpeedSequences++;
-		}
-		return resultObSequenceList;
+		return obSequenceSegmentation(ObservationStore.fromOBSequenceList(oriSequenceList), maxTimeGap, startID).toOBSequenceList();
+	}
+	
+	/**
+	 * Same as <tt>obSequenceSegmentation(List, int, int, DistanceFunction)</tt> but runs on an observation store. The observations of
+	 * the segments are copied into a new store that shares the dictionaries of the original one, no observation object is created. The
+	 * device sequences are segmented in parallel when the parallelism is larger than one, see <tt>ObSequenceSegmenter</tt>.
+	 *
+	 * @param oriObStore The original observation store.
+	 * @param maxTimeGap The maximum time gap (sec) between two observations within one trip.
+	 * @param startID    The id of the first generated sequence.
+	 * @return The store of segmented sequences.
+	 */
+	public ObservationStore obSequenceSegmentation(ObservationStore oriObStore, int maxTimeGap, int startID) {
+		return new ObSequenceSegmenter(maxTimeGap, parallelism).segment(oriObStore, startID, segmentationStatistics);
 	}
-}
\ No newline at end of file
+}
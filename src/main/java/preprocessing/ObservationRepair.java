@@ -0,0 +1,275 @@
+package preprocessing;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.object.OBSequence;
+import util.object.ObservationStore;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Repair of the observation sequences before segmentation. Each device sequence is sorted by enter time if necessary and scanned once,
+ * each observation is compared with the previous kept one and handled by the first matching rule:
+ * <ul>
+ * <li>Duplicate: the same station, entered within <tt>maxDuplicateGap</tt> after the previous observation leaves.</li>
+ * <li>Containment: the observation leaves no later than the previous one.</li>
+ * <li>Overlap: the observation enters before the previous one leaves.</li>
+ * </ul>
+ * The action of each rule is chosen by its policy. By default the duplicates are merged, the contained observations are dropped and
+ * the overlaps are trimmed. Unless the containment or overlap policy is <tt>KEEP</tt>, every observation of the repaired sequences
+ * enters no earlier than the previous one leaves, so <tt>OBSequence.chronologyCheck()</tt> always holds. The sequence IDs and device
+ * IDs are kept. The number of actions of each rule is counted over all calls. The repair is not thread-safe.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class ObservationRepair {
+	
+	private static final Logger LOG = LogManager.getLogger(ObservationRepair.class);
+	private DuplicatePolicy duplicatePolicy = DuplicatePolicy.MERGE;
+	private ContainmentPolicy containmentPolicy = ContainmentPolicy.DROP_CONTAINED;
+	private OverlapPolicy overlapPolicy = OverlapPolicy.TRIM_NEXT;
+	private long maxDuplicateGap = 0;
+	// statistics
+	private long sequenceCount = 0;
+	private long repairedSequenceCount = 0;
+	private long resortedSequenceCount = 0;
+	private long inputObCount = 0;
+	private long outputObCount = 0;
+	private long mergedDuplicateCount = 0;
+	private long droppedDuplicateCount = 0;
+	private long droppedContainedCount = 0;
+	private long droppedContainerCount = 0;
+	private long keptContainmentCount = 0;
+	private long trimmedOverlapCount = 0;
+	private long keptOverlapCount = 0;
+	
+	public void setDuplicatePolicy(DuplicatePolicy duplicatePolicy) {
+		this.duplicatePolicy = duplicatePolicy;
+	}
+	
+	public void setContainmentPolicy(ContainmentPolicy containmentPolicy) {
+		this.containmentPolicy = containmentPolicy;
+	}
+	
+	public void setOverlapPolicy(OverlapPolicy overlapPolicy) {
+		this.overlapPolicy = overlapPolicy;
+	}
+	
+	/**
+	 * Set the maximum time (sec) between two observations at the same station to be regarded as duplicates, 0 by default so only the
+	 * overlapping or adjacent ones are.
+	 *
+	 * @param maxDuplicateGap The maximum gap in second.
+	 */
+	public void setMaxDuplicateGap(long maxDuplicateGap) {
+		if (maxDuplicateGap < 0)
+			throw new IllegalArgumentException("The maximum duplicate gap should be non-negative: " + maxDuplicateGap);
+		this.maxDuplicateGap = maxDuplicateGap;
+	}
+	
+	/**
+	 * Repair all sequences of the list.
+	 *
+	 * @param obSequenceList The original sequences, which are not changed.
+	 * @return The repaired sequences.
+	 */
+	public List<OBSequence> repair(List<OBSequence> obSequenceList) {
+		return repair(ObservationStore.fromOBSequenceList(obSequenceList)).toOBSequenceList();
+	}
+	
+	/**
+	 * Repair all sequences of the store.
+	 *
+	 * @param oriObStore The original observation store.
+	 * @return The store of repaired sequences, which shares the dictionaries of the original store.
+	 */
+	public ObservationStore repair(ObservationStore oriObStore) {
+		ObservationStore.Builder builder = new ObservationStore.Builder(oriObStore);
+		for (int seqIndex = 0; seqIndex < oriObStore.getSequenceCount(); seqIndex++) {
+			builder.addSequence(oriObStore.getSequenceID(seqIndex), oriObStore.getDeviceID(seqIndex));
+			repairSequence(oriObStore, seqIndex, builder);
+		}
+		return builder.build();
+	}
+	
+	/**
+	 * Scan the sequence once and add the repaired observations to the builder. The previous observation is kept in local variables until
+	 * the next one is accepted, since the rules may still shorten or replace it.
+	 */
+	private void repairSequence(ObservationStore store, int seqIndex, ObservationStore.Builder builder) {
+		int start = store.getSequenceStart(seqIndex);
+		int end = store.getSequenceEnd(seqIndex);
+		sequenceCount++;
+		inputObCount += end - start;
+		if (start == end)
+			return;
+		int[] order = sortedOrder(store, start, end);
+		long actionCount = countActions();
+		int prevOb = order == null ? start : order[0];
+		long prevEnterTime = store.getEnterTime(prevOb);
+		long prevLeaveTime = store.getLeaveTime(prevOb);
+		int prevStation = store.getStationIndex(prevOb);
+		int prevOwner = store.getOwnerCode(prevOb);
+		for (int k = start + 1; k < end; k++) {
+			int currOb = order == null ? k : order[k - start];
+			long enterTime = Math.max(store.getEnterTime(currOb), prevEnterTime);    // the previous observation may be trimmed already
+			long leaveTime = store.getLeaveTime(currOb);
+			if (leaveTime < enterTime) {    // within the time trimmed off the previous observation, which is covered by an earlier one
+				droppedContainedCount++;
+				continue;
+			}
+			int station = store.getStationIndex(currOb);
+			if (duplicatePolicy != DuplicatePolicy.KEEP && station == prevStation && enterTime <= prevLeaveTime + maxDuplicateGap) {
+				if (duplicatePolicy == DuplicatePolicy.MERGE) {
+					prevLeaveTime = Math.max(prevLeaveTime, leaveTime);
+					mergedDuplicateCount++;
+				} else
+					droppedDuplicateCount++;
+				continue;
+			}
+			if (enterTime < prevLeaveTime) {
+				if (leaveTime <= prevLeaveTime) {    // contained by the previous observation
+					if (containmentPolicy == ContainmentPolicy.DROP_CONTAINED) {
+						droppedContainedCount++;
+						continue;
+					} else if (containmentPolicy == ContainmentPolicy.DROP_CONTAINER) {
+						droppedContainerCount++;
+						prevEnterTime = enterTime;
+						prevLeaveTime = leaveTime;
+						prevStation = station;
+						prevOwner = store.getOwnerCode(currOb);
+						continue;
+					}
+					keptContainmentCount++;
+				} else if (overlapPolicy == OverlapPolicy.KEEP) {
+					keptOverlapCount++;
+				} else {
+					if (overlapPolicy == OverlapPolicy.TRIM_NEXT) {
+						enterTime = prevLeaveTime;
+					} else if (overlapPolicy == OverlapPolicy.TRIM_PREVIOUS) {
+						prevLeaveTime = enterTime;
+					} else {
+						long middle = enterTime + (prevLeaveTime - enterTime) / 2;
+						prevLeaveTime = middle;
+						enterTime = middle;
+					}
+					trimmedOverlapCount++;
+				}
+			}
+			builder.addObservation(prevEnterTime, prevLeaveTime, prevStation, prevOwner);
+			outputObCount++;
+			prevEnterTime = enterTime;
+			prevLeaveTime = leaveTime;
+			prevStation = station;
+			prevOwner = store.getOwnerCode(currOb);
+		}
+		builder.addObservation(prevEnterTime, prevLeaveTime, prevStation, prevOwner);
+		outputObCount++;
+		if (order != null || countActions() != actionCount)
+			repairedSequenceCount++;
+	}
+	
+	/**
+	 * @return The observation indices sorted by enter and leave time, or null if the sequence is sorted already.
+	 */
+	private int[] sortedOrder(ObservationStore store, int start, int end) {
+		boolean isSorted = true;
+		for (int i = start; i < end - 1 && isSorted; i++) {
+			isSorted = store.getEnterTime(i) < store.getEnterTime(i + 1) || (store.getEnterTime(i) == store.getEnterTime(i + 1)
+					&& store.getLeaveTime(i) <= store.getLeaveTime(i + 1));
+		}
+		if (isSorted)
+			return null;
+		resortedSequenceCount++;
+		Integer[] order = new Integer[end - start];
+		for (int i = start; i < end; i++)
+			order[i - start] = i;
+		Arrays.sort(order, (a, b) -> {
+			int result = Long.compare(store.getEnterTime(a), store.getEnterTime(b));
+			return result != 0 ? result : Long.compare(store.getLeaveTime(a), store.getLeaveTime(b));
+		});
+		int[] result = new int[order.length];
+		for (int i = 0; i < order.length; i++)
+			result[i] = order[i];
+		return result;
+	}
+	
+	private long countActions() {
+		return mergedDuplicateCount + droppedDuplicateCount + droppedContainedCount + droppedContainerCount + keptContainmentCount
+				+ trimmedOverlapCount + keptOverlapCount;
+	}
+	
+	public long getMergedDuplicateCount() {
+		return mergedDuplicateCount;
+	}
+	
+	public long getDroppedDuplicateCount() {
+		return droppedDuplicateCount;
+	}
+	
+	public long getDroppedContainedCount() {
+		return droppedContainedCount;
+	}
+	
+	public long getDroppedContainerCount() {
+		return droppedContainerCount;
+	}
+	
+	public long getKeptContainmentCount() {
+		return keptContainmentCount;
+	}
+	
+	public long getTrimmedOverlapCount() {
+		return trimmedOverlapCount;
+	}
+	
+	public long getKeptOverlapCount() {
+		return keptOverlapCount;
+	}
+	
+	public long getResortedSequenceCount() {
+		return resortedSequenceCount;
+	}
+	
+	public long getRepairedSequenceCount() {
+		return repairedSequenceCount;
+	}
+	
+	public void printStatistics() {
+		LOG.info("Observation repair finished. Sequences: " + sequenceCount + ", repaired: " + repairedSequenceCount + ", re-sorted: "
+				+ resortedSequenceCount + ". Observations in: " + inputObCount + ", out: " + outputObCount + ".");
+		LOG.info("Duplicates merged: " + mergedDuplicateCount + ", dropped: " + droppedDuplicateCount + ". Contained observations dropped: "
+				+ droppedContainedCount + ", containers replaced: " + droppedContainerCount + ", containments kept: " + keptContainmentCount
+				+ ". Overlaps trimmed: " + trimmedOverlapCount + ", kept: " + keptOverlapCount + ".");
+	}
+	
+	/**
+	 * Action on two consecutive observations at the same station.
+	 */
+	public enum DuplicatePolicy {
+		MERGE,    // extend the previous observation to the later leave time
+		DROP_NEXT,    // keep the previous observation as it is
+		KEEP    // not treated as duplicates, the other rules apply
+	}
+	
+	/**
+	 * Action on an observation contained by the previous one.
+	 */
+	public enum ContainmentPolicy {
+		DROP_CONTAINED,    // drop the contained observation, the same as the segmentation does
+		DROP_CONTAINER,    // replace the previous observation, whose long stay is less precise
+		KEEP
+	}
+	
+	/**
+	 * Action on an observation that enters before the previous one leaves and leaves after it.
+	 */
+	public enum OverlapPolicy {
+		TRIM_NEXT,    // the observation enters when the previous one leaves
+		TRIM_PREVIOUS,    // the previous observation leaves when the observation enters
+		SPLIT,    // both are cut at the middle of the overlap
+		KEEP
+	}
+}
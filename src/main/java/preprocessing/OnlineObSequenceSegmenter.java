@@ -0,0 +1,410 @@
+package preprocessing;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.object.BTObservation;
+import util.object.OBSequence;
+import util.object.StationDistanceMatrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Online version of the sequence segmentation for a live feed of Bluetooth observations. It applies the same rule as
+ * <tt>ObSequenceSegmenter</tt>: the trip of a device is cut if the time gap to the next observation exceeds <tt>maxTimeGap</tt> and the
+ * average speed is less than 15km/h, the observations contained by the previous one are ignored, and a trip with one observation is
+ * dropped together with the observation after the cut. The closed trips are sent to the sequence consumer as soon as they are known.
+ * <p>
+ * The time is driven by the observations. The watermark is the latest enter time seen minus <tt>allowedLateness</tt>, the observations
+ * of a device are buffered and sorted until the watermark passes them, since a later observation may enter at the same time but leave
+ * earlier, and the observations behind the watermark are dropped as late.
+ * The open trip of a device is closed once the watermark is more than <tt>idleTimeout</tt> after its last leave time. The devices are
+ * kept in a timer wheel with one-second slots, so each watermark step only visits the devices that are due.
+ * <p>
+ * A device whose closed trip has a single observation is kept as a marker, so that its next observation is dropped as in the batch
+ * segmentation. The number of devices, including the markers, is limited by <tt>maxDeviceCount</tt>: the oldest markers are removed
+ * first, then the trip that is due first is closed early. The result equals the batch segmentation of the sorted device sequences
+ * if no observation is late, no device is removed early and <tt>idleTimeout</tt> is at least <tt>getExactIdleTimeout()</tt>, except that
+ * the sequence IDs follow the order in which the trips are closed. The segmenter is not thread-safe.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class OnlineObSequenceSegmenter implements Consumer<BTObservation> {
+	
+	private static final Logger LOG = LogManager.getLogger(OnlineObSequenceSegmenter.class);
+	private static final double MIN_TRIP_SPEED = 4.17;    // 15km/h, the trip is cut only if the device moves slower during the gap
+	private static final int MAX_WHEEL_SIZE = 1 << 20;
+	private final int maxTimeGap;
+	private final long idleTimeout;
+	private final long allowedLateness;
+	private final int maxDeviceCount;
+	private final Consumer<OBSequence> sequenceConsumer;
+	private final Map<Long, DeviceState> deviceID2State = new HashMap<>();
+	private final DeviceState[] wheel;    // the first device of each slot, a device is in the slot of its deadline
+	private final int wheelMask;
+	private DeviceState markerHead;    // the devices with a dropped single-observation trip, oldest first
+	private DeviceState markerTail;
+	private long watermark = Long.MIN_VALUE;
+	private long nextSequenceID;
+	// statistics
+	private long obCount = 0;
+	private long lateObCount = 0;
+	private long containedObCount = 0;
+	private long sequenceCount = 0;
+	private long sequenceObCount = 0;
+	private long stationaryTripCount = 0;
+	private long earlyClosedTripCount = 0;
+	private long removedMarkerCount = 0;
+	
+	/**
+	 * @param maxTimeGap       The maximum time gap (sec) between two observations within one trip.
+	 * @param idleTimeout      The time (sec) after the last observation of a device when its trip is closed, at least
+	 *                         <tt>maxTimeGap</tt>.
+	 * @param allowedLateness  The time (sec) an observation may arrive after the observations that enter later.
+	 * @param maxDeviceCount   The maximum number of devices kept in the state table.
+	 * @param startID          The id of the first generated sequence.
+	 * @param sequenceConsumer Receiver of the closed sequences.
+	 */
+	public OnlineObSequenceSegmenter(int maxTimeGap, long idleTimeout, long allowedLateness, int maxDeviceCount, long startID,
+									 Consumer<OBSequence> sequenceConsumer) {
+		if (idleTimeout < maxTimeGap)
+			throw new IllegalArgumentException("The idle timeout should be at least the maximum time gap: " + idleTimeout);
+		if (allowedLateness < 0)
+			throw new IllegalArgumentException("The allowed lateness should be non-negative: " + allowedLateness);
+		if (maxDeviceCount < 1)
+			throw new IllegalArgumentException("The maximum device count should be at least one: " + maxDeviceCount);
+		this.maxTimeGap = maxTimeGap;
+		this.idleTimeout = idleTimeout;
+		this.allowedLateness = allowedLateness;
+		this.maxDeviceCount = maxDeviceCount;
+		this.nextSequenceID = startID;
+		this.sequenceConsumer = sequenceConsumer;
+		int wheelSize = 64;
+		while (wheelSize < MAX_WHEEL_SIZE && wheelSize <= idleTimeout + allowedLateness + 1)
+			wheelSize <<= 1;
+		this.wheel = new DeviceState[wheelSize];
+		this.wheelMask = wheelSize - 1;
+	}
+	
+	/**
+	 * The shortest idle timeout that never closes a trip the batch segmentation would continue. A later observation continues the trip
+	 * unless its gap exceeds <tt>maxTimeGap</tt> and it is too slow to come from the farthest station.
+	 *
+	 * @param maxTimeGap    The maximum time gap (sec) between two observations within one trip.
+	 * @param stationMatrix All stations of the feed.
+	 * @return The idle timeout in second.
+	 */
+	public static long getExactIdleTimeout(int maxTimeGap, StationDistanceMatrix stationMatrix) {
+		double maxDistance = 0;
+		for (int i = 0; i < stationMatrix.size(); i++) {
+			for (int j = i + 1; j < stationMatrix.size(); j++)
+				maxDistance = Math.max(maxDistance, stationMatrix.distance(i, j));
+		}
+		return Math.max(maxTimeGap, (long) Math.ceil(maxDistance / MIN_TRIP_SPEED));
+	}
+	
+	/**
+	 * Add an observation from the feed.
+	 *
+	 * @param observation The observation.
+	 */
+	@Override
+	public void accept(BTObservation observation) {
+		obCount++;
+		long enterTime = observation.getEnterTime();
+		if (enterTime < watermark) {
+			lateObCount++;
+			return;
+		}
+		advanceWatermark(enterTime - allowedLateness);
+		DeviceState state = deviceID2State.get(observation.getDeviceID());
+		if (state == null) {
+			if (deviceID2State.size() >= maxDeviceCount)
+				removeOldestDevice();
+			state = new DeviceState(observation.getDeviceID());
+			deviceID2State.put(state.deviceID, state);
+		} else if (state.slot == DeviceState.IN_MARKER_LIST) {
+			unlinkMarker(state);
+		} else {
+			unlinkTimer(state);
+		}
+		if (state.pendingList == null)
+			state.pendingList = new ArrayList<>();
+		int i = state.pendingList.size();
+		while (i > 0 && state.pendingList.get(i - 1).compareTo(observation) > 0)
+			i--;
+		state.pendingList.add(i, observation);
+		scheduleTimer(state);
+	}
+	
+	/**
+	 * Move the watermark forward and process the devices that are due. The watermark never moves back.
+	 *
+	 * @param time The new watermark.
+	 */
+	public void advanceWatermark(long time) {
+		if (time <= watermark)
+			return;
+		long previousWatermark = watermark;
+		watermark = time;
+		if (previousWatermark == Long.MIN_VALUE || time - previousWatermark >= wheel.length) {
+			for (int slot = 0; slot < wheel.length; slot++)
+				processSlot(slot);
+		} else {
+			for (long tick = previousWatermark + 1; tick <= time; tick++)
+				processSlot((int) (tick & wheelMask));
+		}
+	}
+	
+	/**
+	 * Close all open trips at the end of the feed, including the buffered observations.
+	 */
+	public void flush() {
+		for (DeviceState state : deviceID2State.values()) {
+			if (state.pendingList != null) {
+				for (BTObservation observation : state.pendingList)
+					applyRule(state, observation);
+			}
+			if (state.segment.size() > 1)
+				emitSequence(state.segment);
+		}
+		deviceID2State.clear();
+		Arrays.fill(wheel, null);
+		markerHead = null;
+		markerTail = null;
+	}
+	
+	public long getWatermark() {
+		return watermark;
+	}
+	
+	/**
+	 * @return The number of devices in the state table, including the markers of dropped trips.
+	 */
+	public int getDeviceCount() {
+		return deviceID2State.size();
+	}
+	
+	public long getSequenceCount() {
+		return sequenceCount;
+	}
+	
+	public long getLateObCount() {
+		return lateObCount;
+	}
+	
+	public long getEarlyClosedTripCount() {
+		return earlyClosedTripCount;
+	}
+	
+	public void printStatistics() {
+		LOG.info("Online segmentation received " + obCount + " observations, " + lateObCount + " late and " + containedObCount
+				+ " contained observations are dropped. Number of sequences: " + sequenceCount + ", number of observations in sequences: "
+				+ sequenceObCount + ", stationary trips dropped: " + stationaryTripCount + ", trips closed early due to the state limit: "
+				+ earlyClosedTripCount + ", markers removed: " + removedMarkerCount + ", devices in state: " + deviceID2State.size() + ".");
+	}
+	
+	/**
+	 * The same cut rule as <tt>ObSequenceSegmenter.segmentBatch()</tt>, applied to the next observation of the device.
+	 */
+	private void applyRule(DeviceState state, BTObservation nextOb) {
+		BTObservation currOb = state.lastOb;
+		if (currOb == null) {    // the first observation of the device, or the one after a dropped trip
+			if (!state.isNextDropped)
+				state.segment.add(nextOb);
+			state.isNextDropped = false;
+			state.lastOb = nextOb;
+			return;
+		}
+		if (nextOb.getLeaveTime() < currOb.getLeaveTime()) {    // next ob is contained by the current one
+			containedObCount++;
+			return;
+		}
+		long timeDiff = nextOb.getEnterTime() - currOb.getLeaveTime();
+		double avgSpeed = nextOb.getStation().distanceTo(currOb.getStation()) / timeDiff;
+		if (timeDiff > maxTimeGap && avgSpeed < MIN_TRIP_SPEED) {
+			if (state.segment.size() > 1) {
+				emitSequence(state.segment);
+				state.segment = new ArrayList<>();
+				state.segment.add(nextOb);
+			} else    // only one observation exists in the list, ignore it
+				state.segment.clear();
+		} else {
+			state.segment.add(nextOb);
+		}
+		state.lastOb = nextOb;
+	}
+	
+	/**
+	 * Send the segment to the consumer unless all its observations are at the same location.
+	 */
+	private void emitSequence(List<BTObservation> segment) {
+		double length = 0;
+		for (int i = 0; i < segment.size() - 1; i++)
+			length += segment.get(i + 1).getStation().distanceTo(segment.get(i).getStation());
+		if (length == 0) {
+			stationaryTripCount++;
+			return;
+		}
+		sequenceCount++;
+		sequenceObCount += segment.size();
+		sequenceConsumer.accept(new OBSequence(nextSequenceID++, segment));
+	}
+	
+	private void processSlot(int slot) {
+		DeviceState state = wheel[slot];
+		wheel[slot] = null;
+		while (state != null) {
+			DeviceState next = state.next;
+			state.prev = null;
+			state.next = null;
+			state.slot = DeviceState.UNLINKED;
+			if (state.deadline <= watermark)
+				processDueDevice(state);
+			else    // due in a later round of the wheel
+				linkTimer(state, slot);
+			state = next;
+		}
+	}
+	
+	/**
+	 * Release the buffered observations passed by the watermark and close the trip if the device is idle for too long.
+	 */
+	private void processDueDevice(DeviceState state) {
+		List<BTObservation> pendingList = state.pendingList;
+		if (pendingList != null) {
+			int released = 0;
+			while (released < pendingList.size() && pendingList.get(released).getEnterTime() < watermark)
+				applyRule(state, pendingList.get(released++));
+			pendingList.subList(0, released).clear();
+		}
+		if ((pendingList == null || pendingList.isEmpty()) && state.lastOb.getLeaveTime() + idleTimeout < watermark)
+			closeTrip(state);
+		else
+			scheduleTimer(state);
+	}
+	
+	/**
+	 * Close the trip of an idle device. The device is kept as a marker if its trip has a single observation.
+	 */
+	private void closeTrip(DeviceState state) {
+		if (state.segment.size() > 1) {
+			emitSequence(state.segment);
+			deviceID2State.remove(state.deviceID);
+			return;
+		}
+		state.segment.clear();
+		state.lastOb = null;
+		state.pendingList = null;
+		state.isNextDropped = true;
+		state.slot = DeviceState.IN_MARKER_LIST;
+		state.prev = markerTail;
+		if (markerTail == null)
+			markerHead = state;
+		else
+			markerTail.next = state;
+		markerTail = state;
+	}
+	
+	/**
+	 * Make room for a new device by removing the oldest marker, or closing the trip that is due first.
+	 */
+	private void removeOldestDevice() {
+		if (markerHead != null) {
+			DeviceState marker = markerHead;
+			unlinkMarker(marker);
+			deviceID2State.remove(marker.deviceID);
+			removedMarkerCount++;
+			return;
+		}
+		for (int i = 1; i <= wheel.length; i++) {
+			DeviceState state = wheel[(int) ((watermark + i) & wheelMask)];
+			if (state != null) {
+				unlinkTimer(state);
+				if (state.pendingList != null) {
+					for (BTObservation observation : state.pendingList)
+						applyRule(state, observation);
+				}
+				if (state.segment.size() > 1)
+					emitSequence(state.segment);
+				deviceID2State.remove(state.deviceID);
+				earlyClosedTripCount++;
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Put the device in the slot of its next deadline, which is when the watermark passes its first buffered observation, or when its
+	 * trip is to be closed.
+	 */
+	private void scheduleTimer(DeviceState state) {
+		if (state.pendingList != null && !state.pendingList.isEmpty())
+			state.deadline = state.pendingList.get(0).getEnterTime() + 1;
+		else
+			state.deadline = state.lastOb.getLeaveTime() + idleTimeout + 1;
+		linkTimer(state, (int) (state.deadline & wheelMask));
+	}
+	
+	private void linkTimer(DeviceState state, int slot) {
+		state.slot = slot;
+		state.next = wheel[slot];
+		if (wheel[slot] != null)
+			wheel[slot].prev = state;
+		wheel[slot] = state;
+	}
+	
+	private void unlinkTimer(DeviceState state) {
+		if (state.slot < 0)
+			return;
+		if (state.prev == null)
+			wheel[state.slot] = state.next;
+		else
+			state.prev.next = state.next;
+		if (state.next != null)
+			state.next.prev = state.prev;
+		state.prev = null;
+		state.next = null;
+		state.slot = DeviceState.UNLINKED;
+	}
+	
+	private void unlinkMarker(DeviceState state) {
+		if (state.prev == null)
+			markerHead = state.next;
+		else
+			state.prev.next = state.next;
+		if (state.next == null)
+			markerTail = state.prev;
+		else
+			state.next.prev = state.prev;
+		state.prev = null;
+		state.next = null;
+		state.slot = DeviceState.UNLINKED;
+	}
+	
+	/**
+	 * The open trip of a device, linked in either a timer wheel slot or the marker list.
+	 */
+	private static final class DeviceState {
+		private static final int UNLINKED = -1;
+		private static final int IN_MARKER_LIST = -2;
+		private final long deviceID;
+		private List<BTObservation> segment = new ArrayList<>();
+		private List<BTObservation> pendingList;    // the observations not passed by the watermark, sorted
+		private BTObservation lastOb;    // the last observation that is not contained by the previous one
+		private boolean isNextDropped = false;
+		private long deadline;
+		private int slot = UNLINKED;
+		private DeviceState prev;
+		private DeviceState next;
+		
+		DeviceState(long deviceID) {
+			this.deviceID = deviceID;
+		}
+	}
+}
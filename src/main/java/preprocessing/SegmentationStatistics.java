@@ -0,0 +1,95 @@
+package preprocessing;
+
+import util.object.ObservationStore;
+
+/**
+ * Statistics of the segmented observation sequences. Each segmentation task accumulates its own statistics, which are merged
+ * afterwards. All sums are integer-valued, so the merged result does not depend on the merge order.
+ *
+ * @author Hellisk
+ * @since 15/10/2019
+ */
+public class SegmentationStatistics {
+	
+	private int gapCount = 0;    // total number of gaps
+	private int obCount = 0;    // total observation count
+	private double totalTimeDiff = 0;    // total time difference between pairwise observation
+	private double totalDuration = 0;    // total duration within each reader
+	private long maxDuration = 0;    // the maximum duration
+	private int longDurationObCount = 0;    // number of records whose duration is longer than 300s
+	private int lowSpeedSequences = 0;    // average speed is less than 5km/h
+	
+	/**
+	 * Add the statistics of a segment, whose observations are <tt>obIndices[start, end)</tt> of the store.
+	 *
+	 * @param store     The store that contains the observations.
+	 * @param obIndices The observation indices of the segment.
+	 * @param start     The start position in <tt>obIndices</tt>.
+	 * @param end       The end position (exclusive) in <tt>obIndices</tt>.
+	 */
+	void addSegment(ObservationStore store, int[] obIndices, int start, int end) {
+		double distance = 0;
+		obCount += end - start;
+		long duration = store.getDuration(obIndices[start]);
+		totalDuration += Math.min(duration, 300);
+		if (duration > 300)
+			longDurationObCount++;
+		maxDuration = Math.max(maxDuration, duration);
+		for (int i = start; i < end - 1; i++) {
+			int currOb = obIndices[i];
+			int nextOb = obIndices[i + 1];
+			distance += store.getStation(currOb).distanceTo(store.getStation(nextOb));
+			totalTimeDiff += Math.max(store.getEnterTime(nextOb) - store.getLeaveTime(currOb), 0);
+			duration = store.getDuration(nextOb);
+			maxDuration = Math.max(maxDuration, duration);
+			totalDuration += duration;
+			gapCount++;
+		}
+		double avgSpeed = distance / (store.getLeaveTime(obIndices[end - 1]) - store.getEnterTime(obIndices[start]));
+		if (avgSpeed < 1.39 && avgSpeed > 0)    // pedestrian
+			lowSpeedSequences++;
+	}
+	
+	/**
+	 * Add the statistics of another segmentation to the current one.
+	 *
+	 * @param other The statistics to be merged.
+	 */
+	public void merge(SegmentationStatistics other) {
+		gapCount += other.gapCount;
+		obCount += other.obCount;
+		totalTimeDiff += other.totalTimeDiff;
+		totalDuration += other.totalDuration;
+		maxDuration = Math.max(maxDuration, other.maxDuration);
+		longDurationObCount += other.longDurationObCount;
+		lowSpeedSequences += other.lowSpeedSequences;
+	}
+	
+	public int getGapCount() {
+		return gapCount;
+	}
+	
+	public int getObCount() {
+		return obCount;
+	}
+	
+	public double getTotalTimeDiff() {
+		return totalTimeDiff;
+	}
+	
+	public double getTotalDuration() {
+		return totalDuration;
+	}
+	
+	public long getMaxDuration() {
+		return maxDuration;
+	}
+	
+	public int getLongDurationObCount() {
+		return longDurationObCount;
+	}
+	
+	public int getLowSpeedSequences() {
+		return lowSpeedSequences;
+	}
+}
@@ -0,0 +1,92 @@
+package preprocessing;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.function.ParallelRunner;
+import util.index.RoadNetworkIndex;
+import util.io.ObjectWriter;
+import util.object.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Compute the road network coverage of the Bluetooth stations. A station covers the intersections and the road ways that are within
+ * its radius, the covering nodes and ways are listed from the closest to the farthest. The candidates are found through the spatial
+ * index of the map (<tt>RoadNetworkGraph.getSpatialIndex()</tt>) and the stations are processed in parallel.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class StationCoverageBuilder {
+	
+	private static final Logger LOG = LogManager.getLogger(StationCoverageBuilder.class);
+	private final RoadNetworkGraph roadMap;
+	private final int parallelism;
+	
+	/**
+	 * @param roadMap     The road network.
+	 * @param parallelism The number of threads used for the computation.
+	 */
+	public StationCoverageBuilder(RoadNetworkGraph roadMap, int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("The parallelism should be at least one: " + parallelism);
+		this.roadMap = roadMap;
+		this.parallelism = parallelism;
+	}
+	
+	/**
+	 * Fill the covering node and way lists of the stations, the existing lists are replaced.
+	 *
+	 * @param stationList The stations.
+	 */
+	public void buildCoverage(List<BTStation> stationList) {
+		long startTime = System.currentTimeMillis();
+		RoadNetworkIndex spatialIndex = roadMap.getSpatialIndex();
+		if (parallelism > 1 && stationList.size() > 1) {
+			ParallelRunner.run(parallelism, () -> IntStream.range(0, stationList.size()).parallel()
+					.forEach(i -> buildStationCoverage(stationList.get(i), spatialIndex)), "Station coverage computation");
+		} else {
+			for (BTStation station : stationList)
+				buildStationCoverage(station, spatialIndex);
+		}
+		
+		int uncoveredCount = 0;
+		long coveringNodeCount = 0;
+		long coveringWayCount = 0;
+		for (BTStation station : stationList) {
+			if (station.getCoveringNodeIDList().isEmpty() && station.getCoveringWayIDList().isEmpty())
+				uncoveredCount++;
+			coveringNodeCount += station.getCoveringNodeIDList().size();
+			coveringWayCount += station.getCoveringWayIDList().size();
+		}
+		LOG.info("Station coverage computed for " + stationList.size() + " stations in " + (System.currentTimeMillis() - startTime) / 1000.0
+				+ "s. Average covering nodes: " + (stationList.isEmpty() ? 0 : (double) coveringNodeCount / stationList.size())
+				+ ", average covering ways: " + (stationList.isEmpty() ? 0 : (double) coveringWayCount / stationList.size())
+				+ ", number of stations that cover no road: " + uncoveredCount + ".");
+	}
+	
+	/**
+	 * Fill the coverage of the stations and write them to the station folder, together with the station distance matrix.
+	 *
+	 * @param stationList           The stations.
+	 * @param outputBTStationFolder The output station folder, whose content is replaced.
+	 */
+	public void buildCoverage(List<BTStation> stationList, String outputBTStationFolder) {
+		buildCoverage(stationList);
+		ObjectWriter.writeBTStationFile(stationList, outputBTStationFolder);
+		ObjectWriter.writeStationDistanceMatrix(StationDistanceMatrix.registered(stationList), outputBTStationFolder);
+	}
+	
+	private void buildStationCoverage(BTStation station, RoadNetworkIndex spatialIndex) {
+		List<String> coveringNodeIDList = new ArrayList<>();
+		for (Pair<RoadNode, Double> node : spatialIndex.getNodesWithinRadius(station.getCentre(), station.getRadius()))
+			coveringNodeIDList.add(node._1().getId());
+		List<String> coveringWayIDList = new ArrayList<>();
+		for (Pair<RoadWay, Double> way : spatialIndex.getWaysWithinRadius(station.getCentre(), station.getRadius()))
+			coveringWayIDList.add(way._1().getId());
+		station.setCoveringNodeIDList(coveringNodeIDList);
+		station.setCoveringWayIDList(coveringWayIDList);
+	}
+}
@@ -0,0 +1,279 @@
+package traveltime;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Travel-time distributions of road ways in time-of-day bins. Each (road way, time bin) cell keeps a histogram of the travel time
+ * over logarithmic buckets, whose width grows by <tt>BUCKET_RATIO</tt> so the relative error of the quantiles is about 5%, together
+ * with the exact count and sum. The cells are allocated on the first sample, so the table only stores the road ways and time bins
+ * that are observed.
+ * <p>
+ * The table is not thread-safe. The tables filled by different threads or from different months are combined by <tt>merge()</tt>,
+ * and a table can be saved to and loaded from a binary file. The file starts with a magic number, the version, the bin size and the
+ * number of road ways, followed by each road way ID and its non-empty cells, where each cell lists its non-empty buckets only.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class LinkTravelTimeTable {
+	
+	static final int MAGIC_NUMBER = 0x4C545454;    // "LTTT"
+	static final int VERSION = 1;
+	static final double BUCKET_RATIO = 1.1;
+	static final int BUCKET_COUNT = 128;    // the last bucket starts at about 45 hours
+	private static final double LOG_BUCKET_RATIO = Math.log(BUCKET_RATIO);
+	private final int binMinutes;
+	private final int binCount;
+	private final Map<String, WayHistogram> wayID2Histogram = new HashMap<>();
+	
+	/**
+	 * @param binMinutes The size of the time-of-day bins in minute, which should divide a day.
+	 */
+	public LinkTravelTimeTable(int binMinutes) {
+		if (binMinutes <= 0 || 1440 % binMinutes != 0)
+			throw new IllegalArgumentException("The time bin size should divide a day: " + binMinutes);
+		this.binMinutes = binMinutes;
+		this.binCount = 1440 / binMinutes;
+	}
+	
+	public int getBinMinutes() {
+		return binMinutes;
+	}
+	
+	public int getBinCount() {
+		return binCount;
+	}
+	
+	/**
+	 * @param secondOfDay The local time of day in second.
+	 * @return The time bin that contains the time.
+	 */
+	public int getBin(int secondOfDay) {
+		return secondOfDay / (binMinutes * 60);
+	}
+	
+	/**
+	 * Add a travel time sample.
+	 *
+	 * @param wayID      The road way ID.
+	 * @param bin        The time-of-day bin.
+	 * @param travelTime The travel time of the road way in second.
+	 */
+	public void add(String wayID, int bin, double travelTime) {
+		if (bin < 0 || bin >= binCount)
+			throw new IndexOutOfBoundsException("The time bin is out of range: " + bin);
+		if (!(travelTime >= 0) || Double.isInfinite(travelTime))
+			throw new IllegalArgumentException("Invalid travel time: " + travelTime);
+		wayID2Histogram.computeIfAbsent(wayID, id -> new WayHistogram(binCount)).add(bin, travelTime);
+	}
+	
+	/**
+	 * Add all samples of another table with the same bin size into this table.
+	 *
+	 * @param other The other table, which is not changed.
+	 * @return This table.
+	 */
+	public LinkTravelTimeTable merge(LinkTravelTimeTable other) {
+		if (other.binMinutes != binMinutes)
+			throw new IllegalArgumentException("Cannot merge travel time tables of different bin sizes: " + binMinutes + "," + other.binMinutes);
+		for (Map.Entry<String, WayHistogram> entry : other.wayID2Histogram.entrySet())
+			wayID2Histogram.computeIfAbsent(entry.getKey(), id -> new WayHistogram(binCount)).merge(entry.getValue());
+		return this;
+	}
+	
+	/**
+	 * @return The IDs of the road ways that have at least one sample.
+	 */
+	public Set<String> getWayIDSet() {
+		return Collections.unmodifiableSet(wayID2Histogram.keySet());
+	}
+	
+	public long getCount(String wayID, int bin) {
+		WayHistogram histogram = wayID2Histogram.get(wayID);
+		return histogram == null ? 0 : histogram.counts[bin];
+	}
+	
+	/**
+	 * @return The total number of samples.
+	 */
+	public long getTotalCount() {
+		long count = 0;
+		for (WayHistogram histogram : wayID2Histogram.values()) {
+			for (long binCount : histogram.counts)
+				count += binCount;
+		}
+		return count;
+	}
+	
+	/**
+	 * @param wayID The road way ID.
+	 * @param bin   The time-of-day bin.
+	 * @return The mean travel time in second, or <tt>Double.NaN</tt> if there is no sample.
+	 */
+	public double getMean(String wayID, int bin) {
+		WayHistogram histogram = wayID2Histogram.get(wayID);
+		if (histogram == null || histogram.counts[bin] == 0)
+			return Double.NaN;
+		return histogram.sums[bin] / histogram.counts[bin];
+	}
+	
+	/**
+	 * Estimate the travel time quantile from the histogram, which is the geometric centre of the bucket that contains the quantile.
+	 *
+	 * @param wayID    The road way ID.
+	 * @param bin      The time-of-day bin.
+	 * @param quantile The quantile in [0, 1].
+	 * @return The travel time in second, or <tt>Double.NaN</tt> if there is no sample.
+	 */
+	public double getQuantile(String wayID, int bin, double quantile) {
+		if (quantile < 0 || quantile > 1)
+			throw new IllegalArgumentException("The quantile should be within [0, 1]: " + quantile);
+		WayHistogram histogram = wayID2Histogram.get(wayID);
+		if (histogram == null || histogram.counts[bin] == 0)
+			return Double.NaN;
+		int[] buckets = histogram.buckets[bin];
+		long rank = Math.max(1, (long) Math.ceil(quantile * histogram.counts[bin]));
+		long accumulated = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			accumulated += buckets[i];
+			if (accumulated >= rank)
+				return bucketValue(i);
+		}
+		return bucketValue(BUCKET_COUNT - 1);
+	}
+	
+	/**
+	 * Bucket 0 holds the travel times below one second, bucket i holds [ratio^(i-1), ratio^i).
+	 */
+	static int toBucket(double travelTime) {
+		if (travelTime < 1)
+			return 0;
+		return (int) Math.min(BUCKET_COUNT - 1, 1 + Math.floor(Math.log(travelTime) / LOG_BUCKET_RATIO));
+	}
+	
+	static double bucketValue(int bucket) {
+		if (bucket == 0)
+			return 0.5;
+		return Math.pow(BUCKET_RATIO, bucket - 0.5);
+	}
+	
+	/**
+	 * Write the table to a binary file, the existing file is replaced.
+	 *
+	 * @param file The output file.
+	 */
+	public void write(File file) {
+		try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			outputStream.writeInt(MAGIC_NUMBER);
+			outputStream.writeInt(VERSION);
+			outputStream.writeInt(binMinutes);
+			outputStream.writeInt(wayID2Histogram.size());
+			for (Map.Entry<String, WayHistogram> entry : wayID2Histogram.entrySet()) {
+				WayHistogram histogram = entry.getValue();
+				outputStream.writeUTF(entry.getKey());
+				int usedBinCount = 0;
+				for (int[] buckets : histogram.buckets) {
+					if (buckets != null)
+						usedBinCount++;
+				}
+				outputStream.writeShort(usedBinCount);
+				for (int bin = 0; bin < binCount; bin++) {
+					int[] buckets = histogram.buckets[bin];
+					if (buckets == null)
+						continue;
+					outputStream.writeShort(bin);
+					outputStream.writeDouble(histogram.sums[bin]);
+					int usedBucketCount = 0;
+					for (int count : buckets) {
+						if (count != 0)
+							usedBucketCount++;
+					}
+					outputStream.writeByte(usedBucketCount);
+					for (int i = 0; i < BUCKET_COUNT; i++) {
+						if (buckets[i] != 0) {
+							outputStream.writeByte(i);
+							outputStream.writeInt(buckets[i]);
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write travel time table " + file.getAbsolutePath(), e);
+		}
+	}
+	
+	/**
+	 * Read a table written by <tt>write()</tt>.
+	 *
+	 * @param file The table file.
+	 * @return The table.
+	 */
+	public static LinkTravelTimeTable read(File file) {
+		try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			if (inputStream.readInt() != MAGIC_NUMBER)
+				throw new IllegalArgumentException("The input file is not a travel time table: " + file.getAbsolutePath());
+			int version = inputStream.readInt();
+			if (version != VERSION)
+				throw new IllegalArgumentException("Unsupported travel time table version: " + version);
+			LinkTravelTimeTable table = new LinkTravelTimeTable(inputStream.readInt());
+			int wayCount = inputStream.readInt();
+			for (int i = 0; i < wayCount; i++) {
+				WayHistogram histogram = new WayHistogram(table.binCount);
+				table.wayID2Histogram.put(inputStream.readUTF(), histogram);
+				int usedBinCount = inputStream.readShort();
+				for (int j = 0; j < usedBinCount; j++) {
+					int bin = inputStream.readShort();
+					int[] buckets = new int[BUCKET_COUNT];
+					histogram.buckets[bin] = buckets;
+					histogram.sums[bin] = inputStream.readDouble();
+					int usedBucketCount = inputStream.readUnsignedByte();
+					for (int k = 0; k < usedBucketCount; k++) {
+						int count = buckets[inputStream.readUnsignedByte()] = inputStream.readInt();
+						histogram.counts[bin] += count;
+					}
+				}
+			}
+			return table;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to read travel time table " + file.getAbsolutePath(), e);
+		}
+	}
+	
+	/**
+	 * The histograms of one road way, the bucket array of a bin is allocated on its first sample.
+	 */
+	private static final class WayHistogram {
+		
+		private final int[][] buckets;
+		private final long[] counts;
+		private final double[] sums;
+		
+		WayHistogram(int binCount) {
+			this.buckets = new int[binCount][];
+			this.counts = new long[binCount];
+			this.sums = new double[binCount];
+		}
+		
+		void add(int bin, double travelTime) {
+			if (buckets[bin] == null)
+				buckets[bin] = new int[BUCKET_COUNT];
+			buckets[bin][toBucket(travelTime)]++;
+			counts[bin]++;
+			sums[bin] += travelTime;
+		}
+		
+		void merge(WayHistogram other) {
+			for (int bin = 0; bin < buckets.length; bin++) {
+				if (other.buckets[bin] == null)
+					continue;
+				if (buckets[bin] == null)
+					buckets[bin] = new int[BUCKET_COUNT];
+				for (int i = 0; i < BUCKET_COUNT; i++)
+					buckets[bin][i] += other.buckets[bin][i];
+				counts[bin] += other.counts[bin];
+				sums[bin] += other.sums[bin];
+			}
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package traveltime;
+
+import mapmatching.MatchResult;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.function.ParallelRunner;
+import util.object.BTObservation;
+import util.object.RoadWay;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collector;
+
+/**
+ * Estimate the road way travel times from the map-matched observation sequences. For every two consecutive observations at different
+ * stations, the device leaves the first station at <tt>getLeaveTime()</tt> and reaches the second at <tt>getEnterTime()</tt>, and the
+ * matched path between the two matched roads is assumed to be travelled at a constant speed. The distance is measured between the
+ * positions of the stations on their matched roads (<tt>MatchResult.getMatchedOffset()</tt>). Each road from the first one up to, but
+ * not including, the last one gets a sample, which is the time to travel the whole road at that speed, in the time-of-day bin of the
+ * moment the device passes the middle of the road. The last road is sampled by the next observation pair. The pairs on the same road
+ * or with implausible speed are skipped.
+ * <p>
+ * The estimator accumulates into one <tt>LinkTravelTimeTable</tt>. Each batch is processed in parallel on the thread pool of the
+ * estimator into partial tables which are merged afterwards, and the pool is shut down by <tt>close()</tt>. It can be attached to
+ * <tt>MapMatchingProcess</tt> as the result consumer.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class TravelTimeEstimator implements Consumer<List<MatchResult>>, AutoCloseable {
+	
+	private static final Logger LOG = LogManager.getLogger(TravelTimeEstimator.class);
+	private static final double MIN_SPEED = 0.5;    // in meter per second, the device stops in between if it is slower
+	private static final double MAX_SPEED = 45;
+	private final ZoneRules zoneRules;
+	private final ForkJoinPool estimationPool;    // null if single-threaded
+	private final LinkTravelTimeTable table;
+	private long pairCount = 0;
+	private long skippedPairCount = 0;
+	
+	/**
+	 * @param binMinutes  The size of the time-of-day bins in minute.
+	 * @param zoneId      The time zone of the time of day, which should be the one used to parse the observations.
+	 * @param parallelism The number of threads used for the estimation.
+	 */
+	public TravelTimeEstimator(int binMinutes, ZoneId zoneId, int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("The parallelism should be at least one: " + parallelism);
+		this.table = new LinkTravelTimeTable(binMinutes);
+		this.zoneRules = zoneId.getRules();
+		this.estimationPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+	}
+	
+	/**
+	 * Create the estimator in the system default time zone, the same as the observation parser.
+	 *
+	 * @param binMinutes  The size of the time-of-day bins in minute.
+	 * @param parallelism The number of threads used for the estimation.
+	 */
+	public TravelTimeEstimator(int binMinutes, int parallelism) {
+		this(binMinutes, ZoneId.systemDefault(), parallelism);
+	}
+	
+	/**
+	 * Add the travel time samples of a batch of matching results.
+	 *
+	 * @param resultList The matching results.
+	 */
+	@Override
+	public void accept(List<MatchResult> resultList) {
+		Collector<MatchResult, BatchResult, BatchResult> batchCollector = Collector.of(
+				() -> new BatchResult(table.getBinMinutes()), this::addSamples, BatchResult::merge);
+		BatchResult batchResult;
+		if (estimationPool != null && resultList.size() > 1) {
+			batchResult = ParallelRunner.run(estimationPool, () -> resultList.parallelStream().collect(batchCollector),
+					"Travel time estimation");
+		} else {
+			batchResult = resultList.stream().collect(batchCollector);
+		}
+		synchronized (this) {
+			table.merge(batchResult.table);
+			pairCount += batchResult.pairCount;
+			skippedPairCount += batchResult.skippedPairCount;
+		}
+	}
+	
+	/**
+	 * Shut down the thread pool of the estimator, the accumulated table remains available.
+	 */
+	@Override
+	public void close() {
+		if (estimationPool != null)
+			estimationPool.shutdown();
+	}
+	
+	/**
+	 * @return The accumulated travel time table.
+	 */
+	public LinkTravelTimeTable getTable() {
+		return table;
+	}
+	
+	/**
+	 * Log the number of observation pairs used and skipped.
+	 */
+	public void printStatistics() {
+		LOG.info("Travel time estimated from " + pairCount + " observation pairs, " + skippedPairCount + " pairs are skipped. Number of "
+				+ "road ways: " + table.getWayIDSet().size() + ", number of samples: " + table.getTotalCount() + ".");
+	}
+	
+	/**
+	 * Add the samples of one sequence into the partial result of the batch.
+	 *
+	 * @param batchResult The partial result to fill.
+	 * @param result      The matching result of the sequence.
+	 */
+	void addSamples(BatchResult batchResult, MatchResult result) {
+		List<BTObservation> observationList = result.getSequence().getObservationList();
+		List<RoadWay> matchedWayList = result.getMatchedWayList();
+		List<RoadWay> path = result.getPath();
+		int pathIndex = 0;
+		int usedCount = 0;
+		int skippedCount = 0;
+		for (int i = 0; i < observationList.size() - 1; i++) {
+			BTObservation from = observationList.get(i);
+			BTObservation to = observationList.get(i + 1);
+			if (from.getStation().getID().equals(to.getStation().getID()))
+				continue;
+			RoadWay fromWay = matchedWayList.get(i);
+			RoadWay toWay = matchedWayList.get(i + 1);
+			if (fromWay == null || toWay == null) {
+				skippedCount++;
+				continue;
+			}
+			int start = indexOf(path, fromWay, pathIndex);
+			int end = start == -1 ? -1 : indexOf(path, toWay, start);
+			if (end == -1) {
+				skippedCount++;
+				continue;
+			}
+			pathIndex = start;
+			if (end == start || !isConnected(path, start, end) || !addPairSamples(batchResult.table, path, start, end,
+					result.getMatchedOffset(i), result.getMatchedOffset(i + 1), from.getLeaveTime(), to.getEnterTime()))
+				skippedCount++;
+			else
+				usedCount++;
+		}
+		batchResult.pairCount += usedCount;
+		batchResult.skippedPairCount += skippedCount;
+	}
+	
+	/**
+	 * @return False if the speed of the pair is implausible.
+	 */
+	private boolean addPairSamples(LinkTravelTimeTable currTable, List<RoadWay> path, int start, int end, double startOffset,
+								   double endOffset, long leaveTime, long enterTime) {
+		long duration = enterTime - leaveTime;
+		if (duration <= 0)
+			return false;
+		double distance = endOffset - startOffset;
+		for (int i = start; i < end; i++)
+			distance += path.get(i).getLength();
+		double speed = distance / duration;
+		if (speed < MIN_SPEED || speed > MAX_SPEED)
+			return false;
+		double roadStart = -startOffset;    // the distance from the first station to the start of the current road
+		for (int i = start; i < end; i++) {
+			double length = path.get(i).getLength();
+			long passTime = leaveTime + Math.round(Math.max(0, roadStart + length / 2) / speed);
+			currTable.add(path.get(i).getId(), currTable.getBin(secondOfDay(passTime)), length / speed);
+			roadStart += length;
+		}
+		return true;
+	}
+	
+	private int secondOfDay(long epochSecond) {
+		int offset = zoneRules.getOffset(Instant.ofEpochSecond(epochSecond)).getTotalSeconds();
+		return (int) Math.floorMod(epochSecond + offset, 86400L);
+	}
+	
+	private static int indexOf(List<RoadWay> path, RoadWay way, int fromIndex) {
+		for (int i = fromIndex; i < path.size(); i++) {
+			if (path.get(i) == way)
+				return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * The path is disconnected where the matching breaks.
+	 */
+	private static boolean isConnected(List<RoadWay> path, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (!path.get(i).getToNode().getId().equals(path.get(i + 1).getFromNode().getId()))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * The partial table and pair counts of the results collected by one thread.
+	 */
+	static class BatchResult {
+		private final LinkTravelTimeTable table;
+		private long pairCount = 0;
+		private long skippedPairCount = 0;
+		
+		BatchResult(int binMinutes) {
+			this.table = new LinkTravelTimeTable(binMinutes);
+		}
+		
+		BatchResult merge(BatchResult other) {
+			table.merge(other.table);
+			pairCount += other.pairCount;
+			skippedPairCount += other.skippedPairCount;
+			return this;
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package util.collection;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from non-negative long keys to int values, stored in two primitive arrays with open addressing and linear probing. It
+ * avoids the boxed keys and entry objects of <tt>HashMap&lt;Long, Integer&gt;</tt>, which take several times more memory than the
+ * data. The entries cannot be removed. The map is not thread-safe.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class LongIntHashMap {
+	
+	private static final long EMPTY_KEY = -1;
+	private static final double LOAD_FACTOR = 0.6;
+	private long[] keys;
+	private int[] values;
+	private int size = 0;
+	private int resizeThreshold;
+	
+	public LongIntHashMap() {
+		this(16);
+	}
+	
+	/**
+	 * @param expectedSize The expected number of entries, the map grows when it is exceeded.
+	 */
+	public LongIntHashMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(4, (int) Math.ceil(expectedSize / LOAD_FACTOR)) - 1) << 1;
+		allocate(capacity);
+	}
+	
+	private void allocate(int capacity) {
+		this.keys = new long[capacity];
+		this.values = new int[capacity];
+		Arrays.fill(keys, EMPTY_KEY);
+		this.resizeThreshold = (int) (capacity * LOAD_FACTOR);
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * @param key The key.
+	 * @return The value of the key, or 0 if the key is not in the map.
+	 */
+	public int get(long key) {
+		checkKey(key);
+		int mask = keys.length - 1;
+		for (int i = hash(key) & mask; keys[i] != EMPTY_KEY; i = (i + 1) & mask) {
+			if (keys[i] == key)
+				return values[i];
+		}
+		return 0;
+	}
+	
+	public boolean containsKey(long key) {
+		checkKey(key);
+		int mask = keys.length - 1;
+		for (int i = hash(key) & mask; keys[i] != EMPTY_KEY; i = (i + 1) & mask) {
+			if (keys[i] == key)
+				return true;
+		}
+		return false;
+	}
+	
+	public void put(long key, int value) {
+		checkKey(key);
+		int slot = findSlot(key);    // may rehash, so the value array is read after it
+		values[slot] = value;
+	}
+	
+	/**
+	 * Add the delta to the value of the key, a missing key starts from 0.
+	 *
+	 * @param key   The key.
+	 * @param delta The value to add.
+	 * @return The new value.
+	 */
+	public int addTo(long key, int delta) {
+		checkKey(key);
+		int slot = findSlot(key);
+		values[slot] += delta;
+		return values[slot];
+	}
+	
+	/**
+	 * Add the values of the other map to this map.
+	 *
+	 * @param other The other map, which is not changed.
+	 */
+	public void addAll(LongIntHashMap other) {
+		for (int i = 0; i < other.keys.length; i++) {
+			if (other.keys[i] != EMPTY_KEY) {
+				int slot = findSlot(other.keys[i]);
+				values[slot] += other.values[i];
+			}
+		}
+	}
+	
+	/**
+	 * Visit all entries in no particular order.
+	 *
+	 * @param entryConsumer The receiver of the entries.
+	 */
+	public void forEach(EntryConsumer entryConsumer) {
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != EMPTY_KEY)
+				entryConsumer.accept(keys[i], values[i]);
+		}
+	}
+	
+	public void clear() {
+		Arrays.fill(keys, EMPTY_KEY);
+		Arrays.fill(values, 0);
+		size = 0;
+	}
+	
+	/**
+	 * Find the slot of the key, a new slot is taken if the key is missing.
+	 */
+	private int findSlot(long key) {
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (keys[i] != EMPTY_KEY) {
+			if (keys[i] == key)
+				return i;
+			i = (i + 1) & mask;
+		}
+		if (size >= resizeThreshold) {
+			rehash(keys.length * 2);
+			return findSlot(key);
+		}
+		keys[i] = key;
+		size++;
+		return i;
+	}
+	
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] == EMPTY_KEY)
+				continue;
+			int i = hash(oldKeys[j]) & mask;
+			while (keys[i] != EMPTY_KEY)
+				i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			values[i] = oldValues[j];
+		}
+	}
+	
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+	
+	private static void checkKey(long key) {
+		if (key < 0)
+			throw new IllegalArgumentException("The key should be non-negative: " + key);
+	}
+	
+	@FunctionalInterface
+	public interface EntryConsumer {
+		void accept(long key, int value);
+	}
+}
@@ -0,0 +1,136 @@
+package util.collection;
+
+import java.util.*;
+
+/**
+ * Bounded counter of the most frequent values by the Space-Saving algorithm. At most <tt>capacity</tt> values are tracked. When a new
+ * value arrives at a full counter, it replaces the value of the smallest count and inherits that count as its possible overestimate.
+ * Every value that occurs more than N/capacity times in N additions is guaranteed to be tracked, and the count of a tracked value
+ * exceeds its true count by at most its error. The tracked values are kept in a binary min-heap by count, so each addition takes
+ * O(log capacity) time. The counter is not thread-safe.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class TopKCounter {
+	
+	private final int capacity;
+	private final Map<String, Integer> value2HeapIndex = new HashMap<>();
+	private String[] values;
+	private long[] counts;
+	private long[] errors;
+	private int size = 0;
+	private long totalCount = 0;
+	
+	/**
+	 * @param capacity The maximum number of tracked values, a larger capacity gives more accurate counts for flat distributions.
+	 */
+	public TopKCounter(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("The capacity should be at least one: " + capacity);
+		this.capacity = capacity;
+		int initialCapacity = Math.min(capacity, 16);    // grow on demand since most keys have few values
+		this.values = new String[initialCapacity];
+		this.counts = new long[initialCapacity];
+		this.errors = new long[initialCapacity];
+	}
+	
+	public void add(String value) {
+		totalCount++;
+		Integer index = value2HeapIndex.get(value);
+		if (index != null) {
+			counts[index]++;
+			siftDown(index);
+			return;
+		}
+		if (size < capacity) {
+			if (size == values.length) {
+				int newLength = Math.min(capacity, values.length * 2);
+				values = Arrays.copyOf(values, newLength);
+				counts = Arrays.copyOf(counts, newLength);
+				errors = Arrays.copyOf(errors, newLength);
+			}
+			values[size] = value;
+			counts[size] = 1;
+			errors[size] = 0;
+			value2HeapIndex.put(value, size);
+			siftUp(size++);
+			return;
+		}
+		// replace the value of the smallest count, which is the heap root
+		value2HeapIndex.remove(values[0]);
+		errors[0] = counts[0];
+		counts[0]++;
+		values[0] = value;
+		value2HeapIndex.put(value, 0);
+		siftDown(0);
+	}
+	
+	/**
+	 * @return The number of values added.
+	 */
+	public long getTotalCount() {
+		return totalCount;
+	}
+	
+	/**
+	 * @param k The number of values.
+	 * @return The values of the top k counts with their counts, in descending order of count.
+	 */
+	public List<Map.Entry<String, Long>> getTopValues(int k) {
+		List<Map.Entry<String, Long>> valueList = new ArrayList<>(size);
+		for (int i = 0; i < size; i++)
+			valueList.add(new AbstractMap.SimpleImmutableEntry<>(values[i], counts[i]));
+		valueList.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+		return valueList.subList(0, Math.min(k, valueList.size()));
+	}
+	
+	/**
+	 * @param value The value.
+	 * @return The maximum overestimate of the count of the value, or 0 if the value is not tracked.
+	 */
+	public long getError(String value) {
+		Integer index = value2HeapIndex.get(value);
+		return index == null ? 0 : errors[index];
+	}
+	
+	private void siftUp(int index) {
+		while (index > 0) {
+			int parent = (index - 1) / 2;
+			if (counts[parent] <= counts[index])
+				return;
+			swap(index, parent);
+			index = parent;
+		}
+	}
+	
+	private void siftDown(int index) {
+		while (true) {
+			int smallest = index;
+			int left = 2 * index + 1;
+			int right = left + 1;
+			if (left < size && counts[left] < counts[smallest])
+				smallest = left;
+			if (right < size && counts[right] < counts[smallest])
+				smallest = right;
+			if (smallest == index)
+				return;
+			swap(index, smallest);
+			index = smallest;
+		}
+	}
+	
+	private void swap(int i, int j) {
+		String value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+		long count = counts[i];
+		counts[i] = counts[j];
+		counts[j] = count;
+		long error = errors[i];
+		errors[i] = errors[j];
+		errors[j] = error;
+		value2HeapIndex.put(values[i], i);
+		value2HeapIndex.put(values[j], j);
+	}
+}
@@ -0,0 +1,74 @@
+package util.function;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Run a task whose parallel streams should use a given number of threads. The task is submitted to a <tt>ForkJoinPool</tt>, so the
+ * parallel streams started by the task run in that pool instead of the common pool.
+ * <p>
+ * All methods share the same error handling: a <tt>RuntimeException</tt> or <tt>Error</tt> thrown by the task is rethrown as is, a
+ * checked exception is wrapped in a <tt>RuntimeException</tt> named after the task, and an interruption of the waiting thread restores
+ * its interrupt flag and throws a <tt>RuntimeException</tt>.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public final class ParallelRunner {
+
+	private ParallelRunner() {
+	}
+
+	/**
+	 * Run the task in a new pool of the given number of threads, which is shut down afterwards.
+	 *
+	 * @param parallelism The number of threads.
+	 * @param task        The task.
+	 * @param taskName    The name of the task used in the error messages, e.g. "Sequence segmentation".
+	 * @param <T>         Type of the result.
+	 * @return The result of the task.
+	 */
+	public static <T> T run(int parallelism, Callable<T> task, String taskName) {
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			return run(pool, task, taskName);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Same as <tt>run(int, Callable, String)</tt> for a task without result.
+	 */
+	public static void run(int parallelism, Runnable task, String taskName) {
+		run(parallelism, () -> {
+			task.run();
+			return null;
+		}, taskName);
+	}
+
+	/**
+	 * Run the task in an existing pool, which is kept open.
+	 *
+	 * @param pool     The pool.
+	 * @param task     The task.
+	 * @param taskName The name of the task used in the error messages.
+	 * @param <T>      Type of the result.
+	 * @return The result of the task.
+	 */
+	public static <T> T run(ForkJoinPool pool, Callable<T> task, String taskName) {
+		try {
+			return pool.submit(task).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(taskName + " is interrupted.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw new RuntimeException(taskName + " failed.", e.getCause());
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package util.index;
+
+import util.function.DistanceFunction;
+import util.object.Pair;
+import util.object.Rectangle;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Common part of the spatial indices. The range query and the candidate search of the radius query are delegated to <tt>search()</tt>
+ * of the implementation.
+ *
+ * @param <T> The type of indexed items.
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+abstract class AbstractSpatialIndex<T> implements SpatialIndex<T> {
+	
+	final DistanceFunction distFunc;
+	final ItemDistance<T> itemDistFunc;
+	
+	AbstractSpatialIndex(DistanceFunction distFunc, ItemDistance<T> itemDistFunc) {
+		this.distFunc = distFunc;
+		this.itemDistFunc = itemDistFunc;
+	}
+	
+	/**
+	 * Add all items whose bounding box overlaps the given box to the result list, each item is added once.
+	 */
+	abstract void search(double minX, double minY, double maxX, double maxY, List<T> result);
+	
+	@Override
+	public List<T> rangeQuery(Rectangle range) {
+		List<T> result = new ArrayList<>();
+		search(range.minX(), range.minY(), range.maxX(), range.maxY(), result);
+		return result;
+	}
+	
+	@Override
+	public List<Pair<T, Double>> radiusQuery(double x, double y, double radius) {
+		double offsetY = distFunc.getCoordinateOffsetY(radius, x);
+		// the x offset grows with the latitude, take the one farthest from the equator to cover the whole circle
+		double offsetX = distFunc.getCoordinateOffsetX(radius, Math.min(Math.abs(y) + offsetY, 89.9));
+		List<T> candidateList = new ArrayList<>();
+		search(x - offsetX, y - offsetY, x + offsetX, y + offsetY, candidateList);
+		List<Pair<T, Double>> result = new ArrayList<>();
+		for (T item : candidateList) {
+			double distance = itemDistFunc.distance(item, x, y);
+			if (distance <= radius)
+				result.add(new Pair<>(item, distance));
+		}
+		result.sort(Comparator.comparingDouble(Pair::_2));
+		return result;
+	}
+	
+	/**
+	 * The distance from the point to the closest point of the box, which is zero if the point is inside the box.
+	 */
+	double boxDistance(double x, double y, double minX, double minY, double maxX, double maxY) {
+		double closestX = Math.max(minX, Math.min(x, maxX));
+		double closestY = Math.max(minY, Math.min(y, maxY));
+		if (closestX == x && closestY == y)
+			return 0;
+		return distFunc.pointToPointDistance(x, y, closestX, closestY);
+	}
+	
+	static void checkBox(double minX, double minY, double maxX, double maxY) {
+		if (minX > maxX || minY > maxY || Double.isNaN(minX) || Double.isNaN(minY) || Double.isNaN(maxX) || Double.isNaN(maxY))
+			throw new IllegalArgumentException("Invalid bounding box: " + minX + "," + minY + "," + maxX + "," + maxY);
+	}
+}
@@ -0,0 +1,240 @@
+package util.index;
+
+import util.function.DistanceFunction;
+import util.object.Pair;
+
+import java.util.*;
+
+/**
+ * Uniform grid index. The space is divided into cells of fixed width and height, and each item is registered in every cell its
+ * bounding box overlaps. Insertion and removal update the cells in place, so the grid suits the indices that are modified frequently.
+ * The nearest neighbour query searches the cells ring by ring around the query point until no unvisited cell can contain a closer item.
+ *
+ * @param <T> The type of indexed items.
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class GridIndex<T> extends AbstractSpatialIndex<T> {
+	
+	private final double cellWidth;
+	private final double cellHeight;
+	private final Map<Long, List<Entry<T>>> cell2EntryList = new HashMap<>();
+	private final Map<T, Entry<T>> item2Entry = new IdentityHashMap<>();
+	// the range of cells that have been occupied, which is not shrunk on removal
+	private int minCellX = Integer.MAX_VALUE;
+	private int minCellY = Integer.MAX_VALUE;
+	private int maxCellX = Integer.MIN_VALUE;
+	private int maxCellY = Integer.MIN_VALUE;
+	
+	/**
+	 * @param cellWidth    The width of each cell, in the unit of the x coordinate.
+	 * @param cellHeight   The height of each cell, in the unit of the y coordinate.
+	 * @param distFunc     Distance function.
+	 * @param itemDistFunc The distance between a point and an item.
+	 */
+	public GridIndex(double cellWidth, double cellHeight, DistanceFunction distFunc, ItemDistance<T> itemDistFunc) {
+		super(distFunc, itemDistFunc);
+		if (!(cellWidth > 0) || !(cellHeight > 0))
+			throw new IllegalArgumentException("The cell size of grid index should be positive: " + cellWidth + "," + cellHeight);
+		this.cellWidth = cellWidth;
+		this.cellHeight = cellHeight;
+	}
+	
+	@Override
+	public void insert(T item, double minX, double minY, double maxX, double maxY) {
+		checkBox(minX, minY, maxX, maxY);
+		remove(item);
+		Entry<T> entry = new Entry<>(item, minX, minY, maxX, maxY, cellX(minX), cellY(minY), cellX(maxX), cellY(maxY));
+		item2Entry.put(item, entry);
+		for (int i = entry.minCellX; i <= entry.maxCellX; i++) {
+			for (int j = entry.minCellY; j <= entry.maxCellY; j++) {
+				cell2EntryList.computeIfAbsent(cellKey(i, j), k -> new ArrayList<>()).add(entry);
+			}
+		}
+		minCellX = Math.min(minCellX, entry.minCellX);
+		minCellY = Math.min(minCellY, entry.minCellY);
+		maxCellX = Math.max(maxCellX, entry.maxCellX);
+		maxCellY = Math.max(maxCellY, entry.maxCellY);
+	}
+	
+	@Override
+	public boolean remove(T item) {
+		Entry<T> entry = item2Entry.remove(item);
+		if (entry == null)
+			return false;
+		for (int i = entry.minCellX; i <= entry.maxCellX; i++) {
+			for (int j = entry.minCellY; j <= entry.maxCellY; j++) {
+				long key = cellKey(i, j);
+				List<Entry<T>> entryList = cell2EntryList.get(key);
+				entryList.remove(entry);
+				if (entryList.isEmpty())
+					cell2EntryList.remove(key);
+			}
+		}
+		return true;
+	}
+	
+	@Override
+	public int size() {
+		return item2Entry.size();
+	}
+	
+	@Override
+	public void clear() {
+		cell2EntryList.clear();
+		item2Entry.clear();
+		minCellX = Integer.MAX_VALUE;
+		minCellY = Integer.MAX_VALUE;
+		maxCellX = Integer.MIN_VALUE;
+		maxCellY = Integer.MIN_VALUE;
+	}
+	
+	@Override
+	void search(double minX, double minY, double maxX, double maxY, List<T> result) {
+		if (item2Entry.isEmpty())
+			return;
+		int fromX = Math.max(cellX(minX), minCellX);
+		int fromY = Math.max(cellY(minY), minCellY);
+		int toX = Math.min(cellX(maxX), maxCellX);
+		int toY = Math.min(cellY(maxY), maxCellY);
+		if (fromX > toX || fromY > toY)
+			return;
+		if ((long) (toX - fromX + 1) * (toY - fromY + 1) > cell2EntryList.size()) {    // the range covers most cells, check every item
+			for (Entry<T> entry : item2Entry.values()) {
+				if (entry.overlaps(minX, minY, maxX, maxY))
+					result.add(entry.item);
+			}
+			return;
+		}
+		Set<Entry<T>> visitedEntrySet = null;    // only the entries that span multiple cells can be visited twice
+		for (int i = fromX; i <= toX; i++) {
+			for (int j = fromY; j <= toY; j++) {
+				List<Entry<T>> entryList = cell2EntryList.get(cellKey(i, j));
+				if (entryList == null)
+					continue;
+				for (Entry<T> entry : entryList) {
+					if (!entry.overlaps(minX, minY, maxX, maxY))
+						continue;
+					if (entry.isMultiCell()) {
+						if (visitedEntrySet == null)
+							visitedEntrySet = Collections.newSetFromMap(new IdentityHashMap<>());
+						if (!visitedEntrySet.add(entry))
+							continue;
+					}
+					result.add(entry.item);
+				}
+			}
+		}
+	}
+	
+	@Override
+	public List<Pair<T, Double>> nearestNeighbours(double x, double y, int k) {
+		if (k <= 0 || item2Entry.isEmpty())
+			return new ArrayList<>();
+		PriorityQueue<Pair<T, Double>> candidateQueue = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(b._2(), a._2()));
+		Set<Entry<T>> visitedEntrySet = Collections.newSetFromMap(new IdentityHashMap<>());
+		int centreX = cellX(x);
+		int centreY = cellY(y);
+		// the rings that do not reach the occupied cells are skipped
+		int ring = Math.max(0, Math.max(Math.max(minCellX - centreX, centreX - maxCellX), Math.max(minCellY - centreY, centreY - maxCellY)));
+		while (true) {
+			for (int j = Math.max(centreY - ring, minCellY); j <= Math.min(centreY + ring, maxCellY); j++) {
+				if (j == centreY - ring || j == centreY + ring) {    // the top and bottom row of the ring
+					for (int i = Math.max(centreX - ring, minCellX); i <= Math.min(centreX + ring, maxCellX); i++) {
+						visitCell(i, j, x, y, k, candidateQueue, visitedEntrySet);
+					}
+				} else {
+					if (centreX - ring >= minCellX)
+						visitCell(centreX - ring, j, x, y, k, candidateQueue, visitedEntrySet);
+					if (ring > 0 && centreX + ring <= maxCellX)
+						visitCell(centreX + ring, j, x, y, k, candidateQueue, visitedEntrySet);
+				}
+			}
+			if (centreX - ring <= minCellX && centreX + ring >= maxCellX && centreY - ring <= minCellY && centreY + ring >= maxCellY)
+				break;    // all occupied cells are visited
+			if (candidateQueue.size() == k) {
+				// the distance from the query point to the cells outside the current ring
+				double leftX = (double) (centreX - ring) * cellWidth;
+				double rightX = (double) (centreX + ring + 1) * cellWidth;
+				double bottomY = (double) (centreY - ring) * cellHeight;
+				double topY = (double) (centreY + ring + 1) * cellHeight;
+				double outsideDistance = Math.min(Math.min(distFunc.pointToPointDistance(x, y, leftX, y),
+						distFunc.pointToPointDistance(x, y, rightX, y)), Math.min(distFunc.pointToPointDistance(x, y, x, bottomY),
+						distFunc.pointToPointDistance(x, y, x, topY)));
+				if (candidateQueue.peek()._2() <= outsideDistance)
+					break;
+			}
+			ring++;
+		}
+		List<Pair<T, Double>> result = new ArrayList<>(candidateQueue);
+		result.sort(Comparator.comparingDouble(Pair::_2));
+		return result;
+	}
+	
+	/**
+	 * Update the k nearest candidates with the items in the cell.
+	 */
+	private void visitCell(int cellX, int cellY, double x, double y, int k, PriorityQueue<Pair<T, Double>> candidateQueue,
+						   Set<Entry<T>> visitedEntrySet) {
+		List<Entry<T>> entryList = cell2EntryList.get(cellKey(cellX, cellY));
+		if (entryList == null)
+			return;
+		for (Entry<T> entry : entryList) {
+			if (entry.isMultiCell() && !visitedEntrySet.add(entry))
+				continue;
+			if (candidateQueue.size() == k && boxDistance(x, y, entry.minX, entry.minY, entry.maxX, entry.maxY) >= candidateQueue.peek()._2())
+				continue;
+			double distance = itemDistFunc.distance(entry.item, x, y);
+			if (candidateQueue.size() < k) {
+				candidateQueue.add(new Pair<>(entry.item, distance));
+			} else if (distance < candidateQueue.peek()._2()) {
+				candidateQueue.poll();
+				candidateQueue.add(new Pair<>(entry.item, distance));
+			}
+		}
+	}
+	
+	private int cellX(double x) {
+		return (int) Math.floor(x / cellWidth);
+	}
+	
+	private int cellY(double y) {
+		return (int) Math.floor(y / cellHeight);
+	}
+	
+	private static long cellKey(int cellX, int cellY) {
+		return ((long) cellX << 32) | (cellY & 0xffffffffL);
+	}
+	
+	private static class Entry<T> {
+		private final T item;
+		private final double minX;
+		private final double minY;
+		private final double maxX;
+		private final double maxY;
+		private final int minCellX;
+		private final int minCellY;
+		private final int maxCellX;
+		private final int maxCellY;
+		
+		Entry(T item, double minX, double minY, double maxX, double maxY, int minCellX, int minCellY, int maxCellX, int maxCellY) {
+			this.item = item;
+			this.minX = minX;
+			this.minY = minY;
+			this.maxX = maxX;
+			this.maxY = maxY;
+			this.minCellX = minCellX;
+			this.minCellY = minCellY;
+			this.maxCellX = maxCellX;
+			this.maxCellY = maxCellY;
+		}
+		
+		boolean isMultiCell() {
+			return minCellX != maxCellX || minCellY != maxCellY;
+		}
+		
+		boolean overlaps(double minX, double minY, double maxX, double maxY) {
+			return this.minX <= maxX && this.maxX >= minX && this.minY <= maxY && this.maxY >= minY;
+		}
+	}
+}
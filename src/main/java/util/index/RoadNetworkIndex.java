@@ -0,0 +1,218 @@
+package util.index;
+
+import util.function.DistanceFunction;
+import util.object.*;
+
+import java.util.*;
+
+/**
+ * Spatial index of a road network, which indexes the intersections (<tt>RoadNetworkGraph.getNodes()</tt>) and every edge of the road
+ * ways. It is created and kept up to date by <tt>RoadNetworkGraph.getSpatialIndex()</tt>, the graph updates the index when nodes or
+ * ways are added or removed. The index does not follow the nodes that are moved by <tt>RoadNode.setLocation()</tt>, the index should be
+ * rebuilt in that case.
+ * <p>
+ * The distance between a point and an edge is the distance to the closest point of the edge.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class RoadNetworkIndex {
+	
+	private static final double DEFAULT_CELL_SIZE = 250;    // the cell size of grid index, in meter
+	private final DistanceFunction distFunc;
+	private final SpatialIndex<RoadNode> nodeIndex;
+	private final SpatialIndex<RoadWaySegment> segmentIndex;
+	private final Map<RoadWay, RoadWaySegment[]> way2SegmentArray = new IdentityHashMap<>();
+	
+	/**
+	 * Build the index of the current nodes and ways of the map.
+	 *
+	 * @param map       The road network.
+	 * @param indexType The type of the underlying index.
+	 */
+	public RoadNetworkIndex(RoadNetworkGraph map, IndexType indexType) {
+		this.distFunc = map.getDistanceFunction();
+		SpatialIndex.ItemDistance<RoadNode> nodeDistFunc = (node, x, y) -> distFunc.pointToPointDistance(x, y, node.lon(), node.lat());
+		SpatialIndex.ItemDistance<RoadWaySegment> segmentDistFunc = (segment, x, y) -> segmentDistance(segment, x, y);
+		if (indexType == IndexType.GRID) {
+			double referenceX = map.isEmpty() ? 0 : (map.getMinLon() + map.getMaxLon()) / 2;
+			double referenceY = map.isEmpty() ? 0 : (map.getMinLat() + map.getMaxLat()) / 2;
+			double cellWidth = distFunc.getCoordinateOffsetX(DEFAULT_CELL_SIZE, referenceY);
+			double cellHeight = distFunc.getCoordinateOffsetY(DEFAULT_CELL_SIZE, referenceX);
+			this.nodeIndex = new GridIndex<>(cellWidth, cellHeight, distFunc, nodeDistFunc);
+			this.segmentIndex = new GridIndex<>(cellWidth, cellHeight, distFunc, segmentDistFunc);
+		} else {
+			this.nodeIndex = new STRTree<>(distFunc, nodeDistFunc);
+			this.segmentIndex = new STRTree<>(distFunc, segmentDistFunc);
+		}
+		for (RoadNode node : map.getNodes())
+			addNode(node);
+		for (RoadWay way : map.getWays())
+			addWay(way);
+	}
+	
+	public void addNode(RoadNode node) {
+		nodeIndex.insert(node, node.lon(), node.lat(), node.lon(), node.lat());
+	}
+	
+	public void removeNode(RoadNode node) {
+		nodeIndex.remove(node);
+	}
+	
+	/**
+	 * Index all edges of the road way. The road way is indexed again if it is already in the index.
+	 *
+	 * @param way The road way.
+	 */
+	public void addWay(RoadWay way) {
+		removeWay(way);
+		if (way.size() < 2)
+			return;
+		RoadWaySegment[] segmentArray = new RoadWaySegment[way.size() - 1];
+		for (int i = 0; i < segmentArray.length; i++) {
+			RoadWaySegment segment = new RoadWaySegment(way, i);
+			segmentArray[i] = segment;
+			segmentIndex.insert(segment, Math.min(segment.x1(), segment.x2()), Math.min(segment.y1(), segment.y2()),
+					Math.max(segment.x1(), segment.x2()), Math.max(segment.y1(), segment.y2()));
+		}
+		way2SegmentArray.put(way, segmentArray);
+	}
+	
+	public void removeWay(RoadWay way) {
+		RoadWaySegment[] segmentArray = way2SegmentArray.remove(way);
+		if (segmentArray == null)
+			return;
+		for (RoadWaySegment segment : segmentArray)
+			segmentIndex.remove(segment);
+	}
+	
+	public int getNodeCount() {
+		return nodeIndex.size();
+	}
+	
+	public int getWayCount() {
+		return way2SegmentArray.size();
+	}
+	
+	public List<RoadNode> getNodesInRange(Rectangle range) {
+		return nodeIndex.rangeQuery(range);
+	}
+	
+	/**
+	 * @param p      The query point.
+	 * @param radius The query radius in meter.
+	 * @return The nodes within the radius and their distances, sorted by distance.
+	 */
+	public List<Pair<RoadNode, Double>> getNodesWithinRadius(Point p, double radius) {
+		return nodeIndex.radiusQuery(p.x(), p.y(), radius);
+	}
+	
+	/**
+	 * @param p The query point.
+	 * @param k The number of nodes.
+	 * @return At most k nearest nodes and their distances, sorted by distance.
+	 */
+	public List<Pair<RoadNode, Double>> getNearestNodes(Point p, int k) {
+		return nodeIndex.nearestNeighbours(p.x(), p.y(), k);
+	}
+	
+	public List<RoadWaySegment> getSegmentsInRange(Rectangle range) {
+		return segmentIndex.rangeQuery(range);
+	}
+	
+	/**
+	 * @param p      The query point.
+	 * @param radius The query radius in meter.
+	 * @return The road way edges within the radius and their distances, sorted by distance.
+	 */
+	public List<Pair<RoadWaySegment, Double>> getSegmentsWithinRadius(Point p, double radius) {
+		return segmentIndex.radiusQuery(p.x(), p.y(), radius);
+	}
+	
+	/**
+	 * @param p The query point.
+	 * @param k The number of edges.
+	 * @return At most k nearest road way edges and their distances, sorted by distance.
+	 */
+	public List<Pair<RoadWaySegment, Double>> getNearestSegments(Point p, int k) {
+		return segmentIndex.nearestNeighbours(p.x(), p.y(), k);
+	}
+	
+	/**
+	 * Find the road ways that have at least one edge overlapping the range.
+	 *
+	 * @param range The query range.
+	 * @return The road ways, each appears once.
+	 */
+	public List<RoadWay> getWaysInRange(Rectangle range) {
+		Set<RoadWay> waySet = Collections.newSetFromMap(new IdentityHashMap<>());
+		List<RoadWay> result = new ArrayList<>();
+		for (RoadWaySegment segment : segmentIndex.rangeQuery(range)) {
+			if (waySet.add(segment.getWay()))
+				result.add(segment.getWay());
+		}
+		return result;
+	}
+	
+	/**
+	 * @param p      The query point.
+	 * @param radius The query radius in meter.
+	 * @return The road ways within the radius and the distances to their closest edges, sorted by distance.
+	 */
+	public List<Pair<RoadWay, Double>> getWaysWithinRadius(Point p, double radius) {
+		return distinctWays(segmentIndex.radiusQuery(p.x(), p.y(), radius), Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * @param p The query point.
+	 * @param k The number of road ways.
+	 * @return At most k nearest road ways and the distances to their closest edges, sorted by distance.
+	 */
+	public List<Pair<RoadWay, Double>> getNearestWays(Point p, int k) {
+		if (k <= 0)
+			return new ArrayList<>();
+		// several edges of the same road way may be found, enlarge the search until enough road ways are found
+		int segmentCount = k;
+		while (true) {
+			List<Pair<RoadWaySegment, Double>> segmentList = segmentIndex.nearestNeighbours(p.x(), p.y(), segmentCount);
+			List<Pair<RoadWay, Double>> result = distinctWays(segmentList, k);
+			if (result.size() == k || segmentList.size() < segmentCount)
+				return result;
+			segmentCount *= 2;
+		}
+	}
+	
+	/**
+	 * Keep the first and thus the closest edge of each road way.
+	 */
+	private static List<Pair<RoadWay, Double>> distinctWays(List<Pair<RoadWaySegment, Double>> segmentList, int k) {
+		Set<RoadWay> waySet = Collections.newSetFromMap(new IdentityHashMap<>());
+		List<Pair<RoadWay, Double>> result = new ArrayList<>();
+		for (Pair<RoadWaySegment, Double> segment : segmentList) {
+			if (result.size() == k)
+				break;
+			if (waySet.add(segment._1().getWay()))
+				result.add(new Pair<>(segment._1().getWay(), segment._2()));
+		}
+		return result;
+	}
+	
+	private double segmentDistance(RoadWaySegment segment, double x, double y) {
+		double x1 = segment.x1();
+		double y1 = segment.y1();
+		double x2 = segment.x2();
+		double y2 = segment.y2();
+		if (x1 == x2 && y1 == y2)
+			return distFunc.pointToPointDistance(x, y, x1, y1);
+		Point closestPoint = distFunc.getClosestPoint(x, y, x1, y1, x2, y2);
+		return distFunc.pointToPointDistance(x, y, closestPoint.x(), closestPoint.y());
+	}
+	
+	/**
+	 * The type of the underlying spatial index.
+	 */
+	public enum IndexType {
+		GRID,    // uniform grid, updated in place, suits the maps that are modified frequently
+		STR_TREE    // STR-packed R-tree, rebuilt after modification, suits static maps
+	}
+}
@@ -0,0 +1,70 @@
+package util.index;
+
+import util.object.RoadNode;
+import util.object.RoadWay;
+import util.object.Segment;
+
+/**
+ * One edge of a road way, which is the unit indexed by <tt>RoadNetworkIndex</tt>. The segment refers to the nodes of the road way, so
+ * its coordinates follow the road way.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public final class RoadWaySegment {
+	
+	private final RoadWay way;
+	private final int edgeIndex;
+	
+	/**
+	 * @param way       The road way.
+	 * @param edgeIndex The index of the edge, the edge starts from the node of the same index.
+	 */
+	public RoadWaySegment(RoadWay way, int edgeIndex) {
+		if (edgeIndex < 0 || edgeIndex >= way.size() - 1)
+			throw new IndexOutOfBoundsException("The edge index " + edgeIndex + " is out of the road way " + way.getId());
+		this.way = way;
+		this.edgeIndex = edgeIndex;
+	}
+	
+	public RoadWay getWay() {
+		return way;
+	}
+	
+	public int getEdgeIndex() {
+		return edgeIndex;
+	}
+	
+	public RoadNode getStartNode() {
+		return way.getNode(edgeIndex);
+	}
+	
+	public RoadNode getEndNode() {
+		return way.getNode(edgeIndex + 1);
+	}
+	
+	public double x1() {
+		return getStartNode().lon();
+	}
+	
+	public double y1() {
+		return getStartNode().lat();
+	}
+	
+	public double x2() {
+		return getEndNode().lon();
+	}
+	
+	public double y2() {
+		return getEndNode().lat();
+	}
+	
+	public Segment toSegment() {
+		return new Segment(x1(), y1(), x2(), y2(), way.getDistanceFunction());
+	}
+	
+	@Override
+	public String toString() {
+		return way.getId() + "#" + edgeIndex;
+	}
+}
@@ -0,0 +1,209 @@
+package util.index;
+
+import util.function.DistanceFunction;
+import util.object.Pair;
+
+import java.util.*;
+
+/**
+ * R-tree packed by the Sort-Tile-Recursive (STR) algorithm. The items are sorted by the x of their centre and cut into vertical slices,
+ * each slice is sorted by the y and packed into full nodes, and the same is repeated level by level up to the root. The packed tree has
+ * almost no overlap between nodes and all nodes are full, which makes it faster than the grid for static data.
+ * <p>
+ * The tree cannot be updated in place. Insertion and removal only mark the tree as outdated, and the tree is rebuilt on the next query,
+ * so the modifications should be done in bulk. The nearest neighbour query is a best-first search over the nodes ordered by their
+ * distance to the query point.
+ *
+ * @param <T> The type of indexed items.
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class STRTree<T> extends AbstractSpatialIndex<T> {
+	
+	private static final int NODE_CAPACITY = 16;
+	private final Map<T, Node<T>> item2Leaf = new IdentityHashMap<>();    // the item and its bounding box
+	private volatile Node<T> root = null;
+	private volatile boolean isOutdated = false;
+	
+	/**
+	 * @param distFunc     Distance function.
+	 * @param itemDistFunc The distance between a point and an item.
+	 */
+	public STRTree(DistanceFunction distFunc, ItemDistance<T> itemDistFunc) {
+		super(distFunc, itemDistFunc);
+	}
+	
+	@Override
+	public void insert(T item, double minX, double minY, double maxX, double maxY) {
+		checkBox(minX, minY, maxX, maxY);
+		item2Leaf.put(item, new Node<>(item, minX, minY, maxX, maxY));
+		isOutdated = true;
+	}
+	
+	@Override
+	public boolean remove(T item) {
+		if (item2Leaf.remove(item) == null)
+			return false;
+		isOutdated = true;
+		return true;
+	}
+	
+	@Override
+	public int size() {
+		return item2Leaf.size();
+	}
+	
+	@Override
+	public void clear() {
+		item2Leaf.clear();
+		isOutdated = true;
+	}
+	
+	@Override
+	void search(double minX, double minY, double maxX, double maxY, List<T> result) {
+		Node<T> currRoot = getRoot();
+		if (currRoot == null)
+			return;
+		Deque<Node<T>> nodeStack = new ArrayDeque<>();
+		nodeStack.push(currRoot);
+		while (!nodeStack.isEmpty()) {
+			Node<T> node = nodeStack.pop();
+			if (!node.overlaps(minX, minY, maxX, maxY))
+				continue;
+			if (node.isItem()) {
+				result.add(node.item);
+			} else {
+				for (Node<T> child : node.children)
+					nodeStack.push(child);
+			}
+		}
+	}
+	
+	@Override
+	public List<Pair<T, Double>> nearestNeighbours(double x, double y, int k) {
+		List<Pair<T, Double>> result = new ArrayList<>();
+		Node<T> currRoot = getRoot();
+		if (k <= 0 || currRoot == null)
+			return result;
+		// the nodes are ranked by the distance to their boxes, which is the lower bound of their items, while the items that have been
+		// reached are ranked by their actual distance
+		PriorityQueue<QueueEntry<T>> entryQueue = new PriorityQueue<>(Comparator.comparingDouble(entry -> entry.distance));
+		entryQueue.add(new QueueEntry<>(currRoot, 0, false));
+		while (!entryQueue.isEmpty() && result.size() < k) {
+			QueueEntry<T> entry = entryQueue.poll();
+			Node<T> node = entry.node;
+			if (entry.isItemDistance) {
+				result.add(new Pair<>(node.item, entry.distance));
+			} else if (node.isItem()) {
+				entryQueue.add(new QueueEntry<>(node, itemDistFunc.distance(node.item, x, y), true));
+			} else {
+				for (Node<T> child : node.children)
+					entryQueue.add(new QueueEntry<>(child, boxDistance(x, y, child.minX, child.minY, child.maxX, child.maxY), false));
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Get the root of the tree, which is rebuilt if the items have been changed.
+	 */
+	private Node<T> getRoot() {
+		if (isOutdated) {
+			synchronized (this) {
+				if (isOutdated) {
+					root = build(new ArrayList<>(item2Leaf.values()));
+					isOutdated = false;
+				}
+			}
+		}
+		return root;
+	}
+	
+	/**
+	 * Pack the nodes level by level until only the root is left.
+	 */
+	private static <T> Node<T> build(List<Node<T>> nodeList) {
+		if (nodeList.isEmpty())
+			return null;
+		while (nodeList.size() > 1)
+			nodeList = packLevel(nodeList);
+		Node<T> root = nodeList.get(0);
+		return root.isItem() ? new Node<>(Collections.singletonList(root)) : root;
+	}
+	
+	private static <T> List<Node<T>> packLevel(List<Node<T>> nodeList) {
+		int parentCount = (nodeList.size() + NODE_CAPACITY - 1) / NODE_CAPACITY;
+		int sliceCount = (int) Math.ceil(Math.sqrt(parentCount));
+		int sliceSize = (nodeList.size() + sliceCount - 1) / sliceCount;
+		nodeList.sort(Comparator.comparingDouble(node -> node.minX + node.maxX));
+		List<Node<T>> parentList = new ArrayList<>(parentCount + sliceCount);
+		for (int sliceStart = 0; sliceStart < nodeList.size(); sliceStart += sliceSize) {
+			List<Node<T>> slice = new ArrayList<>(nodeList.subList(sliceStart, Math.min(sliceStart + sliceSize, nodeList.size())));
+			slice.sort(Comparator.comparingDouble(node -> node.minY + node.maxY));
+			for (int i = 0; i < slice.size(); i += NODE_CAPACITY) {
+				parentList.add(new Node<>(slice.subList(i, Math.min(i + NODE_CAPACITY, slice.size()))));
+			}
+		}
+		return parentList;
+	}
+	
+	/**
+	 * A tree node, which is either an inner node with children or the leaf entry of an item.
+	 */
+	private static final class Node<T> {
+		private final T item;
+		private final List<Node<T>> children;
+		private final double minX;
+		private final double minY;
+		private final double maxX;
+		private final double maxY;
+		
+		Node(T item, double minX, double minY, double maxX, double maxY) {
+			this.item = item;
+			this.children = null;
+			this.minX = minX;
+			this.minY = minY;
+			this.maxX = maxX;
+			this.maxY = maxY;
+		}
+		
+		Node(List<Node<T>> children) {
+			this.item = null;
+			this.children = new ArrayList<>(children);
+			double currMinX = Double.POSITIVE_INFINITY;
+			double currMinY = Double.POSITIVE_INFINITY;
+			double currMaxX = Double.NEGATIVE_INFINITY;
+			double currMaxY = Double.NEGATIVE_INFINITY;
+			for (Node<T> child : children) {
+				currMinX = Math.min(currMinX, child.minX);
+				currMinY = Math.min(currMinY, child.minY);
+				currMaxX = Math.max(currMaxX, child.maxX);
+				currMaxY = Math.max(currMaxY, child.maxY);
+			}
+			this.minX = currMinX;
+			this.minY = currMinY;
+			this.maxX = currMaxX;
+			this.maxY = currMaxY;
+		}
+		
+		boolean isItem() {
+			return children == null;
+		}
+		
+		boolean overlaps(double minX, double minY, double maxX, double maxY) {
+			return this.minX <= maxX && this.maxX >= minX && this.minY <= maxY && this.maxY >= minY;
+		}
+	}
+	
+	private static final class QueueEntry<T> {
+		private final Node<T> node;
+		private final double distance;
+		private final boolean isItemDistance;    // the distance is the actual distance of the item rather than the box distance
+		
+		QueueEntry(Node<T> node, double distance, boolean isItemDistance) {
+			this.node = node;
+			this.distance = distance;
+			this.isItemDistance = isItemDistance;
+		}
+	}
+}
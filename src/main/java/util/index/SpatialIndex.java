@@ -0,0 +1,83 @@
+package util.index;
+
+import util.object.Pair;
+import util.object.Rectangle;
+
+import java.util.List;
+
+/**
+ * Spatial index over arbitrary items, each item is indexed by its bounding box. The distance between a query point and an item is given
+ * by an <tt>ItemDistance</tt>, which is required by the radius and nearest neighbour queries. All coordinates follow the
+ * <tt>x</tt>=longitude, <tt>y</tt>=latitude convention of the rest of the project.
+ * <p>
+ * Items are identified by reference, not by <tt>equals()</tt>. The implementations are not synchronised for modification, multiple
+ * threads can query the index as long as no modification happens at the same time.
+ *
+ * @param <T> The type of indexed items.
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public interface SpatialIndex<T> {
+	
+	/**
+	 * Insert an item with the given bounding box. Inserting an item that is already indexed replaces its bounding box.
+	 *
+	 * @param item The item.
+	 * @param minX Minimum x of the bounding box.
+	 * @param minY Minimum y of the bounding box.
+	 * @param maxX Maximum x of the bounding box.
+	 * @param maxY Maximum y of the bounding box.
+	 */
+	void insert(T item, double minX, double minY, double maxX, double maxY);
+	
+	/**
+	 * Remove an item from the index.
+	 *
+	 * @param item The item.
+	 * @return True if the item was in the index.
+	 */
+	boolean remove(T item);
+	
+	int size();
+	
+	void clear();
+	
+	/**
+	 * Find all items whose bounding box overlaps the range.
+	 *
+	 * @param range The query range.
+	 * @return The items found, in no particular order.
+	 */
+	List<T> rangeQuery(Rectangle range);
+	
+	/**
+	 * Find all items within the given distance to the query point.
+	 *
+	 * @param x      The x of the query point.
+	 * @param y      The y of the query point.
+	 * @param radius The query radius in meter.
+	 * @return The items and their distances to the query point, sorted by distance.
+	 */
+	List<Pair<T, Double>> radiusQuery(double x, double y, double radius);
+	
+	/**
+	 * Find the k nearest items to the query point.
+	 *
+	 * @param x The x of the query point.
+	 * @param y The y of the query point.
+	 * @param k The number of items to return.
+	 * @return At most k items and their distances to the query point, sorted by distance.
+	 */
+	List<Pair<T, Double>> nearestNeighbours(double x, double y, int k);
+	
+	/**
+	 * The distance between a point and an indexed item, which should not be smaller than the distance between the point and the
+	 * bounding box of the item.
+	 *
+	 * @param <T> The type of indexed items.
+	 */
+	@FunctionalInterface
+	interface ItemDistance<T> {
+		double distance(T item, double x, double y);
+	}
+}
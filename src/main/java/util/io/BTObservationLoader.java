@@ -2,14 +2,16 @@ package util.io;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import util.collection.LongIntHashMap;
 import util.function.DistanceFunction;
+import util.function.ParallelRunner;
 import util.object.*;
 
-import java.io.File;
+import java.io.*;
 import java.text.DecimalFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * Parse the observation data from the raw file. The file read generates a list of Bluetooth stations and a list of Bluetooth observation
@@ -21,7 +23,9 @@ import java.util.*;
 public class BTObservationLoader {
 	
 	private static final Logger LOG = LogManager.getLogger(BTObservation.class);
+	private static final long CHUNK_SIZE = 32 * 1024 * 1024;    // the size (byte) of file chunks in parallel parsing
 	private long sequenceCount = 0;
+	private long sequenceIDOffset = 0;    // the ID of the next sequence minus the number of sequences loaded
 	private long obCount = 0;
 	private long numOfWrongOrderPairs = 0;
 	private long numOfIncludedPairs = 0;
@@ -34,6 +38,20 @@ public class BTObservationLoader {
 	private int overlapStationCount = 0;
 	private double[] durationDist = new double[20];    // distribution for duration of overlapped observations, 10 second per cell
 	
+	/**
+	 * Set the ID of the next loaded sequence, the later sequences are numbered consecutively from it. The IDs start from 0 by default
+	 * and continue across the calls of the same loader.
+	 *
+	 * @param nextSequenceID The ID of the next sequence.
+	 */
+	public void setNextSequenceID(long nextSequenceID) {
+		this.sequenceIDOffset = nextSequenceID - sequenceCount;
+	}
+	
+	public long getNextSequenceID() {
+		return sequenceCount + sequenceIDOffset;
+	}
+	
 	/**
 	 * Load the original Bluetooth observations and generate the observation sequence for each device and the all Bluetooth station
 	 * information.
@@ -43,102 +61,633 @@ public class BTObservationLoader {
 	 * @return List of observation sequences, each of which belongs to a device, list of Bluetooth station information.
 	 */
 	public Pair<List<OBSequence>, List<BTStation>> loadRawObservations(List<File> inputFileList, DistanceFunction distFunc) {
-		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 		Map<String, BTStation> id2BTStation = new LinkedHashMap<>();
 		Map<Long, List<BTObservation>> deviceID2ObList = new LinkedHashMap<>();
+		BTRecordParser recordParser = new BTRecordParser(id2BTStation, null, durationDist, distFunc);
 		int fileCount = 0;
 		for (File file : inputFileList) {
-			List<String> lines = IOService.readFile(file);
-			for (String line : lines) {
-				String[] info = line.split(",");
-				if (info[0].equals("deviceid"))
-					continue;    // the first line which is the column titles.
-				if (info.length != 7)
-					throw new IllegalArgumentException("Input record format length is wrong: " + line);
-				BTStation currStation;
-				if (id2BTStation.containsKey(info[3])) {
-					currStation = id2BTStation.get(info[3]);
-					Point currCentre = new Point(Double.parseDouble(info[5]), Double.parseDouble(info[4]), distFunc);
-					if (!currStation.getCentre().equals2D(currCentre)) {
-						LOG.error("The same station has different coordinates: " + info[3] + "," + currStation.getCentre().toString() +
-								"," + info[5] + " " + info[4] + ". Distance: " + distFunc.distance(currStation.getCentre(), currCentre));
+			for (FileChunk chunk : splitFile(file, CHUNK_SIZE)) {
+				parseChunk(chunk, recordParser, currOb -> {
+					if (deviceID2ObList.containsKey(currOb.getDeviceID())) {
+						deviceID2ObList.get(currOb.getDeviceID()).add(currOb);
+					} else {
+						List<BTObservation> obList = new ArrayList<>();
+						obList.add(currOb);
+						deviceID2ObList.put(currOb.getDeviceID(), obList);
 					}
-				} else {
-					currStation = new BTStation(info[3], Double.parseDouble(info[5]), Double.parseDouble(info[4]), distFunc);
-					id2BTStation.put(currStation.getID(), currStation);
-				}
-				Date enterDate;
-				try {
-					enterDate = dateFormat.parse(info[1]);
-				} catch (ParseException e) {
-					LOG.error("Unable to parse date information: " + line);
-					continue;
-				}
-				BTObservation currOb = new BTObservation(Long.parseLong(info[0]), enterDate.getTime() / 1000, Long.parseLong(info[2]),
-						currStation, info[6]);
-				int durationIndex = (int) Math.floor(currOb.getDuration() / 10.0);
-				durationDist[durationIndex < durationDist.length ? durationIndex : durationDist.length - 1]++;
-				if (deviceID2ObList.containsKey(currOb.getDeviceID())) {
-					deviceID2ObList.get(currOb.getDeviceID()).add(currOb);
-				} else {
-					List<BTObservation> obList = new ArrayList<>();
-					obList.add(currOb);
-					deviceID2ObList.put(currOb.getDeviceID(), obList);
-				}
+				});
 			}
 			fileCount++;
 			LOG.info("Processed the " + fileCount + "/" + inputFileList.size() + " file.");
 		}
 		
 		List<OBSequence> obSequenceList = new ArrayList<>();
-		List<BTStation> btStationList = new ArrayList<>();
 		for (List<BTObservation> obList : deviceID2ObList.values()) {
-			Set<String> visitedBTStationSet = new HashSet<>();
 			Collections.sort(obList);
-			for (BTObservation ob : obList) {
-				visitedBTStationSet.add(ob.getStation().getID());
-			}
-			OBSequence currObSequence = new OBSequence(sequenceCount, obList);
+			OBSequence currObSequence = new OBSequence(sequenceCount + sequenceIDOffset, obList);
 			obSequenceList.add(currObSequence);
-			boolean isWrongOrderedSequence = false;
-			if (currObSequence.size() > 1) {
-				for (int i = 0; i < currObSequence.size() - 1; i++) {
-					BTObservation currObservation = currObSequence.getObservationList().get(i);
-					BTObservation nextObservation = currObSequence.getObservationList().get(i + 1);
-					if (currObservation.getLeaveTime() > nextObservation.getEnterTime()) {
-						if (currObservation.getLeaveTime() > nextObservation.getLeaveTime()) {
-							LOG.debug("The next observation is completely included in the last observation in sequence " +
-									currObSequence.getSequenceID() + "," + i + "," + nextObservation.getEnterTime() + "," +
-									nextObservation.getLeaveTime() + "," + currObservation.getEnterTime() + "," + currObservation.getLeaveTime());
-							LOG.debug("BT reader info: " + currObservation.getStation().getID() + "," + currObservation.getStation().getCentre().toString()
-									+ "," + nextObservation.getStation().getID() + "," + nextObservation.getStation().getCentre().toString()
-									+ "," + distFunc.distance(currObservation.getStation().getCentre(),
-									nextObservation.getStation().getCentre()));
-							int durationIndex = (int) Math.floor(nextObservation.getDuration() / 10.0);
-							inclusionDurationDist[durationIndex < inclusionDurationDist.length ? durationIndex : inclusionDurationDist.length - 1]++;
-							numOfIncludedPairs++;
-						} else {
-							LOG.debug("The next observation starts before the current observation in sequence " + currObSequence.getSequenceID()
-									+ "," + i + "," + currObservation.getLeaveTime() + "," + nextObservation.getEnterTime());
-							LOG.debug("BT reader info: " + currObservation.getStation().getID() + "," + currObservation.getStation().getCentre().toString()
-									+ "," + nextObservation.getStation().getID() + "," + nextObservation.getStation().getCentre().toString()
-									+ "," + distFunc.distance(currObservation.getStation().getCentre(),
-									nextObservation.getStation().getCentre()));
-							int durationIndex = (int) Math.floor(nextObservation.getDuration() / 10.0);
-							overlapDurationDist[durationIndex < overlapDurationDist.length ? durationIndex :
-									overlapDurationDist.length - 1]++;
+			sequenceStatistics(currObSequence);
+		}
+		return new Pair<>(obSequenceList, buildStationList(id2BTStation));
+	}
+	
+	/**
+	 * Same as <tt>loadRawObservations()</tt> but the sequences are kept in an <tt>ObservationStore</tt> instead of observation objects.
+	 * The parsed records are buffered in primitive columns without creating observation objects, grouped by device with a counting
+	 * sort and sorted chronologically within each device, so the sequences, their IDs and the statistics are identical to the ones of
+	 * <tt>loadRawObservations()</tt>.
+	 *
+	 * @param inputFileList Input Bluetooth observation file list.
+	 * @param distFunc      Distance function.
+	 * @return The observation store with one sequence per device, list of Bluetooth station information.
+	 */
+	public Pair<ObservationStore, List<BTStation>> loadRawObservationStore(List<File> inputFileList, DistanceFunction distFunc) {
+		Map<String, BTStation> id2BTStation = new LinkedHashMap<>();
+		DeviceIndex deviceIndex = new DeviceIndex();
+		RawObservationColumns columns = new RawObservationColumns(1024);
+		BTRecordParser recordParser = new BTRecordParser(id2BTStation, null, durationDist, distFunc);
+		int fileCount = 0;
+		for (File file : inputFileList) {
+			for (FileChunk chunk : splitFile(file, CHUNK_SIZE)) {
+				parseChunkFields(chunk, recordParser, (deviceID, enterTime, leaveTime, stationIndex, ownerCode) ->
+						columns.add(deviceIndex.indexOf(deviceID), enterTime, leaveTime, stationIndex, ownerCode));
+			}
+			fileCount++;
+			LOG.info("Processed the " + fileCount + "/" + inputFileList.size() + " file.");
+		}
+		List<BTStation> stationList = new ArrayList<>();
+		for (int i = 0; i < recordParser.getStationCount(); i++) {
+			stationList.add(recordParser.getStation(i));
+		}
+		List<String> ownerList = new ArrayList<>();
+		for (int i = 0; i < recordParser.getOwnerCount(); i++) {
+			ownerList.add(recordParser.getOwner(i));
+		}
+		ObservationStore store = buildObservationStore(columns, deviceIndex, stationList, ownerList);
+		return new Pair<>(store, buildStationList(id2BTStation));
+	}
+	
+	/**
+	 * Parallel version of <tt>loadRawObservationStore()</tt>. The chunks are parsed on a fork-join pool into primitive columns of their
+	 * own partitions, which are merged in chunk order the same way as in <tt>loadRawObservationsParallel()</tt>, so no observation
+	 * object is created and the result is the same as the single-thread version.
+	 *
+	 * @param inputFileList Input Bluetooth observation file list.
+	 * @param parallelism   The number of worker threads.
+	 * @param distFunc      Distance function.
+	 * @return The observation store with one sequence per device, list of Bluetooth station information.
+	 */
+	public Pair<ObservationStore, List<BTStation>> loadRawObservationStoreParallel(List<File> inputFileList, int parallelism,
+																				   DistanceFunction distFunc) {
+		List<FileChunk> chunkList = new ArrayList<>();
+		for (File file : inputFileList) {
+			chunkList.addAll(splitFile(file, CHUNK_SIZE));
+		}
+		LOG.info("Start parsing " + inputFileList.size() + " files in " + chunkList.size() + " chunks using " + parallelism + " threads.");
+		List<ColumnPartition> partitionList = ParallelRunner.run(parallelism, () -> chunkList.parallelStream()
+				.map(chunk -> {
+					ColumnPartition partition = new ColumnPartition();
+					partition.recordParser = new BTRecordParser(partition.id2BTStation, partition.stationCoordinateMap,
+							partition.durationDist, distFunc);
+					parseChunkFields(chunk, partition.recordParser, (deviceID, enterTime, leaveTime, stationIndex, ownerCode) ->
+							partition.columns.add(partition.deviceIndex.indexOf(deviceID), enterTime, leaveTime, stationIndex,
+									ownerCode));
+					return partition;
+				})
+				.collect(Collectors.toList()), "Observation parsing");
+		
+		// merge the partitions in chunk order to keep the same device and station order as the sequential read
+		int observationCount = 0;
+		for (ColumnPartition partition : partitionList) {
+			observationCount += partition.columns.size;
+		}
+		Map<String, BTStation> id2BTStation = new LinkedHashMap<>();
+		Map<String, Integer> stationID2Index = new HashMap<>();
+		List<BTStation> stationList = new ArrayList<>();
+		Map<String, Integer> owner2Code = new HashMap<>();
+		List<String> ownerList = new ArrayList<>();
+		DeviceIndex deviceIndex = new DeviceIndex();
+		RawObservationColumns columns = new RawObservationColumns(observationCount);
+		for (int p = 0; p < partitionList.size(); p++) {
+			ColumnPartition partition = partitionList.get(p);
+			BTRecordParser recordParser = partition.recordParser;
+			int[] stationMapping = new int[recordParser.getStationCount()];
+			for (int i = 0; i < stationMapping.length; i++) {
+				BTStation station = recordParser.getStation(i);
+				mergeStation(id2BTStation, station, partition.stationCoordinateMap, distFunc);
+				Integer stationIndex = stationID2Index.get(station.getID());
+				if (stationIndex == null) {
+					stationIndex = stationList.size();
+					stationID2Index.put(station.getID(), stationIndex);
+					stationList.add(station);
+				}
+				stationMapping[i] = stationIndex;
+			}
+			int[] ownerMapping = new int[recordParser.getOwnerCount()];
+			for (int i = 0; i < ownerMapping.length; i++) {
+				String owner = recordParser.getOwner(i);
+				Integer ownerCode = owner2Code.get(owner);
+				if (ownerCode == null) {
+					ownerCode = ownerList.size();
+					owner2Code.put(owner, ownerCode);
+					ownerList.add(owner);
+				}
+				ownerMapping[i] = ownerCode;
+			}
+			int[] deviceMapping = new int[partition.deviceIndex.size()];
+			for (int i = 0; i < deviceMapping.length; i++) {
+				deviceMapping[i] = deviceIndex.indexOf(partition.deviceIndex.getDeviceID(i));
+			}
+			RawObservationColumns partitionColumns = partition.columns;
+			for (int i = 0; i < partitionColumns.size; i++) {
+				columns.add(deviceMapping[partitionColumns.deviceIndices[i]], partitionColumns.enterTimes[i],
+						partitionColumns.leaveTimes[i], stationMapping[partitionColumns.stationIndices[i]],
+						ownerMapping[partitionColumns.ownerCodes[i]]);
+			}
+			for (int i = 0; i < durationDist.length; i++) {
+				durationDist[i] += partition.durationDist[i];
+			}
+			partitionList.set(p, null);    // release the partition as soon as it is merged
+		}
+		LOG.info("Parsing finished, " + deviceIndex.size() + " devices found.");
+		ObservationStore store = buildObservationStore(columns, deviceIndex, stationList, ownerList);
+		return new Pair<>(store, buildStationList(id2BTStation));
+	}
+	
+	/**
+	 * Group the buffered observations by device with a counting sort, which keeps the file order within each device, sort each device
+	 * chronologically and build the store with one sequence per device in device index order. The sequence statistics are updated.
+	 *
+	 * @param columns     The observations in file order.
+	 * @param deviceIndex The devices of the observations.
+	 * @param stationList The stations referred by the station indices of the columns.
+	 * @param ownerList   The owners referred by the owner codes of the columns.
+	 * @return The observation store.
+	 */
+	private ObservationStore buildObservationStore(RawObservationColumns columns, DeviceIndex deviceIndex, List<BTStation> stationList,
+												   List<String> ownerList) {
+		int deviceCount = deviceIndex.size();
+		int[] deviceOffsets = new int[deviceCount + 1];
+		for (int i = 0; i < columns.size; i++) {
+			deviceOffsets[columns.deviceIndices[i] + 1]++;
+		}
+		for (int i = 0; i < deviceCount; i++) {
+			deviceOffsets[i + 1] += deviceOffsets[i];
+		}
+		int[] order = new int[columns.size];
+		int[] insertPosition = Arrays.copyOf(deviceOffsets, deviceCount);
+		for (int i = 0; i < columns.size; i++) {
+			order[insertPosition[columns.deviceIndices[i]]++] = i;
+		}
+		int[] sortBuffer = new int[columns.size];
+		// the stations and owners are registered in the builder in order of use, as they would be from the observation objects
+		int[] stationMapping = new int[stationList.size()];
+		Arrays.fill(stationMapping, -1);
+		int[] ownerMapping = new int[ownerList.size()];
+		Arrays.fill(ownerMapping, -1);
+		ObservationStore.Builder builder = new ObservationStore.Builder(columns.size, deviceCount);
+		long firstSequenceID = getNextSequenceID();
+		for (int i = 0; i < deviceCount; i++) {
+			sortByTime(order, sortBuffer, deviceOffsets[i], deviceOffsets[i + 1], columns.enterTimes, columns.leaveTimes);
+			builder.addSequence(firstSequenceID + i, deviceIndex.getDeviceID(i));
+			for (int j = deviceOffsets[i]; j < deviceOffsets[i + 1]; j++) {
+				int obIndex = order[j];
+				int stationIndex = columns.stationIndices[obIndex];
+				if (stationMapping[stationIndex] == -1)
+					stationMapping[stationIndex] = builder.stationIndex(stationList.get(stationIndex));
+				int ownerCode = columns.ownerCodes[obIndex];
+				if (ownerMapping[ownerCode] == -1)
+					ownerMapping[ownerCode] = builder.ownerCode(ownerList.get(ownerCode));
+				builder.addObservation(columns.enterTimes[obIndex], columns.leaveTimes[obIndex], stationMapping[stationIndex],
+						ownerMapping[ownerCode]);
+			}
+		}
+		ObservationStore store = builder.build();
+		int[] stationVisitMarker = new int[store.getStationCount()];
+		for (int i = 0; i < store.getSequenceCount(); i++) {
+			sequenceStatistics(store, i, stationVisitMarker);
+		}
+		return store;
+	}
+	
+	/**
+	 * Streaming version of <tt>loadRawObservations()</tt> for inputs that do not fit in memory. The files are read line by line and
+	 * the observations are buffered per device. Once the buffer reaches <tt>maxObInMemory</tt> observations, each device run is sorted
+	 * and spilled to a temporary run file. All runs are k-way merged at the end and each complete device sequence is handed to
+	 * <tt>sequenceConsumer</tt> as soon as it is built, so the peak memory is bounded by the buffer size rather than the input size.
+	 * <p>
+	 * The observations within each sequence are identical to the ones produced by <tt>loadRawObservations()</tt>, but the sequences are
+	 * emitted in ascending order of device ID.
+	 *
+	 * @param inputFileList    Input Bluetooth observation file list.
+	 * @param tempFolder       Folder for the temporary run files, the run files written in it are deleted when the loading finishes or
+	 *                         fails.
+	 * @param maxObInMemory    The maximum number of observations buffered before a run is spilled to disk.
+	 * @param distFunc         Distance function.
+	 * @param sequenceConsumer Receiver of the generated observation sequences.
+	 * @return List of Bluetooth station information.
+	 */
+	public List<BTStation> loadRawObservationsStreaming(List<File> inputFileList, String tempFolder, int maxObInMemory,
+														DistanceFunction distFunc, Consumer<OBSequence> sequenceConsumer) {
+		if (maxObInMemory <= 0)
+			throw new IllegalArgumentException("The observation buffer size should be positive: " + maxObInMemory);
+		Map<String, BTStation> id2BTStation = new LinkedHashMap<>();
+		Map<Long, List<BTObservation>> deviceID2ObList = new HashMap<>();
+		List<File> runFileList = new ArrayList<>();
+		IOService.createFolder(tempFolder);
+		List<ObservationRun> runList = new ArrayList<>();
+		try {
+			BTRecordParser recordParser = new BTRecordParser(id2BTStation, null, durationDist, distFunc);
+			int[] bufferedObCount = new int[1];
+			int fileCount = 0;
+			for (File file : inputFileList) {
+				for (FileChunk chunk : splitFile(file, CHUNK_SIZE)) {
+					parseChunk(chunk, recordParser, currOb -> {
+						deviceID2ObList.computeIfAbsent(currOb.getDeviceID(), k -> new ArrayList<>()).add(currOb);
+						bufferedObCount[0]++;
+						if (bufferedObCount[0] >= maxObInMemory) {
+							spillObservationRun(deviceID2ObList, tempFolder, runFileList);
+							deviceID2ObList.clear();
+							bufferedObCount[0] = 0;
 						}
-						numOfWrongOrderPairs++;
-						isWrongOrderedSequence = true;
+					});
+				}
+				fileCount++;
+				LOG.info("Processed the " + fileCount + "/" + inputFileList.size() + " file.");
+			}
+			LOG.info("Observation read finished, " + runFileList.size() + " runs spilled to disk. Start merging.");
+			List<BTStation> btStationList = buildStationList(id2BTStation);    // register the distance matrix before emitting sequences
+			
+			// the spilled runs come first as they contain earlier records, the remaining buffer is merged as the last run
+			for (File runFile : runFileList) {
+				runList.add(new FileObservationRun(runList.size(), runFile, id2BTStation));
+			}
+			runList.add(new MemoryObservationRun(runList.size(), deviceID2ObList));
+			PriorityQueue<ObservationRun> runQueue = new PriorityQueue<>((a, b) -> {
+				int result = Long.compare(a.peek().getDeviceID(), b.peek().getDeviceID());
+				if (result != 0)
+					return result;
+				result = a.peek().compareTo(b.peek());
+				return result != 0 ? result : Integer.compare(a.getRunIndex(), b.getRunIndex());
+			});
+			for (ObservationRun run : runList) {
+				if (run.peek() != null)
+					runQueue.add(run);
+			}
+			List<BTObservation> obList = new ArrayList<>();
+			while (!runQueue.isEmpty()) {
+				ObservationRun currRun = runQueue.poll();
+				BTObservation currOb = currRun.poll();
+				if (!obList.isEmpty() && obList.get(0).getDeviceID() != currOb.getDeviceID()) {
+					OBSequence currObSequence = new OBSequence(sequenceCount + sequenceIDOffset, obList);
+					sequenceStatistics(currObSequence);
+					sequenceConsumer.accept(currObSequence);
+					obList = new ArrayList<>();
+				}
+				obList.add(currOb);
+				if (currRun.peek() != null)
+					runQueue.add(currRun);
+			}
+			if (!obList.isEmpty()) {
+				OBSequence currObSequence = new OBSequence(sequenceCount + sequenceIDOffset, obList);
+				sequenceStatistics(currObSequence);
+				sequenceConsumer.accept(currObSequence);
+			}
+			return btStationList;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to merge the observation runs in " + tempFolder, e);
+		} finally {
+			for (ObservationRun run : runList) {
+				run.close();
+			}
+			for (File runFile : runFileList) {
+				if (runFile.exists() && !runFile.delete())
+					LOG.warn("Failed to delete temporary run file: " + runFile.getAbsolutePath());
+			}
+		}
+	}
+	
+	/**
+	 * Parallel version of <tt>loadRawObservations()</tt>. The input files are cut into chunks of complete lines, and the chunks are
+	 * parsed on a fork-join pool. Each chunk is collected into its own device partition with its own stations, which records the
+	 * coordinates of each station instead of checking them. The partitions are merged in the original file order, where the first
+	 * coordinates in file order decide the station location, the coordinates are checked in file order and the observations are moved
+	 * to the merged stations, so the output is the same as the single-thread version.
+	 *
+	 * @param inputFileList Input Bluetooth observation file list.
+	 * @param parallelism   The number of worker threads.
+	 * @param distFunc      Distance function.
+	 * @return List of observation sequences, each of which belongs to a device, list of Bluetooth station information.
+	 */
+	public Pair<List<OBSequence>, List<BTStation>> loadRawObservationsParallel(List<File> inputFileList, int parallelism,
+																			   DistanceFunction distFunc) {
+		List<FileChunk> chunkList = new ArrayList<>();
+		for (File file : inputFileList) {
+			chunkList.addAll(splitFile(file, CHUNK_SIZE));
+		}
+		LOG.info("Start parsing " + inputFileList.size() + " files in " + chunkList.size() + " chunks using " + parallelism + " threads.");
+		List<ObservationPartition> partitionList = ParallelRunner.run(parallelism, () -> chunkList.parallelStream()
+				.map(chunk -> {
+					ObservationPartition partition = new ObservationPartition();
+					BTRecordParser recordParser = new BTRecordParser(partition.id2BTStation, partition.stationCoordinateMap,
+							partition.durationDist, distFunc);
+					parseChunk(chunk, recordParser, currOb -> partition.deviceID2ObList.computeIfAbsent(currOb.getDeviceID(),
+							k -> new ArrayList<>()).add(currOb));
+					return partition;
+				})
+				.collect(Collectors.toList()), "Observation parsing");
+		
+		// merge the partitions in chunk order to keep the same device and station order as the sequential read
+		Map<String, BTStation> id2BTStation = new LinkedHashMap<>();
+		Map<Long, List<BTObservation>> deviceID2ObList = new LinkedHashMap<>();
+		for (ObservationPartition partition : partitionList) {
+			for (BTStation station : partition.id2BTStation.values()) {
+				mergeStation(id2BTStation, station, partition.stationCoordinateMap, distFunc);
+			}
+			for (Map.Entry<Long, List<BTObservation>> entry : partition.deviceID2ObList.entrySet()) {
+				List<BTObservation> obList = deviceID2ObList.get(entry.getKey());
+				if (obList == null)
+					deviceID2ObList.put(entry.getKey(), entry.getValue());
+				else
+					obList.addAll(entry.getValue());
+			}
+			for (int i = 0; i < durationDist.length; i++) {
+				durationDist[i] += partition.durationDist[i];
+			}
+		}
+		LOG.info("Parsing finished, " + deviceID2ObList.size() + " devices found.");
+		
+		ParallelRunner.run(parallelism, () -> deviceID2ObList.values().parallelStream().forEach(obList -> {
+			// replace the stations of the later partitions by the merged ones
+			obList.replaceAll(ob -> {
+				BTStation station = id2BTStation.get(ob.getStation().getID());
+				return station == ob.getStation() ? ob : new BTObservation(ob.getDeviceID(), ob.getEnterTime(), ob.getDuration(),
+						station, ob.getOwner());
+			});
+			Collections.sort(obList);
+		}), "Observation sorting");
+		List<OBSequence> obSequenceList = new ArrayList<>();
+		for (List<BTObservation> obList : deviceID2ObList.values()) {
+			OBSequence currObSequence = new OBSequence(sequenceCount + sequenceIDOffset, obList);
+			obSequenceList.add(currObSequence);
+			sequenceStatistics(currObSequence);
+		}
+		return new Pair<>(obSequenceList, buildStationList(id2BTStation));
+	}
+	
+	/**
+	 * Merge a station of a partition into the stations of the earlier partitions and check the coordinates recorded by the partition
+	 * against the merged station in file order.
+	 *
+	 * @param id2BTStation         The merged stations.
+	 * @param station              The station of the partition.
+	 * @param stationCoordinateMap The recorded coordinates of the partition.
+	 * @param distFunc             Distance function.
+	 */
+	private static void mergeStation(Map<String, BTStation> id2BTStation, BTStation station,
+									 Map<String, List<BTRecordParser.CoordinateRun>> stationCoordinateMap, DistanceFunction distFunc) {
+		BTStation mergedStation = id2BTStation.putIfAbsent(station.getID(), station);
+		// the first record of the station is only exempted if the station does not appear in an earlier partition
+		boolean isFirstRecord = mergedStation == null;
+		for (BTRecordParser.CoordinateRun run : stationCoordinateMap.get(station.getID())) {
+			BTRecordParser.checkStationLocation(mergedStation == null ? station : mergedStation, run.lon, run.lat,
+					isFirstRecord ? run.count - 1 : run.count, distFunc);
+			isFirstRecord = false;
+		}
+	}
+	
+	/**
+	 * Stable merge sort of the observation indices in <tt>order[from, to)</tt> by enter time and then leave time, which gives the same
+	 * order as sorting the observation objects with <tt>Collections.sort()</tt>.
+	 */
+	private static void sortByTime(int[] order, int[] buffer, int from, int to, long[] enterTimes, long[] leaveTimes) {
+		if (to - from <= 16) {    // insertion sort for short ranges
+			for (int i = from + 1; i < to; i++) {
+				int curr = order[i];
+				int j = i - 1;
+				while (j >= from && compareTime(order[j], curr, enterTimes, leaveTimes) > 0) {
+					order[j + 1] = order[j];
+					j--;
+				}
+				order[j + 1] = curr;
+			}
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		sortByTime(order, buffer, from, mid, enterTimes, leaveTimes);
+		sortByTime(order, buffer, mid, to, enterTimes, leaveTimes);
+		if (compareTime(order[mid - 1], order[mid], enterTimes, leaveTimes) <= 0)
+			return;    // already in order
+		System.arraycopy(order, from, buffer, from, to - from);
+		int left = from;
+		int right = mid;
+		for (int i = from; i < to; i++) {
+			if (right >= to || (left < mid && compareTime(buffer[left], buffer[right], enterTimes, leaveTimes) <= 0))
+				order[i] = buffer[left++];
+			else
+				order[i] = buffer[right++];
+		}
+	}
+	
+	private static int compareTime(int a, int b, long[] enterTimes, long[] leaveTimes) {
+		int result = Long.compare(enterTimes[a], enterTimes[b]);
+		return result != 0 ? result : Long.compare(leaveTimes[a], leaveTimes[b]);
+	}
+	
+	/**
+	 * Parse all records in the given chunk in order.
+	 *
+	 * @param chunk        The file chunk that consists of complete lines.
+	 * @param recordParser The parser of the current reader.
+	 * @param obConsumer   Receiver of the parsed observations.
+	 */
+	private static void parseChunk(FileChunk chunk, BTRecordParser recordParser, Consumer<BTObservation> obConsumer) {
+		MappedLineReader.forEachRecord(chunk.file, chunk.start, chunk.end, (content, lineStart, lineEnd) -> {
+			BTObservation currOb = recordParser.parse(content, lineStart, lineEnd);
+			if (currOb != null)
+				obConsumer.accept(currOb);
+		});
+		LOG.debug("Finished parsing " + chunk.file.getName() + " from " + chunk.start + " to " + chunk.end + ".");
+	}
+	
+	/**
+	 * Same as <tt>parseChunk()</tt> but the fields of the records are handed over without creating observation objects.
+	 *
+	 * @param chunk         The file chunk that consists of complete lines.
+	 * @param recordParser  The parser of the current reader.
+	 * @param fieldConsumer Receiver of the parsed records.
+	 */
+	private static void parseChunkFields(FileChunk chunk, BTRecordParser recordParser,
+										 BTRecordParser.ObservationFieldConsumer fieldConsumer) {
+		MappedLineReader.forEachRecord(chunk.file, chunk.start, chunk.end, (content, lineStart, lineEnd) ->
+				recordParser.parse(content, lineStart, lineEnd, fieldConsumer));
+		LOG.debug("Finished parsing " + chunk.file.getName() + " from " + chunk.start + " to " + chunk.end + ".");
+	}
+	
+	/**
+	 * Split the file into chunks of roughly <tt>chunkSize</tt> bytes. Each chunk starts at the beginning of a line and ends after a
+	 * line break, so that no line is split across chunks.
+	 *
+	 * @param file      The input file.
+	 * @param chunkSize The target size of each chunk.
+	 * @return The list of chunks in file order.
+	 */
+	private static List<FileChunk> splitFile(File file, long chunkSize) {
+		List<FileChunk> chunkList = new ArrayList<>();
+		long fileSize = file.length();
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+			long start = 0;
+			while (start < fileSize) {
+				long end = start + chunkSize;
+				if (end >= fileSize) {
+					end = fileSize;
+				} else {
+					randomAccessFile.seek(end);
+					int currByte;
+					while ((currByte = randomAccessFile.read()) != -1 && currByte != '\n') {
+						end++;
 					}
+					end = Math.min(end + 1, fileSize);    // include the line break
 				}
+				chunkList.add(new FileChunk(file, start, end));
+				start = end;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to split the input file: " + file.getAbsolutePath(), e);
+		}
+		return chunkList;
+	}
+	
+	/**
+	 * Sort the buffered observations by device and time and write them to a run file. The observations of each device are written
+	 * consecutively in ascending order of device ID.
+	 *
+	 * @param deviceID2ObList The buffered observations.
+	 * @param tempFolder      The folder of the run file.
+	 * @param runFileList     The run files written so far, the new run file is added before it is written so that it is deleted
+	 *                        even if the writing fails.
+	 */
+	private void spillObservationRun(Map<Long, List<BTObservation>> deviceID2ObList, String tempFolder, List<File> runFileList) {
+		int runIndex = runFileList.size();
+		File runFile = new File(tempFolder, "run_" + runIndex + ".tmp");
+		runFileList.add(runFile);
+		List<Long> deviceIDList = new ArrayList<>(deviceID2ObList.keySet());
+		Collections.sort(deviceIDList);
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(runFile))) {
+			for (Long deviceID : deviceIDList) {
+				List<BTObservation> obList = deviceID2ObList.get(deviceID);
+				Collections.sort(obList);
+				for (BTObservation ob : obList) {
+					writer.write(ob.toString());
+					writer.newLine();
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write observation run: " + runFile.getAbsolutePath(), e);
+		}
+		LOG.debug("Observation run " + runIndex + " spilled to disk.");
+	}
+	
+	/**
+	 * Update the loader statistics with a newly generated observation sequence, including the wrong ordered pairs and the unique
+	 * station visits.
+	 *
+	 * @param currObSequence The new observation sequence.
+	 */
+	private void sequenceStatistics(OBSequence currObSequence) {
+		Set<String> visitedBTStationSet = new HashSet<>();
+		for (BTObservation ob : currObSequence.getObservationList()) {
+			visitedBTStationSet.add(ob.getStation().getID());
+		}
+		boolean isWrongOrderedSequence = false;
+		for (int i = 0; i < currObSequence.size() - 1; i++) {
+			BTObservation currObservation = currObSequence.getObservationList().get(i);
+			BTObservation nextObservation = currObSequence.getObservationList().get(i + 1);
+			if (observationPairStatistics(currObSequence.getSequenceID(), i, currObservation.getEnterTime(),
+					currObservation.getLeaveTime(), currObservation.getStation(), nextObservation.getEnterTime(),
+					nextObservation.getLeaveTime(), nextObservation.getStation()))
+				isWrongOrderedSequence = true;
+		}
+		if (isWrongOrderedSequence)
+			numOfWrongOrderSequence++;
+		numOfUniqueStationVisit += visitedBTStationSet.size();
+		sequenceCount++;
+		obCount += currObSequence.size();
+	}
+	
+	/**
+	 * Same as <tt>sequenceStatistics()</tt> for a sequence in the observation store.
+	 *
+	 * @param store              The observation store.
+	 * @param sequenceIndex      The index of the sequence in the store.
+	 * @param stationVisitMarker The last sequence index + 1 that visits each station, used for counting unique stations without
+	 *                           allocation. It should be as long as the station dictionary and initially zero.
+	 */
+	private void sequenceStatistics(ObservationStore store, int sequenceIndex, int[] stationVisitMarker) {
+		int start = store.getSequenceStart(sequenceIndex);
+		int end = store.getSequenceEnd(sequenceIndex);
+		int uniqueStationCount = 0;
+		for (int i = start; i < end; i++) {
+			if (stationVisitMarker[store.getStationIndex(i)] != sequenceIndex + 1) {
+				stationVisitMarker[store.getStationIndex(i)] = sequenceIndex + 1;
+				uniqueStationCount++;
+			}
+		}
+		boolean isWrongOrderedSequence = false;
+		for (int i = start; i < end - 1; i++) {
+			if (observationPairStatistics(store.getSequenceID(sequenceIndex), i - start, store.getEnterTime(i), store.getLeaveTime(i),
+					store.getStation(i), store.getEnterTime(i + 1), store.getLeaveTime(i + 1), store.getStation(i + 1)))
+				isWrongOrderedSequence = true;
+		}
+		if (isWrongOrderedSequence)
+			numOfWrongOrderSequence++;
+		numOfUniqueStationVisit += uniqueStationCount;
+		sequenceCount++;
+		obCount += end - start;
+	}
+	
+	/**
+	 * Check the order of two consecutive observations in a sequence and update the overlap statistics.
+	 *
+	 * @return True if the next observation starts before the current one leaves.
+	 */
+	private boolean observationPairStatistics(long sequenceID, int i, long currEnterTime, long currLeaveTime, BTStation currStation,
+											  long nextEnterTime, long nextLeaveTime, BTStation nextStation) {
+		if (currLeaveTime <= nextEnterTime)
+			return false;
+		if (currLeaveTime > nextLeaveTime) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("The next observation is completely included in the last observation in sequence " + sequenceID + "," + i + "," +
+						nextEnterTime + "," + nextLeaveTime + "," + currEnterTime + "," + currLeaveTime);
+				LOG.debug("BT reader info: " + currStation.getID() + "," + currStation.getCentre().toString() + "," + nextStation.getID() +
+						"," + nextStation.getCentre().toString() + "," + currStation.distanceTo(nextStation));
+			}
+			int durationIndex = (int) Math.floor((nextLeaveTime - nextEnterTime) / 10.0);
+			inclusionDurationDist[durationIndex < inclusionDurationDist.length ? durationIndex : inclusionDurationDist.length - 1]++;
+			numOfIncludedPairs++;
+		} else {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("The next observation starts before the current observation in sequence " + sequenceID + "," + i + "," +
+						currLeaveTime + "," + nextEnterTime);
+				LOG.debug("BT reader info: " + currStation.getID() + "," + currStation.getCentre().toString() + "," + nextStation.getID() +
+						"," + nextStation.getCentre().toString() + "," + currStation.distanceTo(nextStation));
 			}
-			if (isWrongOrderedSequence)
-				numOfWrongOrderSequence++;
-			numOfUniqueStationVisit += visitedBTStationSet.size();
-			sequenceCount++;
-			obCount += currObSequence.size();
+			int durationIndex = (int) Math.floor((nextLeaveTime - nextEnterTime) / 10.0);
+			overlapDurationDist[durationIndex < overlapDurationDist.length ? durationIndex : overlapDurationDist.length - 1]++;
 		}
+		numOfWrongOrderPairs++;
+		return true;
+	}
+	
+	/**
+	 * Generate the station list and register the station locations for the multi-station check in <tt>printStatistics()</tt>. The
+	 * stations are registered in a new <tt>StationDistanceMatrix</tt> so that the distances between them are looked up afterwards.
+	 *
+	 * @param id2BTStation The stations read from the current input.
+	 * @return List of Bluetooth station information.
+	 */
+	private List<BTStation> buildStationList(Map<String, BTStation> id2BTStation) {
+		List<BTStation> btStationList = new ArrayList<>();
 		double minLon = Double.POSITIVE_INFINITY;
 		double minLat = Double.POSITIVE_INFINITY;
 		double maxLon = Double.NEGATIVE_INFINITY;
@@ -160,8 +709,8 @@ public class BTObservationLoader {
 			}
 		}
 		LOG.info("Current map region is :" + minLon + "," + maxLon + "," + minLat + "," + maxLat);
-		
-		return new Pair<>(obSequenceList, btStationList);
+		new StationDistanceMatrix(btStationList).register();
+		return btStationList;
 	}
 	
 	public void printStatistics() {
@@ -202,4 +751,230 @@ public class BTObservationLoader {
 		LOG.info("The duration distribution of fully included data is: " + inclusionDurationString.toString());
 		LOG.info("The duration distribution of partially overlapped data is: " + overlapDurationString.toString());
 	}
+	
+	/**
+	 * A sorted run of observations used in the k-way merge of <tt>loadRawObservationsStreaming()</tt>.
+	 */
+	private interface ObservationRun extends Closeable {
+		
+		int getRunIndex();
+		
+		/**
+		 * @return The next observation in the run, or null if the run is exhausted.
+		 */
+		BTObservation peek();
+		
+		BTObservation poll() throws IOException;
+		
+		@Override
+		void close();
+	}
+	
+	/**
+	 * Observation run stored in a temporary file, one observation per line.
+	 */
+	private static class FileObservationRun implements ObservationRun {
+		private final int runIndex;
+		private final BufferedReader reader;
+		private final Map<String, BTStation> id2BTStation;
+		private BTObservation nextOb;
+		
+		FileObservationRun(int runIndex, File runFile, Map<String, BTStation> id2BTStation) throws IOException {
+			this.runIndex = runIndex;
+			this.reader = new BufferedReader(new FileReader(runFile));
+			this.id2BTStation = id2BTStation;
+			advance();
+		}
+		
+		private void advance() throws IOException {
+			String line = reader.readLine();
+			nextOb = line == null ? null : BTObservation.parseBTObservation(line, id2BTStation);
+		}
+		
+		@Override
+		public int getRunIndex() {
+			return runIndex;
+		}
+		
+		@Override
+		public BTObservation peek() {
+			return nextOb;
+		}
+		
+		@Override
+		public BTObservation poll() throws IOException {
+			BTObservation currOb = nextOb;
+			advance();
+			return currOb;
+		}
+		
+		@Override
+		public void close() {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				LOG.error("Error closing observation run.", e);
+			}
+		}
+	}
+	
+	/**
+	 * Observation run built from the observations that are still buffered in memory.
+	 */
+	private static class MemoryObservationRun implements ObservationRun {
+		private final int runIndex;
+		private final Iterator<BTObservation> iterator;
+		private BTObservation nextOb;
+		
+		MemoryObservationRun(int runIndex, Map<Long, List<BTObservation>> deviceID2ObList) {
+			this.runIndex = runIndex;
+			List<Long> deviceIDList = new ArrayList<>(deviceID2ObList.keySet());
+			Collections.sort(deviceIDList);
+			List<BTObservation> sortedObList = new ArrayList<>();
+			for (Long deviceID : deviceIDList) {
+				List<BTObservation> obList = deviceID2ObList.get(deviceID);
+				Collections.sort(obList);
+				sortedObList.addAll(obList);
+			}
+			this.iterator = sortedObList.iterator();
+			this.nextOb = iterator.hasNext() ? iterator.next() : null;
+		}
+		
+		@Override
+		public int getRunIndex() {
+			return runIndex;
+		}
+		
+		@Override
+		public BTObservation peek() {
+			return nextOb;
+		}
+		
+		@Override
+		public BTObservation poll() {
+			BTObservation currOb = nextOb;
+			nextOb = iterator.hasNext() ? iterator.next() : null;
+			return currOb;
+		}
+		
+		@Override
+		public void close() {
+		}
+	}
+	
+	/**
+	 * A byte range of an input file that consists of complete lines.
+	 */
+	private static class FileChunk {
+		private final File file;
+		private final long start;
+		private final long end;
+		
+		FileChunk(File file, long start, long end) {
+			this.file = file;
+			this.start = start;
+			this.end = end;
+		}
+	}
+	
+	/**
+	 * The observations and stations parsed from one file chunk.
+	 */
+	private static class ObservationPartition {
+		private final Map<Long, List<BTObservation>> deviceID2ObList = new LinkedHashMap<>();
+		private final Map<String, BTStation> id2BTStation = new LinkedHashMap<>();
+		private final Map<String, List<BTRecordParser.CoordinateRun>> stationCoordinateMap = new HashMap<>();
+		private final double[] durationDist = new double[20];
+	}
+	
+	/**
+	 * The primitive columns and stations parsed from one file chunk.
+	 */
+	private static class ColumnPartition {
+		private final Map<String, BTStation> id2BTStation = new LinkedHashMap<>();
+		private final Map<String, List<BTRecordParser.CoordinateRun>> stationCoordinateMap = new HashMap<>();
+		private final double[] durationDist = new double[20];
+		private final DeviceIndex deviceIndex = new DeviceIndex();
+		private final RawObservationColumns columns = new RawObservationColumns(1024);
+		private BTRecordParser recordParser;
+	}
+	
+	/**
+	 * Index of the devices in order of their first appearance.
+	 */
+	private static class DeviceIndex {
+		private final LongIntHashMap deviceID2Index = new LongIntHashMap(1024);    // stores the index + 1 so that 0 means absent
+		private final Map<Long, Integer> negativeDeviceID2Index = new HashMap<>();    // not supported by LongIntHashMap, rare
+		private long[] deviceIDs = new long[1024];
+		private int size = 0;
+		
+		/**
+		 * @param deviceID The device ID.
+		 * @return The index of the device, a new device is appended.
+		 */
+		int indexOf(long deviceID) {
+			int index;
+			if (deviceID >= 0) {
+				index = deviceID2Index.get(deviceID) - 1;
+				if (index >= 0)
+					return index;
+				deviceID2Index.put(deviceID, size + 1);
+			} else {
+				Integer negativeIndex = negativeDeviceID2Index.get(deviceID);
+				if (negativeIndex != null)
+					return negativeIndex;
+				negativeDeviceID2Index.put(deviceID, size);
+			}
+			if (size == deviceIDs.length)
+				deviceIDs = Arrays.copyOf(deviceIDs, size * 2);
+			deviceIDs[size] = deviceID;
+			return size++;
+		}
+		
+		long getDeviceID(int index) {
+			return deviceIDs[index];
+		}
+		
+		int size() {
+			return size;
+		}
+	}
+	
+	/**
+	 * Growable primitive columns of the parsed observations in file order, used by <tt>loadRawObservationStore()</tt>.
+	 */
+	private static class RawObservationColumns {
+		private int[] deviceIndices;
+		private long[] enterTimes;
+		private long[] leaveTimes;
+		private int[] stationIndices;
+		private int[] ownerCodes;
+		private int size = 0;
+		
+		RawObservationColumns(int capacity) {
+			capacity = Math.max(capacity, 16);
+			this.deviceIndices = new int[capacity];
+			this.enterTimes = new long[capacity];
+			this.leaveTimes = new long[capacity];
+			this.stationIndices = new int[capacity];
+			this.ownerCodes = new int[capacity];
+		}
+		
+		void add(int deviceIndex, long enterTime, long leaveTime, int stationIndex, int ownerCode) {
+			if (size == enterTimes.length) {
+				int newLength = size * 2;
+				deviceIndices = Arrays.copyOf(deviceIndices, newLength);
+				enterTimes = Arrays.copyOf(enterTimes, newLength);
+				leaveTimes = Arrays.copyOf(leaveTimes, newLength);
+				stationIndices = Arrays.copyOf(stationIndices, newLength);
+				ownerCodes = Arrays.copyOf(ownerCodes, newLength);
+			}
+			deviceIndices[size] = deviceIndex;
+			enterTimes[size] = enterTime;
+			leaveTimes[size] = leaveTime;
+			stationIndices[size] = stationIndex;
+			ownerCodes[size] = ownerCode;
+			size++;
+		}
+	}
 }
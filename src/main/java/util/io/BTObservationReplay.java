@@ -0,0 +1,94 @@
+package util.io;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.function.DistanceFunction;
+import util.object.BTObservation;
+import util.object.BTStation;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Replay the raw Bluetooth observation files as a live feed. The records are parsed by <tt>BTRecordParser</tt> and sent to the consumer
+ * one by one in file order. The replay runs as fast as possible by default, or paced by the enter times of the observations when a
+ * speed factor is given, e.g. a factor of 60 replays one hour of observations in one minute.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class BTObservationReplay {
+	
+	private static final Logger LOG = LogManager.getLogger(BTObservationReplay.class);
+	private final List<File> inputFileList;
+	private final double speedFactor;
+	private final Map<String, BTStation> id2BTStation = new LinkedHashMap<>();
+	private final BTRecordParser recordParser;
+	
+	/**
+	 * @param inputFileList The raw observation files, replayed in the list order.
+	 * @param speedFactor   The ratio of the feed time to the wall-clock time, or 0 to replay without pacing.
+	 * @param distFunc      Distance function.
+	 */
+	public BTObservationReplay(List<File> inputFileList, double speedFactor, DistanceFunction distFunc) {
+		if (speedFactor < 0)
+			throw new IllegalArgumentException("The speed factor should be non-negative: " + speedFactor);
+		this.inputFileList = inputFileList;
+		this.speedFactor = speedFactor;
+		this.recordParser = new BTRecordParser(id2BTStation, null, new double[20], distFunc);
+	}
+	
+	/**
+	 * Send all observations of the files to the consumer.
+	 *
+	 * @param obConsumer Receiver of the observations.
+	 * @return The number of observations replayed.
+	 */
+	public long replay(Consumer<BTObservation> obConsumer) {
+		long[] obCount = new long[1];
+		long[] feedStart = new long[]{Long.MIN_VALUE};    // the enter time of the first observation, replayed at wallStart
+		long wallStart = System.currentTimeMillis();
+		for (File file : inputFileList) {
+			MappedLineReader.forEachRecord(file, (buffer, start, end) -> {
+				BTObservation currOb = recordParser.parse(buffer, start, end);
+				if (currOb == null)
+					return;
+				if (speedFactor > 0) {
+					if (feedStart[0] == Long.MIN_VALUE)
+						feedStart[0] = currOb.getEnterTime();
+					waitUntil(wallStart + (long) ((currOb.getEnterTime() - feedStart[0]) * 1000 / speedFactor));
+				}
+				obConsumer.accept(currOb);
+				obCount[0]++;
+			});
+			LOG.info("Replayed " + file.getName() + ", " + obCount[0] + " observations so far.");
+		}
+		long elapsed = Math.max(System.currentTimeMillis() - wallStart, 1);
+		LOG.info("Replay finished, " + obCount[0] + " observations in " + elapsed / 1000.0 + "s, " + (obCount[0] * 1000 / elapsed)
+				+ " observations per second.");
+		return obCount[0];
+	}
+	
+	/**
+	 * @return The stations found so far, in order of appearance.
+	 */
+	public List<BTStation> getStationList() {
+		return new ArrayList<>(id2BTStation.values());
+	}
+	
+	private static void waitUntil(long wallTime) {
+		long waitTime = wallTime - System.currentTimeMillis();
+		if (waitTime <= 0)
+			return;
+		try {
+			Thread.sleep(waitTime);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Observation replay is interrupted.", e);
+		}
+	}
+}
@@ -0,0 +1,575 @@
+package util.io;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.function.DistanceFunction;
+import util.object.BTObservation;
+import util.object.BTStation;
+import util.object.Point;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parser for the raw Bluetooth records. Each record has seven comma-separated columns: deviceid, enter time (yyyy-MM-dd HH:mm:ss),
+ * duration, station ID, latitude, longitude and owner.
+ * <p>
+ * The fixed layout is decoded directly from the byte buffer: the numbers and the enter time are decoded without creating Strings, the
+ * station and the owner are looked up by their raw bytes, and the coordinates are only parsed when they differ from the first record of
+ * the station. Records that do not follow the layout exactly, or fall in a day with a time zone transition, go through the
+ * <tt>SimpleDateFormat</tt> based parsing instead, so the observations are always the same as the String based parsing. The parser is
+ * not thread-safe, each reader thread should have its own instance.
+ *
+ * @author Hellisk
+ * @since 14/10/2019
+ */
+public class BTRecordParser {
+	
+	private static final Logger LOG = LogManager.getLogger(BTRecordParser.class);
+	private static final int NUM_OF_COLUMNS = 7;
+	private static final int DATE_LENGTH = 19;    // the length of "yyyy-MM-dd HH:mm:ss"
+	private static final int MAX_DIGITS = 18;    // the longest number that cannot overflow a long
+	private static final byte[] TITLE_COLUMN = "deviceid".getBytes();
+	
+	private final Map<String, BTStation> id2BTStation;
+	private final Map<String, List<CoordinateRun>> stationCoordinateMap;
+	private final double[] durationDist;
+	private final DistanceFunction distFunc;
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+	private final ZoneRules zoneRules = ZoneId.systemDefault().getRules();
+	private final ByteKeyTable<StationEntry> stationTable = new ByteKeyTable<>();
+	private final ByteKeyTable<Integer> ownerTable = new ByteKeyTable<>();
+	private final List<BTStation> stationList = new ArrayList<>();    // the stations of this parser by index
+	private final Map<String, Integer> stationID2Index = new HashMap<>();
+	private final List<String> ownerList = new ArrayList<>();    // the owners of this parser by code
+	private final Map<String, Integer> owner2Code = new HashMap<>();
+	private final int[] commaIndex = new int[NUM_OF_COLUMNS - 1];
+	private byte[] lineBuffer = new byte[256];
+	// the time zone offset of the last decoded day, only valid if the day has no offset transition
+	private long cachedEpochDay = Long.MIN_VALUE;
+	private boolean isCachedDayFixed = false;
+	private int cachedOffsetSeconds = 0;
+	// the fields of the last parsed record
+	private long currDeviceID;
+	private long currEnterTime;
+	private long currDuration;
+	private int currStationIndex;
+	private int currOwnerCode;
+	
+	/**
+	 * Create a record parser.
+	 *
+	 * @param id2BTStation         The stations seen by the current reader, new stations are added to it in order of appearance.
+	 * @param stationCoordinateMap If provided, the coordinates of the stations are recorded in it instead of being checked, so that a
+	 *                             reader of part of the input can be checked later against the stations of the earlier parts. The
+	 *                             coordinates of each station are recorded in order of appearance as runs of identical ones. Can be
+	 *                             null.
+	 * @param durationDist         The duration distribution (10 seconds per cell) to be updated by each parsed record.
+	 * @param distFunc             Distance function.
+	 */
+	public BTRecordParser(Map<String, BTStation> id2BTStation, Map<String, List<CoordinateRun>> stationCoordinateMap,
+						  double[] durationDist, DistanceFunction distFunc) {
+		this.id2BTStation = id2BTStation;
+		this.stationCoordinateMap = stationCoordinateMap;
+		this.durationDist = durationDist;
+		this.distFunc = distFunc;
+	}
+	
+	/**
+	 * Parse the record stored in <tt>buffer</tt> between <tt>start</tt> (inclusive) and <tt>end</tt> (exclusive). The line break
+	 * should not be included, a trailing carriage return is ignored. The buffer position is not changed.
+	 *
+	 * @param buffer The buffer that contains the record.
+	 * @param start  The start index of the record.
+	 * @param end    The end index of the record.
+	 * @return The parsed observation, or null if the line is the column title or its date cannot be parsed.
+	 */
+	public BTObservation parse(ByteBuffer buffer, int start, int end) {
+		if (!parseFields(buffer, start, end))
+			return null;
+		return createObservation();
+	}
+	
+	/**
+	 * Same as <tt>parse()</tt> but the fields of the record are handed to <tt>fieldConsumer</tt> without creating an observation
+	 * object. The station and the owner are given by their index in the dictionaries of this parser, see <tt>getStation()</tt> and
+	 * <tt>getOwner()</tt>.
+	 *
+	 * @param buffer        The buffer that contains the record.
+	 * @param start         The start index of the record.
+	 * @param end           The end index of the record.
+	 * @param fieldConsumer Receiver of the parsed record.
+	 * @return False if the line is the column title or its date cannot be parsed.
+	 */
+	public boolean parse(ByteBuffer buffer, int start, int end, ObservationFieldConsumer fieldConsumer) {
+		if (!parseFields(buffer, start, end))
+			return false;
+		fieldConsumer.accept(currDeviceID, currEnterTime, currEnterTime + currDuration, currStationIndex, currOwnerCode);
+		return true;
+	}
+	
+	/**
+	 * Parse the record given as a String, the column layout is the same as in <tt>parse()</tt>. This is the reference parsing which
+	 * handles all the records that do not follow the fixed layout.
+	 *
+	 * @param line The raw record.
+	 * @return The parsed observation, or null if the line is the column title or its date cannot be parsed.
+	 */
+	public BTObservation parseLine(String line) {
+		if (!parseLineFields(line))
+			return null;
+		return createObservation();
+	}
+	
+	/**
+	 * @param stationIndex The index of the station, in order of appearance.
+	 * @return The station.
+	 */
+	public BTStation getStation(int stationIndex) {
+		return stationList.get(stationIndex);
+	}
+	
+	public int getStationCount() {
+		return stationList.size();
+	}
+	
+	/**
+	 * @param ownerCode The code of the owner, in order of appearance.
+	 * @return The owner.
+	 */
+	public String getOwner(int ownerCode) {
+		return ownerList.get(ownerCode);
+	}
+	
+	public int getOwnerCount() {
+		return ownerList.size();
+	}
+	
+	/**
+	 * Decode the record into the current fields.
+	 *
+	 * @return False if the line is the column title or its date cannot be parsed.
+	 */
+	private boolean parseFields(ByteBuffer buffer, int start, int end) {
+		if (end > start && buffer.get(end - 1) == '\r')
+			end--;
+		int columnCount = 0;
+		for (int i = start; i < end; i++) {
+			if (buffer.get(i) == ',') {
+				if (columnCount == NUM_OF_COLUMNS - 1)
+					return parseLineFields(decode(buffer, start, end));    // too many columns
+				commaIndex[columnCount++] = i;
+			}
+		}
+		if (columnCount > 0 && equalsBytes(buffer, start, commaIndex[0], TITLE_COLUMN))
+			return false;    // the first line which is the column titles.
+		if (columnCount != NUM_OF_COLUMNS - 1)
+			return parseLineFields(decode(buffer, start, end));
+		int ownerStart = commaIndex[5] + 1;
+		long deviceID = parseDigits(buffer, start, commaIndex[0]);
+		long enterTime = parseDateTime(buffer, commaIndex[0] + 1, commaIndex[1]);
+		long duration = parseDigits(buffer, commaIndex[1] + 1, commaIndex[2]);
+		if (deviceID < 0 || enterTime == Long.MIN_VALUE || duration < 0 || commaIndex[3] == commaIndex[2] + 1 || ownerStart == end)
+			return parseLineFields(decode(buffer, start, end));
+		
+		int stationIndex = lookupStation(buffer, commaIndex[2] + 1, commaIndex[3], commaIndex[3] + 1, commaIndex[5]);
+		Integer ownerCode = ownerTable.get(buffer, ownerStart, end);
+		if (ownerCode == null) {
+			ownerCode = ownerCode(decode(buffer, ownerStart, end));
+			ownerTable.put(buffer, ownerStart, end, ownerCode);
+		}
+		setFields(deviceID, enterTime, duration, stationIndex, ownerCode);
+		return true;
+	}
+	
+	private boolean parseLineFields(String line) {
+		String[] info = line.split(",");
+		if (info[0].equals("deviceid"))
+			return false;    // the first line which is the column titles.
+		if (info.length != NUM_OF_COLUMNS)
+			throw new IllegalArgumentException("Input record format length is wrong: " + line);
+		BTStation currStation = id2BTStation.get(info[3]);
+		int stationIndex;
+		if (currStation == null) {
+			stationIndex = addStation(info[3], info[5], info[4]);
+		} else {
+			checkStationLocation(currStation, info[5], info[4]);
+			stationIndex = stationID2Index.get(info[3]);
+		}
+		Date enterDate;
+		try {
+			enterDate = dateFormat.parse(info[1]);
+		} catch (ParseException e) {
+			LOG.error("Unable to parse date information: " + line);
+			return false;
+		}
+		setFields(Long.parseLong(info[0]), enterDate.getTime() / 1000, Long.parseLong(info[2]), stationIndex, ownerCode(info[6]));
+		return true;
+	}
+	
+	private void setFields(long deviceID, long enterTime, long duration, int stationIndex, int ownerCode) {
+		this.currDeviceID = deviceID;
+		this.currEnterTime = enterTime;
+		this.currDuration = duration;
+		this.currStationIndex = stationIndex;
+		this.currOwnerCode = ownerCode;
+		int durationIndex = (int) Math.floor(duration / 10.0);
+		durationDist[durationIndex < durationDist.length ? durationIndex : durationDist.length - 1]++;
+	}
+	
+	private BTObservation createObservation() {
+		return new BTObservation(currDeviceID, currEnterTime, currDuration, stationList.get(currStationIndex),
+				ownerList.get(currOwnerCode));
+	}
+	
+	private int ownerCode(String owner) {
+		Integer code = owner2Code.get(owner);
+		if (code == null) {
+			code = ownerList.size();
+			owner2Code.put(owner, code);
+			ownerList.add(owner);
+		}
+		return code;
+	}
+	
+	/**
+	 * Find the station by the raw bytes of its ID. The coordinates are compared byte-wise with the first record of the station and
+	 * only parsed if they are written differently.
+	 */
+	private int lookupStation(ByteBuffer buffer, int idStart, int idEnd, int coordinateStart, int coordinateEnd) {
+		StationEntry entry = stationTable.get(buffer, idStart, idEnd);
+		if (entry != null) {
+			BTStation station = stationList.get(entry.index);
+			if (!equalsBytes(buffer, coordinateStart, coordinateEnd, entry.coordinates)) {
+				checkStationLocation(station, decode(buffer, commaIndex[4] + 1, coordinateEnd),
+						decode(buffer, coordinateStart, commaIndex[4]));
+			} else if (stationCoordinateMap != null) {    // the same as the first coordinates, recorded without decoding
+				List<CoordinateRun> runList = stationCoordinateMap.get(station.getID());
+				CoordinateRun firstRun = runList.get(0);
+				if (runList.get(runList.size() - 1) == firstRun)
+					firstRun.count++;
+				else
+					checkStationLocation(station, firstRun.lon, firstRun.lat);
+			}
+			return entry.index;
+		}
+		String stationID = decode(buffer, idStart, idEnd);
+		String lat = decode(buffer, coordinateStart, commaIndex[4]);
+		String lon = decode(buffer, commaIndex[4] + 1, coordinateEnd);
+		BTStation currStation = id2BTStation.get(stationID);
+		int stationIndex;
+		if (currStation == null) {
+			stationIndex = addStation(stationID, lon, lat);
+			// the ID bytes may not be the same as the encoded ID, the current coordinates are the first ones of the station
+			if (stationTable.get(buffer, idStart, idEnd) == null)
+				stationTable.put(copyBytes(buffer, idStart, idEnd), new StationEntry(stationIndex,
+						copyBytes(buffer, coordinateStart, coordinateEnd)));
+		} else {
+			// not cached as the coordinates may differ from the first ones, so every record of these bytes is checked
+			checkStationLocation(currStation, lon, lat);
+			stationIndex = stationID2Index.get(stationID);
+		}
+		return stationIndex;
+	}
+	
+	/**
+	 * Create a station from its first record. The station is also cached by its encoded ID together with its first coordinates, so
+	 * that the records of the station are compared with the first coordinates no matter which parsing created it.
+	 *
+	 * @return The index of the new station.
+	 */
+	private int addStation(String stationID, String lon, String lat) {
+		BTStation currStation = new BTStation(stationID, Double.parseDouble(lon), Double.parseDouble(lat), distFunc);
+		int stationIndex = stationList.size();
+		id2BTStation.put(stationID, currStation);
+		stationList.add(currStation);
+		stationID2Index.put(stationID, stationIndex);
+		stationTable.put(stationID.getBytes(Charset.defaultCharset()), new StationEntry(stationIndex,
+				(lat + "," + lon).getBytes(Charset.defaultCharset())));
+		if (stationCoordinateMap != null) {
+			List<CoordinateRun> runList = new ArrayList<>();
+			runList.add(new CoordinateRun(lon, lat));
+			stationCoordinateMap.put(stationID, runList);
+		}
+		return stationIndex;
+	}
+	
+	private void checkStationLocation(BTStation station, String lon, String lat) {
+		if (stationCoordinateMap == null) {
+			checkStationLocation(station, lon, lat, 1, distFunc);
+			return;
+		}
+		List<CoordinateRun> runList = stationCoordinateMap.get(station.getID());
+		CoordinateRun lastRun = runList.get(runList.size() - 1);
+		if (lastRun.lon.equals(lon) && lastRun.lat.equals(lat))
+			lastRun.count++;
+		else
+			runList.add(new CoordinateRun(lon, lat));
+	}
+	
+	/**
+	 * Log an error for each of the <tt>count</tt> records if the coordinates differ from the station location.
+	 */
+	static void checkStationLocation(BTStation station, String lon, String lat, long count, DistanceFunction distFunc) {
+		Point currCentre = new Point(Double.parseDouble(lon), Double.parseDouble(lat), distFunc);
+		if (!station.getCentre().equals2D(currCentre)) {
+			for (long i = 0; i < count; i++) {
+				LOG.error("The same station has different coordinates: " + station.getID() + "," + station.getCentre().toString() +
+						"," + lon + " " + lat + ". Distance: " + distFunc.distance(station.getCentre(), currCentre));
+			}
+		}
+	}
+	
+	/**
+	 * Decode a non-negative number that only consists of digits.
+	 *
+	 * @return The number, or -1 if the field is not a plain number.
+	 */
+	private static long parseDigits(ByteBuffer buffer, int start, int end) {
+		if (end <= start || end - start > MAX_DIGITS)
+			return -1;
+		long result = 0;
+		for (int i = start; i < end; i++) {
+			int digit = buffer.get(i) - '0';
+			if (digit < 0 || digit > 9)
+				return -1;
+			result = result * 10 + digit;
+		}
+		return result;
+	}
+	
+	private static int parseTwoDigits(ByteBuffer buffer, int start) {
+		int high = buffer.get(start) - '0';
+		int low = buffer.get(start + 1) - '0';
+		if (high < 0 || high > 9 || low < 0 || low > 9)
+			return -1;
+		return high * 10 + low;
+	}
+	
+	/**
+	 * Decode "yyyy-MM-dd HH:mm:ss" in the system default time zone into epoch seconds, which is the same as
+	 * <tt>SimpleDateFormat.parse().getTime() / 1000</tt>.
+	 *
+	 * @return The epoch seconds, or <tt>Long.MIN_VALUE</tt> if the field does not strictly follow the format or falls in a day with a
+	 * time zone transition.
+	 */
+	private long parseDateTime(ByteBuffer buffer, int start, int end) {
+		if (end - start != DATE_LENGTH || buffer.get(start + 4) != '-' || buffer.get(start + 7) != '-' || buffer.get(start + 10) != ' '
+				|| buffer.get(start + 13) != ':' || buffer.get(start + 16) != ':')
+			return Long.MIN_VALUE;
+		int yearHigh = parseTwoDigits(buffer, start);
+		int yearLow = parseTwoDigits(buffer, start + 2);
+		int month = parseTwoDigits(buffer, start + 5);
+		int day = parseTwoDigits(buffer, start + 8);
+		int hour = parseTwoDigits(buffer, start + 11);
+		int minute = parseTwoDigits(buffer, start + 14);
+		int second = parseTwoDigits(buffer, start + 17);
+		if (yearHigh < 19 || yearLow < 0 || month < 1 || month > 12 || day < 1 || hour < 0 || hour > 23 || minute < 0 || minute > 59
+				|| second < 0 || second > 59)
+			return Long.MIN_VALUE;
+		int year = yearHigh * 100 + yearLow;
+		if (day > lengthOfMonth(year, month))
+			return Long.MIN_VALUE;
+		long epochDay = epochDay(year, month, day);
+		if (epochDay != cachedEpochDay)
+			updateDayOffset(epochDay);
+		if (!isCachedDayFixed)
+			return Long.MIN_VALUE;
+		return epochDay * 86400 + hour * 3600 + minute * 60 + second - cachedOffsetSeconds;
+	}
+	
+	/**
+	 * Find the time zone offset of the given local day. The offset is only cached if there is no transition within the day.
+	 */
+	private void updateDayOffset(long epochDay) {
+		cachedEpochDay = epochDay;
+		List<ZoneOffset> validOffsets = zoneRules.getValidOffsets(LocalDate.ofEpochDay(epochDay).atStartOfDay());
+		if (validOffsets.size() != 1) {    // the day starts in a gap or an overlap
+			isCachedDayFixed = false;
+			return;
+		}
+		cachedOffsetSeconds = validOffsets.get(0).getTotalSeconds();
+		long dayStartSecond = epochDay * 86400 - cachedOffsetSeconds;
+		ZoneOffsetTransition transition = zoneRules.nextTransition(Instant.ofEpochSecond(dayStartSecond - 1));
+		isCachedDayFixed = transition == null || transition.getInstant().getEpochSecond() > dayStartSecond + 86400;
+	}
+	
+	private static int lengthOfMonth(int year, int month) {
+		switch (month) {
+			case 2:
+				return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+			case 4:
+			case 6:
+			case 9:
+			case 11:
+				return 30;
+			default:
+				return 31;
+		}
+	}
+	
+	/**
+	 * Number of days from 1970-01-01 to the given date in the proleptic Gregorian calendar.
+	 */
+	private static long epochDay(int year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = Math.floorDiv(y, 400);
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+	
+	private static boolean equalsBytes(ByteBuffer buffer, int start, int end, byte[] key) {
+		if (end - start != key.length)
+			return false;
+		for (int i = 0; i < key.length; i++) {
+			if (buffer.get(start + i) != key[i])
+				return false;
+		}
+		return true;
+	}
+	
+	private static byte[] copyBytes(ByteBuffer buffer, int start, int end) {
+		byte[] result = new byte[end - start];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = buffer.get(start + i);
+		}
+		return result;
+	}
+	
+	/**
+	 * Decode a field in the platform default charset, the same as reading the file through a <tt>FileReader</tt>.
+	 */
+	private String decode(ByteBuffer buffer, int start, int end) {
+		int length = end - start;
+		if (lineBuffer.length < length)
+			lineBuffer = new byte[Math.max(length, lineBuffer.length * 2)];
+		for (int i = 0; i < length; i++) {
+			lineBuffer[i] = buffer.get(start + i);
+		}
+		return new String(lineBuffer, 0, length, Charset.defaultCharset());
+	}
+	
+	/**
+	 * Receiver of the fields of a parsed record.
+	 */
+	@FunctionalInterface
+	public interface ObservationFieldConsumer {
+		/**
+		 * @param deviceID     The device ID.
+		 * @param enterTime    The enter time in epoch seconds.
+		 * @param leaveTime    The leave time in epoch seconds.
+		 * @param stationIndex The index of the station in the parser.
+		 * @param ownerCode    The code of the owner in the parser.
+		 */
+		void accept(long deviceID, long enterTime, long leaveTime, int stationIndex, int ownerCode);
+	}
+	
+	/**
+	 * The index of a station and the raw bytes of its first coordinates, "latitude,longitude".
+	 */
+	private static class StationEntry {
+		private final int index;
+		private final byte[] coordinates;
+		
+		StationEntry(int index, byte[] coordinates) {
+			this.index = index;
+			this.coordinates = coordinates;
+		}
+	}
+	
+	/**
+	 * Consecutive records of a station with the same coordinates, recorded when the coordinate check is deferred.
+	 */
+	static class CoordinateRun {
+		final String lon;
+		final String lat;
+		long count = 1;
+		
+		CoordinateRun(String lon, String lat) {
+			this.lon = lon;
+			this.lat = lat;
+		}
+	}
+	
+	/**
+	 * Open addressing hash table keyed by byte sequences, so that a key stored in a buffer can be looked up without creating a String.
+	 *
+	 * @param <V> Type of the values.
+	 */
+	private static class ByteKeyTable<V> {
+		private byte[][] keys = new byte[64][];
+		private Object[] values = new Object[64];
+		private int size = 0;
+		
+		private static int hash(ByteBuffer buffer, int start, int end) {
+			int hash = 1;
+			for (int i = start; i < end; i++) {
+				hash = 31 * hash + buffer.get(i);
+			}
+			return hash ^ (hash >>> 16);
+		}
+		
+		@SuppressWarnings("unchecked")
+		V get(ByteBuffer buffer, int start, int end) {
+			int mask = keys.length - 1;
+			for (int slot = hash(buffer, start, end) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+				if (equalsBytes(buffer, start, end, keys[slot]))
+					return (V) values[slot];
+			}
+			return null;
+		}
+		
+		void put(ByteBuffer buffer, int start, int end, V value) {
+			put(copyBytes(buffer, start, end), value);
+		}
+		
+		void put(byte[] key, V value) {
+			if ((size + 1) * 2 > keys.length)
+				resize();
+			if (insert(key, value))
+				size++;
+		}
+		
+		/**
+		 * @return True if the key is new, false if the value of an existing key is replaced.
+		 */
+		private boolean insert(byte[] key, Object value) {
+			int mask = keys.length - 1;
+			int slot = hash(ByteBuffer.wrap(key), 0, key.length) & mask;
+			while (keys[slot] != null && !Arrays.equals(keys[slot], key)) {
+				slot = (slot + 1) & mask;
+			}
+			boolean isNewKey = keys[slot] == null;
+			keys[slot] = key;
+			values[slot] = value;
+			return isNewKey;
+		}
+		
+		private void resize() {
+			byte[][] oldKeys = keys;
+			Object[] oldValues = values;
+			keys = new byte[oldKeys.length * 2][];
+			values = new Object[oldKeys.length * 2];
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != null)
+					insert(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package util.io;
+
+import crosby.binary.osmosis.OsmosisReader;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.function.DistanceFunction;
+import util.object.RoadNetworkGraph;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content-addressed cache of the road networks converted from OpenStreetMap files. Each entry is a map snapshot written by
+ * <tt>MapWriter.writeMapSnapshot()</tt>, named after the input file and a key computed from the SHA-256 digest of the file content
+ * and the configuration of the <tt>OSMMapLoader</tt>. The conversion only runs when no entry has the same key, i.e. the input file or
+ * the loader settings change, otherwise the snapshot is loaded directly. The older entries of the same input file are removed once a
+ * new entry is built.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class MapBuildCache {
+	
+	private static final Logger LOG = LogManager.getLogger(MapBuildCache.class);
+	private static final String ENTRY_EXTENSION = ".bin";
+	private final File cacheFolder;
+	private final DistanceFunction distFunc;
+	
+	/**
+	 * @param cacheFolder The folder of the cache entries, created if not exist.
+	 * @param distFunc    The distance function of the loaded maps.
+	 */
+	public MapBuildCache(String cacheFolder, DistanceFunction distFunc) {
+		this.cacheFolder = new File(cacheFolder);
+		this.distFunc = distFunc;
+	}
+	
+	/**
+	 * Get the road network of the OpenStreetMap file, which is converted by the loader only if it is not in the cache.
+	 *
+	 * @param osmFile The OpenStreetMap file in PBF format.
+	 * @param loader  The loader used for conversion, whose configuration is part of the cache key. The file is read as many times as
+	 *                the loader requires. It is not used on cache hit.
+	 * @return The road network, the same as the one read from the map files written by the loader.
+	 */
+	public RoadNetworkGraph getRoadNetwork(File osmFile, OSMMapLoader loader) {
+		long startTime = System.currentTimeMillis();
+		String entryName = getEntryPrefix(osmFile) + getCacheKey(osmFile, loader.getConfigurationKey()) + ENTRY_EXTENSION;
+		File entryFile = new File(cacheFolder, entryName);
+		if (entryFile.exists()) {
+			RoadNetworkGraph roadGraph = MapReader.readMapSnapshot(entryFile.getPath(), distFunc);
+			LOG.info("Road network loaded from cache " + entryName + " in " + (System.currentTimeMillis() - startTime) / 1000.0 + "s.");
+			return roadGraph;
+		}
+		
+		LOG.info("Road network of " + osmFile.getName() + " is not cached, start conversion.");
+		for (int pass = 0; pass < loader.getPassCount(); pass++) {
+			try (InputStream inputStream = new FileInputStream(osmFile)) {
+				OsmosisReader reader = new OsmosisReader(inputStream);
+				reader.setSink(loader);
+				reader.run();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to read the OpenStreetMap file: " + osmFile.getPath(), e);
+			}
+		}
+		if (loader.getRoadNetwork() == null)
+			throw new IllegalStateException("The road network conversion is not completed: " + osmFile.getPath());
+		IOService.createFolder(cacheFolder.getAbsolutePath());
+		File tempFile = new File(cacheFolder, entryName + ".tmp");
+		try {    // write to a temporary file first so that an interrupted build never leaves an incomplete entry
+			MapWriter.writeMapSnapshot(loader.getRoadNetwork(), tempFile.getPath());
+			Files.move(tempFile.toPath(), entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write the cache entry: " + entryFile.getPath(), e);
+		}
+		removeStaleEntries(osmFile, entryFile);
+		// read the entry back so that the result is identical to the later cached loads
+		RoadNetworkGraph roadGraph = MapReader.readMapSnapshot(entryFile.getPath(), distFunc);
+		LOG.info("Road network built and cached as " + entryName + " in " + (System.currentTimeMillis() - startTime) / 1000.0 + "s.");
+		return roadGraph;
+	}
+	
+	/**
+	 * Remove the entries built from the earlier versions of the input file or with other loader settings.
+	 */
+	private void removeStaleEntries(File osmFile, File currentEntry) {
+		String prefix = getEntryPrefix(osmFile);
+		File[] entries = cacheFolder.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(ENTRY_EXTENSION));
+		if (entries == null)
+			return;
+		for (File entry : entries) {
+			if (!entry.getName().equals(currentEntry.getName()) && entry.delete())
+				LOG.debug("Stale cache entry removed: " + entry.getName());
+		}
+	}
+	
+	private static String getEntryPrefix(File osmFile) {
+		return osmFile.getName().replaceAll("[^A-Za-z0-9._-]", "_") + "_";
+	}
+	
+	/**
+	 * The cache key is the SHA-256 digest of the input file content and the loader configuration, in hexadecimal.
+	 */
+	static String getCacheKey(File osmFile, String configurationKey) {
+		MessageDigest digest = getDigest();
+		try (DigestInputStream inputStream = new DigestInputStream(new FileInputStream(osmFile), getDigest())) {
+			byte[] buffer = new byte[1 << 16];
+			while (inputStream.read(buffer) != -1) {
+				// read through the file
+			}
+			digest.update(inputStream.getMessageDigest().digest());
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to read the OpenStreetMap file: " + osmFile.getPath(), e);
+		}
+		digest.update(configurationKey.getBytes(StandardCharsets.UTF_8));
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest())
+			key.append(String.format("%02x", b));
+		return key.toString();
+	}
+	
+	private static MessageDigest getDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 is not supported.", e);
+		}
+	}
+}
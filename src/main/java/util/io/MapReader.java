@@ -3,17 +3,26 @@ package util.io;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import util.function.DistanceFunction;
+import util.object.Point;
 import util.object.RoadNetworkGraph;
 import util.object.RoadNode;
 import util.object.RoadWay;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
- * Read map nodes and ways from existing CSV files. The nodes and ways can be read separately for different scenarios.
+ * Read map nodes and ways from existing CSV files. The nodes and ways can be read separately for different scenarios. A map can also be
+ * read from the binary snapshot written by <tt>MapWriter.writeMapSnapshot()</tt>.
  *
  * @author Hellisk
  * @since 22/05/2017.
@@ -104,10 +113,7 @@ public class MapReader {
 			LOG.warn("Invalid file name for a road node file: " + filePath);
 		List<RoadNode> nodeList = new ArrayList<>();
 		// read road nodes
-		List<String> lines = IOService.readFile(filePath);
-		for (String line : lines) {
-			nodeList.add(RoadNode.parseRoadNode(line, df));
-		}
+		MappedLineReader.forEachLine(filePath, line -> nodeList.add(RoadNode.parseRoadNode(line, df)));
 		return nodeList;
 	}
 	
@@ -126,11 +132,158 @@ public class MapReader {
 			LOG.warn("Invalid file name for a road way file: " + filePath);
 		List<RoadWay> wayList = new ArrayList<>();
 		// read road ways
-		List<String> lines = IOService.readFile(filePath);
-		for (String line : lines) {
-			RoadWay currWay = RoadWay.parseRoadWay(line, index2Node, df);
-			wayList.add(currWay);
-		}
+		MappedLineReader.forEachLine(filePath, line -> wayList.add(RoadWay.parseRoadWay(line, index2Node, df)));
 		return wayList;
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Read the map from its binary snapshot if the snapshot is newer than both map files, otherwise read the text files and write the
+	 * snapshot for the next run. The snapshot path is given by <tt>MapWriter.getSnapshotPath()</tt>.
+	 *
+	 * @param filePath The input file path, which contains the file name without "vertices_"/"edges_" included.
+	 * @param df       The distance function of the map.
+	 * @return A road network graph containing the road nodes and road ways.
+	 */
+	public static RoadNetworkGraph readMapWithSnapshot(String filePath, DistanceFunction df) {
+		String folderPath = filePath.substring(0, filePath.lastIndexOf('/') + 1);
+		String fileName = filePath.substring(filePath.lastIndexOf('/') + 1);
+		File snapshotFile = new File(MapWriter.getSnapshotPath(filePath));
+		File nodeFile = new File(folderPath + "vertices_" + fileName);
+		File wayFile = new File(folderPath + "edges_" + fileName);
+		if (snapshotFile.exists() && snapshotFile.lastModified() >= nodeFile.lastModified()
+				&& snapshotFile.lastModified() >= wayFile.lastModified())
+			return readMapSnapshot(snapshotFile.getPath(), df);
+		RoadNetworkGraph roadGraph = readMap(filePath, df);
+		try {
+			MapWriter.writeMapSnapshot(roadGraph, snapshotFile.getPath());
+		} catch (IOException e) {
+			LOG.warn("Failed to write the map snapshot " + snapshotFile.getPath() + ": " + e.getMessage());
+		}
+		return roadGraph;
+	}
+	
+	/**
+	 * Read a map from the binary snapshot written by <tt>MapWriter.writeMapSnapshot()</tt>. The file is memory-mapped and the
+	 * coordinates, lengths and virtual centers are copied from flat arrays, so no text is parsed and no distance is computed. The
+	 * result is the same as reading the text files of the same map by <tt>readMap()</tt>.
+	 *
+	 * @param snapshotPath The snapshot file path.
+	 * @param df           The distance function of the map.
+	 * @return A road network graph containing the road nodes and road ways.
+	 */
+	public static RoadNetworkGraph readMapSnapshot(String snapshotPath, DistanceFunction df) {
+		try (FileChannel channel = FileChannel.open(new File(snapshotPath).toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("The map snapshot is too large: " + snapshotPath);
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MapWriter.SNAPSHOT_MAGIC_NUMBER)
+				throw new IllegalArgumentException("The input file is not a map snapshot: " + snapshotPath);
+			int version = buffer.getInt();
+			if (version != MapWriter.SNAPSHOT_VERSION)
+				throw new IllegalArgumentException("Unsupported map snapshot version: " + version);
+			int nodeCount = buffer.getInt();
+			int wayCount = buffer.getInt();
+			int miniNodeCount = buffer.getInt();
+			double[] nodeLons = readSnapshotDoubles(buffer, nodeCount);
+			double[] nodeLats = readSnapshotDoubles(buffer, nodeCount);
+			int[] fromNodeIndices = readSnapshotInts(buffer, wayCount);
+			int[] toNodeIndices = readSnapshotInts(buffer, wayCount);
+			int[] miniNodeOffsets = readSnapshotInts(buffer, wayCount + 1);
+			double[] wayLengths = readSnapshotDoubles(buffer, wayCount);
+			double[] centerLons = readSnapshotDoubles(buffer, wayCount);
+			double[] centerLats = readSnapshotDoubles(buffer, wayCount);
+			double[] miniNodeLons = readSnapshotDoubles(buffer, miniNodeCount);
+			double[] miniNodeLats = readSnapshotDoubles(buffer, miniNodeCount);
+			
+			SnapshotStringReader stringReader = new SnapshotStringReader(buffer);
+			List<RoadNode> nodeList = new ArrayList<>(nodeCount);
+			for (int i = 0; i < nodeCount; i++) {
+				nodeList.add(readSnapshotNode(stringReader, nodeLons[i], nodeLats[i], df));
+			}
+			RoadNode[] miniNodes = new RoadNode[miniNodeCount];
+			for (int i = 0; i < miniNodeCount; i++) {
+				miniNodes[i] = readSnapshotNode(stringReader, miniNodeLons[i], miniNodeLats[i], df);
+			}
+			List<RoadWay> wayList = new ArrayList<>(wayCount);
+			for (int i = 0; i < wayCount; i++) {
+				List<RoadNode> wayNodeList = new ArrayList<>(miniNodeOffsets[i + 1] - miniNodeOffsets[i] + 2);
+				wayNodeList.add(nodeList.get(fromNodeIndices[i]));
+				for (int j = miniNodeOffsets[i]; j < miniNodeOffsets[i + 1]; j++) {
+					wayNodeList.add(miniNodes[j]);
+				}
+				wayNodeList.add(nodeList.get(toNodeIndices[i]));
+				RoadWay way = new RoadWay(stringReader.read(), wayNodeList, wayLengths[i], new Point(centerLons[i], centerLats[i], df), df);
+				int tagCount = buffer.getInt();
+				for (int j = 0; j < tagCount; j++) {
+					String key = stringReader.read();
+					String value = stringReader.read();
+					if (key.equals("wayType")) {    // way type is a BitSet, parsed the same as in RoadWay.parseRoadWay()
+						if (!value.equals("{}") && !value.equals("null")) {
+							for (String type : value.substring(1, value.length() - 1).split(", "))
+								way.setWayTypeBit(Integer.parseInt(type));
+						}
+					} else
+						way.addTag(key, value);
+				}
+				wayList.add(way);
+			}
+			
+			RoadNetworkGraph roadGraph = new RoadNetworkGraph(df);
+			roadGraph.setNodes(nodeList);
+			roadGraph.addWays(wayList);
+			int removedNodeCount = roadGraph.isolatedNodeRemoval();
+			roadGraph.updateBoundary();
+			LOG.info(new File(snapshotPath).getName() + " road map snapshot read done. isolate nodes: " + removedNodeCount + ", total " +
+					"nodes:" + roadGraph.getNodes().size() + ", total road ways: " + roadGraph.getWays().size());
+			return roadGraph;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to read map snapshot " + snapshotPath, e);
+		}
+	}
+	
+	private static RoadNode readSnapshotNode(SnapshotStringReader stringReader, double lon, double lat, DistanceFunction df) {
+		String id = stringReader.read();
+		int tagCount = stringReader.buffer.getInt();
+		if (tagCount == 0)
+			return new RoadNode(id, lon, lat, df);
+		Map<String, Object> tags = new HashMap<>();
+		for (int i = 0; i < tagCount; i++) {
+			tags.put(stringReader.read(), stringReader.read());
+		}
+		return new RoadNode(id, lon, lat, tags, df);
+	}
+	
+	private static double[] readSnapshotDoubles(ByteBuffer buffer, int length) {
+		double[] values = new double[length];
+		buffer.asDoubleBuffer().get(values);
+		buffer.position(buffer.position() + length * Double.BYTES);
+		return values;
+	}
+	
+	private static int[] readSnapshotInts(ByteBuffer buffer, int length) {
+		int[] values = new int[length];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + length * Integer.BYTES);
+		return values;
+	}
+	
+	/**
+	 * Decoder of the length-prefixed UTF-8 strings in a snapshot, which reuses its byte array.
+	 */
+	private static class SnapshotStringReader {
+		private final ByteBuffer buffer;
+		private byte[] bytes = new byte[64];
+		
+		SnapshotStringReader(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+		
+		String read() {
+			int length = buffer.getInt();
+			if (length > bytes.length)
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+			buffer.get(bytes, 0, length);
+			return new String(bytes, 0, length, StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -3,17 +3,21 @@ package util.io;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import util.object.RoadNetworkGraph;
+import util.object.RoadNetworkPrimitive;
 import util.object.RoadNode;
 import util.object.RoadWay;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Static class for map file writer. The <tt>RoadNetworkGraph</tt> map are written in CSV format, and the road nodes and edges are
- * written in separated files with the name prefix "vertices_"/"edges_".
+ * written in separated files with the name prefix "vertices_"/"edges_". The text files are kept for interchange, the map can also be
+ * written as a binary snapshot which is faster to load, see <tt>writeMapSnapshot()</tt>.
  *
  * @author Hellisk
  * @since 22/05/2017
@@ -21,6 +25,8 @@ import java.util.List;
 public class MapWriter {
 	
 	private static final Logger LOG = LogManager.getLogger(MapWriter.class);
+	static final int SNAPSHOT_MAGIC_NUMBER = 0x524E4753;    // "RNGS"
+	static final int SNAPSHOT_VERSION = 1;
 	
 	/**
 	 * Write a road network to files
@@ -111,4 +117,116 @@ public class MapWriter {
 		IOService.writeFile(fileLines, folderPath, fileName);
 		LOG.debug("Write " + fileName + " finished.");
 	}
+	
+	/**
+	 * The path of the binary snapshot of a map, which replaces the extension of the map file name by ".bin".
+	 *
+	 * @param filePath The map file path, which contains the file name without "vertices_"/"edges_" included.
+	 * @return The snapshot file path.
+	 */
+	public static String getSnapshotPath(String filePath) {
+		int extensionIndex = filePath.lastIndexOf('.');
+		if (extensionIndex <= filePath.lastIndexOf('/'))
+			return filePath + ".bin";
+		return filePath.substring(0, extensionIndex) + ".bin";
+	}
+	
+	/**
+	 * Write a road network to a binary snapshot, which is read by <tt>MapReader.readMapSnapshot()</tt>. The numeric data is stored in
+	 * flat arrays: the coordinates of the intersections, the endpoint indices of the ways, the offsets and coordinates of their mini
+	 * nodes, and the length and virtual center of each way, so that nothing is parsed or computed again when loading. The IDs and tags
+	 * follow as length-prefixed UTF-8 strings, in the order of the intersections, the mini nodes and the ways. The tag values are
+	 * stored as strings, the same as in the text files.
+	 *
+	 * @param roadGraph    The map to be written.
+	 * @param snapshotPath The output file path.
+	 * @throws IOException Failed map writing.
+	 */
+	public static void writeMapSnapshot(RoadNetworkGraph roadGraph, String snapshotPath) throws IOException {
+		File file = new File(snapshotPath).getAbsoluteFile();
+		if (!file.getParentFile().exists()) {
+			if (!file.getParentFile().mkdirs())
+				throw new IOException("Failed to create folder for map write: " + file.getParent());
+		}
+		List<RoadNode> nodeList = roadGraph.getNodes();
+		List<RoadWay> wayList = roadGraph.getWays();
+		Map<String, Integer> nodeID2Index = new HashMap<>();
+		for (int i = 0; i < nodeList.size(); i++) {
+			nodeID2Index.put(nodeList.get(i).getId(), i);
+		}
+		int miniNodeCount = 0;
+		for (RoadWay way : wayList) {
+			miniNodeCount += way.size() - 2;
+		}
+		try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			outputStream.writeInt(SNAPSHOT_MAGIC_NUMBER);
+			outputStream.writeInt(SNAPSHOT_VERSION);
+			outputStream.writeInt(nodeList.size());
+			outputStream.writeInt(wayList.size());
+			outputStream.writeInt(miniNodeCount);
+			for (RoadNode node : nodeList)
+				outputStream.writeDouble(node.lon());
+			for (RoadNode node : nodeList)
+				outputStream.writeDouble(node.lat());
+			for (RoadWay way : wayList)
+				outputStream.writeInt(getNodeIndex(nodeID2Index, way, way.getFromNode()));
+			for (RoadWay way : wayList)
+				outputStream.writeInt(getNodeIndex(nodeID2Index, way, way.getToNode()));
+			int miniNodeOffset = 0;
+			outputStream.writeInt(miniNodeOffset);
+			for (RoadWay way : wayList) {
+				miniNodeOffset += way.size() - 2;
+				outputStream.writeInt(miniNodeOffset);
+			}
+			for (RoadWay way : wayList)
+				outputStream.writeDouble(way.getLength());
+			for (RoadWay way : wayList)
+				outputStream.writeDouble(way.getVirtualCenter().x());
+			for (RoadWay way : wayList)
+				outputStream.writeDouble(way.getVirtualCenter().y());
+			for (RoadWay way : wayList) {
+				for (int i = 1; i < way.size() - 1; i++)
+					outputStream.writeDouble(way.getNode(i).lon());
+			}
+			for (RoadWay way : wayList) {
+				for (int i = 1; i < way.size() - 1; i++)
+					outputStream.writeDouble(way.getNode(i).lat());
+			}
+			for (RoadNode node : nodeList)
+				writeSnapshotPrimitive(outputStream, node);
+			for (RoadWay way : wayList) {
+				for (int i = 1; i < way.size() - 1; i++)
+					writeSnapshotPrimitive(outputStream, way.getNode(i));
+			}
+			for (RoadWay way : wayList)
+				writeSnapshotPrimitive(outputStream, way);
+		}
+		LOG.info("Map snapshot written. Total number of intersections: " + nodeList.size() + ", total number of ways: " + wayList.size()
+				+ ", total number of mini nodes: " + miniNodeCount);
+	}
+	
+	private static int getNodeIndex(Map<String, Integer> nodeID2Index, RoadWay way, RoadNode endpoint) {
+		Integer index = nodeID2Index.get(endpoint.getId());
+		if (index == null)
+			throw new IllegalArgumentException("The endpoint of road way " + way.getId() + " is not in the map: " + endpoint.getId());
+		return index;
+	}
+	
+	/**
+	 * Write the ID and the tags of a road node or road way.
+	 */
+	private static void writeSnapshotPrimitive(DataOutputStream outputStream, RoadNetworkPrimitive primitive) throws IOException {
+		writeSnapshotString(outputStream, primitive.getId());
+		outputStream.writeInt(primitive.getTags().size());
+		for (Map.Entry<String, Object> entry : primitive.getTags().entrySet()) {
+			writeSnapshotString(outputStream, entry.getKey());
+			writeSnapshotString(outputStream, String.valueOf(entry.getValue()));
+		}
+	}
+	
+	private static void writeSnapshotString(DataOutputStream outputStream, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		outputStream.writeInt(bytes.length);
+		outputStream.write(bytes);
+	}
 }
@@ -0,0 +1,132 @@
+package util.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * A line reader that iterates the records of a text file directly from memory-mapped windows of the file, without materialising the
+ * whole file as Strings. A record is a line terminated by <tt>\n</tt>, the last line may have no terminator. The methods hold no
+ * shared state, so different files (or different ranges of the same file) can be read concurrently, unlike the synchronised
+ * <tt>IOService.readFile()</tt>.
+ *
+ * @author Hellisk
+ * @since 15/10/2019
+ */
+public final class MappedLineReader {
+	
+	private static final long WINDOW_SIZE = 64 * 1024 * 1024;    // the size (byte) of each mapped window
+	
+	private MappedLineReader() {
+	}
+	
+	/**
+	 * Iterate all records of a file at byte level.
+	 *
+	 * @param file           The input file.
+	 * @param recordConsumer Receiver of the records.
+	 */
+	public static void forEachRecord(File file, RecordConsumer recordConsumer) {
+		forEachRecord(file, 0, file.length(), recordConsumer);
+	}
+	
+	/**
+	 * Iterate the records within the byte range [start, end) of a file. The range should start at the beginning of a line. The line
+	 * break is not included in the record, while a trailing <tt>\r</tt> is left to the consumer.
+	 *
+	 * @param file           The input file.
+	 * @param start          The start position of the range.
+	 * @param end            The end position (exclusive) of the range.
+	 * @param recordConsumer Receiver of the records.
+	 */
+	public static void forEachRecord(File file, long start, long end, RecordConsumer recordConsumer) {
+		forEachRecord(file, start, end, WINDOW_SIZE, recordConsumer);
+	}
+	
+	static void forEachRecord(File file, long start, long end, long windowSize, RecordConsumer recordConsumer) {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long position = start;
+			long currWindowSize = windowSize;
+			while (position < end) {
+				int size = (int) Math.min(currWindowSize, end - position);
+				MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+				int lineStart = 0;
+				for (int i = 0; i < size; i++) {
+					if (window.get(i) == '\n') {
+						recordConsumer.accept(window, lineStart, i);
+						lineStart = i + 1;
+					}
+				}
+				if (position + size == end) {
+					if (lineStart < size)    // the last line does not end with a line break
+						recordConsumer.accept(window, lineStart, size);
+					break;
+				}
+				if (lineStart == 0)    // the line is longer than the window, enlarge the window and map it again
+					currWindowSize = Math.min(currWindowSize * 2, Integer.MAX_VALUE);
+				else
+					currWindowSize = windowSize;
+				position += lineStart;    // the next window starts from the incomplete line
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to read the input file: " + file.getAbsolutePath(), e);
+		}
+	}
+	
+	/**
+	 * Iterate all lines of a file as Strings. The line terminator (<tt>\n</tt> or <tt>\r\n</tt>) is removed and the bytes are decoded
+	 * with the default charset, same as <tt>IOService.readFile()</tt>.
+	 *
+	 * @param filePath     The path of the input file.
+	 * @param lineConsumer Receiver of the lines.
+	 */
+	public static void forEachLine(String filePath, Consumer<String> lineConsumer) {
+		forEachLine(new File(filePath), lineConsumer);
+	}
+	
+	/**
+	 * Iterate all lines of a file as Strings. The line terminator (<tt>\n</tt> or <tt>\r\n</tt>) is removed and the bytes are decoded
+	 * with the default charset, same as <tt>IOService.readFile()</tt>.
+	 *
+	 * @param file         The input file.
+	 * @param lineConsumer Receiver of the lines.
+	 */
+	public static void forEachLine(File file, Consumer<String> lineConsumer) {
+		Charset charset = Charset.defaultCharset();
+		byte[][] lineBuffer = new byte[][]{new byte[256]};
+		forEachRecord(file, (buffer, start, end) -> {
+			if (end > start && buffer.get(end - 1) == '\r')
+				end--;
+			int length = end - start;
+			if (lineBuffer[0].length < length)
+				lineBuffer[0] = new byte[Math.max(length, lineBuffer[0].length * 2)];
+			byte[] content = lineBuffer[0];
+			for (int i = 0; i < length; i++) {
+				content[i] = buffer.get(start + i);
+			}
+			lineConsumer.accept(new String(content, 0, length, charset));
+		});
+	}
+	
+	/**
+	 * Receiver of the byte-level records. The buffer is only valid during the call and should not be modified.
+	 */
+	@FunctionalInterface
+	public interface RecordConsumer {
+		
+		/**
+		 * Process one record.
+		 *
+		 * @param buffer The buffer containing the record.
+		 * @param start  The start index of the record in the buffer.
+		 * @param end    The end index (exclusive) of the record in the buffer.
+		 */
+		void accept(ByteBuffer buffer, int start, int end);
+	}
+}
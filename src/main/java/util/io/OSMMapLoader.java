@@ -10,16 +10,34 @@ import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
 import org.openstreetmap.osmosis.core.domain.v0_6.Way;
 import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
 import org.openstreetmap.osmosis.core.task.v0_6.Sink;
+import util.collection.LongIntHashMap;
 import util.function.DistanceFunction;
 import util.function.GreatCircleDistanceFunction;
+import util.function.ParallelRunner;
+import util.object.Rectangle;
 import util.object.RoadNetworkGraph;
 import util.object.RoadNode;
 import util.object.RoadWay;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 /**
+ * Convert the OpenStreetMap entities into a <tt>RoadNetworkGraph</tt>. The ways whose highway tag is in the valid road tag set are
+ * kept and split at the intersections. The result is written to the output map folder as text files if the folder is given, and is
+ * available from <tt>getRoadNetwork()</tt> once the reader completes. The ways are trimmed and split in parallel if more than one
+ * thread is given, the way IDs and the order of the nodes and ways are the same as in the sequential conversion.
+ * <p>
+ * By default every OSM node is kept as a <tt>RoadNode</tt> until the conversion, although most of them are not on any road. In the
+ * two-pass mode the input is read twice: the first pass only keeps the valid road ways and the IDs of their nodes, and the second pass
+ * only stores the coordinates of those nodes in primitive arrays. The road nodes are created for them once both passes complete, the
+ * result is the same as in the default mode.
+ * <p>
+ * If a clip boundary is set, only the nodes inside are loaded and the roads crossing the boundary are cut, so that both the loading
+ * time and the map size are proportional to the study area.
+ *
  * @author Hellisk
  * @since 8/09/2019
  */
@@ -28,19 +46,55 @@ public class OSMMapLoader implements Sink {
 	private static final Logger LOG = LogManager.getLogger(OSMMapLoader.class);
 	private final DistanceFunction distFunc = new GreatCircleDistanceFunction();
 	private final String outputMapFolder;
+	private final int parallelism;
 	private final Map<String, RoadNode> id2RoadNode = new HashMap<>();
 	private final List<Way> tempOSMWayList = new ArrayList<>();
-	Map<String, Set<String>> nodeTagMapping = new HashMap<>();
-	Map<String, Set<String>> wayTagMapping = new HashMap<>();
-	Set<String> validRoadTagSet = new HashSet<>();
+	// two-pass mode
+	private boolean isTwoPass = false;
+	private int currPass = 1;
+	private LongIntHashMap osmNodeId2Index;    // the nodes referenced by the road ways, value is the loaded node index + 1, or 0 if not loaded
+	private long[] nodeIds;
+	private double[] nodeLons;
+	private double[] nodeLats;
+	private int loadedNodeCount = 0;
+	private RoadNode[] loadedNodes;
+	private OSMTagStatistics nodeTagStatistics = null;    // null if the tag statistics are disabled
+	private OSMTagStatistics wayTagStatistics = null;
+	Set<String> validRoadTagSet;
+	private Rectangle clipBoundary = null;
+	private RoadNetworkGraph finalGraph;
 	
 	public OSMMapLoader(String outputMapFolder) {
+		this(outputMapFolder, getDefaultValidRoadTagSet());
+	}
+	
+	/**
+	 * @param outputMapFolder The folder of the output map files, or null if the map is not written.
+	 * @param validRoadTagSet The highway tag values of the roads to be kept.
+	 */
+	public OSMMapLoader(String outputMapFolder, Set<String> validRoadTagSet) {
+		this(outputMapFolder, validRoadTagSet, 1);
+	}
+	
+	/**
+	 * @param outputMapFolder The folder of the output map files, or null if the map is not written.
+	 * @param validRoadTagSet The highway tag values of the roads to be kept.
+	 * @param parallelism     The number of threads used for the conversion once all entities are read. The result is the same for any
+	 *                        parallelism.
+	 */
+	public OSMMapLoader(String outputMapFolder, Set<String> validRoadTagSet, int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("The parallelism should be at least one: " + parallelism);
 		this.outputMapFolder = outputMapFolder;
+		this.validRoadTagSet = new HashSet<>(validRoadTagSet);
+		this.parallelism = parallelism;
 	}
 	
-	@Override
-	public void initialize(Map<String, Object> arg0) {
-		// set all valid road types for road filtering
+	/**
+	 * @return All valid road types for road filtering by default.
+	 */
+	public static Set<String> getDefaultValidRoadTagSet() {
+		Set<String> validRoadTagSet = new HashSet<>();
 		validRoadTagSet.add("motorway");
 		validRoadTagSet.add("trunk");
 		validRoadTagSet.add("primary");
@@ -55,176 +109,255 @@ public class OSMMapLoader implements Sink {
 		validRoadTagSet.add("tertiary_link");
 		validRoadTagSet.add("living_street");
 		validRoadTagSet.add("road");
+		return validRoadTagSet;
+	}
+	
+	/**
+	 * The loader settings that affect the result map, which identify the map together with the input file, e.g. in the
+	 * <tt>MapBuildCache</tt>. It is independent of the order of the tags.
+	 *
+	 * @return The description of the loader settings.
+	 */
+	public String getConfigurationKey() {
+		String configurationKey = "highway=" + String.join(",", new TreeSet<>(validRoadTagSet));
+		if (clipBoundary != null)
+			configurationKey += ";clip=" + clipBoundary.minX() + "," + clipBoundary.minY() + "," + clipBoundary.maxX() + ","
+					+ clipBoundary.maxY();
+		return configurationKey;
+	}
+	
+	/**
+	 * Only keep the part of the map inside the clip boundary, e.g. the extended bounding box of the Bluetooth stations. The nodes
+	 * outside are dropped once they are read, and the roads crossing the boundary are cut at their last nodes inside. It should be set
+	 * before the input is read.
+	 *
+	 * @param clipBoundary The clip boundary, or null if the entire map is kept.
+	 */
+	public void setClipBoundary(Rectangle clipBoundary) {
+		if (currPass != 1 || !tempOSMWayList.isEmpty() || !id2RoadNode.isEmpty())
+			throw new IllegalStateException("The clip boundary cannot be changed once the input is read.");
+		this.clipBoundary = clipBoundary;
+	}
+	
+	/**
+	 * Enable the two-pass mode, which requires the input to be read twice by the same loader, see <tt>getPassCount()</tt>. It should
+	 * be set before the input is read.
+	 *
+	 * @param isTwoPass True if the nodes are loaded in the second pass.
+	 */
+	public void setTwoPassNodeLoading(boolean isTwoPass) {
+		if (currPass != 1 || !tempOSMWayList.isEmpty() || !id2RoadNode.isEmpty())
+			throw new IllegalStateException("The loading mode cannot be changed once the input is read.");
+		this.isTwoPass = isTwoPass;
+		if (isTwoPass && osmNodeId2Index == null) {
+			osmNodeId2Index = new LongIntHashMap(1 << 20);
+			nodeIds = new long[1 << 16];
+			nodeLons = new double[1 << 16];
+			nodeLats = new double[1 << 16];
+		}
+	}
+	
+	/**
+	 * Profile the tags of all nodes and ways read, which is reported when the conversion completes. The statistics take bounded memory
+	 * per tag key, see <tt>OSMTagStatistics</tt>. Disabled by default. It should be set before the input is read.
+	 *
+	 * @param topValueCount The number of most frequent values reported for each key, or 0 to disable the statistics.
+	 */
+	public void setTagStatistics(int topValueCount) {
+		if (currPass != 1 || !tempOSMWayList.isEmpty() || !id2RoadNode.isEmpty())
+			throw new IllegalStateException("The tag statistics cannot be changed once the input is read.");
+		this.nodeTagStatistics = topValueCount == 0 ? null : new OSMTagStatistics("node", topValueCount);
+		this.wayTagStatistics = topValueCount == 0 ? null : new OSMTagStatistics("way", topValueCount);
+	}
+	
+	public OSMTagStatistics getNodeTagStatistics() {
+		return nodeTagStatistics;
+	}
+	
+	public OSMTagStatistics getWayTagStatistics() {
+		return wayTagStatistics;
+	}
+	
+	/**
+	 * @return The number of times the input should be read by this loader.
+	 */
+	public int getPassCount() {
+		return isTwoPass ? 2 : 1;
+	}
+	
+	/**
+	 * @return The converted road network, or null if the conversion is not completed yet.
+	 */
+	public RoadNetworkGraph getRoadNetwork() {
+		return finalGraph;
+	}
+	
+	@Override
+	public void initialize(Map<String, Object> arg0) {
 	}
 	
 	@Override
 	public void process(EntityContainer entityContainer) {
+		if (isTwoPass) {
+			if (currPass == 1 && entityContainer instanceof WayContainer)
+				processWay(((WayContainer) entityContainer).getEntity());
+			else if (currPass == 2 && entityContainer instanceof NodeContainer)
+				loadReferencedNode(((NodeContainer) entityContainer).getEntity());
+			return;
+		}
 		if (entityContainer instanceof NodeContainer) {
 			Node osmNode = ((NodeContainer) entityContainer).getEntity();
+			if (clipBoundary != null && !clipBoundary.contains(osmNode.getLongitude(), osmNode.getLatitude()))
+				return;
 			RoadNode currNode = new RoadNode(osmNode.getId() + "", osmNode.getLongitude(), osmNode.getLatitude(), distFunc);
 			for (Tag tag : osmNode.getTags()) {
-				if (!nodeTagMapping.containsKey(tag.getKey())) {
-					Set<String> valueSet = new HashSet<>();
-					valueSet.add(tag.getValue());
-					nodeTagMapping.put(tag.getKey(), valueSet);
-				} else {
-					nodeTagMapping.get(tag.getKey()).add(tag.getValue());
-				}
+				if (nodeTagStatistics != null)
+					nodeTagStatistics.add(tag.getKey(), tag.getValue());
 				currNode.addTag(tag.getKey(), tag.getValue());
 			}
 			id2RoadNode.put(currNode.getId(), currNode);
 		} else if (entityContainer instanceof WayContainer) {
-			Way osmWay = ((WayContainer) entityContainer).getEntity();
-			boolean isRoadWay = false;
-			for (Tag tag : osmWay.getTags()) {
-				if (!wayTagMapping.containsKey(tag.getKey())) {
-					Set<String> valueSet = new HashSet<>();
-					valueSet.add(tag.getValue());
-					wayTagMapping.put(tag.getKey(), valueSet);
-				} else {
-					wayTagMapping.get(tag.getKey()).add(tag.getValue());
-				}
-				if (tag.getKey().equals("highway") && validRoadTagSet.contains(tag.getValue())) {
-					isRoadWay = true;
-				}
+			processWay(((WayContainer) entityContainer).getEntity());
+		}
+	}
+	
+	/**
+	 * Keep the way if it is a valid road. The IDs of its nodes are registered in the two-pass mode.
+	 */
+	private void processWay(Way osmWay) {
+		boolean isRoadWay = false;
+		for (Tag tag : osmWay.getTags()) {
+			if (wayTagStatistics != null)
+				wayTagStatistics.add(tag.getKey(), tag.getValue());
+			if (tag.getKey().equals("highway") && validRoadTagSet.contains(tag.getValue())) {
+				isRoadWay = true;
+			}
+		}
+		if (isRoadWay) {
+			tempOSMWayList.add(osmWay);
+			if (isTwoPass) {
+				for (WayNode wayNode : osmWay.getWayNodes())
+					osmNodeId2Index.put(wayNode.getNodeId(), 0);
 			}
-			if (isRoadWay)
-				tempOSMWayList.add(osmWay);
 		}
 	}
 	
+	/**
+	 * Store the coordinates of the node if it is referenced by a road way and inside the clip boundary, used in the second pass of the
+	 * two-pass mode.
+	 */
+	private void loadReferencedNode(Node osmNode) {
+		if (clipBoundary != null && !clipBoundary.contains(osmNode.getLongitude(), osmNode.getLatitude()))
+			return;
+		if (nodeTagStatistics != null) {
+			for (Tag tag : osmNode.getTags())
+				nodeTagStatistics.add(tag.getKey(), tag.getValue());
+		}
+		if (!osmNodeId2Index.containsKey(osmNode.getId()))
+			return;
+		if (loadedNodeCount == nodeIds.length) {
+			int capacity = nodeIds.length * 2;
+			nodeIds = Arrays.copyOf(nodeIds, capacity);
+			nodeLons = Arrays.copyOf(nodeLons, capacity);
+			nodeLats = Arrays.copyOf(nodeLats, capacity);
+		}
+		nodeIds[loadedNodeCount] = osmNode.getId();
+		nodeLons[loadedNodeCount] = osmNode.getLongitude();
+		nodeLats[loadedNodeCount] = osmNode.getLatitude();
+		loadedNodeCount++;
+		osmNodeId2Index.put(osmNode.getId(), loadedNodeCount);
+	}
+	
+	/**
+	 * Create the road nodes of the loaded nodes once both passes are completed. The primitive arrays are released afterwards.
+	 */
+	private void createLoadedRoadNodes() {
+		loadedNodes = new RoadNode[loadedNodeCount];
+		runInParallel(loadedNodeCount, i -> loadedNodes[i] = new RoadNode(nodeIds[i] + "", nodeLons[i], nodeLats[i], distFunc));
+		nodeIds = null;
+		nodeLons = null;
+		nodeLats = null;
+	}
+	
+	/**
+	 * @param osmNodeId The OSM node ID.
+	 * @return The road node of the OSM node, or null if the node is not loaded.
+	 */
+	private RoadNode getRoadNode(long osmNodeId) {
+		if (isTwoPass) {
+			int index = osmNodeId2Index.get(osmNodeId);
+			return index == 0 ? null : loadedNodes[index - 1];
+		}
+		return id2RoadNode.get(osmNodeId + "");
+	}
+	
 	@Override
 	public void complete() {
-		validRoadTagSet.add("residential");
-		Set<String> nodeIdSet = new LinkedHashSet<>();    // set of intersections
-		List<RoadWay> tempWayList = new ArrayList<>();    // list of roads that require further segmentation if it has intersections along
-		// the road
+		if (isTwoPass && currPass == 1) {
+			LOG.info("First pass finish, " + tempOSMWayList.size() + " road ways found, which refer to " + osmNodeId2Index.size()
+					+ " nodes.");
+			currPass++;
+			return;
+		}
+		if (isTwoPass) {
+			LOG.info("Second pass finish, " + loadedNodeCount + " out of " + osmNodeId2Index.size() + " referenced nodes are loaded.");
+			createLoadedRoadNodes();
+		}
 		List<RoadNode> nodeList = new ArrayList<>();
 		List<RoadWay> wayList = new ArrayList<>();
 		int cyclicRoadCount = 0;
+		int totalSplitCount = 0;
+		long startTime = System.currentTimeMillis();
 		LOG.info("Initial map read finish, start converting road ways.");
 		
-		// register all intersections first
-		for (Way osmWay : tempOSMWayList) {
-			List<RoadNode> miniNodeList = new ArrayList<>();
-			List<WayNode> wayNodes = osmWay.getWayNodes();
-			if (wayNodes.size() < 2) {
-				LOG.error("The current way " + osmWay.getId() + " only contains " + wayNodes.size() + " points.");
-				continue;
-			}
-			// since a road may not entirely included in the map, find the sub-road if needed
-			int startIndex = 0;
-			int endIndex = wayNodes.size() - 1;
-			String startNodeId = wayNodes.get(startIndex).getNodeId() + "";
-			String endNodeId = wayNodes.get(endIndex).getNodeId() + "";
-			while (!id2RoadNode.containsKey(startNodeId) && startIndex < endIndex) {
-				startIndex++;
-				startNodeId = wayNodes.get(startIndex).getNodeId() + "";
-			}
-			if (startIndex == endIndex) {
-				LOG.warn("Way " + osmWay.getId() + " is not found in the map: forward.");
-				continue;
-			}
-			while (!id2RoadNode.containsKey(endNodeId) && endIndex > startIndex) {
-				endIndex--;
-				endNodeId = wayNodes.get(endIndex).getNodeId() + "";
-			}
-			if (startIndex == endIndex) {
-				LOG.warn("Way " + osmWay.getId() + " is not found in the map: backward.");
-				continue;
-			}
-			RoadNode currStartNode = id2RoadNode.get(wayNodes.get(startIndex).getNodeId() + "");
-			miniNodeList.add(currStartNode);
-			boolean isComplete = true;
-			// check if a middle part of the road is out of the map range, ignore such road if appears
-			for (int i = startIndex + 1; i < endIndex; i++) {
-				WayNode currWayNode = wayNodes.get(i);
-				String currId = currWayNode.getNodeId() + "";
-				if (!id2RoadNode.containsKey(currId)) {
-					LOG.warn("Intermediate node " + currId + " from way " + osmWay.getId() + " is not found in node list. Ignore the " +
-							"current road.");
-					isComplete = false;
-					break;
-				}
-				RoadNode currNode = id2RoadNode.get(currId);
-				miniNodeList.add(currNode);
+		// trim the ways to the part within the map, each way is converted independently and kept at its original position
+		List<List<RoadWay>> trimmedWayLists = new ArrayList<>(Collections.nCopies(tempOSMWayList.size(), null));
+		runInParallel(tempOSMWayList.size(), i -> trimmedWayLists.set(i, trimRoadWay(tempOSMWayList.get(i))));
+		List<RoadWay> tempWayList = new ArrayList<>();    // roads that require further segmentation if it has intersections along the road
+		int clipRemovedCount = 0;
+		int clipCutCount = 0;
+		for (int i = 0; i < trimmedWayLists.size(); i++) {
+			List<RoadWay> trimmedWays = trimmedWayLists.get(i);
+			if (clipBoundary != null) {
+				if (trimmedWays.isEmpty())
+					clipRemovedCount++;
+				else if (trimmedWays.size() > 1 || trimmedWays.get(0).size() < tempOSMWayList.get(i).getWayNodes().size())
+					clipCutCount++;
 			}
-			if (!isComplete)
-				continue;
-			RoadNode currEndNode = id2RoadNode.get(wayNodes.get(endIndex).getNodeId() + "");
-			
-			// the current road is confirmed to be added
-			nodeIdSet.add(currStartNode.getId());
-			nodeIdSet.add(currEndNode.getId());
-			miniNodeList.add(currEndNode);
-			RoadWay currWay = new RoadWay(osmWay.getId() + "", miniNodeList, distFunc);
-			for (Tag tag : osmWay.getTags()) {
-				currWay.addTag(tag.getKey(), tag.getValue());
-			}
-			tempWayList.add(currWay);
+			tempWayList.addAll(trimmedWays);
 		}
+		if (clipBoundary != null)
+			LOG.info("Road ways clipped by the boundary " + clipBoundary.toString() + ", removed: " + clipRemovedCount + ", cut: "
+					+ clipCutCount + ".");
+		RoadWay[] tempWays = tempWayList.toArray(new RoadWay[0]);
 		
-		int totalSplitCount = 0;
-		// split the road ways whose intermediate point is an intersection
-		for (RoadWay currWay : tempWayList) {
-			List<RoadNode> currNodeList = new ArrayList<>();
-			List<RoadWay> roadWays = new ArrayList<>();
-			currNodeList.add(currWay.getFromNode());
-			int subRoadCount = 0;
-			// check intermediate nodes
-			for (int i = 1; i < currWay.getNodes().size() - 1; i++) {
-				RoadNode roadNode = currWay.getNode(i);
-				currNodeList.add(roadNode);
-				if (nodeIdSet.contains(roadNode.getId())) {    // split the current road
-					RoadWay splitWay = new RoadWay(currWay.getId() + "_" + subRoadCount, currNodeList, distFunc);
-					for (Map.Entry<String, Object> entry : currWay.getTags().entrySet()) {
-						splitWay.addTag(entry.getKey(), entry.getValue());
-					}
-					roadWays.add(splitWay);
-					currNodeList = new ArrayList<>();
-					currNodeList.add(roadNode);
-					totalSplitCount++;
-					subRoadCount++;
-				}
-			}
-			currNodeList.add(currWay.getToNode());
-			if (subRoadCount == 0) {    // no road split
-				roadWays.add(currWay);
-			} else {
-				RoadWay lastWay = new RoadWay(currWay.getId() + "_" + subRoadCount, currNodeList, distFunc);
-				for (Map.Entry<String, Object> entry : currWay.getTags().entrySet()) {
-					lastWay.addTag(entry.getKey(), entry.getValue());
-				}
-				roadWays.add(lastWay);
-			}
-			// direction check
-			if (currWay.getTags().containsKey("oneway")) {
-				if (currWay.getTags().get("oneway").equals("-1")) {    // reverse road, change the direction
-					for (RoadWay roadWay : roadWays) {
-						List<RoadNode> reverseList = new ArrayList<>();
-						for (int i = roadWay.getNodes().size() - 1; i >= 0; i--) {
-							reverseList.add(roadWay.getNode(i));
-						}
-						roadWay.setNodes(reverseList);
-					}
-				} else if (currWay.getTags().get("oneway").equals("no")) {    // double direction, add reverse roads
-					List<RoadWay> reverseWays = new ArrayList<>();
-					for (RoadWay roadWay : roadWays) {
-						List<RoadNode> reverseList = new ArrayList<>();
-						reverseList.add(roadWay.getToNode());
-						for (int i = roadWay.getNodes().size() - 2; i > 0; i--) {
-							RoadNode reverseNode = roadWay.getNode(i).clone();
-							reverseNode.setId(roadWay.getNode(i).getId() + "-");
-							reverseList.add(reverseNode);
-						}
-						reverseList.add(roadWay.getFromNode());
-						RoadWay reverseWay = new RoadWay("-" + roadWay.getId(), reverseList, distFunc);
-						reverseWays.add(reverseWay);
-					}
-					roadWays.addAll(reverseWays);
-				}
+		// register all intersections in one thread. The set is only used for membership checks, the node list is filled in the way
+		// order, so it is the same regardless of the parallelism
+		Set<String> nodeIdSet = new HashSet<>();    // set of intersections
+		for (RoadWay currWay : tempWays) {
+			if (nodeIdSet.add(currWay.getFromNode().getId()))
+				nodeList.add(currWay.getFromNode());
+			if (nodeIdSet.add(currWay.getToNode().getId()))
+				nodeList.add(currWay.getToNode());
+		}
+		
+		// split the road ways whose intermediate point is an intersection and add the directions
+		List<List<RoadWay>> roadWayLists = new ArrayList<>(Collections.nCopies(tempWays.length, null));
+		int[] splitCounts = new int[tempWays.length];
+		runInParallel(tempWays.length, i -> {
+			List<RoadWay> roadWays = splitRoadWay(tempWays[i], nodeIdSet);
+			splitCounts[i] = roadWays.size() - 1;
+			addDirection(tempWays[i], roadWays);
+			for (RoadWay roadWay : roadWays)
+				roadWay.clearTag();
+			roadWayLists.set(i, roadWays);
+		});
+		for (int i = 0; i < tempWays.length; i++) {
+			totalSplitCount += splitCounts[i];
+			wayList.addAll(roadWayLists.get(i));
+			for (RoadNode node : tempWays[i].getNodes()) {    // the nodes shared by multiple roads are cleared in one thread
+				node.clearTag();
 			}
-			wayList.addAll(roadWays);
 		}
 		
 		for (RoadWay currWay : wayList) {
@@ -232,29 +365,214 @@ public class OSMMapLoader implements Sink {
 				// end point.
 				cyclicRoadCount++;
 			}
-			for (RoadNode node : currWay.getNodes()) {
-				node.clearTag();
-			}
-			currWay.clearTag();
 		}
-		for (String nodeId : nodeIdSet) {
-			RoadNode currNode = id2RoadNode.get(nodeId);
+		for (RoadNode currNode : nodeList) {
 			currNode.clearTag();
-			nodeList.add(currNode);
 		}
-		RoadNetworkGraph finalGraph = new RoadNetworkGraph(distFunc);
+		finalGraph = new RoadNetworkGraph(distFunc);
 		finalGraph.setNodes(nodeList);
 		finalGraph.addWays(wayList);
 		finalGraph.isolatedNodeRemoval();
-		try {
-			MapWriter.writeMap(finalGraph, outputMapFolder + "Brisbane.txt");
-		} catch (IOException e) {
-			e.printStackTrace();
+		if (outputMapFolder != null) {
+			try {
+				MapWriter.writeMap(finalGraph, outputMapFolder + "Brisbane.txt");
+			} catch (IOException e) {
+				LOG.error("Failed to write the converted map to " + outputMapFolder + ".", e);
+			}
 		}
 		LOG.info("Load initial map finish, total number of ways: " + wayList.size() + ", number of nodes after isolation removal: " +
 				finalGraph.getNodes().size() + ". Boundary is : " + finalGraph.getMinLon() + "," + finalGraph.getMaxLon() + "," +
 				finalGraph.getMinLat() + "," + finalGraph.getMaxLat() + ".");
-		LOG.info("Total number of cyclic roads: " + cyclicRoadCount + ", number of splits performed: " + totalSplitCount + ".");
+		if (nodeTagStatistics != null) {
+			nodeTagStatistics.printStatistics();
+			wayTagStatistics.printStatistics();
+		}
+		LOG.info("Total number of cyclic roads: " + cyclicRoadCount + ", number of splits performed: " + totalSplitCount + ". Conversion " +
+				"time: " + (System.currentTimeMillis() - startTime) / 1000.0 + "s.");
+	}
+	
+	/**
+	 * Find the part of the OSM way whose nodes are all loaded. Without a clip boundary, the missing nodes at both ends are trimmed and
+	 * the way is ignored if any intermediate node is missing. With a clip boundary, the missing nodes are outside the boundary, so the
+	 * way is cut into the runs of consecutive loaded nodes, see <tt>clipRoadWay()</tt>.
+	 *
+	 * @param osmWay The OSM way.
+	 * @return The road ways with the tags of the OSM way, empty if the way is not included in the map.
+	 */
+	private List<RoadWay> trimRoadWay(Way osmWay) {
+		List<RoadNode> miniNodeList = new ArrayList<>();
+		List<WayNode> wayNodes = osmWay.getWayNodes();
+		if (wayNodes.size() < 2) {
+			LOG.error("The current way " + osmWay.getId() + " only contains " + wayNodes.size() + " points.");
+			return Collections.emptyList();
+		}
+		if (clipBoundary != null)
+			return clipRoadWay(osmWay);
+		// since a road may not entirely included in the map, find the sub-road if needed
+		int startIndex = 0;
+		int endIndex = wayNodes.size() - 1;
+		RoadNode currStartNode = getRoadNode(wayNodes.get(startIndex).getNodeId());
+		RoadNode currEndNode = getRoadNode(wayNodes.get(endIndex).getNodeId());
+		while (currStartNode == null && startIndex < endIndex) {
+			startIndex++;
+			currStartNode = getRoadNode(wayNodes.get(startIndex).getNodeId());
+		}
+		if (startIndex == endIndex) {
+			LOG.warn("Way " + osmWay.getId() + " is not found in the map: forward.");
+			return Collections.emptyList();
+		}
+		while (currEndNode == null && endIndex > startIndex) {
+			endIndex--;
+			currEndNode = getRoadNode(wayNodes.get(endIndex).getNodeId());
+		}
+		if (startIndex == endIndex) {
+			LOG.warn("Way " + osmWay.getId() + " is not found in the map: backward.");
+			return Collections.emptyList();
+		}
+		miniNodeList.add(currStartNode);
+		// check if a middle part of the road is out of the map range, ignore such road if appears
+		for (int i = startIndex + 1; i < endIndex; i++) {
+			long currId = wayNodes.get(i).getNodeId();
+			RoadNode currNode = getRoadNode(currId);
+			if (currNode == null) {
+				LOG.warn("Intermediate node " + currId + " from way " + osmWay.getId() + " is not found in node list. Ignore the " +
+						"current road.");
+				return Collections.emptyList();
+			}
+			miniNodeList.add(currNode);
+		}
+		
+		// the current road is confirmed to be added
+		miniNodeList.add(currEndNode);
+		RoadWay currWay = new RoadWay(osmWay.getId() + "", miniNodeList, distFunc);
+		for (Tag tag : osmWay.getTags()) {
+			currWay.addTag(tag.getKey(), tag.getValue());
+		}
+		return Collections.singletonList(currWay);
+	}
+	
+	/**
+	 * Cut the OSM way at the nodes outside the clip boundary. Each run of at least two consecutive nodes inside the boundary becomes a
+	 * road way, which ends at the last node inside. The way keeps its ID if it has only one run, otherwise the runs are named as
+	 * "ID_c0", "ID_c1" and so on in the way direction.
+	 *
+	 * @param osmWay The OSM way.
+	 * @return The road ways with the tags of the OSM way, empty if less than two consecutive nodes are inside the boundary.
+	 */
+	private List<RoadWay> clipRoadWay(Way osmWay) {
+		List<List<RoadNode>> runList = new ArrayList<>();
+		List<RoadNode> currRun = new ArrayList<>();
+		for (WayNode wayNode : osmWay.getWayNodes()) {
+			RoadNode currNode = getRoadNode(wayNode.getNodeId());
+			if (currNode != null) {
+				currRun.add(currNode);
+				continue;
+			}
+			if (currRun.size() > 1)
+				runList.add(currRun);
+			currRun = new ArrayList<>();
+		}
+		if (currRun.size() > 1)
+			runList.add(currRun);
+		List<RoadWay> roadWays = new ArrayList<>();
+		for (int i = 0; i < runList.size(); i++) {
+			String wayId = runList.size() == 1 ? osmWay.getId() + "" : osmWay.getId() + "_c" + i;
+			RoadWay currWay = new RoadWay(wayId, runList.get(i), distFunc);
+			for (Tag tag : osmWay.getTags()) {
+				currWay.addTag(tag.getKey(), tag.getValue());
+			}
+			roadWays.add(currWay);
+		}
+		return roadWays;
+	}
+	
+	/**
+	 * Split the road way at its intermediate nodes that are intersections.
+	 *
+	 * @param currWay   The road way to split.
+	 * @param nodeIdSet The IDs of the intersections.
+	 * @return The sub-roads with the tags of the road way, or the road way itself if no split is performed.
+	 */
+	private List<RoadWay> splitRoadWay(RoadWay currWay, Set<String> nodeIdSet) {
+		List<RoadNode> currNodeList = new ArrayList<>();
+		List<RoadWay> roadWays = new ArrayList<>();
+		currNodeList.add(currWay.getFromNode());
+		int subRoadCount = 0;
+		// check intermediate nodes
+		for (int i = 1; i < currWay.getNodes().size() - 1; i++) {
+			RoadNode roadNode = currWay.getNode(i);
+			currNodeList.add(roadNode);
+			if (nodeIdSet.contains(roadNode.getId())) {    // split the current road
+				RoadWay splitWay = new RoadWay(currWay.getId() + "_" + subRoadCount, currNodeList, distFunc);
+				for (Map.Entry<String, Object> entry : currWay.getTags().entrySet()) {
+					splitWay.addTag(entry.getKey(), entry.getValue());
+				}
+				roadWays.add(splitWay);
+				currNodeList = new ArrayList<>();
+				currNodeList.add(roadNode);
+				subRoadCount++;
+			}
+		}
+		currNodeList.add(currWay.getToNode());
+		if (subRoadCount == 0) {    // no road split
+			roadWays.add(currWay);
+		} else {
+			RoadWay lastWay = new RoadWay(currWay.getId() + "_" + subRoadCount, currNodeList, distFunc);
+			for (Map.Entry<String, Object> entry : currWay.getTags().entrySet()) {
+				lastWay.addTag(entry.getKey(), entry.getValue());
+			}
+			roadWays.add(lastWay);
+		}
+		return roadWays;
+	}
+	
+	/**
+	 * Reverse the sub-roads of a reverse one-way road, or add the reverse roads of a two-way road.
+	 *
+	 * @param currWay  The original road way, whose tags decide the direction.
+	 * @param roadWays The sub-roads of the road way, the reverse roads are appended.
+	 */
+	private void addDirection(RoadWay currWay, List<RoadWay> roadWays) {
+		if (!currWay.getTags().containsKey("oneway"))
+			return;
+		if (currWay.getTags().get("oneway").equals("-1")) {    // reverse road, change the direction
+			for (RoadWay roadWay : roadWays) {
+				List<RoadNode> reverseList = new ArrayList<>();
+				for (int i = roadWay.getNodes().size() - 1; i >= 0; i--) {
+					reverseList.add(roadWay.getNode(i));
+				}
+				roadWay.setNodes(reverseList);
+			}
+		} else if (currWay.getTags().get("oneway").equals("no")) {    // double direction, add reverse roads
+			List<RoadWay> reverseWays = new ArrayList<>();
+			for (RoadWay roadWay : roadWays) {
+				List<RoadNode> reverseList = new ArrayList<>();
+				reverseList.add(roadWay.getToNode());
+				for (int i = roadWay.getNodes().size() - 2; i > 0; i--) {
+					RoadNode reverseNode = roadWay.getNode(i).clone();
+					reverseNode.setId(roadWay.getNode(i).getId() + "-");
+					reverseNode.clearTag();
+					reverseList.add(reverseNode);
+				}
+				reverseList.add(roadWay.getFromNode());
+				RoadWay reverseWay = new RoadWay("-" + roadWay.getId(), reverseList, distFunc);
+				reverseWays.add(reverseWay);
+			}
+			roadWays.addAll(reverseWays);
+		}
+	}
+	
+	/**
+	 * Run the tasks of the given number in the conversion threads. Each task only writes to its own position of the result, so the
+	 * result does not depend on the parallelism.
+	 */
+	private void runInParallel(int taskCount, IntConsumer task) {
+		if (parallelism == 1) {
+			for (int i = 0; i < taskCount; i++)
+				task.accept(i);
+			return;
+		}
+		ParallelRunner.run(parallelism, () -> IntStream.range(0, taskCount).parallel().forEach(task), "Road network conversion");
 	}
 	
 	@Override
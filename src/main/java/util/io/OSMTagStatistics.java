@@ -0,0 +1,120 @@
+package util.io;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.collection.HyperLogLog;
+import util.collection.TopKCounter;
+
+import java.util.*;
+
+/**
+ * Profile of the tags of one type of OpenStreetMap entities. For each tag key, the number of occurrences is counted, the number of
+ * distinct values is estimated by a <tt>HyperLogLog</tt> sketch and the most frequent values are tracked by a <tt>TopKCounter</tt>, so
+ * the memory is bounded per key no matter how many values appear. Used by <tt>OSMMapLoader</tt> when the tag statistics are enabled.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class OSMTagStatistics {
+	
+	private static final Logger LOG = LogManager.getLogger(OSMTagStatistics.class);
+	private static final int SKETCH_PRECISION = 10;    // 1KB per key, about 3% error
+	private static final int TRACKED_VALUE_COUNT = 256;    // the values tracked per key for the top values, at most a few KB
+	private static final int REPORTED_KEY_COUNT = 30;    // the less frequent keys are reported in debug level
+	private final String entityType;
+	private final int topValueCount;
+	private final Map<String, KeyStatistics> key2Statistics = new HashMap<>();
+	
+	/**
+	 * @param entityType    The entity type in the report, e.g. "node".
+	 * @param topValueCount The number of most frequent values reported for each key.
+	 */
+	public OSMTagStatistics(String entityType, int topValueCount) {
+		if (topValueCount < 1)
+			throw new IllegalArgumentException("The number of reported values should be at least one: " + topValueCount);
+		this.entityType = entityType;
+		this.topValueCount = topValueCount;
+	}
+	
+	public void add(String key, String value) {
+		KeyStatistics statistics = key2Statistics.get(key);
+		if (statistics == null) {
+			statistics = new KeyStatistics(Math.max(TRACKED_VALUE_COUNT, topValueCount * 4));
+			key2Statistics.put(key, statistics);
+		}
+		statistics.distinctValues.add(value);
+		statistics.frequentValues.add(value);
+	}
+	
+	public int getKeyCount() {
+		return key2Statistics.size();
+	}
+	
+	/**
+	 * @param key The tag key.
+	 * @return The number of occurrences of the key.
+	 */
+	public long getCount(String key) {
+		KeyStatistics statistics = key2Statistics.get(key);
+		return statistics == null ? 0 : statistics.frequentValues.getTotalCount();
+	}
+	
+	/**
+	 * @param key The tag key.
+	 * @return The estimated number of distinct values of the key.
+	 */
+	public long getDistinctValueCount(String key) {
+		KeyStatistics statistics = key2Statistics.get(key);
+		return statistics == null ? 0 : statistics.distinctValues.estimate();
+	}
+	
+	/**
+	 * @param key The tag key.
+	 * @return The most frequent values of the key with their counts, in descending order of count. A count may exceed the true count
+	 * if the key has more distinct values than the tracked ones.
+	 */
+	public List<Map.Entry<String, Long>> getTopValues(String key) {
+		KeyStatistics statistics = key2Statistics.get(key);
+		return statistics == null ? Collections.emptyList() : statistics.frequentValues.getTopValues(topValueCount);
+	}
+	
+	/**
+	 * Log the statistics of each key in descending order of occurrence.
+	 */
+	public void printStatistics() {
+		List<String> keyList = new ArrayList<>(key2Statistics.keySet());
+		keyList.sort(Comparator.comparingLong(this::getCount).reversed().thenComparing(Comparator.naturalOrder()));
+		LOG.info("Tag statistics of " + entityType + ": " + keyList.size() + " keys.");
+		for (int i = 0; i < keyList.size(); i++) {
+			String key = keyList.get(i);
+			String message = entityType + " tag " + key + ": " + getCount(key) + " occurrences, ~" + getDistinctValueCount(key)
+					+ " distinct values, top values: " + formatTopValues(key);
+			if (i < REPORTED_KEY_COUNT)
+				LOG.info(message);
+			else
+				LOG.debug(message);
+		}
+	}
+	
+	/**
+	 * The approximate counts are shown as the range between the guaranteed count and the tracked count, e.g. "value=40..118".
+	 */
+	private String formatTopValues(String key) {
+		TopKCounter frequentValues = key2Statistics.get(key).frequentValues;
+		StringJoiner joiner = new StringJoiner(", ", "[", "]");
+		for (Map.Entry<String, Long> entry : frequentValues.getTopValues(topValueCount)) {
+			long error = frequentValues.getError(entry.getKey());
+			joiner.add(entry.getKey() + "=" + (error == 0 ? entry.getValue() + "" : (entry.getValue() - error) + ".." + entry.getValue()));
+		}
+		return joiner.toString();
+	}
+	
+	private static class KeyStatistics {
+		private final HyperLogLog distinctValues = new HyperLogLog(SKETCH_PRECISION);
+		private final TopKCounter frequentValues;
+		
+		KeyStatistics(int trackedValueCount) {
+			this.frequentValues = new TopKCounter(trackedValueCount);
+		}
+	}
+}
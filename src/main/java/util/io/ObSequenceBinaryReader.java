@@ -0,0 +1,109 @@
+package util.io;
+
+import util.object.BTObservation;
+import util.object.BTStation;
+import util.object.OBSequence;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static util.io.ObSequenceBinaryWriter.VarIntBuffer.readSigned;
+import static util.io.ObSequenceBinaryWriter.VarIntBuffer.readUnsigned;
+
+/**
+ * Reader of the binary observation sequence file written by <tt>ObSequenceBinaryWriter</tt>. The station and owner dictionaries are
+ * resolved once per entry, so each observation is decoded with array lookups only.
+ *
+ * @author Hellisk
+ * @since 15/10/2019
+ */
+public class ObSequenceBinaryReader {
+	
+	/**
+	 * Read all observation sequences from a binary file.
+	 *
+	 * @param obSequenceFile The binary sequence file.
+	 * @param id2BTStation   The mapping from station ID to station.
+	 * @return The list of sequences in the file order.
+	 */
+	public static List<OBSequence> readObSequenceList(File obSequenceFile, Map<String, BTStation> id2BTStation) {
+		List<OBSequence> obSequenceList = new ArrayList<>();
+		readObSequences(obSequenceFile, id2BTStation, obSequenceList::add);
+		return obSequenceList;
+	}
+	
+	/**
+	 * Read the observation sequences from a binary file one block at a time and hand them to the consumer in the file order.
+	 *
+	 * @param obSequenceFile     The binary sequence file.
+	 * @param id2BTStation       The mapping from station ID to station.
+	 * @param obSequenceConsumer Receiver of the sequences.
+	 */
+	public static void readObSequences(File obSequenceFile, Map<String, BTStation> id2BTStation,
+									   Consumer<OBSequence> obSequenceConsumer) {
+		try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(obSequenceFile), 1 << 16))) {
+			if (inputStream.readInt() != ObSequenceBinaryWriter.MAGIC_NUMBER)
+				throw new IllegalArgumentException("The input file is not a binary sequence file: " + obSequenceFile.getAbsolutePath());
+			int version = inputStream.readInt();
+			if (version != ObSequenceBinaryWriter.VERSION)
+				throw new IllegalArgumentException("Unsupported binary sequence file version: " + version);
+			List<BTStation> stationDictionary = new ArrayList<>();
+			List<String> ownerDictionary = new ArrayList<>();
+			byte[][] columns = new byte[5][];
+			int blockSequenceCount;
+			while ((blockSequenceCount = inputStream.readInt()) != 0) {
+				inputStream.readInt();    // number of observations in the block
+				int newStationCount = inputStream.readInt();
+				for (int i = 0; i < newStationCount; i++) {
+					String stationID = inputStream.readUTF();
+					BTStation station = id2BTStation.get(stationID);
+					if (station == null)
+						throw new IllegalArgumentException("The Bluetooth reader is not found: " + stationID);
+					stationDictionary.add(station);
+				}
+				int newOwnerCount = inputStream.readInt();
+				for (int i = 0; i < newOwnerCount; i++) {
+					ownerDictionary.add(inputStream.readUTF());
+				}
+				for (int i = 0; i < columns.length; i++) {
+					int columnSize = inputStream.readInt();
+					if (columns[i] == null || columns[i].length < columnSize)
+						columns[i] = new byte[columnSize];
+					inputStream.readFully(columns[i], 0, columnSize);
+				}
+				decodeBlock(blockSequenceCount, columns, stationDictionary, ownerDictionary, obSequenceConsumer);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to read binary sequence file: " + obSequenceFile.getAbsolutePath(), e);
+		}
+	}
+	
+	private static void decodeBlock(int blockSequenceCount, byte[][] columns, List<BTStation> stationDictionary,
+									List<String> ownerDictionary, Consumer<OBSequence> obSequenceConsumer) {
+		int[] sequencePosition = new int[1];
+		int[] enterTimePosition = new int[1];
+		int[] durationPosition = new int[1];
+		int[] stationPosition = new int[1];
+		int[] ownerPosition = new int[1];
+		long sequenceID = 0;
+		long deviceID = 0;
+		long enterTime = 0;
+		for (int i = 0; i < blockSequenceCount; i++) {
+			sequenceID += readSigned(columns[0], sequencePosition);
+			deviceID += readSigned(columns[0], sequencePosition);
+			int size = (int) readUnsigned(columns[0], sequencePosition);
+			List<BTObservation> obList = new ArrayList<>(size);
+			for (int j = 0; j < size; j++) {
+				enterTime += readSigned(columns[1], enterTimePosition);
+				long duration = readSigned(columns[2], durationPosition);
+				BTStation station = stationDictionary.get((int) readUnsigned(columns[3], stationPosition));
+				String owner = ownerDictionary.get((int) readUnsigned(columns[4], ownerPosition));
+				obList.add(new BTObservation(deviceID, enterTime, duration, station, owner));
+			}
+			obSequenceConsumer.accept(new OBSequence(sequenceID, obList));
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package util.io;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.object.BTObservation;
+import util.object.OBSequence;
+import util.object.ObservationStore;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writer of the binary observation sequence file, a compact alternative of the text file written by
+ * <tt>ObjectWriter.writeObSequenceListToFile()</tt>.
+ * <p>
+ * The file starts with a magic number and a version, followed by blocks of up to <tt>BLOCK_SIZE</tt> sequences and a zero-sized end
+ * block. Each block contains the station IDs and owners that first appear in the block (appended to the file-level dictionaries), and
+ * five columns encoded as variable-length integers: sequence information (sequence ID delta, device ID delta and size), enter time
+ * deltas, durations, station codes and owner codes. The enter time of an observation is stored as the difference to the previous
+ * observation, which is small as the observations are sorted.
+ *
+ * @author Hellisk
+ * @since 15/10/2019
+ */
+public class ObSequenceBinaryWriter implements Closeable {
+	
+	static final int MAGIC_NUMBER = 0x4F425351;    // "OBSQ"
+	static final int VERSION = 1;
+	static final int BLOCK_SIZE = 4096;    // maximum number of sequences per block
+	private static final Logger LOG = LogManager.getLogger(ObSequenceBinaryWriter.class);
+	
+	private final DataOutputStream outputStream;
+	private final Map<String, Integer> stationID2Code = new HashMap<>();
+	private final Map<String, Integer> owner2Code = new HashMap<>();
+	private final List<String> newStationIDList = new ArrayList<>();
+	private final List<String> newOwnerList = new ArrayList<>();
+	private final VarIntBuffer sequenceColumn = new VarIntBuffer();
+	private final VarIntBuffer enterTimeColumn = new VarIntBuffer();
+	private final VarIntBuffer durationColumn = new VarIntBuffer();
+	private final VarIntBuffer stationColumn = new VarIntBuffer();
+	private final VarIntBuffer ownerColumn = new VarIntBuffer();
+	private int blockSequenceCount = 0;
+	private int blockObservationCount = 0;
+	private long prevSequenceID = 0;
+	private long prevDeviceID = 0;
+	private long prevEnterTime = 0;
+	private long sequenceCount = 0;
+	
+	/**
+	 * Create a binary sequence file, the existing file is replaced.
+	 *
+	 * @param file The output file.
+	 * @throws IOException Failed to create the file.
+	 */
+	public ObSequenceBinaryWriter(File file) throws IOException {
+		this.outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		outputStream.writeInt(MAGIC_NUMBER);
+		outputStream.writeInt(VERSION);
+	}
+	
+	/**
+	 * Append one observation sequence to the file.
+	 *
+	 * @param obSequence The sequence to write, it should not be empty.
+	 * @throws IOException Failed to write the block.
+	 */
+	public void write(OBSequence obSequence) throws IOException {
+		if (obSequence.size() == 0)
+			throw new IllegalArgumentException("The current observation sequence is empty: " + obSequence.getSequenceID());
+		sequenceColumn.writeSigned(obSequence.getSequenceID() - prevSequenceID);
+		sequenceColumn.writeSigned(obSequence.getDeviceID() - prevDeviceID);
+		sequenceColumn.writeUnsigned(obSequence.size());
+		prevSequenceID = obSequence.getSequenceID();
+		prevDeviceID = obSequence.getDeviceID();
+		for (BTObservation ob : obSequence.getObservationList()) {
+			enterTimeColumn.writeSigned(ob.getEnterTime() - prevEnterTime);
+			prevEnterTime = ob.getEnterTime();
+			durationColumn.writeSigned(ob.getDuration());
+			stationColumn.writeUnsigned(encode(ob.getStation().getID(), stationID2Code, newStationIDList));
+			ownerColumn.writeUnsigned(encode(ob.getOwner(), owner2Code, newOwnerList));
+		}
+		blockObservationCount += obSequence.size();
+		blockSequenceCount++;
+		sequenceCount++;
+		if (blockSequenceCount == BLOCK_SIZE)
+			flushBlock();
+	}
+	
+	/**
+	 * Append one sequence of the observation store to the file, same as <tt>write(OBSequence)</tt>.
+	 *
+	 * @param store         The observation store.
+	 * @param sequenceIndex The index of the sequence in the store, it should not be empty.
+	 * @throws IOException Failed to write the block.
+	 */
+	public void write(ObservationStore store, int sequenceIndex) throws IOException {
+		int start = store.getSequenceStart(sequenceIndex);
+		int end = store.getSequenceEnd(sequenceIndex);
+		if (start == end)
+			throw new IllegalArgumentException("The current observation sequence is empty: " + store.getSequenceID(sequenceIndex));
+		sequenceColumn.writeSigned(store.getSequenceID(sequenceIndex) - prevSequenceID);
+		sequenceColumn.writeSigned(store.getDeviceID(sequenceIndex) - prevDeviceID);
+		sequenceColumn.writeUnsigned(end - start);
+		prevSequenceID = store.getSequenceID(sequenceIndex);
+		prevDeviceID = store.getDeviceID(sequenceIndex);
+		for (int i = start; i < end; i++) {
+			enterTimeColumn.writeSigned(store.getEnterTime(i) - prevEnterTime);
+			prevEnterTime = store.getEnterTime(i);
+			durationColumn.writeSigned(store.getDuration(i));
+			stationColumn.writeUnsigned(encode(store.getStation(i).getID(), stationID2Code, newStationIDList));
+			ownerColumn.writeUnsigned(encode(store.getOwner(i), owner2Code, newOwnerList));
+		}
+		blockObservationCount += end - start;
+		blockSequenceCount++;
+		sequenceCount++;
+		if (blockSequenceCount == BLOCK_SIZE)
+			flushBlock();
+	}
+	
+	private static int encode(String value, Map<String, Integer> value2Code, List<String> newValueList) {
+		Integer code = value2Code.get(value);
+		if (code == null) {
+			code = value2Code.size();
+			value2Code.put(value, code);
+			newValueList.add(value);
+		}
+		return code;
+	}
+	
+	private void flushBlock() throws IOException {
+		if (blockSequenceCount == 0)
+			return;
+		outputStream.writeInt(blockSequenceCount);
+		outputStream.writeInt(blockObservationCount);
+		writeStringList(newStationIDList);
+		writeStringList(newOwnerList);
+		for (VarIntBuffer column : new VarIntBuffer[]{sequenceColumn, enterTimeColumn, durationColumn, stationColumn, ownerColumn}) {
+			outputStream.writeInt(column.size());
+			column.writeTo(outputStream);
+			column.clear();
+		}
+		newStationIDList.clear();
+		newOwnerList.clear();
+		blockSequenceCount = 0;
+		blockObservationCount = 0;
+		// each block is decoded independently
+		prevSequenceID = 0;
+		prevDeviceID = 0;
+		prevEnterTime = 0;
+	}
+	
+	private void writeStringList(List<String> valueList) throws IOException {
+		outputStream.writeInt(valueList.size());
+		for (String value : valueList) {
+			outputStream.writeUTF(value);
+		}
+	}
+	
+	/**
+	 * Write the remaining sequences and the end block, then close the file.
+	 *
+	 * @throws IOException Failed to write the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flushBlock();
+			outputStream.writeInt(0);    // end of file
+		} finally {
+			outputStream.close();
+		}
+		LOG.debug("Binary sequence file written, total number of sequences: " + sequenceCount);
+	}
+	
+	/**
+	 * A growable byte buffer of variable-length integers. Each byte stores seven bits, the highest bit indicates whether more bytes
+	 * follow. Signed values are zigzag encoded so that small negative numbers stay short.
+	 */
+	static class VarIntBuffer {
+		private byte[] content = new byte[1 << 12];
+		private int size = 0;
+		
+		static long readUnsigned(byte[] content, int[] position) {
+			long result = 0;
+			int shift = 0;
+			byte currByte;
+			do {
+				currByte = content[position[0]++];
+				result |= (long) (currByte & 0x7F) << shift;
+				shift += 7;
+			} while (currByte < 0);
+			return result;
+		}
+		
+		static long readSigned(byte[] content, int[] position) {
+			long value = readUnsigned(content, position);
+			return (value >>> 1) ^ -(value & 1);
+		}
+		
+		void writeUnsigned(long value) {
+			if (content.length - size < 10)
+				content = Arrays.copyOf(content, content.length * 2);
+			while ((value & ~0x7FL) != 0) {
+				content[size++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			content[size++] = (byte) value;
+		}
+		
+		void writeSigned(long value) {
+			writeUnsigned((value << 1) ^ (value >> 63));
+		}
+		
+		int size() {
+			return size;
+		}
+		
+		void writeTo(DataOutputStream outputStream) throws IOException {
+			outputStream.write(content, 0, size);
+		}
+		
+		void clear() {
+			size = 0;
+		}
+	}
+}
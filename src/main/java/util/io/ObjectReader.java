@@ -4,8 +4,9 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import util.object.BTStation;
 import util.object.OBSequence;
+import util.object.StationDistanceMatrix;
 
-import java.io.File;
+import java.io.*;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -23,11 +24,8 @@ public class ObjectReader {
 	private static final Logger LOG = LogManager.getLogger(ObjectReader.class);
 	
 	public static List<BTStation> readBTStationList(String inputFilePath) {
-		List<String> stationInfoList = IOService.readFile(inputFilePath);
 		List<BTStation> resultStationList = new ArrayList<>();
-		for (String info : stationInfoList) {
-			resultStationList.add(BTStation.parseBTStation(info));
-		}
+		MappedLineReader.forEachLine(inputFilePath, info -> resultStationList.add(BTStation.parseBTStation(info)));
 		return resultStationList;
 	}
 	
@@ -40,6 +38,8 @@ public class ObjectReader {
 			else
 				throw new IllegalArgumentException("The same station appears multiple times in station list: " + currStation.getID());
 		}
+		if (readStationDistanceMatrix(stationFolder, id2BTStation) == null)
+			new StationDistanceMatrix(stationList).register();    // no valid distance file, the distances are calculated when needed
 		List<OBSequence> resultObSequenceList = new ArrayList<>();
 		List<File> inputFileList = IOService.getFiles(observationFolder).collect(Collectors.toList());
 		for (File file : inputFileList) {
@@ -50,11 +50,56 @@ public class ObjectReader {
 	}
 	
 	private static List<OBSequence> readObservationSequenceList(File obSequenceFile, Map<String, BTStation> id2BTStation) {
-		List<String> infoList = IOService.readFile(obSequenceFile);
+		if (obSequenceFile.getName().endsWith(".bin"))    // binary sequence file
+			return ObSequenceBinaryReader.readObSequenceList(obSequenceFile, id2BTStation);
 		List<OBSequence> obSequenceList = new ArrayList<>();
-		for (String s : infoList) {
-			obSequenceList.add(OBSequence.parseObSequence(s, id2BTStation));
-		}
+		MappedLineReader.forEachLine(obSequenceFile, s -> obSequenceList.add(OBSequence.parseObSequence(s, id2BTStation)));
 		return obSequenceList;
 	}
+	
+	/**
+	 * Read the station distance matrix written by <tt>ObjectWriter.writeStationDistanceMatrix()</tt> and register the stations in it.
+	 *
+	 * @param stationFolder The folder of the station file.
+	 * @param id2BTStation  The stations to be registered.
+	 * @return The distance matrix, or null if the file does not exist or does not match the IDs and coordinates of the given stations.
+	 */
+	public static StationDistanceMatrix readStationDistanceMatrix(String stationFolder, Map<String, BTStation> id2BTStation) {
+		File file = new File(stationFolder, ObjectWriter.STATION_DISTANCE_FILE);
+		if (!file.exists())
+			return null;
+		try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			int version = inputStream.readInt();
+			if (version != ObjectWriter.STATION_DISTANCE_VERSION)
+				throw new IllegalArgumentException("Unsupported station distance file version: " + version);
+			int size = inputStream.readInt();
+			if (size != id2BTStation.size()) {
+				LOG.warn("The station distance file does not match the station list, ignore it: " + size + "," + id2BTStation.size());
+				return null;
+			}
+			List<BTStation> stationList = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				String stationID = inputStream.readUTF();
+				BTStation station = id2BTStation.get(stationID);
+				if (station == null) {
+					LOG.warn("The station in the distance file is not found in the station list, ignore the file: " + stationID);
+					return null;
+				}
+				String coordinates = inputStream.readUTF();
+				if (!coordinates.equals(station.getCentre().toString())) {
+					LOG.warn("The station in the distance file has different location, ignore the file: " + stationID + "," + coordinates
+							+ "," + station.getCentre().toString());
+					return null;
+				}
+				stationList.add(station);
+			}
+			double[] distances = new double[StationDistanceMatrix.cellCount(size)];
+			for (int i = 0; i < distances.length; i++) {
+				distances[i] = inputStream.readDouble();
+			}
+			return new StationDistanceMatrix(stationList, distances).register();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to read station distance file " + file.getAbsolutePath(), e);
+		}
+	}
 }
@@ -2,9 +2,10 @@ package util.io;
 
 import util.object.BTStation;
 import util.object.OBSequence;
+import util.object.ObservationStore;
+import util.object.StationDistanceMatrix;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -15,6 +16,10 @@ import java.util.List;
  * Created 9/09/2019
  */
 public class ObjectWriter {
+	
+	static final String STATION_DISTANCE_FILE = "station_distance.bin";
+	static final int STATION_DISTANCE_VERSION = 1;
+	
 	public static void writeBTStationFile(List<BTStation> btStationList, String outputFolder) {
 		List<String> btStationStringList = new ArrayList<>();
 		for (BTStation currStation : btStationList) {
@@ -40,4 +45,129 @@ public class ObjectWriter {
 		}
 		IOService.writeFile(obSequenceListContent, outputFolder, fileName);
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Open a writer for writing observation sequences one by one, used when the sequence list is too large to be kept in memory. The
+	 * existing file is replaced.
+	 *
+	 * @param outputFolder The output folder.
+	 * @param fileName     The output file name.
+	 * @return The writer for <tt>writeObSequence()</tt>, which should be closed by the caller.
+	 * @throws IOException Failed to create the file.
+	 */
+	public static BufferedWriter openObSequenceWriter(String outputFolder, String fileName) throws IOException {
+		IOService.createFolder(outputFolder);
+		File file = new File(outputFolder, fileName);
+		if (file.exists() && !file.delete())
+			throw new IOException("Failed to delete file: " + file.toString());
+		return new BufferedWriter(new FileWriter(file));
+	}
+	
+	/**
+	 * Append one observation sequence to the writer opened by <tt>openObSequenceWriter()</tt>.
+	 *
+	 * @param writer     The sequence writer.
+	 * @param obSequence The sequence to write.
+	 * @throws IOException Failed to write the sequence.
+	 */
+	public static void writeObSequence(BufferedWriter writer, OBSequence obSequence) throws IOException {
+		writer.write(obSequence.toString());
+		writer.write('\n');
+	}
+	
+	/**
+	 * Write a list of observation sequences to a binary file, see <tt>ObSequenceBinaryWriter</tt> for the format. The file can be
+	 * read by <tt>ObjectReader</tt> as long as its name ends with <tt>.bin</tt>.
+	 *
+	 * @param obSequenceList The sequences to write.
+	 * @param outputFolder   The output folder.
+	 * @param fileName       The output file name.
+	 */
+	public static void writeObSequenceListToBinaryFile(List<OBSequence> obSequenceList, String outputFolder, String fileName) {
+		try (ObSequenceBinaryWriter writer = openObSequenceBinaryWriter(outputFolder, fileName)) {
+			for (OBSequence obSequence : obSequenceList) {
+				writer.write(obSequence);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write binary observation sequence file " + fileName, e);
+		}
+	}
+	
+	/**
+	 * Open a binary writer for writing observation sequences one by one. The existing file is replaced.
+	 *
+	 * @param outputFolder The output folder.
+	 * @param fileName     The output file name.
+	 * @return The binary sequence writer, which should be closed by the caller.
+	 * @throws IOException Failed to create the file.
+	 */
+	public static ObSequenceBinaryWriter openObSequenceBinaryWriter(String outputFolder, String fileName) throws IOException {
+		IOService.createFolder(outputFolder);
+		return new ObSequenceBinaryWriter(new File(outputFolder, fileName));
+	}
+	
+	/**
+	 * Write all sequences of an observation store to a text file, the format is the same as <tt>writeObSequenceListToFile()</tt>.
+	 *
+	 * @param store        The observation store.
+	 * @param outputFolder The output folder.
+	 * @param fileName     The output file name.
+	 */
+	public static void writeObservationStoreToFile(ObservationStore store, String outputFolder, String fileName) {
+		try (BufferedWriter writer = openObSequenceWriter(outputFolder, fileName)) {
+			StringBuilder line = new StringBuilder();
+			for (int i = 0; i < store.getSequenceCount(); i++) {
+				line.setLength(0);
+				writer.append(store.appendSequence(i, line)).append('\n');
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write observation sequence file " + fileName, e);
+		}
+	}
+	
+	/**
+	 * Write all sequences of an observation store to a binary file, see <tt>ObSequenceBinaryWriter</tt> for the format.
+	 *
+	 * @param store        The observation store.
+	 * @param outputFolder The output folder.
+	 * @param fileName     The output file name.
+	 */
+	public static void writeObservationStoreToBinaryFile(ObservationStore store, String outputFolder, String fileName) {
+		try (ObSequenceBinaryWriter writer = openObSequenceBinaryWriter(outputFolder, fileName)) {
+			for (int i = 0; i < store.getSequenceCount(); i++) {
+				writer.write(store, i);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write binary observation sequence file " + fileName, e);
+		}
+	}
+	
+	/**
+	 * Write the station distance matrix next to the station file, the distances are calculated if they are not yet. The file contains
+	 * the format version, the number of stations, the station IDs and coordinates in ordinal order and the row-major distances. The
+	 * coordinates are written as in <tt>station.txt</tt>, so that the file is rejected once a station moves.
+	 *
+	 * @param distanceMatrix The station distance matrix.
+	 * @param outputFolder   The output folder, usually the one of <tt>station.txt</tt>.
+	 */
+	public static void writeStationDistanceMatrix(StationDistanceMatrix distanceMatrix, String outputFolder) {
+		IOService.createFolder(outputFolder);
+		File file = new File(outputFolder, STATION_DISTANCE_FILE);
+		try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			int size = distanceMatrix.size();
+			outputStream.writeInt(STATION_DISTANCE_VERSION);
+			outputStream.writeInt(size);
+			for (int i = 0; i < size; i++) {
+				outputStream.writeUTF(distanceMatrix.getStation(i).getID());
+				outputStream.writeUTF(distanceMatrix.getStation(i).getCentre().toString());
+			}
+			for (int i = 0; i < size; i++) {
+				for (int j = 0; j < size; j++) {
+					outputStream.writeDouble(distanceMatrix.distance(i, j));
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write station distance file " + file.getAbsolutePath(), e);
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package util.io;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * The manifest of the input files that have been processed, used by the incremental observation processing. The files are grouped by
+ * the output file they are processed into, and each file is recorded with its size, last modified time and content checksum. A group
+ * is unchanged if it consists of the same files and each file has the same size and either the same modified time or the same
+ * checksum, so the checksum is only calculated for the files that are new or modified. Each group also records the range of sequence
+ * IDs of its output.
+ * <p>
+ * The manifest is stored as a text file, one file per line: <tt>group \t path \t size \t lastModified \t checksum</tt>, and one line
+ * per group for the sequence IDs: <tt>group \t firstSequenceID \t sequenceCount</tt>.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class ProcessedFileManifest {
+	
+	private static final Logger LOG = LogManager.getLogger(ProcessedFileManifest.class);
+	private final Map<String, Map<String, FileEntry>> group2FileEntries = new LinkedHashMap<>();
+	private final Map<String, long[]> group2SequenceRange = new HashMap<>();    // {firstSequenceID, sequenceCount}
+	
+	/**
+	 * Read the manifest from file.
+	 *
+	 * @param manifestPath The path of the manifest file.
+	 * @return The manifest, which is empty if the file does not exist.
+	 */
+	public static ProcessedFileManifest read(String manifestPath) {
+		ProcessedFileManifest manifest = new ProcessedFileManifest();
+		if (!new File(manifestPath).exists())
+			return manifest;
+		MappedLineReader.forEachLine(manifestPath, line -> {
+			if (line.isEmpty())
+				return;
+			String[] info = line.split("\t");
+			if (info.length == 3) {
+				manifest.group2FileEntries.computeIfAbsent(info[0], k -> new LinkedHashMap<>());
+				manifest.group2SequenceRange.put(info[0], new long[]{Long.parseLong(info[1]), Long.parseLong(info[2])});
+				return;
+			}
+			if (info.length != 5)
+				throw new IllegalArgumentException("Incorrect manifest entry: " + line);
+			manifest.group2FileEntries.computeIfAbsent(info[0], k -> new LinkedHashMap<>()).put(info[1],
+					new FileEntry(Long.parseLong(info[2]), Long.parseLong(info[3]), Long.parseLong(info[4])));
+		});
+		return manifest;
+	}
+	
+	/**
+	 * Write the manifest to file, the existing file is replaced.
+	 *
+	 * @param manifestPath The path of the manifest file.
+	 */
+	public void write(String manifestPath) {
+		File manifestFile = new File(manifestPath);
+		if (manifestFile.getParentFile() != null)
+			IOService.createFolder(manifestFile.getParentFile().getAbsolutePath());
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(manifestFile))) {
+			for (Map.Entry<String, Map<String, FileEntry>> groupEntry : group2FileEntries.entrySet()) {
+				long[] sequenceRange = group2SequenceRange.get(groupEntry.getKey());
+				if (sequenceRange != null)
+					writer.write(groupEntry.getKey() + "\t" + sequenceRange[0] + "\t" + sequenceRange[1] + "\n");
+				for (Map.Entry<String, FileEntry> fileEntry : groupEntry.getValue().entrySet()) {
+					FileEntry entry = fileEntry.getValue();
+					writer.write(groupEntry.getKey() + "\t" + fileEntry.getKey() + "\t" + entry.size + "\t" + entry.lastModified + "\t" +
+							entry.checksum + "\n");
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write the manifest file: " + manifestPath, e);
+		}
+	}
+	
+	public boolean isEmpty() {
+		return group2FileEntries.isEmpty();
+	}
+	
+	public Set<String> getGroups() {
+		return new LinkedHashSet<>(group2FileEntries.keySet());
+	}
+	
+	/**
+	 * Check whether the group has been processed with the same input files.
+	 *
+	 * @param group    The group name.
+	 * @param fileList The current input files of the group.
+	 * @return True if the group is recorded and none of its files is added, removed or modified. The modified time of the files that
+	 * are touched without changing the content is updated, so their checksums are not calculated again once the manifest is written.
+	 */
+	public boolean isUnchanged(String group, List<File> fileList) {
+		Map<String, FileEntry> fileEntries = group2FileEntries.get(group);
+		if (fileEntries == null || fileEntries.size() != fileList.size())
+			return false;
+		for (File file : fileList) {
+			FileEntry entry = fileEntries.get(file.getAbsolutePath());
+			if (entry == null || entry.size != file.length())
+				return false;
+			if (entry.lastModified != file.lastModified()) {
+				if (entry.checksum != checksum(file))
+					return false;
+				LOG.debug("The file is touched but its content is unchanged: " + file.getAbsolutePath());
+				entry.lastModified = file.lastModified();
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @param group The group name.
+	 * @return The ID of the first sequence of the group output, or -1 if it is not recorded.
+	 */
+	public long getFirstSequenceID(String group) {
+		long[] sequenceRange = group2SequenceRange.get(group);
+		return sequenceRange == null ? -1 : sequenceRange[0];
+	}
+	
+	/**
+	 * @param group The group name.
+	 * @return The number of sequences of the group output, or -1 if it is not recorded.
+	 */
+	public long getSequenceCount(String group) {
+		long[] sequenceRange = group2SequenceRange.get(group);
+		return sequenceRange == null ? -1 : sequenceRange[1];
+	}
+	
+	/**
+	 * Record the current state of the input files of a group and the sequence IDs of its output, which replaces the previous record of
+	 * the group.
+	 *
+	 * @param group           The group name.
+	 * @param fileList        The input files of the group.
+	 * @param firstSequenceID The ID of the first sequence of the group output.
+	 * @param sequenceCount   The number of sequences of the group output.
+	 */
+	public void update(String group, List<File> fileList, long firstSequenceID, long sequenceCount) {
+		Map<String, FileEntry> fileEntries = new LinkedHashMap<>();
+		for (File file : fileList) {
+			fileEntries.put(file.getAbsolutePath(), new FileEntry(file.length(), file.lastModified(), checksum(file)));
+		}
+		group2FileEntries.put(group, fileEntries);
+		group2SequenceRange.put(group, new long[]{firstSequenceID, sequenceCount});
+	}
+	
+	public void remove(String group) {
+		group2FileEntries.remove(group);
+		group2SequenceRange.remove(group);
+	}
+	
+	/**
+	 * Calculate the CRC32C checksum of the file content.
+	 */
+	private static long checksum(File file) {
+		try (CheckedInputStream inputStream = new CheckedInputStream(new FileInputStream(file), new CRC32C())) {
+			byte[] buffer = new byte[1 << 16];
+			while (inputStream.read(buffer) != -1) {
+				// read through the file
+			}
+			return inputStream.getChecksum().getValue();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to read the input file: " + file.getAbsolutePath(), e);
+		}
+	}
+	
+	private static class FileEntry {
+		private final long size;
+		private long lastModified;
+		private final long checksum;
+		
+		FileEntry(long size, long lastModified, long checksum) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.checksum = checksum;
+		}
+	}
+}
@@ -20,7 +20,10 @@ public class BTStation {
 	
 	private double radius = 100;
 	private List<String> coveringNodeIDList = new ArrayList<>();
+	private List<String> coveringWayIDList = new ArrayList<>();
 	private DistanceFunction distFunc;
+	private StationDistanceMatrix distanceMatrix;    // the precomputed distances, set by StationDistanceMatrix.register()
+	private int ordinal = -1;    // the index in the distance matrix
 	
 	public BTStation(String stationID, double lon, double lat, DistanceFunction distFunc) {
 		this.stationID = stationID;
@@ -28,10 +31,17 @@ public class BTStation {
 		this.centre = new Point(lon, lat, distFunc);
 	}
 	
+	/**
+	 * Parse the station from the format of <tt>toString()</tt>: <tt>ID lon lat [radius][|covering node IDs[|covering way IDs]]</tt>,
+	 * where the IDs are separated by space.
+	 *
+	 * @param info The station string.
+	 * @return The station.
+	 */
 	public static BTStation parseBTStation(String info) {
 		String[] stationInfo = info.split("\\|");
 		DistanceFunction distFunc = new GreatCircleDistanceFunction();
-		if (stationInfo.length < 1 || stationInfo.length > 2)
+		if (stationInfo.length < 1 || stationInfo.length > 3)
 			throw new IllegalArgumentException("Incorrect input Bluetooth reader format: " + info);
 		String[] baseInfo = stationInfo[0].split(" ");
 		if (baseInfo.length < 3 || baseInfo.length > 4)
@@ -40,11 +50,16 @@ public class BTStation {
 				, distFunc);
 		if (baseInfo.length == 4)
 			currStation.setRadius(Double.parseDouble(baseInfo[3]));
-		if (stationInfo.length == 2) {    // contains covering node list
+		if (stationInfo.length >= 2 && !stationInfo[1].isEmpty()) {    // contains covering node list
 			String[] nodeIDs = stationInfo[1].split(" ");
 			List<String> coveringNodeID = new ArrayList<>(Arrays.asList(nodeIDs));
 			currStation.setCoveringNodeIDList(coveringNodeID);
 		}
+		if (stationInfo.length == 3 && !stationInfo[2].isEmpty()) {    // contains covering way list
+			String[] wayIDs = stationInfo[2].split(" ");
+			List<String> coveringWayID = new ArrayList<>(Arrays.asList(wayIDs));
+			currStation.setCoveringWayIDList(coveringWayID);
+		}
 		return currStation;
 	}
 	
@@ -76,21 +91,63 @@ public class BTStation {
 		this.coveringNodeIDList.add(nodeID);
 	}
 	
+	public List<String> getCoveringWayIDList() {
+		return coveringWayIDList;
+	}
+	
+	public void setCoveringWayIDList(List<String> coveringWayIDList) {
+		this.coveringWayIDList = coveringWayIDList;
+	}
+	
+	public void addCoveringWay(String wayID) {
+		this.coveringWayIDList.add(wayID);
+	}
+	
 	public DistanceFunction getDistFunc() {
 		return distFunc;
 	}
 	
+	/**
+	 * The distance from the current station to the given one, same as <tt>getDistFunc().distance(getCentre(), other.getCentre())
+	 * </tt>. The distance is looked up from the station distance matrix if both stations are registered in the same one.
+	 *
+	 * @param other The other station.
+	 * @return The distance between two stations.
+	 */
+	public double distanceTo(BTStation other) {
+		if (distanceMatrix != null && distanceMatrix == other.distanceMatrix)
+			return distanceMatrix.distance(ordinal, other.ordinal);
+		return distFunc.distance(centre, other.centre);
+	}
+	
+	/**
+	 * @return The ordinal of the station in its distance matrix, or -1 if the station is not registered in any.
+	 */
+	public int getOrdinal() {
+		return ordinal;
+	}
+	
+	/**
+	 * @return The distance matrix the station is registered in, or null if the station is not registered in any.
+	 */
+	public StationDistanceMatrix getDistanceMatrix() {
+		return distanceMatrix;
+	}
+	
+	void setDistanceMatrix(StationDistanceMatrix distanceMatrix, int ordinal) {
+		this.distanceMatrix = distanceMatrix;
+		this.ordinal = ordinal;
+	}
+	
 	@Override
 	public String toString() {
 		StringBuilder baseInfo = new StringBuilder(stationID + " " + centre.toString());
 		if (radius != 100)
 			baseInfo.append(" ").append(radius);
-		if (!coveringNodeIDList.isEmpty()) {
-			baseInfo.append("|");
-			for (String currNode : coveringNodeIDList) {
-				baseInfo.append(currNode).append(" ");
-			}
-			baseInfo.substring(0, baseInfo.length() - 1);
+		if (!coveringNodeIDList.isEmpty() || !coveringWayIDList.isEmpty()) {
+			baseInfo.append("|").append(String.join(" ", coveringNodeIDList));
+			if (!coveringWayIDList.isEmpty())    // the way list is written after the node list, which can be empty
+				baseInfo.append("|").append(String.join(" ", coveringWayIDList));
 		}
 		return baseInfo.toString();
 	}
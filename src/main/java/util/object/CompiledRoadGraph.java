@@ -0,0 +1,287 @@
+package util.object;
+
+import util.function.DistanceFunction;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable compiled view of a <tt>RoadNetworkGraph</tt> for the graph algorithms, e.g. routing and map-matching. The intersections
+ * are numbered by their position in the node list (the node ordinal) and the road ways by their position in the way list (the way
+ * ordinal). The road ways are compiled into a compressed sparse row (CSR) adjacency of primitive arrays, where the outgoing edges of
+ * node <tt>i</tt> are <tt>[getOutEdgeStart(i), getOutEdgeEnd(i))</tt>. The incoming edges are kept in another CSR which refers to the
+ * outgoing edge index, so both directions share the edge attributes. The length of an edge is the length of its road way in meter. In an
+ * undirected map every road way forms an edge in both directions. The node coordinates are stored in <tt>float</tt>, which is precise
+ * to about one meter.
+ * <p>
+ * Unlike the adjacency sets of <tt>RoadNode</tt>, the algorithms walk the arrays by ordinal without hashing. The string IDs are only
+ * needed to map the nodes and edges back to the map. The graph is a snapshot, it has to be recompiled if the map changes.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class CompiledRoadGraph {
+	
+	private final RoadNode[] nodes;
+	private final RoadWay[] ways;
+	private final Map<String, Integer> nodeID2Ordinal = new HashMap<>();
+	private final DistanceFunction distFunc;
+	private final boolean isDirected;
+	private final float[] nodeLons;
+	private final float[] nodeLats;
+	// outgoing edges
+	private final int[] outOffsets;
+	private final int[] edgeSources;
+	private final int[] edgeTargets;
+	private final double[] edgeLengths;
+	private final int[] edgeWays;    // the way ordinal of each edge
+	// incoming edges, given by the index of the outgoing edge
+	private final int[] inOffsets;
+	private final int[] inEdges;
+	private volatile long digest = 0;    // computed on first use
+	
+	/**
+	 * Compile the current intersections and road ways of the map. The map is read in one pass, the adjacency is then sorted within the
+	 * primitive arrays.
+	 *
+	 * @param map The road network.
+	 */
+	public CompiledRoadGraph(RoadNetworkGraph map) {
+		this.distFunc = map.getDistanceFunction();
+		this.isDirected = map.isDirectedMap();
+		List<RoadNode> nodeList = map.getNodes();
+		List<RoadWay> wayList = map.getWays();
+		int nodeCount = nodeList.size();
+		this.nodes = nodeList.toArray(new RoadNode[0]);
+		this.ways = wayList.toArray(new RoadWay[0]);
+		this.nodeLons = new float[nodeCount];
+		this.nodeLats = new float[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			if (nodeID2Ordinal.put(nodes[i].getId(), i) != null)
+				throw new IllegalArgumentException("The same node appears multiple times in the map: " + nodes[i].getId());
+			nodeLons[i] = (float) nodes[i].lon();
+			nodeLats[i] = (float) nodes[i].lat();
+		}
+		
+		int edgeCount = isDirected ? ways.length : ways.length * 2;
+		int[] sources = new int[edgeCount];
+		int[] targets = new int[edgeCount];
+		double[] lengths = new double[edgeCount];
+		int[] wayOrdinals = new int[edgeCount];
+		this.outOffsets = new int[nodeCount + 1];
+		this.inOffsets = new int[nodeCount + 1];
+		int count = 0;
+		for (int i = 0; i < ways.length; i++) {
+			int from = getNodeOrdinal(ways[i].getFromNode().getId());
+			int to = getNodeOrdinal(ways[i].getToNode().getId());
+			if (from == -1 || to == -1)
+				throw new IllegalArgumentException("The endpoints of road way " + ways[i].getId() + " are not intersections of the map.");
+			double length = ways[i].getLength();
+			for (int direction = 0; direction < (isDirected ? 1 : 2); direction++) {
+				sources[count] = direction == 0 ? from : to;
+				targets[count] = direction == 0 ? to : from;
+				lengths[count] = length;
+				wayOrdinals[count++] = i;
+				outOffsets[(direction == 0 ? from : to) + 1]++;
+				inOffsets[(direction == 0 ? to : from) + 1]++;
+			}
+		}
+		
+		// sort the edges by source through counting, the edges of the same source keep the order of the way list
+		for (int i = 0; i < nodeCount; i++) {
+			outOffsets[i + 1] += outOffsets[i];
+			inOffsets[i + 1] += inOffsets[i];
+		}
+		this.edgeSources = new int[edgeCount];
+		this.edgeTargets = new int[edgeCount];
+		this.edgeLengths = new double[edgeCount];
+		this.edgeWays = new int[edgeCount];
+		int[] position = new int[nodeCount];
+		System.arraycopy(outOffsets, 0, position, 0, nodeCount);
+		for (int i = 0; i < edgeCount; i++) {
+			int edge = position[sources[i]]++;
+			edgeSources[edge] = sources[i];
+			edgeTargets[edge] = targets[i];
+			edgeLengths[edge] = lengths[i];
+			edgeWays[edge] = wayOrdinals[i];
+		}
+		this.inEdges = new int[edgeCount];
+		System.arraycopy(inOffsets, 0, position, 0, nodeCount);
+		for (int i = 0; i < edgeCount; i++)
+			inEdges[position[edgeTargets[i]]++] = i;
+	}
+	
+	public int getNodeCount() {
+		return nodes.length;
+	}
+	
+	public int getEdgeCount() {
+		return edgeTargets.length;
+	}
+	
+	public int getWayCount() {
+		return ways.length;
+	}
+	
+	public boolean isDirected() {
+		return isDirected;
+	}
+	
+	public DistanceFunction getDistanceFunction() {
+		return distFunc;
+	}
+	
+	/**
+	 * @param nodeID The node ID.
+	 * @return The ordinal of the node, or -1 if the node is not an intersection of the graph.
+	 */
+	public int getNodeOrdinal(String nodeID) {
+		Integer ordinal = nodeID2Ordinal.get(nodeID);
+		return ordinal == null ? -1 : ordinal;
+	}
+	
+	public String getNodeID(int node) {
+		return nodes[node].getId();
+	}
+	
+	/**
+	 * @param node The node ordinal.
+	 * @return The intersection of the original map.
+	 */
+	public RoadNode getNode(int node) {
+		return nodes[node];
+	}
+	
+	public double getNodeLon(int node) {
+		return nodeLons[node];
+	}
+	
+	public double getNodeLat(int node) {
+		return nodeLats[node];
+	}
+	
+	/**
+	 * @param node The node ordinal.
+	 * @return The index of the first outgoing edge of the node.
+	 */
+	public int getOutEdgeStart(int node) {
+		return outOffsets[node];
+	}
+	
+	/**
+	 * @param node The node ordinal.
+	 * @return The index after the last outgoing edge of the node.
+	 */
+	public int getOutEdgeEnd(int node) {
+		return outOffsets[node + 1];
+	}
+	
+	/**
+	 * @param node The node ordinal.
+	 * @return The position of the first incoming edge of the node, the edge is given by <tt>getInEdge()</tt>.
+	 */
+	public int getInEdgeStart(int node) {
+		return inOffsets[node];
+	}
+	
+	/**
+	 * @param node The node ordinal.
+	 * @return The position after the last incoming edge of the node.
+	 */
+	public int getInEdgeEnd(int node) {
+		return inOffsets[node + 1];
+	}
+	
+	/**
+	 * @param position The position in the incoming edge lists.
+	 * @return The index of the incoming edge.
+	 */
+	public int getInEdge(int position) {
+		return inEdges[position];
+	}
+	
+	public int getEdgeSource(int edge) {
+		return edgeSources[edge];
+	}
+	
+	public int getEdgeTarget(int edge) {
+		return edgeTargets[edge];
+	}
+	
+	/**
+	 * @param edge The edge index.
+	 * @return The length of the edge in meter.
+	 */
+	public double getEdgeLength(int edge) {
+		return edgeLengths[edge];
+	}
+	
+	public int getEdgeWayOrdinal(int edge) {
+		return edgeWays[edge];
+	}
+	
+	public String getEdgeWayID(int edge) {
+		return ways[edgeWays[edge]].getId();
+	}
+	
+	/**
+	 * @param edge The edge index.
+	 * @return The road way of the original map that forms the edge.
+	 */
+	public RoadWay getEdgeWay(int edge) {
+		return ways[edgeWays[edge]];
+	}
+	
+	public String getWayID(int way) {
+		return ways[way].getId();
+	}
+	
+	public RoadWay getWay(int way) {
+		return ways[way];
+	}
+	
+	/**
+	 * @param from The ordinal of the first node.
+	 * @param to   The ordinal of the second node.
+	 * @return The straight-line distance between the nodes in meter, computed from the stored coordinates.
+	 */
+	public double getStraightLineDistance(int from, int to) {
+		return distFunc.pointToPointDistance(nodeLons[from], nodeLats[from], nodeLons[to], nodeLats[to]);
+	}
+	
+	/**
+	 * The digest identifies the node ordinals and edge indices of the graph, e.g. for the files that store routes by edge index. It is
+	 * computed from the node IDs and the source, target, length and road way ID of each edge in order.
+	 *
+	 * @return The first 64 bits of the SHA-256 digest of the graph.
+	 */
+	public long getDigest() {
+		if (digest == 0)
+			digest = computeDigest();
+		return digest;
+	}
+	
+	private long computeDigest() {
+		MessageDigest messageDigest;
+		try {
+			messageDigest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 is not supported.", e);
+		}
+		for (RoadNode node : nodes)
+			messageDigest.update((node.getId() + "\n").getBytes(StandardCharsets.UTF_8));
+		ByteBuffer buffer = ByteBuffer.allocate(16);
+		for (int i = 0; i < edgeTargets.length; i++) {
+			buffer.clear();
+			buffer.putInt(edgeSources[i]).putInt(edgeTargets[i]).putDouble(edgeLengths[i]);
+			messageDigest.update(buffer.array());
+			messageDigest.update((ways[edgeWays[i]].getId() + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+		return ByteBuffer.wrap(messageDigest.digest()).getLong();
+	}
+}
@@ -2,7 +2,6 @@ package util.object;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import util.function.DistanceFunction;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -157,12 +156,11 @@ public class OBSequence {
 	public double length() {
 		if (observationList.size() == 0)
 			return 0;
-		DistanceFunction distFunc = observationList.get(0).getDistFunc();
 		double distance = 0;
 		for (int i = 0; i < observationList.size() - 1; i++) {
 			BTObservation currOb = observationList.get(i);
 			BTObservation nextOb = observationList.get(i + 1);
-			distance += distFunc.distance(nextOb.getStation().getCentre(), currOb.getStation().getCentre());
+			distance += nextOb.getStation().distanceTo(currOb.getStation());
 		}
 		return distance;
 	}
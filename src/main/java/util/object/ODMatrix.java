@@ -0,0 +1,329 @@
+package util.object;
+
+import util.collection.LongIntHashMap;
+import util.function.ParallelRunner;
+
+import java.io.*;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Origin-destination (OD) counts of the observation sequences between Bluetooth stations in hourly time slices. The origin and the
+ * destination of a sequence are the stations of its first and last observations, and the slice is the hour of its start time, counted
+ * from the epoch. The stations are given by their ordinals in a <tt>StationDistanceMatrix</tt>.
+ * <p>
+ * Only the non-zero cells are stored, in a <tt>LongIntHashMap</tt> whose key packs the hour in the upper 32 bits and the origin and
+ * destination ordinals in 16 bits each. The matrices of different periods over the same stations can be merged, so a new month is
+ * added to the saved matrix without rebuilding it. The matrix is not thread-safe except for the parallel <tt>addSequences()</tt>.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class ODMatrix {
+	
+	static final int MAGIC_NUMBER = 0x4F444D58;    // "ODMX"
+	static final int VERSION = 1;
+	private static final int MAX_STATION_COUNT = 1 << 16;
+	private static final int PARALLEL_CHUNK_SIZE = 65536;    // the number of sequences counted by each parallel task
+	private final StationDistanceMatrix stationMatrix;
+	private final LongIntHashMap counts = new LongIntHashMap();
+	private long totalCount = 0;
+	private long minHour = Long.MAX_VALUE;
+	private long maxHour = Long.MIN_VALUE;
+	
+	/**
+	 * @param stationMatrix The stations, whose ordinals index the matrix.
+	 */
+	public ODMatrix(StationDistanceMatrix stationMatrix) {
+		if (stationMatrix.size() > MAX_STATION_COUNT)
+			throw new IllegalArgumentException("Too many stations for the OD matrix: " + stationMatrix.size());
+		this.stationMatrix = stationMatrix;
+	}
+	
+	public StationDistanceMatrix getStationMatrix() {
+		return stationMatrix;
+	}
+	
+	/**
+	 * Add trips to a cell.
+	 *
+	 * @param originOrdinal      The ordinal of the origin station.
+	 * @param destinationOrdinal The ordinal of the destination station.
+	 * @param time               The start time in second.
+	 * @param count              The number of trips.
+	 */
+	public void add(int originOrdinal, int destinationOrdinal, long time, int count) {
+		addCell(toKey(Math.floorDiv(time, 3600), checkOrdinal(originOrdinal), checkOrdinal(destinationOrdinal)), count);
+	}
+	
+	private void addCell(long key, int count) {
+		counts.addTo(key, count);
+		totalCount += count;
+		long hour = key >>> 32;
+		minHour = Math.min(minHour, hour);
+		maxHour = Math.max(maxHour, hour);
+	}
+	
+	/**
+	 * Count the sequences of the store in parallel.
+	 *
+	 * @param store       The observation sequences.
+	 * @param parallelism The number of threads.
+	 */
+	public void addSequences(ObservationStore store, int parallelism) {
+		int[] stationIndex2Ordinal = new int[store.getStationCount()];
+		for (int i = 0; i < stationIndex2Ordinal.length; i++)
+			stationIndex2Ordinal[i] = toOrdinal(store.getStationByIndex(i));
+		addInParallel(store.getSequenceCount(), parallelism, (i, localCounts) -> {
+			if (store.getSequenceSize(i) == 0)
+				return;
+			int origin = stationIndex2Ordinal[store.getStationIndex(store.getSequenceStart(i))];
+			int destination = stationIndex2Ordinal[store.getStationIndex(store.getSequenceEnd(i) - 1)];
+			localCounts.addTo(toKey(Math.floorDiv(store.getStartTime(i), 3600), origin, destination), 1);
+		});
+	}
+	
+	/**
+	 * Count the sequences of the list in parallel.
+	 *
+	 * @param obSequenceList The observation sequences.
+	 * @param parallelism    The number of threads.
+	 */
+	public void addSequences(List<OBSequence> obSequenceList, int parallelism) {
+		addInParallel(obSequenceList.size(), parallelism, (i, localCounts) -> {
+			List<BTObservation> observationList = obSequenceList.get(i).getObservationList();
+			if (observationList.isEmpty())
+				return;
+			int origin = toOrdinal(observationList.get(0).getStation());
+			int destination = toOrdinal(observationList.get(observationList.size() - 1).getStation());
+			localCounts.addTo(toKey(Math.floorDiv(obSequenceList.get(i).getStartTime(), 3600), origin, destination), 1);
+		});
+	}
+	
+	/**
+	 * Each task counts a chunk of sequences into its own map, which is merged into the matrix afterwards.
+	 */
+	private void addInParallel(int sequenceCount, int parallelism, SequenceCounter counter) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("The parallelism should be at least one: " + parallelism);
+		int chunkCount = (sequenceCount + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+		IntStream chunkStream = IntStream.range(0, chunkCount);
+		if (parallelism == 1 || chunkCount <= 1) {
+			chunkStream.forEach(chunk -> mergeCounts(countChunk(chunk, sequenceCount, counter)));
+			return;
+		}
+		ParallelRunner.run(parallelism, () -> chunkStream.parallel().forEach(chunk -> {
+			LongIntHashMap localCounts = countChunk(chunk, sequenceCount, counter);
+			synchronized (this) {
+				mergeCounts(localCounts);
+			}
+		}), "OD matrix construction");
+	}
+	
+	private static LongIntHashMap countChunk(int chunk, int sequenceCount, SequenceCounter counter) {
+		LongIntHashMap localCounts = new LongIntHashMap();
+		int end = Math.min(sequenceCount, (chunk + 1) * PARALLEL_CHUNK_SIZE);
+		for (int i = chunk * PARALLEL_CHUNK_SIZE; i < end; i++)
+			counter.count(i, localCounts);
+		return localCounts;
+	}
+	
+	private void mergeCounts(LongIntHashMap localCounts) {
+		localCounts.forEach(this::addCell);
+	}
+	
+	/**
+	 * Add the counts of another matrix over the same stations, e.g. the matrix of a new month.
+	 *
+	 * @param other The other matrix, which is not changed.
+	 */
+	public void merge(ODMatrix other) {
+		checkSameStations(other.stationMatrix);
+		mergeCounts(other.counts);
+	}
+	
+	/**
+	 * @param originOrdinal      The ordinal of the origin station.
+	 * @param destinationOrdinal The ordinal of the destination station.
+	 * @param hour               The hour counted from the epoch.
+	 * @return The number of trips in the hour.
+	 */
+	public int getCount(int originOrdinal, int destinationOrdinal, long hour) {
+		if (hour < 0 || hour > Integer.MAX_VALUE)
+			return 0;
+		return counts.get(toKey(hour, checkOrdinal(originOrdinal), checkOrdinal(destinationOrdinal)));
+	}
+	
+	/**
+	 * @param originOrdinal      The ordinal of the origin station.
+	 * @param destinationOrdinal The ordinal of the destination station.
+	 * @param startTime          The start of the time range in second, inclusive.
+	 * @param endTime            The end of the time range in second, exclusive.
+	 * @return The number of trips that start in the hours overlapping the time range.
+	 */
+	public long getCount(int originOrdinal, int destinationOrdinal, long startTime, long endTime) {
+		long count = 0;
+		long startHour = Math.max(Math.floorDiv(startTime, 3600), minHour);
+		long endHour = Math.min(Math.floorDiv(endTime - 1, 3600), maxHour);
+		for (long hour = startHour; hour <= endHour; hour++)
+			count += getCount(originOrdinal, destinationOrdinal, hour);
+		return count;
+	}
+	
+	/**
+	 * Aggregate the time slices that overlap the time range into a dense matrix. The dense matrix is only available for at most 46340
+	 * stations, whose cells fit into one array.
+	 *
+	 * @param startTime The start of the time range in second, inclusive.
+	 * @param endTime   The end of the time range in second, exclusive.
+	 * @return The row-major counts, the cell of origin a and destination b is at <tt>a * size + b</tt>.
+	 */
+	public long[] getSlice(long startTime, long endTime) {
+		int size = stationMatrix.size();
+		if ((long) size * size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many stations for a dense OD matrix: " + size);
+		long[] slice = new long[size * size];
+		long startHour = Math.floorDiv(startTime, 3600);
+		long endHour = Math.floorDiv(endTime - 1, 3600);
+		counts.forEach((key, count) -> {
+			long hour = key >>> 32;
+			if (hour >= startHour && hour <= endHour)
+				slice[(int) ((key >>> 16) & 0xFFFF) * size + (int) (key & 0xFFFF)] += count;
+		});
+		return slice;
+	}
+	
+	/**
+	 * @return The number of trips of each hour from <tt>getMinHour()</tt> to <tt>getMaxHour()</tt>.
+	 */
+	public long[] getHourlyTotals() {
+		if (counts.isEmpty())
+			return new long[0];
+		long[] totals = new long[(int) (maxHour - minHour + 1)];
+		counts.forEach((key, count) -> totals[(int) ((key >>> 32) - minHour)] += count);
+		return totals;
+	}
+	
+	/**
+	 * @return The first hour with trips counted from the epoch, or <tt>Long.MAX_VALUE</tt> if the matrix is empty.
+	 */
+	public long getMinHour() {
+		return minHour;
+	}
+	
+	/**
+	 * @return The last hour with trips counted from the epoch, or <tt>Long.MIN_VALUE</tt> if the matrix is empty.
+	 */
+	public long getMaxHour() {
+		return maxHour;
+	}
+	
+	public long getTotalCount() {
+		return totalCount;
+	}
+	
+	/**
+	 * @return The number of non-zero cells.
+	 */
+	public int getCellCount() {
+		return counts.size();
+	}
+	
+	/**
+	 * Write the matrix to a binary file, which contains the station IDs in ordinal order followed by the non-zero cells.
+	 *
+	 * @param file The output file, which is replaced.
+	 */
+	public void write(File file) {
+		try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			outputStream.writeInt(MAGIC_NUMBER);
+			outputStream.writeInt(VERSION);
+			outputStream.writeInt(stationMatrix.size());
+			for (int i = 0; i < stationMatrix.size(); i++)
+				outputStream.writeUTF(stationMatrix.getStation(i).getID());
+			outputStream.writeInt(counts.size());
+			IOException[] exception = new IOException[1];
+			counts.forEach((key, count) -> {
+				if (exception[0] != null)
+					return;
+				try {
+					outputStream.writeLong(key);
+					outputStream.writeInt(count);
+				} catch (IOException e) {
+					exception[0] = e;
+				}
+			});
+			if (exception[0] != null)
+				throw exception[0];
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write OD matrix file " + file.getAbsolutePath(), e);
+		}
+	}
+	
+	/**
+	 * Read a matrix written by <tt>write()</tt>. The stations of the file should be the same as the given stations.
+	 *
+	 * @param file          The matrix file.
+	 * @param stationMatrix The stations.
+	 * @return The matrix.
+	 */
+	public static ODMatrix read(File file, StationDistanceMatrix stationMatrix) {
+		try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			if (inputStream.readInt() != MAGIC_NUMBER)
+				throw new IllegalArgumentException("The input file is not an OD matrix file: " + file.getAbsolutePath());
+			int version = inputStream.readInt();
+			if (version != VERSION)
+				throw new IllegalArgumentException("Unsupported OD matrix file version: " + version);
+			int stationCount = inputStream.readInt();
+			if (stationCount != stationMatrix.size())
+				throw new IllegalArgumentException("The OD matrix file has different stations: " + file.getAbsolutePath());
+			for (int i = 0; i < stationCount; i++) {
+				if (!inputStream.readUTF().equals(stationMatrix.getStation(i).getID()))
+					throw new IllegalArgumentException("The OD matrix file has different stations: " + file.getAbsolutePath());
+			}
+			ODMatrix matrix = new ODMatrix(stationMatrix);
+			int cellCount = inputStream.readInt();
+			for (int i = 0; i < cellCount; i++) {
+				long key = inputStream.readLong();
+				matrix.addCell(key, inputStream.readInt());
+			}
+			return matrix;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to read OD matrix file " + file.getAbsolutePath(), e);
+		}
+	}
+	
+	private void checkSameStations(StationDistanceMatrix otherStations) {
+		if (otherStations == stationMatrix)
+			return;
+		boolean isSame = otherStations.size() == stationMatrix.size();
+		for (int i = 0; isSame && i < stationMatrix.size(); i++)
+			isSame = otherStations.getStation(i).getID().equals(stationMatrix.getStation(i).getID());
+		if (!isSame)
+			throw new IllegalArgumentException("Cannot merge OD matrices of different stations.");
+	}
+	
+	private int toOrdinal(BTStation station) {
+		int ordinal = stationMatrix.getOrdinal(station.getID());
+		if (ordinal == -1)
+			throw new IllegalArgumentException("The station is not in the station matrix: " + station.getID());
+		return ordinal;
+	}
+	
+	private int checkOrdinal(int ordinal) {
+		if (ordinal < 0 || ordinal >= stationMatrix.size())
+			throw new IndexOutOfBoundsException("The station ordinal is out of the station matrix: " + ordinal);
+		return ordinal;
+	}
+	
+	private static long toKey(long hour, int originOrdinal, int destinationOrdinal) {
+		if (hour < 0 || hour > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("The time is out of the supported range, hour: " + hour);
+		return hour << 32 | (long) originOrdinal << 16 | destinationOrdinal;
+	}
+	
+	@FunctionalInterface
+	private interface SequenceCounter {
+		void count(int sequenceIndex, LongIntHashMap localCounts);
+	}
+}
@@ -0,0 +1,434 @@
+package util.object;
+
+import java.util.*;
+
+/**
+ * A compact, read-only store of observation sequences kept in primitive arrays instead of <tt>BTObservation</tt> objects. The
+ * observations of all sequences are stored consecutively in parallel columns (enter time, leave time, station index and owner code),
+ * and each sequence is a range of the columns given by its offset and size. The stations and owners are kept once in dictionaries.
+ * <p>
+ * The store is built by <tt>Builder</tt>. <tt>SequenceView</tt> gives access to one sequence without copying, while
+ * <tt>toOBSequence()</tt> converts a sequence back to the object form for the code that still requires it.
+ *
+ * @author Hellisk
+ * @since 15/10/2019
+ */
+public class ObservationStore {
+	
+	private final long[] enterTimes;
+	private final long[] leaveTimes;
+	private final int[] stationIndices;
+	private final int[] ownerCodes;
+	private final BTStation[] stations;    // station dictionary
+	private final String[] owners;    // owner dictionary
+	private final long[] sequenceIDs;
+	private final long[] deviceIDs;
+	private final int[] sequenceOffsets;    // the start of each sequence, followed by the total number of observations
+	
+	private ObservationStore(Builder builder) {
+		this.enterTimes = Arrays.copyOf(builder.enterTimes, builder.observationCount);
+		this.leaveTimes = Arrays.copyOf(builder.leaveTimes, builder.observationCount);
+		this.stationIndices = Arrays.copyOf(builder.stationIndices, builder.observationCount);
+		this.ownerCodes = Arrays.copyOf(builder.ownerCodes, builder.observationCount);
+		this.stations = builder.stationList.toArray(new BTStation[0]);
+		this.owners = builder.ownerList.toArray(new String[0]);
+		this.sequenceIDs = Arrays.copyOf(builder.sequenceIDs, builder.sequenceCount);
+		this.deviceIDs = Arrays.copyOf(builder.deviceIDs, builder.sequenceCount);
+		this.sequenceOffsets = Arrays.copyOf(builder.sequenceOffsets, builder.sequenceCount + 1);
+		this.sequenceOffsets[builder.sequenceCount] = builder.observationCount;
+	}
+	
+	/**
+	 * Convert a list of observation sequences into a store.
+	 *
+	 * @param obSequenceList The observation sequences.
+	 * @return The store containing the same sequences in the same order.
+	 */
+	public static ObservationStore fromOBSequenceList(List<OBSequence> obSequenceList) {
+		int observationCount = 0;
+		for (OBSequence obSequence : obSequenceList) {
+			observationCount += obSequence.size();
+		}
+		Builder builder = new Builder(observationCount, obSequenceList.size());
+		for (OBSequence obSequence : obSequenceList) {
+			builder.addSequence(obSequence.getSequenceID(), obSequence.getDeviceID());
+			for (BTObservation ob : obSequence.getObservationList()) {
+				builder.addObservation(ob.getEnterTime(), ob.getLeaveTime(), builder.stationIndex(ob.getStation()),
+						builder.ownerCode(ob.getOwner()));
+			}
+		}
+		return builder.build();
+	}
+	
+	public int getSequenceCount() {
+		return sequenceIDs.length;
+	}
+	
+	public int getObservationCount() {
+		return enterTimes.length;
+	}
+	
+	public long getSequenceID(int sequenceIndex) {
+		return sequenceIDs[sequenceIndex];
+	}
+	
+	public long getDeviceID(int sequenceIndex) {
+		return deviceIDs[sequenceIndex];
+	}
+	
+	/**
+	 * @param sequenceIndex The index of the sequence.
+	 * @return The index of the first observation of the sequence.
+	 */
+	public int getSequenceStart(int sequenceIndex) {
+		return sequenceOffsets[sequenceIndex];
+	}
+	
+	/**
+	 * @param sequenceIndex The index of the sequence.
+	 * @return The index after the last observation of the sequence.
+	 */
+	public int getSequenceEnd(int sequenceIndex) {
+		return sequenceOffsets[sequenceIndex + 1];
+	}
+	
+	public int getSequenceSize(int sequenceIndex) {
+		return sequenceOffsets[sequenceIndex + 1] - sequenceOffsets[sequenceIndex];
+	}
+	
+	/**
+	 * @param sequenceIndex The index of the sequence.
+	 * @return The enter time of the first observation, or <tt>Long.MAX_VALUE</tt> if the sequence is empty, same as
+	 * <tt>OBSequence</tt>.
+	 */
+	public long getStartTime(int sequenceIndex) {
+		return getSequenceSize(sequenceIndex) == 0 ? Long.MAX_VALUE : enterTimes[sequenceOffsets[sequenceIndex]];
+	}
+	
+	/**
+	 * @param sequenceIndex The index of the sequence.
+	 * @return The leave time of the last observation, or <tt>Long.MAX_VALUE</tt> if the sequence is empty, same as
+	 * <tt>OBSequence</tt>.
+	 */
+	public long getEndTime(int sequenceIndex) {
+		return getSequenceSize(sequenceIndex) == 0 ? Long.MAX_VALUE : leaveTimes[sequenceOffsets[sequenceIndex + 1] - 1];
+	}
+	
+	public long getEnterTime(int obIndex) {
+		return enterTimes[obIndex];
+	}
+	
+	public long getLeaveTime(int obIndex) {
+		return leaveTimes[obIndex];
+	}
+	
+	public long getDuration(int obIndex) {
+		return leaveTimes[obIndex] - enterTimes[obIndex];
+	}
+	
+	public int getStationIndex(int obIndex) {
+		return stationIndices[obIndex];
+	}
+	
+	public BTStation getStation(int obIndex) {
+		return stations[stationIndices[obIndex]];
+	}
+	
+	public int getOwnerCode(int obIndex) {
+		return ownerCodes[obIndex];
+	}
+	
+	public String getOwner(int obIndex) {
+		return owners[ownerCodes[obIndex]];
+	}
+	
+	public int getStationCount() {
+		return stations.length;
+	}
+	
+	public BTStation getStationByIndex(int stationIndex) {
+		return stations[stationIndex];
+	}
+	
+	public int getOwnerCount() {
+		return owners.length;
+	}
+	
+	public String getOwnerByCode(int ownerCode) {
+		return owners[ownerCode];
+	}
+	
+	public SequenceView getSequence(int sequenceIndex) {
+		return new SequenceView(this, sequenceIndex);
+	}
+	
+	/**
+	 * The travel distance between consecutive stations of the sequence, same as <tt>OBSequence.length()</tt>.
+	 *
+	 * @param sequenceIndex The index of the sequence.
+	 * @return The sequence length.
+	 */
+	public double sequenceLength(int sequenceIndex) {
+		int start = sequenceOffsets[sequenceIndex];
+		int end = sequenceOffsets[sequenceIndex + 1];
+		if (start == end)
+			return 0;
+		double distance = 0;
+		for (int i = start; i < end - 1; i++) {
+			distance += getStation(i + 1).distanceTo(getStation(i));
+		}
+		return distance;
+	}
+	
+	/**
+	 * Convert one sequence to the text format of <tt>OBSequence.toString()</tt>.
+	 *
+	 * @param sequenceIndex The index of the sequence.
+	 * @param info          The builder the sequence is appended to.
+	 * @return The given builder.
+	 */
+	public StringBuilder appendSequence(int sequenceIndex, StringBuilder info) {
+		if (getSequenceSize(sequenceIndex) == 0)
+			throw new IllegalArgumentException("The current observation sequence is empty: " + sequenceIDs[sequenceIndex]);
+		info.append(sequenceIDs[sequenceIndex]).append(" ").append(deviceIDs[sequenceIndex]).append(" ")
+				.append(getStartTime(sequenceIndex)).append(" ").append(getEndTime(sequenceIndex));
+		for (int i = sequenceOffsets[sequenceIndex]; i < sequenceOffsets[sequenceIndex + 1]; i++) {
+			info.append("| ").append(enterTimes[i]).append(" ").append(leaveTimes[i]).append(" ").append(getStation(i).getID())
+					.append(" ").append(getOwner(i));
+		}
+		return info;
+	}
+	
+	/**
+	 * Convert one sequence into an <tt>OBSequence</tt>. New observation objects are created for each call.
+	 *
+	 * @param sequenceIndex The index of the sequence.
+	 * @return The observation sequence.
+	 */
+	public OBSequence toOBSequence(int sequenceIndex) {
+		int start = sequenceOffsets[sequenceIndex];
+		int end = sequenceOffsets[sequenceIndex + 1];
+		List<BTObservation> obList = new ArrayList<>(end - start);
+		for (int i = start; i < end; i++) {
+			obList.add(new BTObservation(deviceIDs[sequenceIndex], enterTimes[i], leaveTimes[i] - enterTimes[i], getStation(i), getOwner(i)));
+		}
+		return new OBSequence(sequenceIDs[sequenceIndex], obList);
+	}
+	
+	public List<OBSequence> toOBSequenceList() {
+		List<OBSequence> obSequenceList = new ArrayList<>(getSequenceCount());
+		for (int i = 0; i < getSequenceCount(); i++) {
+			obSequenceList.add(toOBSequence(i));
+		}
+		return obSequenceList;
+	}
+	
+	/**
+	 * A lightweight view of one sequence in the store. The observation index given to the getters is relative to the sequence.
+	 */
+	public static final class SequenceView {
+		private final ObservationStore store;
+		private final int sequenceIndex;
+		private final int offset;
+		
+		private SequenceView(ObservationStore store, int sequenceIndex) {
+			this.store = store;
+			this.sequenceIndex = sequenceIndex;
+			this.offset = store.sequenceOffsets[sequenceIndex];
+		}
+		
+		public long getSequenceID() {
+			return store.getSequenceID(sequenceIndex);
+		}
+		
+		public long getDeviceID() {
+			return store.getDeviceID(sequenceIndex);
+		}
+		
+		public long getStartTime() {
+			return store.getStartTime(sequenceIndex);
+		}
+		
+		public long getEndTime() {
+			return store.getEndTime(sequenceIndex);
+		}
+		
+		public int size() {
+			return store.getSequenceSize(sequenceIndex);
+		}
+		
+		public long getEnterTime(int i) {
+			return store.enterTimes[offset + i];
+		}
+		
+		public long getLeaveTime(int i) {
+			return store.leaveTimes[offset + i];
+		}
+		
+		public BTStation getStation(int i) {
+			return store.getStation(offset + i);
+		}
+		
+		public String getOwner(int i) {
+			return store.getOwner(offset + i);
+		}
+		
+		public double length() {
+			return store.sequenceLength(sequenceIndex);
+		}
+		
+		public OBSequence toOBSequence() {
+			return store.toOBSequence(sequenceIndex);
+		}
+		
+		@Override
+		public String toString() {
+			return store.appendSequence(sequenceIndex, new StringBuilder()).toString();
+		}
+	}
+	
+	/**
+	 * Builder of the store. Sequences are added one after another, each followed by its observations in chronological order.
+	 */
+	public static class Builder {
+		private final List<BTStation> stationList = new ArrayList<>();
+		private final Map<String, Integer> stationID2Index = new HashMap<>();
+		private final List<String> ownerList = new ArrayList<>();
+		private final Map<String, Integer> owner2Code = new HashMap<>();
+		private long[] enterTimes;
+		private long[] leaveTimes;
+		private int[] stationIndices;
+		private int[] ownerCodes;
+		private int observationCount = 0;
+		private long[] sequenceIDs;
+		private long[] deviceIDs;
+		private int[] sequenceOffsets;
+		private int sequenceCount = 0;
+		
+		public Builder() {
+			this(1024, 64);
+		}
+		
+		/**
+		 * Create a builder with the initial capacity, the arrays grow when the capacity is reached.
+		 *
+		 * @param observationCapacity The expected number of observations.
+		 * @param sequenceCapacity    The expected number of sequences.
+		 */
+		public Builder(int observationCapacity, int sequenceCapacity) {
+			observationCapacity = Math.max(observationCapacity, 16);
+			sequenceCapacity = Math.max(sequenceCapacity, 16);
+			this.enterTimes = new long[observationCapacity];
+			this.leaveTimes = new long[observationCapacity];
+			this.stationIndices = new int[observationCapacity];
+			this.ownerCodes = new int[observationCapacity];
+			this.sequenceIDs = new long[sequenceCapacity];
+			this.deviceIDs = new long[sequenceCapacity];
+			this.sequenceOffsets = new int[sequenceCapacity + 1];
+		}
+		
+		/**
+		 * Create a builder whose dictionaries start with the ones of the given store, so that the station indices and owner codes of the
+		 * store are valid in the new store as well. The initial capacity is the size of the given store.
+		 *
+		 * @param dictionarySource The store whose dictionaries are copied.
+		 */
+		public Builder(ObservationStore dictionarySource) {
+			this(dictionarySource.getObservationCount(), dictionarySource.getSequenceCount());
+			for (BTStation station : dictionarySource.stations) {
+				stationIndex(station);
+			}
+			for (String owner : dictionarySource.owners) {
+				ownerCode(owner);
+			}
+		}
+		
+		/**
+		 * Find or register the station in the station dictionary.
+		 *
+		 * @param station The station.
+		 * @return The index of the station.
+		 */
+		public int stationIndex(BTStation station) {
+			Integer index = stationID2Index.get(station.getID());
+			if (index == null) {
+				index = stationList.size();
+				stationID2Index.put(station.getID(), index);
+				stationList.add(station);
+			}
+			return index;
+		}
+		
+		/**
+		 * Find or register the owner in the owner dictionary.
+		 *
+		 * @param owner The owner.
+		 * @return The code of the owner.
+		 */
+		public int ownerCode(String owner) {
+			Integer code = owner2Code.get(owner);
+			if (code == null) {
+				code = ownerList.size();
+				owner2Code.put(owner, code);
+				ownerList.add(owner);
+			}
+			return code;
+		}
+		
+		/**
+		 * Start a new sequence, the following observations are added to it.
+		 *
+		 * @param sequenceID The id of the sequence.
+		 * @param deviceID   The device of the sequence.
+		 * @return This builder.
+		 */
+		public Builder addSequence(long sequenceID, long deviceID) {
+			if (sequenceCount == sequenceIDs.length) {
+				sequenceIDs = Arrays.copyOf(sequenceIDs, sequenceCount * 2);
+				deviceIDs = Arrays.copyOf(deviceIDs, sequenceCount * 2);
+				sequenceOffsets = Arrays.copyOf(sequenceOffsets, sequenceCount * 2 + 1);
+			}
+			sequenceIDs[sequenceCount] = sequenceID;
+			deviceIDs[sequenceCount] = deviceID;
+			sequenceOffsets[sequenceCount] = observationCount;
+			sequenceCount++;
+			return this;
+		}
+		
+		/**
+		 * Add an observation to the current sequence. The station index and owner code should come from <tt>stationIndex()</tt> and
+		 * <tt>ownerCode()</tt> of this builder.
+		 *
+		 * @param enterTime    The enter time of the observation.
+		 * @param leaveTime    The leave time of the observation.
+		 * @param stationIndex The station index.
+		 * @param ownerCode    The owner code.
+		 * @return This builder.
+		 */
+		public Builder addObservation(long enterTime, long leaveTime, int stationIndex, int ownerCode) {
+			if (sequenceCount == 0)
+				throw new IllegalStateException("No sequence is started before adding observations.");
+			if (observationCount == enterTimes.length) {
+				int newLength = observationCount * 2;
+				enterTimes = Arrays.copyOf(enterTimes, newLength);
+				leaveTimes = Arrays.copyOf(leaveTimes, newLength);
+				stationIndices = Arrays.copyOf(stationIndices, newLength);
+				ownerCodes = Arrays.copyOf(ownerCodes, newLength);
+			}
+			enterTimes[observationCount] = enterTime;
+			leaveTimes[observationCount] = leaveTime;
+			stationIndices[observationCount] = stationIndex;
+			ownerCodes[observationCount] = ownerCode;
+			observationCount++;
+			return this;
+		}
+		
+		public int getSequenceCount() {
+			return sequenceCount;
+		}
+		
+		public ObservationStore build() {
+			return new ObservationStore(this);
+		}
+	}
+}
@@ -3,6 +3,7 @@ package util.object;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import util.function.DistanceFunction;
+import util.index.RoadNetworkIndex;
 
 import java.io.Serializable;
 import java.util.*;
@@ -35,6 +36,8 @@ public class RoadNetworkGraph implements Serializable {
 	private boolean isCompactMap = false;    // A compact map does not have intersection whose degree is 2 (intermediate point in a road).
 	// Otherwise it is a loose map whose road ways are all straight line (no intermediate point on the road).
 	
+	private transient RoadNetworkIndex spatialIndex = null;    // built on request and updated with the nodes and ways
+	
 	public RoadNetworkGraph(DistanceFunction df) {
 		this.distFunc = df;
 	}
@@ -75,6 +78,7 @@ public class RoadNetworkGraph implements Serializable {
 		this.minLon = Double.POSITIVE_INFINITY;
 		this.maxLat = Double.NEGATIVE_INFINITY;
 		this.maxLon = Double.NEGATIVE_INFINITY;
+		this.spatialIndex = null;
 	}
 	
 	/**
@@ -89,6 +93,8 @@ public class RoadNetworkGraph implements Serializable {
 				nodeList.add(node);
 				id2NodeMap.put(node.getId(), node);
 				updateBoundary(node);
+				if (spatialIndex != null)
+					spatialIndex.addNode(node);
 			} else
 				LOG.error("Insert node to network failed. Node already exist: " + node.getId());
 		}
@@ -102,6 +108,8 @@ public class RoadNetworkGraph implements Serializable {
 		if (!this.nodeList.remove(node))
 			throw new IllegalArgumentException("The node " + node.getId() + " is in the dictionary but not in the item list.");
 		this.id2NodeMap.remove(node.getId());
+		if (spatialIndex != null)
+			spatialIndex.removeNode(node);
 	}
 	
 	/**
@@ -118,6 +126,8 @@ public class RoadNetworkGraph implements Serializable {
 				node.clearConnectedWays();
 				nodeList.add(node);
 				id2NodeMap.put(node.getId(), node);
+				if (spatialIndex != null)
+					spatialIndex.addNode(node);
 			} else LOG.error("Insert node to network failed. Node already exist: " + node.getId());
 		}
 		updateBoundary();
@@ -228,6 +238,8 @@ public class RoadNetworkGraph implements Serializable {
 				}
 				for (RoadNode n : way.getNodes())
 					updateBoundary(n);
+				if (spatialIndex != null)
+					spatialIndex.addWay(way);
 			} else
 				throw new IllegalArgumentException("Road way already exist: " + way.getId());
 		}
@@ -338,6 +350,31 @@ public class RoadNetworkGraph implements Serializable {
 	
 	public void setDistanceFunction(DistanceFunction distFunc) {
 		this.distFunc = distFunc;
+		this.spatialIndex = null;
+	}
+	
+	/**
+	 * Get the spatial index of the intersections and road ways, an STR-tree index is built on the first call. The index is updated when
+	 * nodes or ways are added to or removed from the map.
+	 *
+	 * @return The spatial index of the map.
+	 */
+	public RoadNetworkIndex getSpatialIndex() {
+		if (spatialIndex == null)
+			spatialIndex = new RoadNetworkIndex(this, RoadNetworkIndex.IndexType.STR_TREE);
+		return spatialIndex;
+	}
+	
+	/**
+	 * Build the spatial index of the given type, which replaces the current one. The grid index is preferred if the map is modified
+	 * between the queries, see <tt>RoadNetworkIndex.IndexType</tt>.
+	 *
+	 * @param indexType The type of the spatial index.
+	 * @return The spatial index of the map.
+	 */
+	public RoadNetworkIndex buildSpatialIndex(RoadNetworkIndex.IndexType indexType) {
+		spatialIndex = new RoadNetworkIndex(this, indexType);
+		return spatialIndex;
 	}
 	
 	/**
@@ -360,6 +397,8 @@ public class RoadNetworkGraph implements Serializable {
 					way.getFromNode().removeOutGoingWayFromList(way);
 					way.getToNode().removeInComingWayFromList(way);
 				}
+				if (spatialIndex != null)
+					spatialIndex.removeWay(way);
 			} else
 				LOG.error("The road to be removed is not in the map: " + way.getId());
 			removedWayList.add(way);
@@ -375,6 +414,8 @@ public class RoadNetworkGraph implements Serializable {
 				LOG.debug("Removed node ID: " + n.getId());
 				iterator.remove();
 				this.id2NodeMap.remove(n.getId());
+				if (spatialIndex != null)
+					spatialIndex.removeNode(n);
 			}
 		}
 		return nodeSize - this.nodeList.size();
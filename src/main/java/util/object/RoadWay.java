@@ -86,6 +86,26 @@ public class RoadWay extends RoadNetworkPrimitive {
 		}
 	}
 	
+	/**
+	 * Creates a new road way from the given nodes with the length and the virtual center computed already, e.g. read from a map
+	 * snapshot, so they are not computed again.
+	 *
+	 * @param wayId         The road way identifier.
+	 * @param nodeList      A sorted list of way nodes.
+	 * @param length        The total length of the road way.
+	 * @param virtualCenter The virtual center of the road way.
+	 * @param df            The distance function.
+	 */
+	public RoadWay(String wayId, List<RoadNode> nodeList, double length, Point virtualCenter, DistanceFunction df) {
+		super(wayId, df);
+		if (nodeList.size() < 2) {
+			throw new IllegalArgumentException("Road way " + wayId + " contains less than two nodes.");
+		}
+		this.nodeList = nodeList;
+		this.length = length;
+		this.virtualCenter = virtualCenter;
+	}
+	
 	/**
 	 * Parse the given string into a road way instance
 	 *
@@ -0,0 +1,152 @@
+package util.object;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A dense matrix of the distances between every ordered pair of Bluetooth stations. The stations are assigned compact ordinals by
+ * their position in the station list. Once the matrix is registered on its stations by <tt>register()</tt>,
+ * <tt>BTStation.distanceTo()</tt> becomes an array lookup. The distance from station a to station b is the one given by the distance function of a, which is computed for both
+ * directions to keep the results identical to the direct calculation.
+ * <p>
+ * The matrix is built lazily on the first query. It can be saved next to the station file by <tt>ObjectWriter</tt> and loaded by
+ * <tt>ObjectReader</tt>.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class StationDistanceMatrix {
+	
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+	
+	private final List<BTStation> stationList;
+	private final Map<String, Integer> id2Ordinal = new HashMap<>();
+	private volatile double[] distances;    // row-major, distances[from * size + to]
+	
+	/**
+	 * Create the matrix of the given stations, the distances are calculated on the first query. The stations are not bound to the
+	 * matrix until <tt>register()</tt> is called.
+	 *
+	 * @param stationList The stations, each station ID should appear only once.
+	 */
+	public StationDistanceMatrix(List<BTStation> stationList) {
+		this(stationList, null);
+	}
+	
+	/**
+	 * Create the matrix of the given stations with precomputed distances, used when the matrix is loaded from file.
+	 *
+	 * @param stationList The stations, each station ID should appear only once.
+	 * @param distances   The row-major distances between the stations in the list order, or null if they are not computed yet.
+	 */
+	public StationDistanceMatrix(List<BTStation> stationList, double[] distances) {
+		this.stationList = new ArrayList<>(stationList);
+		if (distances != null && distances.length != cellCount(stationList.size()))
+			throw new IllegalArgumentException("The size of the distance matrix does not match the number of stations: " +
+					distances.length + "," + stationList.size());
+		for (int i = 0; i < stationList.size(); i++) {
+			BTStation station = stationList.get(i);
+			if (id2Ordinal.put(station.getID(), i) != null)
+				throw new IllegalArgumentException("The same station appears multiple times in station list: " + station.getID());
+		}
+		this.distances = distances;
+	}
+	
+	/**
+	 * Bind every station to this matrix, so that <tt>BTStation.distanceTo()</tt> looks up the distance here. A station can only belong to
+	 * one matrix, the previous one is replaced.
+	 *
+	 * @return The current matrix.
+	 */
+	public StationDistanceMatrix register() {
+		for (int i = 0; i < stationList.size(); i++) {
+			stationList.get(i).setDistanceMatrix(this, i);
+		}
+		return this;
+	}
+	
+	/**
+	 * Find the matrix the given stations are registered in, or create and register a new one if they do not all belong to one matrix
+	 * of exactly these stations. Used by the writers so that an already filled matrix is written instead of being replaced.
+	 *
+	 * @param stationList The stations, each station ID should appear only once.
+	 * @return The matrix of the stations.
+	 */
+	public static StationDistanceMatrix registered(List<BTStation> stationList) {
+		StationDistanceMatrix matrix = stationList.isEmpty() ? null : stationList.get(0).getDistanceMatrix();
+		if (matrix != null && matrix.size() == stationList.size()) {
+			boolean isShared = true;
+			for (BTStation station : stationList) {
+				if (station.getDistanceMatrix() != matrix) {
+					isShared = false;
+					break;
+				}
+			}
+			if (isShared)
+				return matrix;
+		}
+		return new StationDistanceMatrix(stationList).register();
+	}
+	
+	/**
+	 * The number of cells of a matrix of the given number of stations.
+	 *
+	 * @param size The number of stations.
+	 * @return The number of cells, <tt>size * size</tt>.
+	 * @throws IllegalArgumentException If the matrix does not fit into one array.
+	 */
+	public static int cellCount(int size) {
+		long cellCount = (long) size * size;
+		if (size < 0 || cellCount > MAX_ARRAY_SIZE)
+			throw new IllegalArgumentException("Too many stations for the station distance matrix: " + size);
+		return (int) cellCount;
+	}
+	
+	public int size() {
+		return stationList.size();
+	}
+	
+	public BTStation getStation(int ordinal) {
+		return stationList.get(ordinal);
+	}
+	
+	/**
+	 * @param stationID The station ID.
+	 * @return The ordinal of the station, or -1 if the station is not in the matrix.
+	 */
+	public int getOrdinal(String stationID) {
+		Integer ordinal = id2Ordinal.get(stationID);
+		return ordinal == null ? -1 : ordinal;
+	}
+	
+	/**
+	 * The distance between two stations given by their ordinals.
+	 *
+	 * @param fromOrdinal The ordinal of the start station.
+	 * @param toOrdinal   The ordinal of the end station.
+	 * @return The distance calculated by the distance function of the start station.
+	 */
+	public double distance(int fromOrdinal, int toOrdinal) {
+		double[] currDistances = distances;
+		if (currDistances == null)
+			currDistances = build();
+		return currDistances[fromOrdinal * stationList.size() + toOrdinal];    // cannot overflow as the size is checked by cellCount()
+	}
+	
+	private synchronized double[] build() {
+		if (distances == null) {
+			int size = stationList.size();
+			double[] currDistances = new double[cellCount(size)];
+			for (int i = 0; i < size; i++) {
+				BTStation from = stationList.get(i);
+				for (int j = 0; j < size; j++) {
+					currDistances[i * size + j] = from.getDistFunc().distance(from.getCentre(), stationList.get(j).getCentre());
+				}
+			}
+			distances = currDistances;
+		}
+		return distances;
+	}
+}
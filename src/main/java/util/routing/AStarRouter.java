@@ -0,0 +1,69 @@
+package util.routing;
+
+import util.object.CompiledRoadGraph;
+
+/**
+ * A* search guided by the straight-line distance to the target, which is given by the distance function of the map, e.g. the
+ * <tt>GreatCircleDistanceFunction</tt>. The road way length is never shorter than the straight-line distance between its endpoints, so
+ * the heuristic is admissible. It is scaled down slightly to tolerate the rounding of the distance approximation, and reduced by the
+ * possible rounding of the <tt>float</tt> node coordinates of the graph.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class AStarRouter implements Router {
+	
+	private static final double HEURISTIC_FACTOR = 0.999;
+	private static final double COORDINATE_TOLERANCE = 3;    // in meter, each float coordinate is rounded by less than one meter
+	private final CompiledRoadGraph graph;
+	private final ThreadLocal<SearchSpace> searchSpace;
+	
+	public AStarRouter(CompiledRoadGraph graph) {
+		this.graph = graph;
+		this.searchSpace = ThreadLocal.withInitial(() -> new SearchSpace(graph.getNodeCount()));
+	}
+	
+	@Override
+	public CompiledRoadGraph getGraph() {
+		return graph;
+	}
+	
+	@Override
+	public Route route(int source, int target) {
+		if (source == target)
+			return new Route(graph, source, target, 0, new int[0]);
+		SearchSpace space = searchSpace.get();
+		space.reset();
+		space.update(source, 0, -1, heuristic(source, target));
+		while (!space.heap.isEmpty()) {
+			double key = space.heap.peekKey();
+			int node = space.heap.pop();
+			double nodeDistance = space.getDistance(node);
+			if (key > nodeDistance + heuristic(node, target))    // outdated entry
+				continue;
+			if (node == target)
+				return new Route(graph, source, target, nodeDistance, tracePath(space, target));
+			for (int i = graph.getOutEdgeStart(node); i < graph.getOutEdgeEnd(node); i++) {
+				int next = graph.getEdgeTarget(i);
+				double distance = nodeDistance + graph.getEdgeLength(i);
+				if (distance < space.getDistance(next))
+					space.update(next, distance, i, distance + heuristic(next, target));
+			}
+		}
+		return Route.notFound(graph, source, target);
+	}
+	
+	private double heuristic(int node, int target) {
+		return Math.max(graph.getStraightLineDistance(node, target) * HEURISTIC_FACTOR - COORDINATE_TOLERANCE, 0);
+	}
+	
+	private int[] tracePath(SearchSpace space, int target) {
+		int count = 0;
+		for (int node = target; space.getPredEdge(node) != -1; node = graph.getEdgeSource(space.getPredEdge(node)))
+			count++;
+		int[] edges = new int[count];
+		for (int node = target; space.getPredEdge(node) != -1; node = graph.getEdgeSource(space.getPredEdge(node)))
+			edges[--count] = space.getPredEdge(node);
+		return edges;
+	}
+}
@@ -0,0 +1,103 @@
+package util.routing;
+
+import util.object.CompiledRoadGraph;
+
+/**
+ * Bidirectional Dijkstra search. The forward search runs from the source on the outgoing edges and the backward search runs from the
+ * target on the incoming edges, the search with the smaller queue head is expanded each time. The search stops when the sum of both
+ * queue heads reaches the shortest path found so far.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class BidirectionalDijkstraRouter implements Router {
+	
+	private final CompiledRoadGraph graph;
+	private final ThreadLocal<SearchSpace[]> searchSpaces;
+	
+	public BidirectionalDijkstraRouter(CompiledRoadGraph graph) {
+		this.graph = graph;
+		this.searchSpaces = ThreadLocal.withInitial(() -> new SearchSpace[]{new SearchSpace(graph.getNodeCount()),
+				new SearchSpace(graph.getNodeCount())});
+	}
+	
+	@Override
+	public CompiledRoadGraph getGraph() {
+		return graph;
+	}
+	
+	@Override
+	public Route route(int source, int target) {
+		if (source == target)
+			return new Route(graph, source, target, 0, new int[0]);
+		SearchSpace forward = searchSpaces.get()[0];
+		SearchSpace backward = searchSpaces.get()[1];
+		forward.reset();
+		backward.reset();
+		forward.update(source, 0, -1, 0);
+		backward.update(target, 0, -1, 0);
+		double shortestDistance = Double.POSITIVE_INFINITY;
+		int meetingNode = -1;
+		while (!forward.heap.isEmpty() || !backward.heap.isEmpty()) {
+			double forwardKey = forward.heap.isEmpty() ? Double.POSITIVE_INFINITY : forward.heap.peekKey();
+			double backwardKey = backward.heap.isEmpty() ? Double.POSITIVE_INFINITY : backward.heap.peekKey();
+			if (forwardKey + backwardKey >= shortestDistance)
+				break;
+			if (forwardKey <= backwardKey) {
+				int node = forward.heap.pop();
+				if (forwardKey > forward.getDistance(node))    // outdated entry
+					continue;
+				for (int i = graph.getOutEdgeStart(node); i < graph.getOutEdgeEnd(node); i++) {
+					int next = graph.getEdgeTarget(i);
+					double distance = forwardKey + graph.getEdgeLength(i);
+					if (distance < forward.getDistance(next)) {
+						forward.update(next, distance, i, distance);
+						if (backward.isReached(next) && distance + backward.getDistance(next) < shortestDistance) {
+							shortestDistance = distance + backward.getDistance(next);
+							meetingNode = next;
+						}
+					}
+				}
+			} else {
+				int node = backward.heap.pop();
+				if (backwardKey > backward.getDistance(node))
+					continue;
+				for (int i = graph.getInEdgeStart(node); i < graph.getInEdgeEnd(node); i++) {
+					int edge = graph.getInEdge(i);
+					int prev = graph.getEdgeSource(edge);
+					double distance = backwardKey + graph.getEdgeLength(edge);
+					if (distance < backward.getDistance(prev)) {
+						backward.update(prev, distance, edge, distance);
+						if (forward.isReached(prev) && distance + forward.getDistance(prev) < shortestDistance) {
+							shortestDistance = distance + forward.getDistance(prev);
+							meetingNode = prev;
+						}
+					}
+				}
+			}
+		}
+		if (meetingNode == -1)
+			return Route.notFound(graph, source, target);
+		return new Route(graph, source, target, shortestDistance, joinPath(forward, backward, meetingNode));
+	}
+	
+	/**
+	 * Combine the forward path to the meeting node and the backward path from it.
+	 */
+	private int[] joinPath(SearchSpace forward, SearchSpace backward, int meetingNode) {
+		int forwardCount = 0;
+		for (int node = meetingNode; forward.getPredEdge(node) != -1; node = graph.getEdgeSource(forward.getPredEdge(node)))
+			forwardCount++;
+		int backwardCount = 0;
+		for (int node = meetingNode; backward.getPredEdge(node) != -1; node = graph.getEdgeTarget(backward.getPredEdge(node)))
+			backwardCount++;
+		int[] edges = new int[forwardCount + backwardCount];
+		int index = forwardCount;
+		for (int node = meetingNode; forward.getPredEdge(node) != -1; node = graph.getEdgeSource(forward.getPredEdge(node)))
+			edges[--index] = forward.getPredEdge(node);
+		index = forwardCount;
+		for (int node = meetingNode; backward.getPredEdge(node) != -1; node = graph.getEdgeTarget(backward.getPredEdge(node)))
+			edges[index++] = backward.getPredEdge(node);
+		return edges;
+	}
+}
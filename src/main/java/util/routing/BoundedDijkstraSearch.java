@@ -0,0 +1,80 @@
+package util.routing;
+
+import util.object.CompiledRoadGraph;
+
+/**
+ * One-to-many Dijkstra search limited by distance. A search settles all nodes within the distance limit from the source, after which
+ * the distances and the routes to any of them can be queried, which is cheaper than routing to each target separately when the
+ * targets are close to the source. The instance keeps the result of the last search, it is not thread-safe.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class BoundedDijkstraSearch {
+	
+	private final CompiledRoadGraph graph;
+	private final SearchSpace space;
+	private int source = -1;
+	
+	public BoundedDijkstraSearch(CompiledRoadGraph graph) {
+		this.graph = graph;
+		this.space = new SearchSpace(graph.getNodeCount());
+	}
+	
+	public CompiledRoadGraph getGraph() {
+		return graph;
+	}
+	
+	/**
+	 * Search from the source until all nodes within the distance limit are settled.
+	 *
+	 * @param source      The index of the source node.
+	 * @param maxDistance The distance limit in meter.
+	 */
+	public void search(int source, double maxDistance) {
+		this.source = source;
+		space.reset();
+		space.update(source, 0, -1, 0);
+		while (!space.heap.isEmpty()) {
+			double key = space.heap.peekKey();
+			if (key > maxDistance)
+				break;
+			int node = space.heap.pop();
+			if (key > space.getDistance(node))    // outdated entry
+				continue;
+			for (int i = graph.getOutEdgeStart(node); i < graph.getOutEdgeEnd(node); i++) {
+				int next = graph.getEdgeTarget(i);
+				double distance = key + graph.getEdgeLength(i);
+				if (distance <= maxDistance && distance < space.getDistance(next))
+					space.update(next, distance, i, distance);
+			}
+		}
+	}
+	
+	/**
+	 * @param target The index of the target node.
+	 * @return The shortest distance from the source of the last search, or <tt>Double.POSITIVE_INFINITY</tt> if the target is beyond
+	 * the distance limit.
+	 */
+	public double getDistance(int target) {
+		return space.getDistance(target);
+	}
+	
+	/**
+	 * @param target The index of the target node.
+	 * @return The shortest route from the source of the last search, which is not found if the target is beyond the distance limit.
+	 */
+	public Route getRoute(int target) {
+		if (source == -1)
+			throw new IllegalStateException("No search has been performed.");
+		if (!space.isReached(target))
+			return Route.notFound(graph, source, target);
+		int count = 0;
+		for (int node = target; space.getPredEdge(node) != -1; node = graph.getEdgeSource(space.getPredEdge(node)))
+			count++;
+		int[] edges = new int[count];
+		for (int node = target; space.getPredEdge(node) != -1; node = graph.getEdgeSource(space.getPredEdge(node)))
+			edges[--count] = space.getPredEdge(node);
+		return new Route(graph, source, target, space.getDistance(target), edges);
+	}
+}
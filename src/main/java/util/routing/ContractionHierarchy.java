@@ -0,0 +1,405 @@
+package util.routing;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.object.CompiledRoadGraph;
+
+import java.util.Arrays;
+
+/**
+ * Contraction hierarchy (CH) over a <tt>CompiledRoadGraph</tt>. The preprocessing contracts the nodes one by one from the least important,
+ * a shortcut is added between two neighbours of the contracted node if the path through it is the only shortest path, which is checked
+ * by a bounded witness search. The node importance is the edge difference plus the number of contracted neighbours, it is updated
+ * lazily when the node reaches the head of the queue.
+ * <p>
+ * A query runs two Dijkstra searches which only go upwards in the hierarchy, the forward search from the source and the backward search
+ * from the target. The shortcuts of the result are unpacked into the edges of the routing graph, so the route is the same as the other
+ * routers. The preprocessing is done once in the constructor, the hierarchy should be rebuilt if the map changes.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class ContractionHierarchy implements Router {
+	
+	private static final Logger LOG = LogManager.getLogger(ContractionHierarchy.class);
+	private static final int MAX_WITNESS_SETTLED = 500;    // the number of nodes settled by the witness search at most
+	private final CompiledRoadGraph graph;
+	private final int[] ranks;
+	// the hierarchy edges, the original edges of the routing graph come first and keep their indices, followed by the shortcuts
+	private final int[] chSources;
+	private final int[] chTargets;
+	private final double[] chWeights;
+	private final int[] chFirstChildren;    // the two edges skipped by a shortcut, -1 for the original edges
+	private final int[] chSecondChildren;
+	// edges to higher-ranked nodes, indexed by source, used by the forward search
+	private final int[] upOffsets;
+	private final int[] upEdges;
+	// edges from higher-ranked nodes, indexed by target, used by the backward search
+	private final int[] downOffsets;
+	private final int[] downEdges;
+	private final ThreadLocal<SearchSpace[]> searchSpaces;
+	
+	/**
+	 * Build the hierarchy of the routing graph.
+	 *
+	 * @param graph The routing graph.
+	 */
+	public ContractionHierarchy(CompiledRoadGraph graph) {
+		long startTime = System.currentTimeMillis();
+		this.graph = graph;
+		int nodeCount = graph.getNodeCount();
+		HierarchyBuilder builder = new HierarchyBuilder(graph);
+		builder.contractAll();
+		EdgeList edgeList = builder.edgeList;
+		this.ranks = builder.ranks;
+		this.chSources = Arrays.copyOf(edgeList.sources, edgeList.size);
+		this.chTargets = Arrays.copyOf(edgeList.targets, edgeList.size);
+		this.chWeights = Arrays.copyOf(edgeList.weights, edgeList.size);
+		this.chFirstChildren = Arrays.copyOf(edgeList.firstChildren, edgeList.size);
+		this.chSecondChildren = Arrays.copyOf(edgeList.secondChildren, edgeList.size);
+		
+		this.upOffsets = new int[nodeCount + 1];
+		this.downOffsets = new int[nodeCount + 1];
+		for (int i = 0; i < chSources.length; i++) {
+			if (ranks[chSources[i]] < ranks[chTargets[i]])
+				upOffsets[chSources[i] + 1]++;
+			else if (ranks[chSources[i]] > ranks[chTargets[i]])
+				downOffsets[chTargets[i] + 1]++;
+		}
+		for (int i = 0; i < nodeCount; i++) {
+			upOffsets[i + 1] += upOffsets[i];
+			downOffsets[i + 1] += downOffsets[i];
+		}
+		this.upEdges = new int[upOffsets[nodeCount]];
+		this.downEdges = new int[downOffsets[nodeCount]];
+		int[] upPosition = Arrays.copyOf(upOffsets, nodeCount);
+		int[] downPosition = Arrays.copyOf(downOffsets, nodeCount);
+		for (int i = 0; i < chSources.length; i++) {
+			if (ranks[chSources[i]] < ranks[chTargets[i]])
+				upEdges[upPosition[chSources[i]]++] = i;
+			else if (ranks[chSources[i]] > ranks[chTargets[i]])
+				downEdges[downPosition[chTargets[i]]++] = i;
+		}
+		this.searchSpaces = ThreadLocal.withInitial(() -> new SearchSpace[]{new SearchSpace(nodeCount), new SearchSpace(nodeCount)});
+		LOG.info("Contraction hierarchy built in " + (System.currentTimeMillis() - startTime) / 1000.0 + "s. Number of nodes: "
+				+ nodeCount + ", number of edges: " + graph.getEdgeCount() + ", number of shortcuts: "
+				+ (chSources.length - graph.getEdgeCount()) + ".");
+	}
+	
+	@Override
+	public CompiledRoadGraph getGraph() {
+		return graph;
+	}
+	
+	/**
+	 * @return The number of shortcuts added by the preprocessing.
+	 */
+	public int getShortcutCount() {
+		return chSources.length - graph.getEdgeCount();
+	}
+	
+	@Override
+	public Route route(int source, int target) {
+		if (source == target)
+			return new Route(graph, source, target, 0, new int[0]);
+		SearchSpace forward = searchSpaces.get()[0];
+		SearchSpace backward = searchSpaces.get()[1];
+		forward.reset();
+		backward.reset();
+		forward.update(source, 0, -1, 0);
+		backward.update(target, 0, -1, 0);
+		double shortestDistance = Double.POSITIVE_INFINITY;
+		int meetingNode = -1;
+		while (true) {
+			// a search stops once its queue head is no shorter than the best path, the upward paths beyond cannot improve it
+			double forwardKey = forward.heap.isEmpty() ? Double.POSITIVE_INFINITY : forward.heap.peekKey();
+			double backwardKey = backward.heap.isEmpty() ? Double.POSITIVE_INFINITY : backward.heap.peekKey();
+			boolean isForwardActive = forwardKey < shortestDistance;
+			boolean isBackwardActive = backwardKey < shortestDistance;
+			if (!isForwardActive && !isBackwardActive)
+				break;
+			boolean isForward = isForwardActive && (!isBackwardActive || forwardKey <= backwardKey);
+			SearchSpace current = isForward ? forward : backward;
+			SearchSpace opposite = isForward ? backward : forward;
+			double key = isForward ? forwardKey : backwardKey;
+			int node = current.heap.pop();
+			if (key > current.getDistance(node))    // outdated entry
+				continue;
+			if (opposite.isReached(node) && key + opposite.getDistance(node) < shortestDistance) {
+				shortestDistance = key + opposite.getDistance(node);
+				meetingNode = node;
+			}
+			int[] offsets = isForward ? upOffsets : downOffsets;
+			int[] edges = isForward ? upEdges : downEdges;
+			int[] ends = isForward ? chTargets : chSources;
+			for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+				int edge = edges[i];
+				int next = ends[edge];
+				double distance = key + chWeights[edge];
+				if (distance < current.getDistance(next))
+					current.update(next, distance, edge, distance);
+			}
+		}
+		if (meetingNode == -1)
+			return Route.notFound(graph, source, target);
+		return new Route(graph, source, target, shortestDistance, unpackPath(forward, backward, meetingNode));
+	}
+	
+	/**
+	 * Collect the hierarchy edges from the source to the meeting node and to the target, then replace the shortcuts by the original
+	 * edges.
+	 */
+	private int[] unpackPath(SearchSpace forward, SearchSpace backward, int meetingNode) {
+		IntList chEdgeList = new IntList();
+		for (int node = meetingNode; forward.getPredEdge(node) != -1; node = chSources[forward.getPredEdge(node)])
+			chEdgeList.add(forward.getPredEdge(node));
+		chEdgeList.reverse();
+		for (int node = meetingNode; backward.getPredEdge(node) != -1; node = chTargets[backward.getPredEdge(node)])
+			chEdgeList.add(backward.getPredEdge(node));
+		
+		IntList result = new IntList();
+		IntList stack = new IntList();
+		for (int i = 0; i < chEdgeList.size; i++) {
+			stack.add(chEdgeList.values[i]);
+			while (stack.size > 0) {
+				int edge = stack.values[--stack.size];
+				if (chFirstChildren[edge] == -1) {
+					result.add(edge);
+				} else {
+					stack.add(chSecondChildren[edge]);
+					stack.add(chFirstChildren[edge]);
+				}
+			}
+		}
+		return Arrays.copyOf(result.values, result.size);
+	}
+	
+	/**
+	 * Contract the nodes and collect the edges of the hierarchy.
+	 */
+	private static final class HierarchyBuilder {
+		
+		private final int nodeCount;
+		private final EdgeList edgeList = new EdgeList();
+		private final IntList[] outEdgeLists;
+		private final IntList[] inEdgeLists;
+		private final boolean[] isContracted;
+		private final int[] contractedNeighbourCounts;
+		private final int[] ranks;
+		private final SearchSpace witnessSpace;
+		private final IntList inNeighbours = new IntList();    // the in and out edges of the node being contracted, one per neighbour
+		private final IntList outNeighbours = new IntList();
+		
+		HierarchyBuilder(CompiledRoadGraph graph) {
+			this.nodeCount = graph.getNodeCount();
+			this.outEdgeLists = new IntList[nodeCount];
+			this.inEdgeLists = new IntList[nodeCount];
+			for (int i = 0; i < nodeCount; i++) {
+				outEdgeLists[i] = new IntList();
+				inEdgeLists[i] = new IntList();
+			}
+			for (int i = 0; i < graph.getEdgeCount(); i++) {
+				int edge = edgeList.add(graph.getEdgeSource(i), graph.getEdgeTarget(i), graph.getEdgeLength(i), -1, -1);
+				if (graph.getEdgeSource(i) != graph.getEdgeTarget(i)) {    // self loops are never part of a shortest path
+					outEdgeLists[graph.getEdgeSource(i)].add(edge);
+					inEdgeLists[graph.getEdgeTarget(i)].add(edge);
+				}
+			}
+			this.isContracted = new boolean[nodeCount];
+			this.contractedNeighbourCounts = new int[nodeCount];
+			this.ranks = new int[nodeCount];
+			this.witnessSpace = new SearchSpace(nodeCount);
+		}
+		
+		void contractAll() {
+			MinHeap queue = new MinHeap();
+			for (int i = 0; i < nodeCount; i++)
+				queue.push(priority(i), i);
+			int rank = 0;
+			while (!queue.isEmpty()) {
+				int node = queue.pop();
+				double priority = priority(node);
+				if (!queue.isEmpty() && priority > queue.peekKey()) {    // the importance has increased, contract it later
+					queue.push(priority, node);
+					continue;
+				}
+				contract(node, false);
+				isContracted[node] = true;
+				ranks[node] = rank++;
+				for (int i = 0; i < inNeighbours.size; i++) {
+					int neighbour = edgeList.sources[inNeighbours.values[i]];
+					contractedNeighbourCounts[neighbour]++;
+					removeContractedEdges(outEdgeLists[neighbour], edgeList.targets);
+				}
+				for (int i = 0; i < outNeighbours.size; i++) {
+					int neighbour = edgeList.targets[outNeighbours.values[i]];
+					contractedNeighbourCounts[neighbour]++;
+					removeContractedEdges(inEdgeLists[neighbour], edgeList.sources);
+				}
+			}
+		}
+		
+		/**
+		 * The edges to the contracted nodes are no longer used by the contraction, remove them to keep the remaining graph small.
+		 */
+		private void removeContractedEdges(IntList edges, int[] ends) {
+			int count = 0;
+			for (int i = 0; i < edges.size; i++) {
+				if (!isContracted[ends[edges.values[i]]])
+					edges.values[count++] = edges.values[i];
+			}
+			edges.size = count;
+		}
+		
+		private double priority(int node) {
+			int shortcuts = contract(node, true);
+			return 2 * shortcuts - inNeighbours.size - outNeighbours.size + contractedNeighbourCounts[node];
+		}
+		
+		/**
+		 * Find the shortcuts required to contract the node, which are added to the graph unless it is a simulation. The remaining
+		 * neighbours of the node are left in <tt>inNeighbours</tt> and <tt>outNeighbours</tt>.
+		 *
+		 * @return The number of shortcuts.
+		 */
+		private int contract(int node, boolean isSimulation) {
+			collectNeighbours(inEdgeLists[node], edgeList.sources, inNeighbours);
+			collectNeighbours(outEdgeLists[node], edgeList.targets, outNeighbours);
+			int shortcuts = 0;
+			for (int i = 0; i < inNeighbours.size; i++) {
+				int inEdge = inNeighbours.values[i];
+				int from = edgeList.sources[inEdge];
+				double maxDistance = -1;    // no other out-neighbour, a path of zero length is still a valid one
+				for (int j = 0; j < outNeighbours.size; j++) {
+					int to = edgeList.targets[outNeighbours.values[j]];
+					if (to != from)
+						maxDistance = Math.max(maxDistance, edgeList.weights[inEdge] + edgeList.weights[outNeighbours.values[j]]);
+				}
+				if (maxDistance < 0)
+					continue;
+				witnessSearch(from, node, maxDistance);
+				for (int j = 0; j < outNeighbours.size; j++) {
+					int outEdge = outNeighbours.values[j];
+					int to = edgeList.targets[outEdge];
+					double distance = edgeList.weights[inEdge] + edgeList.weights[outEdge];
+					if (to == from || witnessSpace.getDistance(to) <= distance)
+						continue;
+					shortcuts++;
+					if (!isSimulation) {
+						int shortcut = edgeList.add(from, to, distance, inEdge, outEdge);
+						outEdgeLists[from].add(shortcut);
+						inEdgeLists[to].add(shortcut);
+					}
+				}
+			}
+			return shortcuts;
+		}
+		
+		/**
+		 * Keep the shortest edge to each remaining neighbour.
+		 */
+		private void collectNeighbours(IntList edges, int[] ends, IntList result) {
+			result.clear();
+			for (int i = 0; i < edges.size; i++) {
+				int edge = edges.values[i];
+				int neighbour = ends[edge];
+				if (isContracted[neighbour])
+					continue;
+				boolean isFound = false;
+				for (int j = 0; j < result.size; j++) {
+					if (ends[result.values[j]] == neighbour) {
+						if (edgeList.weights[edge] < edgeList.weights[result.values[j]])
+							result.values[j] = edge;
+						isFound = true;
+						break;
+					}
+				}
+				if (!isFound)
+					result.add(edge);
+			}
+		}
+		
+		/**
+		 * Dijkstra search from the source over the remaining graph without the contracted node. The search is bounded, so a witness may
+		 * be missed, which only adds an unnecessary shortcut.
+		 */
+		private void witnessSearch(int source, int avoidedNode, double maxDistance) {
+			witnessSpace.reset();
+			witnessSpace.update(source, 0, -1, 0);
+			int settledCount = 0;
+			while (!witnessSpace.heap.isEmpty() && settledCount < MAX_WITNESS_SETTLED) {
+				double key = witnessSpace.heap.peekKey();
+				if (key > maxDistance)
+					break;
+				int node = witnessSpace.heap.pop();
+				if (key > witnessSpace.getDistance(node))
+					continue;
+				settledCount++;
+				IntList edges = outEdgeLists[node];
+				for (int i = 0; i < edges.size; i++) {
+					int edge = edges.values[i];
+					int next = edgeList.targets[edge];
+					if (next == avoidedNode || isContracted[next])
+						continue;
+					double distance = key + edgeList.weights[edge];
+					if (distance < witnessSpace.getDistance(next))
+						witnessSpace.update(next, distance, edge, distance);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Growable edge table of the hierarchy.
+	 */
+	private static final class EdgeList {
+		
+		int[] sources = new int[16];
+		int[] targets = new int[16];
+		double[] weights = new double[16];
+		int[] firstChildren = new int[16];
+		int[] secondChildren = new int[16];
+		int size;
+		
+		int add(int source, int target, double weight, int firstChild, int secondChild) {
+			if (size == sources.length) {
+				int capacity = size * 2;
+				sources = Arrays.copyOf(sources, capacity);
+				targets = Arrays.copyOf(targets, capacity);
+				weights = Arrays.copyOf(weights, capacity);
+				firstChildren = Arrays.copyOf(firstChildren, capacity);
+				secondChildren = Arrays.copyOf(secondChildren, capacity);
+			}
+			sources[size] = source;
+			targets[size] = target;
+			weights[size] = weight;
+			firstChildren[size] = firstChild;
+			secondChildren[size] = secondChild;
+			return size++;
+		}
+	}
+	
+	private static final class IntList {
+		
+		int[] values = new int[4];
+		int size;
+		
+		void add(int value) {
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+		
+		void clear() {
+			size = 0;
+		}
+		
+		void reverse() {
+			for (int i = 0, j = size - 1; i < j; i++, j--) {
+				int temp = values[i];
+				values[i] = values[j];
+				values[j] = temp;
+			}
+		}
+	}
+}
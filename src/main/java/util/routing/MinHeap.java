@@ -0,0 +1,75 @@
+package util.routing;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of primitive (key, node) pairs. A node can be pushed multiple times, the outdated entries are skipped by the search
+ * when they are popped.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+final class MinHeap {
+	
+	private double[] keys = new double[64];
+	private int[] nodes = new int[64];
+	private int size = 0;
+	
+	boolean isEmpty() {
+		return size == 0;
+	}
+	
+	void clear() {
+		size = 0;
+	}
+	
+	double peekKey() {
+		return keys[0];
+	}
+	
+	void push(double key, int node) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			nodes = Arrays.copyOf(nodes, size * 2);
+		}
+		int i = size++;
+		while (i > 0) {    // sift up
+			int parent = (i - 1) >>> 1;
+			if (keys[parent] <= key)
+				break;
+			keys[i] = keys[parent];
+			nodes[i] = nodes[parent];
+			i = parent;
+		}
+		keys[i] = key;
+		nodes[i] = node;
+	}
+	
+	/**
+	 * Remove the entry with the smallest key.
+	 *
+	 * @return The node of the removed entry.
+	 */
+	int pop() {
+		int result = nodes[0];
+		size--;
+		double key = keys[size];
+		int node = nodes[size];
+		int i = 0;
+		while (true) {    // sift down
+			int child = 2 * i + 1;
+			if (child >= size)
+				break;
+			if (child + 1 < size && keys[child + 1] < keys[child])
+				child++;
+			if (keys[child] >= key)
+				break;
+			keys[i] = keys[child];
+			nodes[i] = nodes[child];
+			i = child;
+		}
+		keys[i] = key;
+		nodes[i] = node;
+		return result;
+	}
+}
@@ -0,0 +1,92 @@
+package util.routing;
+
+import util.object.CompiledRoadGraph;
+import util.object.RoadNode;
+import util.object.RoadWay;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The shortest path between two nodes of a <tt>CompiledRoadGraph</tt>, represented by the sequence of edges it passes.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class Route {
+	
+	private final CompiledRoadGraph graph;
+	private final int source;
+	private final int target;
+	private final double distance;
+	private final int[] edges;
+	
+	Route(CompiledRoadGraph graph, int source, int target, double distance, int[] edges) {
+		this.graph = graph;
+		this.source = source;
+		this.target = target;
+		this.distance = distance;
+		this.edges = edges;
+	}
+	
+	static Route notFound(CompiledRoadGraph graph, int source, int target) {
+		return new Route(graph, source, target, Double.POSITIVE_INFINITY, new int[0]);
+	}
+	
+	/**
+	 * @return False if the target is unreachable from the source.
+	 */
+	public boolean isFound() {
+		return distance != Double.POSITIVE_INFINITY;
+	}
+	
+	public int getSource() {
+		return source;
+	}
+	
+	public int getTarget() {
+		return target;
+	}
+	
+	/**
+	 * @return The length of the route in meter, or <tt>Double.POSITIVE_INFINITY</tt> if no route is found.
+	 */
+	public double getDistance() {
+		return distance;
+	}
+	
+	/**
+	 * @return The edge indices of the route in the routing graph.
+	 */
+	public int[] getEdges() {
+		return edges.clone();
+	}
+	
+	public List<RoadWay> getWayList() {
+		List<RoadWay> wayList = new ArrayList<>(edges.length);
+		for (int edge : edges)
+			wayList.add(graph.getEdgeWay(edge));
+		return wayList;
+	}
+	
+	/**
+	 * @return The intersections passed by the route, including the source and the target. Empty if no route is found.
+	 */
+	public List<RoadNode> getNodeList() {
+		List<RoadNode> nodeList = new ArrayList<>(edges.length + 1);
+		if (!isFound())
+			return nodeList;
+		nodeList.add(graph.getNode(source));
+		for (int edge : edges)
+			nodeList.add(graph.getNode(graph.getEdgeTarget(edge)));
+		return nodeList;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder info = new StringBuilder(graph.getNodeID(source) + "," + graph.getNodeID(target) + "," + distance + "|");
+		for (int edge : edges)
+			info.append(graph.getEdgeWayID(edge)).append(" ");
+		return info.toString().trim();
+	}
+}
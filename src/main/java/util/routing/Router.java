@@ -0,0 +1,38 @@
+package util.routing;
+
+import util.object.CompiledRoadGraph;
+
+/**
+ * Shortest path query on a <tt>CompiledRoadGraph</tt>. The implementations are thread-safe, each thread keeps its own search space.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public interface Router {
+	
+	CompiledRoadGraph getGraph();
+	
+	/**
+	 * Find the shortest path between two nodes.
+	 *
+	 * @param source The index of the source node.
+	 * @param target The index of the target node.
+	 * @return The shortest route, which is not found if the target is unreachable.
+	 */
+	Route route(int source, int target);
+	
+	/**
+	 * Find the shortest path between two intersections given by their IDs.
+	 *
+	 * @param sourceID The ID of the source node.
+	 * @param targetID The ID of the target node.
+	 * @return The shortest route, which is not found if the target is unreachable.
+	 */
+	default Route route(String sourceID, String targetID) {
+		int source = getGraph().getNodeOrdinal(sourceID);
+		int target = getGraph().getNodeOrdinal(targetID);
+		if (source == -1 || target == -1)
+			throw new IllegalArgumentException("The route endpoints are not intersections of the routing graph: " + sourceID + "," + targetID);
+		return route(source, target);
+	}
+}
@@ -0,0 +1,62 @@
+package util.routing;
+
+import java.util.Arrays;
+
+/**
+ * The state of one shortest path search: tentative distances, predecessor edges and the queue. The arrays are reused among queries and
+ * invalidated by increasing the stamp, so a query only touches the nodes it visits.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+final class SearchSpace {
+	
+	final MinHeap heap = new MinHeap();
+	private final double[] distances;
+	private final int[] predEdges;
+	private final int[] stamps;
+	private int currStamp = 0;
+	
+	SearchSpace(int nodeCount) {
+		this.distances = new double[nodeCount];
+		this.predEdges = new int[nodeCount];
+		this.stamps = new int[nodeCount];
+	}
+	
+	/**
+	 * Start a new search.
+	 */
+	void reset() {
+		if (currStamp == Integer.MAX_VALUE) {
+			Arrays.fill(stamps, 0);
+			currStamp = 0;
+		}
+		currStamp++;
+		heap.clear();
+	}
+	
+	boolean isReached(int node) {
+		return stamps[node] == currStamp;
+	}
+	
+	/**
+	 * @return The tentative distance of the node, or <tt>Double.POSITIVE_INFINITY</tt> if the node is not reached yet.
+	 */
+	double getDistance(int node) {
+		return stamps[node] == currStamp ? distances[node] : Double.POSITIVE_INFINITY;
+	}
+	
+	int getPredEdge(int node) {
+		return predEdges[node];
+	}
+	
+	/**
+	 * Set a shorter tentative distance and push the node into the queue with the given key.
+	 */
+	void update(int node, double distance, int predEdge, double key) {
+		stamps[node] = currStamp;
+		distances[node] = distance;
+		predEdges[node] = predEdge;
+		heap.push(key, node);
+	}
+}
@@ -0,0 +1,335 @@
+package util.routing;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.function.ParallelRunner;
+import util.object.BTObservation;
+import util.object.BTStation;
+import util.object.CompiledRoadGraph;
+import util.object.OBSequence;
+import util.object.StationDistanceMatrix;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Bounded cache of the shortest routes between Bluetooth stations, keyed by the ordered pair of station ordinals in a
+ * <tt>StationDistanceMatrix</tt>. A station is routed from its closest covering intersection
+ * (<tt>BTStation.getCoveringNodeIDList()</tt>), or from the closest intersection of the graph if it covers none.
+ * <p>
+ * The cache is split into segments to reduce lock contention, each segment evicts its least recently used routes once it is full. A
+ * missing route is computed outside the lock, so two threads may compute the same route at the same time, which only wastes one
+ * query. The cache can be filled with all station pairs in advance and saved to disk, the saved routes are only valid for the same
+ * routing graph and station list.
+ *
+ * @author Hellisk
+ * @since 16/10/2019
+ */
+public class StationPathCache {
+	
+	private static final Logger LOG = LogManager.getLogger(StationPathCache.class);
+	public static final String STATION_PATH_FILE = "station_path.bin";
+	private static final int SEGMENT_COUNT = 16;
+	private final Router router;
+	private final StationDistanceMatrix stationMatrix;
+	private final int[] stationNodes;    // the routing node of each station ordinal
+	private final int maxSize;
+	private final CacheSegment[] segments = new CacheSegment[SEGMENT_COUNT];
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+	
+	/**
+	 * @param router        The router used for the missing routes.
+	 * @param stationMatrix The stations, whose ordinals are the cache keys.
+	 * @param maxSize       The maximum number of cached routes.
+	 */
+	public StationPathCache(Router router, StationDistanceMatrix stationMatrix, int maxSize) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("The cache size should be at least one: " + maxSize);
+		this.router = router;
+		this.stationMatrix = stationMatrix;
+		this.maxSize = maxSize;
+		for (int i = 0; i < SEGMENT_COUNT; i++)    // the remainder goes to the first segments, which also get the extra pairs
+			segments[i] = new CacheSegment(maxSize / SEGMENT_COUNT + (i < maxSize % SEGMENT_COUNT ? 1 : 0));
+		this.stationNodes = new int[stationMatrix.size()];
+		for (int i = 0; i < stationNodes.length; i++)
+			stationNodes[i] = findStationNode(stationMatrix.getStation(i));
+	}
+	
+	private int findStationNode(BTStation station) {
+		CompiledRoadGraph graph = router.getGraph();
+		for (String nodeID : station.getCoveringNodeIDList()) {
+			int node = graph.getNodeOrdinal(nodeID);
+			if (node != -1)
+				return node;
+		}
+		int closestNode = -1;
+		double closestDistance = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < graph.getNodeCount(); i++) {
+			double distance = graph.getDistanceFunction().pointToPointDistance(station.getCentre().x(), station.getCentre().y(),
+					graph.getNodeLon(i), graph.getNodeLat(i));
+			if (distance < closestDistance) {
+				closestDistance = distance;
+				closestNode = i;
+			}
+		}
+		return closestNode;
+	}
+	
+	/**
+	 * @param fromOrdinal The ordinal of the start station.
+	 * @param toOrdinal   The ordinal of the end station.
+	 * @return The shortest route between the stations, which is not found if the end station is unreachable.
+	 */
+	public Route getRoute(int fromOrdinal, int toOrdinal) {
+		if (fromOrdinal < 0 || fromOrdinal >= stationNodes.length || toOrdinal < 0 || toOrdinal >= stationNodes.length)
+			throw new IndexOutOfBoundsException("The station ordinals are out of the station matrix: " + fromOrdinal + "," + toOrdinal);
+		long key = toKey(fromOrdinal, toOrdinal);
+		CacheSegment segment = segmentOf(key);
+		Route route = segment.get(key);
+		if (route != null) {
+			hitCount.increment();
+			return route;
+		}
+		missCount.increment();
+		route = computeRoute(fromOrdinal, toOrdinal);
+		segment.put(key, route);
+		return route;
+	}
+	
+	/**
+	 * @param from The start station.
+	 * @param to   The end station.
+	 * @return The shortest route between the stations, which is not found if the end station is unreachable.
+	 */
+	public Route getRoute(BTStation from, BTStation to) {
+		return getRoute(toOrdinal(from), toOrdinal(to));
+	}
+	
+	/**
+	 * Expand the sequence into the routes between its consecutive observations, the observations at the same station are skipped.
+	 *
+	 * @param sequence The observation sequence.
+	 * @return The routes in time order.
+	 */
+	public List<Route> getRouteList(OBSequence sequence) {
+		List<Route> routeList = new ArrayList<>();
+		int prevOrdinal = -1;
+		for (BTObservation observation : sequence.getObservationList()) {
+			int ordinal = toOrdinal(observation.getStation());
+			if (prevOrdinal != -1 && prevOrdinal != ordinal)
+				routeList.add(getRoute(prevOrdinal, ordinal));
+			prevOrdinal = ordinal;
+		}
+		return routeList;
+	}
+	
+	private int toOrdinal(BTStation station) {
+		int ordinal = stationMatrix.getOrdinal(station.getID());
+		if (ordinal == -1)
+			throw new IllegalArgumentException("The station is not in the station matrix: " + station.getID());
+		return ordinal;
+	}
+	
+	private Route computeRoute(int fromOrdinal, int toOrdinal) {
+		int source = stationNodes[fromOrdinal];
+		int target = stationNodes[toOrdinal];
+		if (source == -1 || target == -1)    // empty graph
+			return Route.notFound(router.getGraph(), Math.max(source, 0), Math.max(target, 0));
+		return router.route(source, target);
+	}
+	
+	/**
+	 * Compute the routes of all ordered station pairs. The cache should be able to hold all of them.
+	 *
+	 * @param parallelism The number of threads used for the computation.
+	 */
+	public void precomputeAll(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("The parallelism should be at least one: " + parallelism);
+		int stationCount = stationNodes.length;
+		if ((long) stationCount * stationCount > maxSize)
+			throw new IllegalArgumentException("The cache cannot hold the routes of all station pairs: " + maxSize + "<"
+					+ (long) stationCount * stationCount);
+		long startTime = System.currentTimeMillis();
+		ParallelRunner.run(parallelism, () -> IntStream.range(0, stationCount).parallel().forEach(i -> {
+			for (int j = 0; j < stationCount; j++) {
+				long key = toKey(i, j);
+				CacheSegment segment = segmentOf(key);
+				if (segment.get(key) == null)
+					segment.put(key, computeRoute(i, j));
+			}
+		}), "Station route computation");
+		LOG.info("Routes between " + stationCount + " stations precomputed in " + (System.currentTimeMillis() - startTime) / 1000.0
+				+ "s. Number of evicted routes: " + evictionCount.sum() + ".");
+	}
+	
+	/**
+	 * Write the cached routes to the output folder. The file starts with the node and edge counts and the digest of the routing graph
+	 * and the station IDs, which are checked when the file is loaded, followed by the routes.
+	 *
+	 * @param outputFolder The output folder.
+	 */
+	public void write(String outputFolder) {
+		File folder = new File(outputFolder);
+		if (!folder.exists() && !folder.mkdirs())
+			throw new UncheckedIOException(new IOException("Failed to create folder " + folder.getAbsolutePath()));
+		File file = new File(folder, STATION_PATH_FILE);
+		try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			outputStream.writeInt(router.getGraph().getNodeCount());
+			outputStream.writeInt(router.getGraph().getEdgeCount());
+			outputStream.writeLong(router.getGraph().getDigest());
+			outputStream.writeInt(stationMatrix.size());
+			for (int i = 0; i < stationMatrix.size(); i++)
+				outputStream.writeUTF(stationMatrix.getStation(i).getID());
+			List<Map.Entry<Long, Route>> entryList = new ArrayList<>();
+			for (CacheSegment segment : segments)
+				entryList.addAll(segment.snapshot());
+			outputStream.writeInt(entryList.size());
+			for (Map.Entry<Long, Route> entry : entryList) {
+				Route route = entry.getValue();
+				outputStream.writeLong(entry.getKey());
+				outputStream.writeDouble(route.getDistance());
+				int[] edges = route.getEdges();
+				outputStream.writeInt(edges.length);
+				for (int edge : edges)
+					outputStream.writeInt(edge);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write station path file " + file.getAbsolutePath(), e);
+		}
+	}
+	
+	/**
+	 * Load the routes saved by <tt>write()</tt> into the cache.
+	 *
+	 * @param inputFolder The folder of the station path file.
+	 * @return False if the file does not exist.
+	 */
+	public boolean load(String inputFolder) {
+		File file = new File(inputFolder, STATION_PATH_FILE);
+		if (!file.exists())
+			return false;
+		CompiledRoadGraph graph = router.getGraph();
+		try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			int nodeCount = inputStream.readInt();
+			int edgeCount = inputStream.readInt();
+			if (nodeCount != graph.getNodeCount() || edgeCount != graph.getEdgeCount() || inputStream.readLong() != graph.getDigest())
+				throw new IllegalArgumentException("The station path file is built on a different routing graph: " + file.getAbsolutePath());
+			int stationCount = inputStream.readInt();
+			if (stationCount != stationMatrix.size())
+				throw new IllegalArgumentException("The station path file is built on a different station list: " + file.getAbsolutePath());
+			for (int i = 0; i < stationCount; i++) {
+				if (!inputStream.readUTF().equals(stationMatrix.getStation(i).getID()))
+					throw new IllegalArgumentException("The station path file is built on a different station list: " + file.getAbsolutePath());
+			}
+			int entryCount = inputStream.readInt();
+			for (int i = 0; i < entryCount; i++) {
+				long key = inputStream.readLong();
+				double distance = inputStream.readDouble();
+				int[] edges = new int[inputStream.readInt()];
+				for (int j = 0; j < edges.length; j++)
+					edges[j] = inputStream.readInt();
+				int source = stationNodes[(int) (key >>> 32)];
+				int target = stationNodes[(int) key];
+				segmentOf(key).put(key, new Route(graph, Math.max(source, 0), Math.max(target, 0), distance, edges));
+			}
+			LOG.info(entryCount + " station routes loaded from " + file.getAbsolutePath() + ".");
+			return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to read station path file " + file.getAbsolutePath(), e);
+		}
+	}
+	
+	public void clear() {
+		for (CacheSegment segment : segments)
+			segment.clear();
+	}
+	
+	/**
+	 * @return The number of cached routes.
+	 */
+	public int size() {
+		int size = 0;
+		for (CacheSegment segment : segments)
+			size += segment.size();
+		return size;
+	}
+	
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+	
+	public long getMissCount() {
+		return missCount.sum();
+	}
+	
+	public long getEvictionCount() {
+		return evictionCount.sum();
+	}
+	
+	/**
+	 * @return The ratio of the lookups answered by the cache, 0 if there is no lookup.
+	 */
+	public double getHitRate() {
+		long hits = hitCount.sum();
+		long total = hits + missCount.sum();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+	
+	private static long toKey(int fromOrdinal, int toOrdinal) {
+		return ((long) fromOrdinal << 32) | toOrdinal;
+	}
+	
+	/**
+	 * The pairs are assigned to the segments in turn by their row-major index, so all pairs are spread evenly.
+	 */
+	private CacheSegment segmentOf(long key) {
+		long pairIndex = (key >>> 32) * stationNodes.length + (int) key;
+		return segments[(int) (pairIndex % SEGMENT_COUNT)];
+	}
+	
+	/**
+	 * One LRU segment of the cache, guarded by its own lock.
+	 */
+	private final class CacheSegment {
+		
+		private final LinkedHashMap<Long, Route> key2Route;
+		
+		CacheSegment(int capacity) {
+			this.key2Route = new LinkedHashMap<Long, Route>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Long, Route> eldest) {
+					if (size() > capacity) {
+						evictionCount.increment();
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+		
+		synchronized Route get(long key) {
+			return key2Route.get(key);
+		}
+		
+		synchronized void put(long key, Route route) {
+			key2Route.put(key, route);
+		}
+		
+		synchronized int size() {
+			return key2Route.size();
+		}
+		
+		synchronized void clear() {
+			key2Route.clear();
+		}
+		
+		synchronized List<Map.Entry<Long, Route>> snapshot() {
+			return new ArrayList<>(key2Route.entrySet());
+		}
+	}
+}